@@ -0,0 +1,291 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.crypto.BCCryptoHelper;
+import com.helger.as2lib.crypto.ICryptoHelper;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.processor.module.AbstractActiveModule;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.CGlobal;
+import com.helger.commons.annotation.OverrideOnDemand;
+
+/**
+ * An active module that periodically checks all known certificates for
+ * upcoming expiry. Checked are the certificates of the session's certificate
+ * factory (if it is an {@link IAliasedCertificateFactory}) and the
+ * certificates cached by the {@link BCCryptoHelper} (e.g. certificates
+ * contained in received messages). For each certificate that expires within
+ * the configured number of days a warning is logged, and the results of the
+ * last scan are available as counters.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public class CertificateExpiryModule extends AbstractActiveModule
+{
+  /** The number of days before expiry from which on a warning is issued */
+  public static final String ATTR_WARN_DAYS = "warndays";
+  /** The interval in seconds in which the certificates are checked */
+  public static final String ATTR_INTERVAL_SECONDS = "interval";
+
+  /** The default number of days before expiry to warn */
+  public static final int DEFAULT_WARN_DAYS = 30;
+  /** The default check interval in milliseconds (1 hour) */
+  public static final long DEFAULT_INTERVAL_MS = CGlobal.MILLISECONDS_PER_HOUR;
+
+  private static final long MILLISECONDS_PER_DAY = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (CertificateExpiryModule.class);
+
+  private class ScanTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      try
+      {
+        scan (System.currentTimeMillis ());
+      }
+      catch (final RuntimeException ex)
+      {
+        // An uncaught exception would cancel the timer
+        s_aLogger.error ("Failed to check the certificates for expiry", ex);
+      }
+    }
+  }
+
+  private int m_nWarnDays = DEFAULT_WARN_DAYS;
+  private long m_nIntervalMS = DEFAULT_INTERVAL_MS;
+  private Timer m_aTimer;
+  private volatile int m_nExpiringCount;
+  private volatile int m_nExpiredCount;
+  private final AtomicLong m_aScanCount = new AtomicLong ();
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    if (containsAttribute (ATTR_WARN_DAYS))
+    {
+      m_nWarnDays = getAttributeAsIntRequired (ATTR_WARN_DAYS);
+      if (m_nWarnDays < 0)
+        throw new InvalidParameterException ("Value must be >= 0", this, ATTR_WARN_DAYS, null);
+    }
+    if (containsAttribute (ATTR_INTERVAL_SECONDS))
+    {
+      m_nIntervalMS = getAttributeAsLong (ATTR_INTERVAL_SECONDS) * CGlobal.MILLISECONDS_PER_SECOND;
+      if (m_nIntervalMS < 1)
+        throw new InvalidParameterException ("Value must be > 0", this, ATTR_INTERVAL_SECONDS, null);
+    }
+  }
+
+  /**
+   * @return The number of days before expiry from which on a certificate is
+   *         reported.
+   */
+  @Nonnegative
+  public int getWarnDays ()
+  {
+    return m_nWarnDays;
+  }
+
+  /**
+   * @return The number of certificates that expire within the warning period
+   *         according to the last scan.
+   */
+  @Nonnegative
+  public int getExpiringCount ()
+  {
+    return m_nExpiringCount;
+  }
+
+  /**
+   * @return The number of expired certificates according to the last scan.
+   */
+  @Nonnegative
+  public int getExpiredCount ()
+  {
+    return m_nExpiredCount;
+  }
+
+  /**
+   * @return The number of scans performed so far.
+   */
+  @Nonnegative
+  public long getScanCount ()
+  {
+    return m_aScanCount.get ();
+  }
+
+  /**
+   * @return All certificates to check, mapped from a display name. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected Map <String, X509Certificate> getAllCertificatesToCheck ()
+  {
+    final Map <String, X509Certificate> ret = new LinkedHashMap <String, X509Certificate> ();
+    try
+    {
+      final ICertificateFactory aCertFactory = getSession ().getCertificateFactory ();
+      if (aCertFactory instanceof IAliasedCertificateFactory)
+        for (final Map.Entry <String, Certificate> aEntry : ((IAliasedCertificateFactory) aCertFactory).getCertificates ()
+                                                                                                       .entrySet ())
+          if (aEntry.getValue () instanceof X509Certificate)
+            ret.put ("alias '" + aEntry.getKey () + "'", (X509Certificate) aEntry.getValue ());
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      s_aLogger.warn ("Failed to read certificates from certificate factory", ex);
+    }
+
+    final ICryptoHelper aCryptoHelper = AS2Helper.getCryptoHelper ();
+    if (aCryptoHelper instanceof BCCryptoHelper)
+    {
+      final Set <X509Certificate> aKnown = new HashSet <X509Certificate> (ret.values ());
+      for (final X509Certificate aCert : ((BCCryptoHelper) aCryptoHelper).getCertificateCache ().getAllCertificates ())
+        if (aKnown.add (aCert))
+          ret.put ("'" + aCert.getSubjectX500Principal ().getName () + "'", aCert);
+    }
+    return ret;
+  }
+
+  /**
+   * Check all certificates for expiry.
+   *
+   * @param nNowMS
+   *        The current time in milliseconds.
+   */
+  public void scan (final long nNowMS)
+  {
+    final long nWarnUntilMS = nNowMS + m_nWarnDays * MILLISECONDS_PER_DAY;
+    int nExpiring = 0;
+    int nExpired = 0;
+    for (final Map.Entry <String, X509Certificate> aEntry : getAllCertificatesToCheck ().entrySet ())
+    {
+      final long nNotAfterMS = aEntry.getValue ().getNotAfter ().getTime ();
+      if (nNotAfterMS < nNowMS)
+      {
+        nExpired++;
+        onCertificateExpiring (aEntry.getKey (), aEntry.getValue (), -1);
+      }
+      else
+        if (nNotAfterMS < nWarnUntilMS)
+        {
+          nExpiring++;
+          onCertificateExpiring (aEntry.getKey (),
+                                 aEntry.getValue (),
+                                 (nNotAfterMS - nNowMS) / MILLISECONDS_PER_DAY);
+        }
+    }
+    m_nExpiringCount = nExpiring;
+    m_nExpiredCount = nExpired;
+    m_aScanCount.incrementAndGet ();
+  }
+
+  /**
+   * Called for every certificate that is expired or expires within the
+   * warning period.
+   *
+   * @param sName
+   *        The display name of the certificate. Never <code>null</code>.
+   * @param aCert
+   *        The certificate. Never <code>null</code>.
+   * @param nDaysLeft
+   *        The number of full days until expiry or -1 if the certificate is
+   *        already expired.
+   */
+  @OverrideOnDemand
+  protected void onCertificateExpiring (@Nonnull final String sName,
+                                        @Nonnull final X509Certificate aCert,
+                                        final long nDaysLeft)
+  {
+    if (nDaysLeft < 0)
+      s_aLogger.error ("Certificate " + sName + " expired on " + aCert.getNotAfter ());
+    else
+      s_aLogger.warn ("Certificate " +
+                      sName +
+                      " expires in " +
+                      nDaysLeft +
+                      " day(s) on " +
+                      aCert.getNotAfter ());
+  }
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void doStart () throws OpenAS2Exception
+  {
+    if (m_aTimer != null)
+      throw new IllegalStateException ("Certificate expiry timer is already running!");
+
+    m_aTimer = new Timer ("CertificateExpiry", true);
+    m_aTimer.scheduleAtFixedRate (new ScanTask (), 0, m_nIntervalMS);
+  }
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void doStop () throws OpenAS2Exception
+  {
+    if (m_aTimer != null)
+    {
+      m_aTimer.cancel ();
+      m_aTimer = null;
+    }
+  }
+}
@@ -0,0 +1,508 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.as2lib.util.StringMap;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A certificate factory that aggregates several PKCS12 key stores behind a
+ * single alias namespace. Each key store is handled by its own
+ * {@link PKCS12CertificateFactory}, so changes are only written to the key
+ * store that owns the alias.<br>
+ * The key stores are configured with attributes of the form
+ * <code>store.<i>name</i>.filename</code>,
+ * <code>store.<i>name</i>.password</code> and optionally
+ * <code>store.<i>name</i>.autosave</code> and
+ * <code>store.<i>name</i>.aliases</code>. If the comma separated aliases of a
+ * key store are configured, the key store is only loaded when one of them is
+ * first used. Otherwise the key store is loaded upon initialization to build
+ * the alias index. New aliases are added to the key store named by
+ * {@link #ATTR_DEFAULT_STORE} or to the first key store (by name).
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class MultiPKCS12CertificateFactory extends AbstractCertificateFactory implements IAliasedCertificateFactory
+{
+  /** The prefix of all key store attributes */
+  public static final String ATTR_STORE_PREFIX = "store.";
+  public static final String STORE_ATTR_FILENAME = PKCS12CertificateFactory.ATTR_FILENAME;
+  public static final String STORE_ATTR_PASSWORD = PKCS12CertificateFactory.ATTR_PASSWORD;
+  public static final String STORE_ATTR_SAVE_CHANGES_TO_FILE = PKCS12CertificateFactory.ATTR_SAVE_CHANGES_TO_FILE;
+  /** The optional comma separated list of aliases of a key store */
+  public static final String STORE_ATTR_ALIASES = "aliases";
+  /** The name of the key store that receives new aliases */
+  public static final String ATTR_DEFAULT_STORE = "defaultstore";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (MultiPKCS12CertificateFactory.class);
+
+  /**
+   * A single lazily loaded key store.
+   */
+  @ThreadSafe
+  private final class Store
+  {
+    private final String m_sName;
+    private final StringMap m_aOptions;
+    @GuardedBy ("this")
+    private PKCS12CertificateFactory m_aFactory;
+
+    Store (@Nonnull @Nonempty final String sName, @Nonnull final StringMap aOptions)
+    {
+      m_sName = sName;
+      m_aOptions = aOptions;
+    }
+
+    public boolean isLoaded ()
+    {
+      synchronized (this)
+      {
+        return m_aFactory != null;
+      }
+    }
+
+    @Nonnull
+    public PKCS12CertificateFactory getFactory () throws OpenAS2Exception
+    {
+      synchronized (this)
+      {
+        if (m_aFactory == null)
+        {
+          final PKCS12CertificateFactory aFactory = new PKCS12CertificateFactory ();
+          aFactory.initDynamicComponent (getSession (), m_aOptions);
+          s_aLogger.info ("Loaded key store '" +
+                          m_sName +
+                          "' from '" +
+                          aFactory.getFilename () +
+                          "' with " +
+                          _size (aFactory) +
+                          " entries");
+          m_aFactory = aFactory;
+        }
+        return m_aFactory;
+      }
+    }
+
+    public boolean containsAlias (@Nonnull final String sAlias) throws OpenAS2Exception
+    {
+      try
+      {
+        return getFactory ().getKeyStore ().containsAlias (sAlias);
+      }
+      catch (final KeyStoreException ex)
+      {
+        return false;
+      }
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Name", m_sName).append ("Loaded", isLoaded ()).toString ();
+    }
+  }
+
+  // Sorted by name
+  private final Map <String, Store> m_aStores = new LinkedHashMap <String, Store> ();
+  private Store m_aDefaultStore;
+  private final Map <String, Store> m_aAliasIndex = new ConcurrentHashMap <String, Store> ();
+  private final Map <X509Certificate, Store> m_aCertIndex = new ConcurrentHashMap <X509Certificate, Store> ();
+
+  public MultiPKCS12CertificateFactory ()
+  {}
+
+  private static int _size (@Nonnull final PKCS12CertificateFactory aFactory)
+  {
+    try
+    {
+      return aFactory.getKeyStore ().size ();
+    }
+    catch (final KeyStoreException ex)
+    {
+      return 0;
+    }
+  }
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aOptions) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aOptions);
+
+    m_aStores.clear ();
+    m_aAliasIndex.clear ();
+    m_aCertIndex.clear ();
+
+    // Collect the store names
+    final TreeSet <String> aStoreNames = new TreeSet <String> ();
+    for (final String sName : getAllAttributeNames ())
+      if (sName.startsWith (ATTR_STORE_PREFIX))
+      {
+        final int nDot = sName.indexOf ('.', ATTR_STORE_PREFIX.length ());
+        if (nDot > ATTR_STORE_PREFIX.length ())
+          aStoreNames.add (sName.substring (ATTR_STORE_PREFIX.length (), nDot));
+      }
+    if (aStoreNames.isEmpty ())
+      throw new InvalidParameterException ("No key store configured", this, ATTR_STORE_PREFIX + "*", null);
+
+    for (final String sStoreName : aStoreNames)
+    {
+      final String sPrefix = ATTR_STORE_PREFIX + sStoreName + '.';
+      final StringMap aStoreOptions = new StringMap ();
+      aStoreOptions.setAttribute (STORE_ATTR_FILENAME, getAttributeAsStringRequired (sPrefix + STORE_ATTR_FILENAME));
+      aStoreOptions.setAttribute (STORE_ATTR_PASSWORD, getAttributeAsStringRequired (sPrefix + STORE_ATTR_PASSWORD));
+      aStoreOptions.setAttribute (STORE_ATTR_SAVE_CHANGES_TO_FILE,
+                                  getAttributeAsBoolean (sPrefix + STORE_ATTR_SAVE_CHANGES_TO_FILE,
+                                                         IStorableCertificateFactory.DEFAULT_SAVE_CHANGES_TO_FILE));
+      final Store aStore = new Store (sStoreName, aStoreOptions);
+      m_aStores.put (sStoreName, aStore);
+
+      // Build the alias index
+      final String sAliases = getAttributeAsString (sPrefix + STORE_ATTR_ALIASES);
+      if (StringHelper.hasText (sAliases))
+      {
+        for (final String sAlias : StringHelper.getExploded (',', sAliases))
+          _index (sAlias.trim (), aStore);
+      }
+      else
+        _indexAll (aStore);
+    }
+
+    final String sDefaultStore = getAttributeAsString (ATTR_DEFAULT_STORE);
+    if (sDefaultStore != null)
+    {
+      m_aDefaultStore = m_aStores.get (sDefaultStore);
+      if (m_aDefaultStore == null)
+        throw new InvalidParameterException ("No such key store", this, ATTR_DEFAULT_STORE, sDefaultStore);
+    }
+    else
+      m_aDefaultStore = m_aStores.values ().iterator ().next ();
+
+    s_aLogger.info ("Initialized " + m_aStores.size () + " key stores with " + m_aAliasIndex.size () + " aliases");
+  }
+
+  private void _index (@Nonnull final String sAlias, @Nonnull final Store aStore)
+  {
+    if (sAlias.length () == 0)
+      return;
+    final Store aOld = m_aAliasIndex.get (sAlias);
+    if (aOld != null && aOld != aStore)
+      s_aLogger.warn ("Alias '" +
+                      sAlias +
+                      "' is contained in key store '" +
+                      aOld.m_sName +
+                      "' and '" +
+                      aStore.m_sName +
+                      "' - using the first one");
+    else
+      m_aAliasIndex.put (sAlias, aStore);
+  }
+
+  private void _indexAll (@Nonnull final Store aStore) throws OpenAS2Exception
+  {
+    try
+    {
+      for (final String sAlias : Collections.list (aStore.getFactory ().getKeyStore ().aliases ()))
+        _index (sAlias, aStore);
+    }
+    catch (final KeyStoreException ex)
+    {
+      throw new OpenAS2Exception ("Failed to read aliases of key store '" + aStore.m_sName + "'", ex);
+    }
+  }
+
+  /**
+   * Find the key store containing the passed alias. If the alias index is
+   * stale, the index is corrected.
+   */
+  @Nullable
+  private Store _getStoreOfAlias (@Nullable final String sAlias) throws OpenAS2Exception
+  {
+    if (sAlias == null)
+      return null;
+
+    final Store aStore = m_aAliasIndex.get (sAlias);
+    if (aStore != null)
+    {
+      if (aStore.containsAlias (sAlias))
+        return aStore;
+      m_aAliasIndex.remove (sAlias);
+    }
+
+    // Not indexed - check all loaded stores
+    for (final Store aCurStore : m_aStores.values ())
+      if (aCurStore.isLoaded () && aCurStore.containsAlias (sAlias))
+      {
+        m_aAliasIndex.put (sAlias, aCurStore);
+        return aCurStore;
+      }
+    return null;
+  }
+
+  /**
+   * @return The names of all configured key stores in the order they are
+   *         searched. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <String> getAllStoreNames ()
+  {
+    return new ArrayList <String> (m_aStores.keySet ());
+  }
+
+  /**
+   * Get the name of the key store containing the passed alias.
+   *
+   * @param sAlias
+   *        The alias to search. May be <code>null</code>.
+   * @return <code>null</code> if no key store contains the alias.
+   * @throws OpenAS2Exception
+   *         If a key store cannot be loaded
+   */
+  @Nullable
+  public String getStoreNameOfAlias (@Nullable final String sAlias) throws OpenAS2Exception
+  {
+    final Store aStore = _getStoreOfAlias (sAlias);
+    return aStore == null ? null : aStore.m_sName;
+  }
+
+  @Override
+  @Nonnull
+  public String getAlias (@Nonnull final Partnership aPartnership,
+                          @Nonnull final ECertificatePartnershipType ePartnershipType) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+    ValueEnforcer.notNull (ePartnershipType, "PartnershipType");
+
+    String sAlias = null;
+    switch (ePartnershipType)
+    {
+      case RECEIVER:
+        sAlias = aPartnership.getReceiverX509Alias ();
+        break;
+      case SENDER:
+        sAlias = aPartnership.getSenderX509Alias ();
+        break;
+    }
+
+    if (sAlias == null)
+      throw new CertificateNotFoundException (ePartnershipType, aPartnership);
+    return sAlias;
+  }
+
+  @Override
+  @Nonnull
+  protected X509Certificate internalGetCertificate (@Nullable final String sAlias,
+                                                    @Nullable final ECertificatePartnershipType ePartnershipType) throws OpenAS2Exception
+  {
+    final Store aStore = _getStoreOfAlias (sAlias);
+    if (aStore == null)
+      throw new CertificateNotFoundException (ePartnershipType, sAlias);
+
+    final X509Certificate aCert = aStore.getFactory ().getCertificate (sAlias);
+    // Remember the owner for the private key lookup
+    m_aCertIndex.put (aCert, aStore);
+    return aCert;
+  }
+
+  @Nonnull
+  public X509Certificate getCertificate (@Nonnull final String sAlias) throws OpenAS2Exception
+  {
+    return internalGetCertificate (sAlias, null);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Certificate> getCertificates () throws OpenAS2Exception
+  {
+    final Map <String, Certificate> ret = new LinkedHashMap <String, Certificate> ();
+    for (final Store aStore : m_aStores.values ())
+      for (final Map.Entry <String, Certificate> aEntry : aStore.getFactory ().getCertificates ().entrySet ())
+        if (!ret.containsKey (aEntry.getKey ()))
+          ret.put (aEntry.getKey (), aEntry.getValue ());
+    return ret;
+  }
+
+  @Nonnull
+  public PrivateKey getPrivateKey (@Nullable final X509Certificate aCert) throws OpenAS2Exception
+  {
+    if (aCert != null)
+    {
+      final Store aStore = m_aCertIndex.get (aCert);
+      if (aStore != null)
+        return aStore.getFactory ().getPrivateKey (aCert);
+
+      // Unknown certificate - try all stores
+      for (final Store aCurStore : m_aStores.values ())
+        try
+        {
+          final PrivateKey aKey = aCurStore.getFactory ().getPrivateKey (aCert);
+          m_aCertIndex.put (aCert, aCurStore);
+          return aKey;
+        }
+        catch (final KeyNotFoundException ex)
+        {
+          // try next
+        }
+    }
+    throw new KeyNotFoundException (aCert);
+  }
+
+  @Nonnull
+  public PrivateKey getPrivateKey (@Nullable final IMessage aMsg,
+                                   @Nullable final X509Certificate aCert) throws OpenAS2Exception
+  {
+    return getPrivateKey (aCert);
+  }
+
+  @Nonnull
+  public PrivateKey getPrivateKey (@Nullable final IMessageMDN aMDN,
+                                   @Nullable final X509Certificate aCert) throws OpenAS2Exception
+  {
+    return getPrivateKey (aCert);
+  }
+
+  public void addCertificate (@Nonnull @Nonempty final String sAlias,
+                              @Nonnull final X509Certificate aCert,
+                              final boolean bOverwrite) throws OpenAS2Exception
+  {
+    ValueEnforcer.notEmpty (sAlias, "Alias");
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    Store aStore = _getStoreOfAlias (sAlias);
+    if (aStore == null)
+      aStore = m_aDefaultStore;
+    aStore.getFactory ().addCertificate (sAlias, aCert, bOverwrite);
+    m_aAliasIndex.put (sAlias, aStore);
+    m_aCertIndex.clear ();
+  }
+
+  public void addPrivateKey (@Nonnull @Nonempty final String sAlias,
+                             @Nonnull final Key aKey,
+                             @Nonnull final String sPassword) throws OpenAS2Exception
+  {
+    ValueEnforcer.notEmpty (sAlias, "Alias");
+
+    final Store aStore = _getStoreOfAlias (sAlias);
+    if (aStore == null)
+      throw new CertificateNotFoundException (null, sAlias);
+    aStore.getFactory ().addPrivateKey (sAlias, aKey, sPassword);
+  }
+
+  public void clearCertificates () throws OpenAS2Exception
+  {
+    for (final Store aStore : m_aStores.values ())
+      aStore.getFactory ().clearCertificates ();
+    m_aAliasIndex.clear ();
+    m_aCertIndex.clear ();
+  }
+
+  public void removeCertificate (@Nonnull final X509Certificate aCert) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    for (final Store aStore : m_aStores.values ())
+    {
+      final String sAlias;
+      try
+      {
+        sAlias = aStore.getFactory ().getKeyStore ().getCertificateAlias (aCert);
+      }
+      catch (final KeyStoreException ex)
+      {
+        continue;
+      }
+      if (sAlias != null)
+      {
+        removeCertificate (sAlias);
+        return;
+      }
+    }
+    throw new CertificateNotFoundException (aCert);
+  }
+
+  public void removeCertificate (@Nullable final String sAlias) throws OpenAS2Exception
+  {
+    final Store aStore = _getStoreOfAlias (sAlias);
+    if (aStore == null)
+      throw new CertificateNotFoundException (null, sAlias);
+    aStore.getFactory ().removeCertificate (sAlias);
+    m_aAliasIndex.remove (sAlias);
+    m_aCertIndex.clear ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("Stores", m_aStores.values ())
+                            .append ("DefaultStore", m_aDefaultStore == null ? null : m_aDefaultStore.m_sName)
+                            .toString ();
+  }
+}
@@ -32,6 +32,7 @@
  */
 package com.helger.as2lib.cert;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -39,16 +40,25 @@ import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillClose;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +72,7 @@ import com.helger.as2lib.partner.Partnership;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.AS2Helper;
 import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
@@ -70,10 +81,26 @@ import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.io.EAppend;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
 
 /**
  * An implementation of a file-based certificate factory using BouncyCastle
- * PKCS12 format.
+ * PKCS12 format.<br>
+ * Resolved aliases, certificates and decrypted private keys are cached, as
+ * both the alias lookup by certificate (a linear scan) and the private key
+ * decryption (PBE with many iterations) are expensive. The cache is
+ * invalidated whenever the key store is modified through this class.<br>
+ * If {@link #ATTR_RELOAD_INTERVAL_SECONDS} is set, the key store file is
+ * polled for changes. A changed file is loaded into a new key store, validated
+ * and only then swapped in, so that concurrent crypto operations neither block
+ * nor see a partially loaded key store. While changes made through this class
+ * are not yet written, the file is not reloaded, as that would discard
+ * them.<br>
+ * If {@link #ATTR_SAVE_DELAY_MS} is set, changes are not written immediately
+ * but coalesced and written by a background thread once no further change
+ * happened for the delay. Pending changes are also written upon JVM shutdown
+ * or when {@link #close()} is called. The key store file is always written to
+ * a temporary file first, that is then renamed.
  *
  * @author Philip Helger
  */
@@ -85,30 +112,302 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
   public static final String ATTR_FILENAME = "filename";
   public static final String ATTR_PASSWORD = "password";
   public static final String ATTR_SAVE_CHANGES_TO_FILE = "autosave";
+  /**
+   * The interval in seconds in which the key store file is checked for
+   * modifications. Values &le; 0 disable reloading (the default).
+   *
+   * @since 2.2.6
+   */
+  public static final String ATTR_RELOAD_INTERVAL_SECONDS = "reloadinterval";
+  /**
+   * The delay in milliseconds after the last change, after which all changes
+   * are written to the key store file. Every change restarts the delay, so
+   * continuous changes are written only after they stop. Values &le; 0 write
+   * every change immediately (the default).
+   *
+   * @since 2.2.6
+   */
+  public static final String ATTR_SAVE_DELAY_MS = "savedelay";
+  /** The extension of the temporary file used while saving */
+  public static final String TEMP_FILE_EXTENSION = ".tmp";
+  /**
+   * The extension of the backup of the old key store file, used while saving
+   * on platforms that cannot replace a file by renaming
+   */
+  public static final String BACKUP_FILE_EXTENSION = ".bak";
 
   private static final Logger s_aLogger = LoggerFactory.getLogger (PKCS12CertificateFactory.class);
 
-  private KeyStore m_aKeyStore;
+  /**
+   * The lookup cache. All maps are replaced together upon invalidation, so a
+   * lookup that races with a modification can never put a stale value into
+   * the new cache.
+   */
+  @ThreadSafe
+  private static final class KeyCache
+  {
+    private final Map <String, String> m_aFingerprintToAlias = new ConcurrentHashMap <String, String> ();
+    private final Map <String, X509Certificate> m_aAliasToCert = new ConcurrentHashMap <String, X509Certificate> ();
+    private final Map <String, PrivateKey> m_aAliasToKey = new ConcurrentHashMap <String, PrivateKey> ();
+  }
+
+  private final class ReloadTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      reloadIfModified ();
+    }
+  }
+
+  private final class SaveTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      try
+      {
+        flush ();
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        s_aLogger.error ("Failed to save key store changes", ex);
+      }
+    }
+  }
+
+  // Guards all modifications of the key store as well as its replacement
+  private final Object m_aKeyStoreLock = new Object ();
+  private volatile KeyStore m_aKeyStore;
+  private volatile KeyCache m_aCache = new KeyCache ();
+
+  private Timer m_aReloadTimer;
+  // Last modification and size of the key store file that was tried to load
+  private long m_nLastFileModification;
+  private long m_nLastFileLength;
+  private final AtomicLong m_aReloadCount = new AtomicLong ();
+  private final AtomicLong m_aReloadFailureCount = new AtomicLong ();
+  private volatile long m_nLastReloadDurationMS = CGlobal.ILLEGAL_ULONG;
+
+  private final Object m_aSaveLock = new Object ();
+  private Timer m_aSaveTimer;
+  private SaveTask m_aSaveTask;
+  private Thread m_aShutdownHook;
+  private boolean m_bDirty;
 
   public PKCS12CertificateFactory ()
   {}
 
+  /**
+   * Remove all cached aliases, certificates and private keys. This method is
+   * called automatically by all modifying methods of this class and needs to
+   * be called manually only if the underlying key store is modified directly.
+   *
+   * @since 2.2.6
+   */
+  public void invalidateCache ()
+  {
+    m_aCache = new KeyCache ();
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nonnull final X509Certificate aCert) throws CertificateEncodingException
+  {
+    try
+    {
+      final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+      return StringHelper.getHexEncoded (aMD.digest (aCert.getEncoded ()));
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("SHA-256 is not supported", ex);
+    }
+  }
+
   @Override
   public void initDynamicComponent (@Nonnull final IAS2Session aSession,
                                     @Nullable final IStringMap aOptions) throws OpenAS2Exception
   {
     super.initDynamicComponent (aSession, aOptions);
 
+    stopReloading ();
+    final File aFile = new File (getFilename ());
+    synchronized (this)
+    {
+      m_nLastFileModification = aFile.lastModified ();
+      m_nLastFileLength = aFile.length ();
+    }
+    load (getFilename (), getPassword ());
+
+    final long nReloadMS = getAttributeAsLong (ATTR_RELOAD_INTERVAL_SECONDS, 0) * CGlobal.MILLISECONDS_PER_SECOND;
+    if (nReloadMS > 0)
+    {
+      synchronized (this)
+      {
+        m_aReloadTimer = new Timer ("PKCS12Reload", true);
+        m_aReloadTimer.schedule (new ReloadTask (), nReloadMS, nReloadMS);
+      }
+      s_aLogger.info ("Checking key store '" + getFilename () + "' for modifications every " + nReloadMS + " ms");
+    }
+  }
+
+  /**
+   * Stop checking the key store file for modifications. Does nothing if
+   * reloading is not enabled.
+   *
+   * @since 2.2.6
+   */
+  public synchronized void stopReloading ()
+  {
+    if (m_aReloadTimer != null)
+    {
+      m_aReloadTimer.cancel ();
+      m_aReloadTimer = null;
+    }
+  }
+
+  /**
+   * Check whether the key store file was modified since it was last loaded and
+   * if so, load it into a new key store, validate it and atomically replace
+   * the current key store. If loading or validation fails, the current key
+   * store stays active and the same file state is not tried again.
+   *
+   * @return <code>true</code> if the key store was replaced,
+   *         <code>false</code> otherwise.
+   * @since 2.2.6
+   */
+  public boolean reloadIfModified ()
+  {
+    final File aFile;
+    final char [] aPassword;
     try
     {
-      m_aKeyStore = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+      aFile = new File (getFilename ());
+      aPassword = getPassword ();
     }
-    catch (final Exception ex)
+    catch (final InvalidParameterException ex)
+    {
+      s_aLogger.error ("Cannot reload key store", ex);
+      return false;
+    }
+
+    final long nModification = aFile.lastModified ();
+    final long nLength = aFile.length ();
+    synchronized (this)
+    {
+      if (nModification == m_nLastFileModification && nLength == m_nLastFileLength)
+        return false;
+      if (m_bDirty)
+      {
+        _logReloadSkipped (aFile);
+        return false;
+      }
+      m_nLastFileModification = nModification;
+      m_nLastFileLength = nLength;
+    }
+
+    final long nStart = System.currentTimeMillis ();
+    try
+    {
+      final KeyStore aNewKeyStore = _loadKeyStore (FileHelper.getInputStream (aFile), aPassword);
+      validateReloadedKeyStore (aNewKeyStore, aPassword);
+      synchronized (m_aKeyStoreLock)
+      {
+        synchronized (this)
+        {
+          if (m_bDirty)
+          {
+            // Modified while loading - the pending changes win
+            _logReloadSkipped (aFile);
+            return false;
+          }
+        }
+        _setKeyStore (aNewKeyStore);
+      }
+      m_nLastReloadDurationMS = System.currentTimeMillis () - nStart;
+      m_aReloadCount.incrementAndGet ();
+      s_aLogger.info ("Reloaded key store '" +
+                      aFile.getAbsolutePath () +
+                      "' in " +
+                      m_nLastReloadDurationMS +
+                      " ms");
+      return true;
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      m_aReloadFailureCount.incrementAndGet ();
+      s_aLogger.error ("Failed to reload key store '" + aFile.getAbsolutePath () + "' - keeping the current one", ex);
+      return false;
+    }
+  }
+
+  private static void _logReloadSkipped (@Nonnull final File aFile)
+  {
+    s_aLogger.warn ("Not reloading the modified key store '" +
+                    aFile.getAbsolutePath () +
+                    "' because there are pending changes that would be lost");
+  }
+
+  /**
+   * Validate a reloaded key store before it replaces the current one. By
+   * default the key store must not be empty and all private keys must be
+   * readable with the configured password.
+   *
+   * @param aKeyStore
+   *        The freshly loaded key store. Never <code>null</code>.
+   * @param aPassword
+   *        The key store password. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the key store should not be used.
+   * @since 2.2.6
+   */
+  @OverrideOnDemand
+  protected void validateReloadedKeyStore (@Nonnull final KeyStore aKeyStore,
+                                           @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {
+    try
+    {
+      if (aKeyStore.size () == 0)
+        throw new OpenAS2Exception ("The reloaded key store is empty");
+      for (final String sAlias : CollectionHelper.newList (aKeyStore.aliases ()))
+        if (aKeyStore.isKeyEntry (sAlias) && aKeyStore.getKey (sAlias, aPassword) == null)
+          throw new OpenAS2Exception ("The key of alias '" + sAlias + "' cannot be read");
+    }
+    catch (final GeneralSecurityException ex)
     {
       throw WrappedOpenAS2Exception.wrap (ex);
     }
+  }
 
-    load (getFilename (), getPassword ());
+  /**
+   * @return The number of successful reloads of the key store file.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public long getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  /**
+   * @return The number of reloads that failed because the key store file could
+   *         not be read or was invalid.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public long getReloadFailureCount ()
+  {
+    return m_aReloadFailureCount.get ();
+  }
+
+  /**
+   * @return The duration of the last successful reload in milliseconds or
+   *         {@link CGlobal#ILLEGAL_ULONG} if no reload happened so far.
+   * @since 2.2.6
+   */
+  public long getLastReloadDurationMS ()
+  {
+    return m_nLastReloadDurationMS;
   }
 
   @Override
@@ -140,12 +439,21 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
   protected X509Certificate internalGetCertificate (@Nullable final String sAlias,
                                                     @Nullable final ECertificatePartnershipType ePartnershipType) throws OpenAS2Exception
   {
+    final KeyCache aCache = m_aCache;
+    if (sAlias != null)
+    {
+      final X509Certificate aCachedCert = aCache.m_aAliasToCert.get (sAlias);
+      if (aCachedCert != null)
+        return aCachedCert;
+    }
+
     try
     {
       final KeyStore aKeyStore = getKeyStore ();
       final X509Certificate aCert = (X509Certificate) aKeyStore.getCertificate (sAlias);
       if (aCert == null)
         throw new CertificateNotFoundException (ePartnershipType, sAlias);
+      aCache.m_aAliasToCert.put (sAlias, aCert);
       return aCert;
     }
     catch (final KeyStoreException ex)
@@ -236,27 +544,162 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
   protected void onChange () throws OpenAS2Exception
   {
     if (isSaveChangesToFile ())
-      save ();
+    {
+      final long nSaveDelayMS = getAttributeAsLong (ATTR_SAVE_DELAY_MS, 0);
+      if (nSaveDelayMS > 0)
+        _scheduleSave (nSaveDelayMS);
+      else
+        save ();
+    }
+  }
+
+  /**
+   * Remember that the key store was modified. Must be called while holding
+   * the key store lock, so that a concurrent reload cannot swap the key store
+   * in between.
+   */
+  private void _markModified ()
+  {
+    if (isSaveChangesToFile ())
+      synchronized (this)
+      {
+        m_bDirty = true;
+      }
+  }
+
+  private synchronized void _scheduleSave (final long nSaveDelayMS)
+  {
+    m_bDirty = true;
+    if (m_aSaveTimer == null)
+    {
+      m_aSaveTimer = new Timer ("PKCS12Save", true);
+      // Write pending changes when the JVM exits
+      m_aShutdownHook = new Thread ("PKCS12SaveOnShutdown")
+      {
+        @Override
+        public void run ()
+        {
+          new SaveTask ().run ();
+        }
+      };
+      Runtime.getRuntime ().addShutdownHook (m_aShutdownHook);
+    }
+    // Restart the delay
+    if (m_aSaveTask != null)
+      m_aSaveTask.cancel ();
+    m_aSaveTask = new SaveTask ();
+    m_aSaveTimer.schedule (m_aSaveTask, nSaveDelayMS);
+  }
+
+  /**
+   * @return <code>true</code> if there are changes that are not yet written to
+   *         the key store file.
+   * @since 2.2.6
+   */
+  public synchronized boolean hasPendingChanges ()
+  {
+    return m_bDirty;
+  }
+
+  /**
+   * Write all pending changes to the key store file. Does nothing if there are
+   * no pending changes.
+   *
+   * @throws OpenAS2Exception
+   *         In case saving fails. The changes stay pending in this case.
+   * @since 2.2.6
+   */
+  public void flush () throws OpenAS2Exception
+  {
+    synchronized (this)
+    {
+      if (m_aSaveTask != null)
+      {
+        m_aSaveTask.cancel ();
+        m_aSaveTask = null;
+      }
+      if (!m_bDirty)
+        return;
+    }
+    save ();
+  }
+
+  /**
+   * Stop all background activities of this factory: the reloading of the key
+   * store file and the delayed saving. Pending changes are written first and
+   * the shutdown hook is removed. Later changes start the delayed saving
+   * again.
+   *
+   * @throws OpenAS2Exception
+   *         In case writing the pending changes fails. The background
+   *         activities are stopped nevertheless.
+   * @since 2.2.6
+   */
+  public void close () throws OpenAS2Exception
+  {
+    stopReloading ();
+    try
+    {
+      flush ();
+    }
+    finally
+    {
+      synchronized (this)
+      {
+        if (m_aSaveTimer != null)
+        {
+          m_aSaveTimer.cancel ();
+          m_aSaveTimer = null;
+          m_aSaveTask = null;
+        }
+        if (m_aShutdownHook != null)
+        {
+          try
+          {
+            Runtime.getRuntime ().removeShutdownHook (m_aShutdownHook);
+          }
+          catch (final IllegalStateException ex)
+          {
+            // The JVM is already shutting down
+          }
+          m_aShutdownHook = null;
+        }
+      }
+    }
   }
 
   @Nonnull
   public PrivateKey getPrivateKey (@Nullable final X509Certificate aCert) throws OpenAS2Exception
   {
+    // Get the cache before the key store - see _setKeyStore
+    final KeyCache aCache = m_aCache;
     final KeyStore aKeyStore = getKeyStore ();
     String sAlias = null;
 
     try
     {
-      // This method heuristically scans the keystore and delivery the first
-      // result.
-      sAlias = aKeyStore.getCertificateAlias (aCert);
+      final String sFingerprint = aCert == null ? null : _getFingerprint (aCert);
+      if (sFingerprint != null)
+        sAlias = aCache.m_aFingerprintToAlias.get (sFingerprint);
       if (sAlias == null)
-        throw new KeyNotFoundException (aCert);
+      {
+        // This method heuristically scans the keystore and delivery the first
+        // result.
+        sAlias = aKeyStore.getCertificateAlias (aCert);
+        if (sAlias == null)
+          throw new KeyNotFoundException (aCert);
+        if (sFingerprint != null)
+          aCache.m_aFingerprintToAlias.put (sFingerprint, sAlias);
+      }
 
-      final PrivateKey aKey = (PrivateKey) aKeyStore.getKey (sAlias, getPassword ());
+      PrivateKey aKey = aCache.m_aAliasToKey.get (sAlias);
       if (aKey == null)
-        throw new KeyNotFoundException (aCert, sAlias);
-
+      {
+        aKey = (PrivateKey) aKeyStore.getKey (sAlias, getPassword ());
+        if (aKey == null)
+          throw new KeyNotFoundException (aCert, sAlias);
+        aCache.m_aAliasToKey.put (sAlias, aKey);
+      }
       return aKey;
     }
     catch (final GeneralSecurityException ex)
@@ -286,14 +729,18 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
     ValueEnforcer.notEmpty (sAlias, "Alias");
     ValueEnforcer.notNull (aCert, "Cert");
 
-    final KeyStore aKeyStore = getKeyStore ();
-
     try
     {
-      if (aKeyStore.containsAlias (sAlias) && !bOverwrite)
-        throw new CertificateExistsException (sAlias);
+      synchronized (m_aKeyStoreLock)
+      {
+        final KeyStore aKeyStore = getKeyStore ();
+        if (aKeyStore.containsAlias (sAlias) && !bOverwrite)
+          throw new CertificateExistsException (sAlias);
 
-      aKeyStore.setCertificateEntry (sAlias, aCert);
+        aKeyStore.setCertificateEntry (sAlias, aCert);
+        _markModified ();
+      }
+      invalidateCache ();
       onChange ();
       s_aLogger.info ("Added certificate alias '" + sAlias + "' of certificate '" + aCert.getSubjectDN ());
     }
@@ -311,14 +758,19 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
     ValueEnforcer.notNull (aKey, "Key");
     ValueEnforcer.notNull (sPassword, "Password");
 
-    final KeyStore aKeyStore = getKeyStore ();
     try
     {
-      if (!aKeyStore.containsAlias (sAlias))
-        throw new CertificateNotFoundException (null, sAlias);
+      synchronized (m_aKeyStoreLock)
+      {
+        final KeyStore aKeyStore = getKeyStore ();
+        if (!aKeyStore.containsAlias (sAlias))
+          throw new CertificateNotFoundException (null, sAlias);
 
-      final Certificate [] aCertChain = aKeyStore.getCertificateChain (sAlias);
-      aKeyStore.setKeyEntry (sAlias, aKey, sPassword.toCharArray (), aCertChain);
+        final Certificate [] aCertChain = aKeyStore.getCertificateChain (sAlias);
+        aKeyStore.setKeyEntry (sAlias, aKey, sPassword.toCharArray (), aCertChain);
+        _markModified ();
+      }
+      invalidateCache ();
       onChange ();
       s_aLogger.info ("Added key alias '" + sAlias + "'");
     }
@@ -330,12 +782,17 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
 
   public void clearCertificates () throws OpenAS2Exception
   {
-    final KeyStore aKeyStore = getKeyStore ();
     try
     {
-      // Make a copy to be sure
-      for (final String sAlias : CollectionHelper.newList (aKeyStore.aliases ()))
-        aKeyStore.deleteEntry (sAlias);
+      synchronized (m_aKeyStoreLock)
+      {
+        final KeyStore aKeyStore = getKeyStore ();
+        // Make a copy to be sure
+        for (final String sAlias : CollectionHelper.newList (aKeyStore.aliases ()))
+          aKeyStore.deleteEntry (sAlias);
+        _markModified ();
+      }
+      invalidateCache ();
       onChange ();
       s_aLogger.info ("Remove all aliases in key store");
     }
@@ -351,21 +808,17 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
     load (aFIS, aPassword);
   }
 
-  public void load (@Nonnull @WillClose final InputStream aIS, @Nonnull final char [] aPassword) throws OpenAS2Exception
+  @Nonnull
+  private static KeyStore _loadKeyStore (@Nullable @WillClose final InputStream aIS,
+                                         @Nonnull final char [] aPassword) throws OpenAS2Exception
   {
     try
     {
-      final KeyStore aKeyStore = getKeyStore ();
-      synchronized (aKeyStore)
-      {
-        aKeyStore.load (aIS, aPassword);
-      }
-    }
-    catch (final IOException ex)
-    {
-      throw WrappedOpenAS2Exception.wrap (ex);
+      final KeyStore aKeyStore = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+      aKeyStore.load (aIS, aPassword);
+      return aKeyStore;
     }
-    catch (final GeneralSecurityException ex)
+    catch (final Exception ex)
     {
       throw WrappedOpenAS2Exception.wrap (ex);
     }
@@ -375,6 +828,25 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
     }
   }
 
+  private void _setKeyStore (@Nonnull final KeyStore aKeyStore)
+  {
+    // Readers get the cache before the key store. So the cache must be
+    // invalidated after the swap, so that no value from the old key store can
+    // end up in the new cache.
+    synchronized (m_aKeyStoreLock)
+    {
+      m_aKeyStore = aKeyStore;
+      invalidateCache ();
+    }
+  }
+
+  public void load (@Nonnull @WillClose final InputStream aIS, @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {
+    // Load into a new key store and swap afterwards, so that concurrent
+    // readers never see a partially loaded key store
+    _setKeyStore (_loadKeyStore (aIS, aPassword));
+  }
+
   public void load () throws OpenAS2Exception
   {
     load (getFilename (), getPassword ());
@@ -400,14 +872,19 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
 
   public void removeCertificate (@Nullable final String sAlias) throws OpenAS2Exception
   {
-    final KeyStore aKeyStore = getKeyStore ();
     try
     {
-      final Certificate aCert = aKeyStore.getCertificate (sAlias);
-      if (aCert == null)
-        throw new CertificateNotFoundException (null, sAlias);
+      synchronized (m_aKeyStoreLock)
+      {
+        final KeyStore aKeyStore = getKeyStore ();
+        final Certificate aCert = aKeyStore.getCertificate (sAlias);
+        if (aCert == null)
+          throw new CertificateNotFoundException (null, sAlias);
 
-      aKeyStore.deleteEntry (sAlias);
+        aKeyStore.deleteEntry (sAlias);
+        _markModified ();
+      }
+      invalidateCache ();
       onChange ();
       s_aLogger.info ("Removed certificate alias '" + sAlias + "'");
     }
@@ -419,13 +896,81 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
 
   public void save () throws OpenAS2Exception
   {
-    save (getFilename (), getPassword ());
+    synchronized (m_aSaveLock)
+    {
+      // Changes from now on need another save
+      synchronized (this)
+      {
+        m_bDirty = false;
+      }
+      try
+      {
+        save (getFilename (), getPassword ());
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        synchronized (this)
+        {
+          m_bDirty = true;
+        }
+        throw ex;
+      }
+
+      // Don't reload what was just written
+      final File aFile = new File (getFilename ());
+      synchronized (this)
+      {
+        m_nLastFileModification = aFile.lastModified ();
+        m_nLastFileLength = aFile.length ();
+      }
+    }
   }
 
   public void save (@Nonnull final String sFilename, @Nonnull final char [] aPassword) throws OpenAS2Exception
   {
-    final OutputStream fOut = FileHelper.getOutputStream (sFilename, EAppend.TRUNCATE);
-    save (fOut, aPassword);
+    // Write to a temporary file and rename it afterwards, so that the key
+    // store file is never left half written
+    final File aFile = new File (sFilename).getAbsoluteFile ();
+    final File aTempFile = new File (aFile.getParentFile (), aFile.getName () + TEMP_FILE_EXTENSION);
+    synchronized (m_aSaveLock)
+    {
+      final OutputStream aOS = FileHelper.getOutputStream (aTempFile, EAppend.TRUNCATE);
+      if (aOS == null)
+        throw new OpenAS2Exception ("Failed to open '" + aTempFile.getAbsolutePath () + "' for writing");
+      save (aOS, aPassword);
+
+      if (!aTempFile.renameTo (aFile))
+      {
+        // On some platforms an existing file cannot be replaced by renaming.
+        // Keep the old file as a backup until the new one is in place, so that
+        // the key store is never missing on disk.
+        final File aBackupFile = new File (aFile.getParentFile (), aFile.getName () + BACKUP_FILE_EXTENSION);
+        if (aBackupFile.exists () && !aBackupFile.delete ())
+          throw new OpenAS2Exception ("Failed to delete '" + aBackupFile.getAbsolutePath () + "'");
+        if (!aFile.renameTo (aBackupFile))
+          throw new OpenAS2Exception ("Failed to rename '" +
+                                      aFile.getAbsolutePath () +
+                                      "' to '" +
+                                      aBackupFile.getAbsolutePath () +
+                                      "'");
+        if (!aTempFile.renameTo (aFile))
+        {
+          if (!aBackupFile.renameTo (aFile))
+            s_aLogger.error ("Failed to restore the key store '" +
+                             aFile.getAbsolutePath () +
+                             "' from '" +
+                             aBackupFile.getAbsolutePath () +
+                             "'");
+          throw new OpenAS2Exception ("Failed to rename '" +
+                                      aTempFile.getAbsolutePath () +
+                                      "' to '" +
+                                      aFile.getAbsolutePath () +
+                                      "'");
+        }
+        if (!aBackupFile.delete ())
+          s_aLogger.warn ("Failed to delete '" + aBackupFile.getAbsolutePath () + "'");
+      }
+    }
   }
 
   public void save (@Nonnull @WillClose final OutputStream aOS,
@@ -433,10 +978,9 @@ public class PKCS12CertificateFactory extends AbstractCertificateFactory impleme
   {
     try
     {
-      final KeyStore aKeyStore = getKeyStore ();
-      synchronized (aKeyStore)
+      synchronized (m_aKeyStoreLock)
       {
-        aKeyStore.store (aOS, aPassword);
+        getKeyStore ().store (aOS, aPassword);
       }
     }
     catch (final IOException ex)
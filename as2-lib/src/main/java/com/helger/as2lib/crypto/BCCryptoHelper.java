@@ -52,7 +52,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.Locale;
 
 import javax.activation.CommandMap;
@@ -66,25 +65,13 @@ import javax.mail.internet.MimeMultipart;
 import javax.mail.internet.MimeUtility;
 import javax.security.auth.x500.X500Principal;
 
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.cms.AttributeTable;
-import org.bouncycastle.asn1.smime.SMIMECapabilitiesAttribute;
-import org.bouncycastle.asn1.smime.SMIMECapabilityVector;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.cms.RecipientId;
 import org.bouncycastle.cms.RecipientInformation;
 import org.bouncycastle.cms.SignerInformation;
 import org.bouncycastle.cms.SignerInformationVerifier;
-import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
-import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
-import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
-import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
 import org.bouncycastle.cms.jcajce.JceKeyTransRecipientId;
-import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.mail.smime.SMIMEEnveloped;
 import org.bouncycastle.mail.smime.SMIMEEnvelopedGenerator;
@@ -94,7 +81,6 @@ import org.bouncycastle.mail.smime.SMIMESignedParser;
 import org.bouncycastle.mail.smime.SMIMEUtil;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.OutputEncryptor;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -121,6 +107,7 @@ import com.helger.commons.system.SystemProperties;
 public final class BCCryptoHelper implements ICryptoHelper {
 	private static final Logger s_aLogger = LoggerFactory.getLogger(BCCryptoHelper.class);
 	private static final File s_aDumpDecryptedDirectory;
+	private static final BouncyCastleProvider s_aProvider = new BouncyCastleProvider();
 
 	static {
 		final String sDumpDecryptedDirectory = SystemProperties.getPropertyValueOrNull("AS2.dumpDecryptedDirectory");
@@ -135,8 +122,15 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		}
 	}
 
+	private volatile CryptoProviderPolicy m_aProviderPolicy;
+	private volatile BCCryptoPrimitiveCache m_aPrimitiveCache;
+	private volatile boolean m_bCachePrimitives = true;
+	private final CertificateCache m_aCertificateCache = new CertificateCache();
+
 	public BCCryptoHelper() {
-		Security.addProvider(new BouncyCastleProvider());
+		Security.addProvider(s_aProvider);
+		m_aProviderPolicy = CryptoProviderPolicy.createFromSystemProperties();
+		m_aPrimitiveCache = _createPrimitiveCache();
 
 		final MailcapCommandMap aCommandMap = (MailcapCommandMap) CommandMap.getDefaultCommandMap();
 		aCommandMap.addMailcap("application/pkcs7-signature;; x-java-content-handler=" +
@@ -157,6 +151,82 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		});
 	}
 
+	@Nonnull
+	private BCCryptoPrimitiveCache _createPrimitiveCache() {
+		try {
+			return new BCCryptoPrimitiveCache(s_aProvider, m_aProviderPolicy);
+		} catch (final OperatorCreationException ex) {
+			throw new IllegalStateException("Failed to initialize the crypto primitives", ex);
+		}
+	}
+
+	/**
+	 * @return The policy defining the JCA providers used for digests, ciphers
+	 *         and signatures. By default it is created from the system
+	 *         properties, using BouncyCastle for everything that is not
+	 *         configured. Never <code>null</code>.
+	 * @see CryptoProviderPolicy#createFromSystemProperties()
+	 * @since 2.2.6
+	 */
+	@Nonnull
+	public CryptoProviderPolicy getProviderPolicy() {
+		return m_aProviderPolicy;
+	}
+
+	/**
+	 * @param aProviderPolicy
+	 *        The policy defining the JCA providers used for digests, ciphers
+	 *        and signatures. May not be <code>null</code>.
+	 * @return this for chaining
+	 * @since 2.2.6
+	 */
+	@Nonnull
+	public BCCryptoHelper setProviderPolicy(@Nonnull final CryptoProviderPolicy aProviderPolicy) {
+		ValueEnforcer.notNull(aProviderPolicy, "ProviderPolicy");
+		m_aProviderPolicy = aProviderPolicy;
+		m_aPrimitiveCache = _createPrimitiveCache();
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if message digests, signer templates and
+	 *         recipient generators are reused across messages. This is the
+	 *         default.
+	 * @since 2.2.6
+	 */
+	public boolean isCachePrimitives() {
+		return m_bCachePrimitives;
+	}
+
+	/**
+	 * @param bCachePrimitives
+	 *        <code>true</code> to reuse message digests, signer templates and
+	 *        recipient generators across messages, <code>false</code> to
+	 *        create them for every message.
+	 * @return this for chaining
+	 * @since 2.2.6
+	 */
+	@Nonnull
+	public BCCryptoHelper setCachePrimitives(final boolean bCachePrimitives) {
+		m_bCachePrimitives = bCachePrimitives;
+		return this;
+	}
+
+	/**
+	 * @return The cache of the certificates contained in signed messages. Never
+	 *         <code>null</code>.
+	 * @since 2.2.6
+	 */
+	@Nonnull
+	public CertificateCache getCertificateCache() {
+		return m_aCertificateCache;
+	}
+
+	@Nonnull
+	private BCCryptoPrimitiveCache _getPrimitiveCache() {
+		return m_bCachePrimitives ? m_aPrimitiveCache : _createPrimitiveCache();
+	}
+
 	@Nonnull
 	public KeyStore createNewKeyStore() throws KeyStoreException, NoSuchProviderException {
 		return KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
@@ -251,10 +321,7 @@ public final class BCCryptoHelper implements ICryptoHelper {
 					")");
 		}
 
-		final ASN1ObjectIdentifier aMICAlg = eDigestAlgorithm.getOID();
-
-		final MessageDigest aMessageDigest = MessageDigest.getInstance(aMICAlg.getId(),
-				BouncyCastleProvider.PROVIDER_NAME);
+		final MessageDigest aMessageDigest = _getPrimitiveCache().getMessageDigest(eDigestAlgorithm);
 
 		if (bIncludeHeaders) {
 			// Start hashing the header
@@ -347,7 +414,8 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		}
 
 		// try to decrypt the data
-		final byte[] aDecryptedData = aRecipient.getContent(new JceKeyTransEnvelopedRecipient(aPrivateKey).setProvider(BouncyCastleProvider.PROVIDER_NAME));
+		final byte[] aDecryptedData = aRecipient.getContent(_getPrimitiveCache().getEnvelopedRecipient(aPrivateKey,
+				aEnvelope.getEncryptionAlgOID()));
 
 		if (s_aDumpDecryptedDirectory != null) {
 			_dumpDecrypted(aDecryptedData);
@@ -376,13 +444,11 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		// Check if the certificate is expired or active.
 		aX509Cert.checkValidity();
 
-		final ASN1ObjectIdentifier aEncAlg = eAlgorithm.getOID();
-
+		final BCCryptoPrimitiveCache aCache = _getPrimitiveCache();
 		final SMIMEEnvelopedGenerator aGen = new SMIMEEnvelopedGenerator();
-		aGen.addRecipientInfoGenerator(new JceKeyTransRecipientInfoGenerator(aX509Cert).setProvider(BouncyCastleProvider.PROVIDER_NAME));
+		aGen.addRecipientInfoGenerator(aCache.getRecipientInfoGenerator(aX509Cert));
 
-		final OutputEncryptor aEncryptor = new JceCMSContentEncryptorBuilder(aEncAlg).setProvider(BouncyCastleProvider.PROVIDER_NAME)
-				.build();
+		final OutputEncryptor aEncryptor = aCache.getContentEncryptorBuilder(eAlgorithm).build();
 		final MimeBodyPart aEncData = aGen.generate(aPart, aEncryptor);
 		return aEncData;
 	}
@@ -413,17 +479,10 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		// Check if the certificate is expired or active.
 		aX509Cert.checkValidity();
 
-		// create a CertStore containing the certificates we want carried
-		// in the signature
-		final List<X509Certificate> aCertList = new ArrayList<X509Certificate>();
-		aCertList.add(aX509Cert);
-		final JcaCertStore aCertStore = new JcaCertStore(aCertList);
-
-		// create some smime capabilities in case someone wants to respond
-		final ASN1EncodableVector aSignedAttrs = new ASN1EncodableVector();
-		final SMIMECapabilityVector aCapabilities = new SMIMECapabilityVector();
-		aCapabilities.addCapability(eAlgorithm.getOID());
-		aSignedAttrs.add(new SMIMECapabilitiesAttribute(aCapabilities));
+		// The cert store and the smime capabilities only depend on the
+		// certificate and the algorithm
+		final BCCryptoPrimitiveCache aCache = _getPrimitiveCache();
+		final BCCryptoPrimitiveCache.SignerTemplate aSignerTemplate = aCache.getSignerTemplate(aX509Cert, eAlgorithm);
 
 		// add an encryption key preference for encrypted responses -
 		// normally this would be different from the signing certificate...
@@ -434,21 +493,15 @@ public final class BCCryptoHelper implements ICryptoHelper {
 
 		// create the generator for creating an smime/signed message
 		final SMIMESignedGenerator aSGen = new SMIMESignedGenerator();
-		// aSGen.addSigner (aPrivKey, aX509Cert, aSignDigest.getId ());
-
-		// add a signer to the generator - this specifies we are using SHA1 and
-		// adding the smime attributes above to the signed attributes that
-		// will be generated as part of the signature. The encryption algorithm
-		// used is taken from the key - in this RSA with PKCS1Padding
-		aSGen.addSignerInfoGenerator(new JcaSimpleSignerInfoGeneratorBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME)
-				.setSignedAttributeGenerator(new AttributeTable(aSignedAttrs))
-				.build(eAlgorithm.getSignAlgorithmName(),
-						aPrivateKey,
-						aX509Cert));
+
+		// add a signer to the generator - the signature is only calculated when
+		// the result is written, so the signer info generator must be new for
+		// every message
+		aSGen.addSignerInfoGenerator(aCache.createSignerInfoGenerator(aSignerTemplate, aPrivateKey, eAlgorithm));
 
 		if (bIncludeCertificateInSignedContent) {
 			// add our pool of certs and cerls (if any) to go with the signature
-			aSGen.addCertificates(aCertStore);
+			aSGen.addCertificates(aSignerTemplate.getCertStore());
 		}
 
 		final MimeMultipart aSignedData = aSGen.generate(aPart);
@@ -470,14 +523,14 @@ public final class BCCryptoHelper implements ICryptoHelper {
 				// For PEPPOL the certificate is passed in
 				ArrayList<?> certChain = new ArrayList<Object>(aContainedCerts);
 				X509CertificateHolder firstCertHolder = (X509CertificateHolder) certChain.get(0);
-				X509Certificate aCert = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getCertificate(firstCertHolder);
+				X509Certificate aCert = m_aCertificateCache.getCertificate(firstCertHolder, s_aProvider);
 
 				if (aContainedCerts.size() > 1) {
 					s_aLogger.warn("Signed part contains " + aContainedCerts.size() + " certificates.");
 					if (aCert.getIssuerX500Principal().equals(aCert.getSubjectX500Principal())) {
 						s_aLogger.warn("first certificate is a CA using the last one.");
 						X509CertificateHolder lastCertHolder = (X509CertificateHolder) certChain.get(certChain.size() - 1);
-						aCert = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getCertificate(lastCertHolder);
+						aCert = m_aCertificateCache.getCertificate(lastCertHolder, s_aProvider);
 					}
 
 					if (aX509Cert != null && !aX509Cert.equals(aCert)) {
@@ -518,8 +571,7 @@ public final class BCCryptoHelper implements ICryptoHelper {
 
 		final MimeMultipart aMainPart = (MimeMultipart) aPart.getContent();
 		// SMIMESignedParser uses "7bit" as the default - AS2 wants "binary"
-		final SMIMESignedParser aSignedParser = new SMIMESignedParser(new JcaDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME)
-				.build(),
+		final SMIMESignedParser aSignedParser = new SMIMESignedParser(_getPrimitiveCache().getDigestCalculatorProvider(),
 				aMainPart,
 				EContentTransferEncoding.AS2_DEFAULT.getID());
 
@@ -534,8 +586,7 @@ public final class BCCryptoHelper implements ICryptoHelper {
 		aRealX509Cert.checkValidity();
 
 		// Verify certificate
-		final SignerInformationVerifier aSIV = new JcaSimpleSignerInfoVerifierBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME)
-				.build(aRealX509Cert.getPublicKey());
+		final SignerInformationVerifier aSIV = _getPrimitiveCache().createSignerInfoVerifier(aRealX509Cert.getPublicKey());
 
 		for (final Object aSigner : aSignedParser.getSignerInfos().getSigners()) {
 			final SignerInformation aSignerInfo = (SignerInformation) aSigner;
@@ -0,0 +1,503 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.Cipher;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.smime.SMIMECapabilitiesAttribute;
+import org.bouncycastle.asn1.smime.SMIMECapabilityVector;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.DefaultCMSSignatureAlgorithmNameGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.SignerInfoGenerator;
+import org.bouncycastle.cms.SignerInfoGeneratorBuilder;
+import org.bouncycastle.cms.SignerInformationVerifier;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.lru.LRUMap;
+
+/**
+ * Cache for the JCA and BouncyCastle primitives used by {@link BCCryptoHelper}
+ * so that the provider lookups and builder setups are not repeated for every
+ * message.<br>
+ * Only objects that are immutable or stateless are shared between threads.
+ * Message digests are kept per thread. Signing keeps per message state until
+ * the signed MIME part was written, so the content signer is still created per
+ * message from the cached parts.<br>
+ * Entries are keyed by algorithm, certificate and key, so a changed
+ * certificate or key simply results in a new entry. The least recently used
+ * entries are dropped.<br>
+ * The JCA provider for each primitive is chosen according to the
+ * {@link CryptoProviderPolicy}: the first provider supporting the algorithm is
+ * used, and BouncyCastle is the last resort.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+final class BCCryptoPrimitiveCache
+{
+  /** The maximum number of cached entries per type */
+  static final int MAX_ENTRIES = 64;
+
+  /** The JCA name of the RSA key transport cipher as used by BouncyCastle */
+  private static final String KEY_TRANSPORT_CIPHER = "RSA/ECB/PKCS1Padding";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (BCCryptoPrimitiveCache.class);
+
+  /**
+   * The immutable parts needed to sign with a certain algorithm and
+   * certificate.
+   */
+  @Immutable
+  static final class SignerTemplate
+  {
+    private final X509CertificateHolder m_aCertHolder;
+    private final JcaCertStore m_aCertStore;
+    private final CMSAttributeTableGenerator m_aSignedAttrGen;
+
+    SignerTemplate (@Nonnull final X509Certificate aX509Cert,
+                    @Nonnull final ECryptoAlgorithmSign eAlgorithm) throws GeneralSecurityException
+    {
+      m_aCertHolder = new JcaX509CertificateHolder (aX509Cert);
+
+      // create a CertStore containing the certificates we want carried
+      // in the signature
+      final List <X509Certificate> aCertList = new ArrayList <X509Certificate> ();
+      aCertList.add (aX509Cert);
+      m_aCertStore = new JcaCertStore (aCertList);
+
+      // create some smime capabilities in case someone wants to respond
+      final ASN1EncodableVector aSignedAttrs = new ASN1EncodableVector ();
+      final SMIMECapabilityVector aCapabilities = new SMIMECapabilityVector ();
+      aCapabilities.addCapability (eAlgorithm.getOID ());
+      aSignedAttrs.add (new SMIMECapabilitiesAttribute (aCapabilities));
+      m_aSignedAttrGen = new DefaultSignedAttributeTableGenerator (new AttributeTable (aSignedAttrs));
+    }
+
+    @Nonnull
+    JcaCertStore getCertStore ()
+    {
+      return m_aCertStore;
+    }
+  }
+
+  private final Provider m_aBCProvider;
+  private final CryptoProviderPolicy m_aPolicy;
+  private final SecureRandom m_aRandom;
+  private final DigestCalculatorProvider m_aDigestCalculatorProvider;
+  private final ThreadLocal <Map <String, MessageDigest>> m_aDigests = new ThreadLocal <Map <String, MessageDigest>> ()
+  {
+    @Override
+    protected Map <String, MessageDigest> initialValue ()
+    {
+      return new HashMap <String, MessageDigest> ();
+    }
+  };
+  private final Lock m_aLock = new ReentrantLock ();
+  @GuardedBy ("m_aLock")
+  private final Map <String, Provider> m_aSelectedProviders = new HashMap <String, Provider> ();
+  @GuardedBy ("m_aLock")
+  private final Map <List <Object>, SignerTemplate> m_aSignerTemplates = new LRUMap <List <Object>, SignerTemplate> (MAX_ENTRIES);
+  @GuardedBy ("m_aLock")
+  private final Map <X509Certificate, JceKeyTransRecipientInfoGenerator> m_aRecipientInfoGenerators = new LRUMap <X509Certificate, JceKeyTransRecipientInfoGenerator> (MAX_ENTRIES);
+  @GuardedBy ("m_aLock")
+  private final Map <ECryptoAlgorithmCrypt, JceCMSContentEncryptorBuilder> m_aEncryptorBuilders = new HashMap <ECryptoAlgorithmCrypt, JceCMSContentEncryptorBuilder> ();
+  @GuardedBy ("m_aLock")
+  private final Map <List <Object>, JceKeyTransEnvelopedRecipient> m_aEnvelopedRecipients = new LRUMap <List <Object>, JceKeyTransEnvelopedRecipient> (MAX_ENTRIES);
+
+  BCCryptoPrimitiveCache (@Nonnull final Provider aBCProvider,
+                          @Nonnull final CryptoProviderPolicy aPolicy) throws OperatorCreationException
+  {
+    m_aBCProvider = aBCProvider;
+    m_aPolicy = aPolicy;
+    m_aRandom = new SecureRandom ();
+
+    // Each one creates a new digest for every call and is therefore
+    // thread-safe
+    final List <DigestCalculatorProvider> aDigestProviders = new ArrayList <DigestCalculatorProvider> ();
+    for (final Provider aProvider : _getAllProviders (ECryptoOperation.DIGEST))
+      aDigestProviders.add (new JcaDigestCalculatorProviderBuilder ().setProvider (aProvider).build ());
+    m_aDigestCalculatorProvider = new DigestCalculatorProvider ()
+    {
+      public DigestCalculator get (final AlgorithmIdentifier aDigestAlgorithm) throws OperatorCreationException
+      {
+        OperatorCreationException aLastEx = null;
+        for (final DigestCalculatorProvider aDigestProvider : aDigestProviders)
+          try
+          {
+            return aDigestProvider.get (aDigestAlgorithm);
+          }
+          catch (final OperatorCreationException ex)
+          {
+            aLastEx = ex;
+          }
+        throw aLastEx;
+      }
+    };
+  }
+
+  @Nonnull
+  CryptoProviderPolicy getProviderPolicy ()
+  {
+    return m_aPolicy;
+  }
+
+  /**
+   * @return The providers of the policy for the passed operation, followed by
+   *         BouncyCastle.
+   */
+  @Nonnull
+  private List <Provider> _getAllProviders (@Nonnull final ECryptoOperation eOperation)
+  {
+    final List <Provider> ret = m_aPolicy.getAllProviders (eOperation);
+    if (!ret.contains (m_aBCProvider))
+      ret.add (m_aBCProvider);
+    return ret;
+  }
+
+  private static boolean _isSupported (@Nonnull final ECryptoOperation eOperation,
+                                       @Nonnull final String sAlgorithm,
+                                       @Nonnull final Provider aProvider)
+  {
+    try
+    {
+      switch (eOperation)
+      {
+        case DIGEST:
+          MessageDigest.getInstance (sAlgorithm, aProvider);
+          break;
+        case SIGNATURE:
+          Signature.getInstance (sAlgorithm, aProvider);
+          break;
+        case CONTENT_CIPHER:
+          // Build a complete encryptor, because BouncyCastle maps the OID to
+          // the JCA names for cipher and key generator itself
+          new JceCMSContentEncryptorBuilder (new ASN1ObjectIdentifier (sAlgorithm)).setProvider (aProvider).build ();
+          break;
+        case KEY_TRANSPORT:
+          Cipher.getInstance (sAlgorithm, aProvider);
+          break;
+      }
+      return true;
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      return false;
+    }
+    catch (final CMSException ex)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Get the provider to use for the passed operation and algorithm. The choice
+   * is made once per algorithm.
+   *
+   * @param eOperation
+   *        The crypto operation
+   * @param sAlgorithm
+   *        The JCA algorithm name or OID to be used
+   * @return The first provider of the policy supporting the algorithm, or
+   *         BouncyCastle. Never <code>null</code>.
+   */
+  @Nonnull
+  Provider getProvider (@Nonnull final ECryptoOperation eOperation, @Nonnull final String sAlgorithm)
+  {
+    final String sKey = eOperation.getID () + ':' + sAlgorithm;
+    Provider ret = _get (m_aSelectedProviders, sKey);
+    if (ret == null)
+    {
+      for (final Provider aProvider : _getAllProviders (eOperation))
+        if (aProvider == m_aBCProvider || _isSupported (eOperation, sAlgorithm, aProvider))
+        {
+          ret = aProvider;
+          break;
+        }
+      if (s_aLogger.isDebugEnabled ())
+        s_aLogger.debug ("Using security provider " + ret.getName () + " for " + sKey);
+      _put (m_aSelectedProviders, sKey, ret);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  DigestCalculatorProvider getDigestCalculatorProvider ()
+  {
+    return m_aDigestCalculatorProvider;
+  }
+
+  /**
+   * @param eAlgorithm
+   *        Digest algorithm
+   * @return A reset message digest for the passed algorithm, that may only be
+   *         used by the calling thread. Never <code>null</code>.
+   * @throws GeneralSecurityException
+   *         If the algorithm is not supported
+   */
+  @Nonnull
+  MessageDigest getMessageDigest (@Nonnull final ECryptoAlgorithmSign eAlgorithm) throws GeneralSecurityException
+  {
+    final String sOID = eAlgorithm.getOID ().getId ();
+    final Map <String, MessageDigest> aDigests = m_aDigests.get ();
+    MessageDigest ret = aDigests.get (sOID);
+    if (ret == null)
+    {
+      ret = MessageDigest.getInstance (sOID, getProvider (ECryptoOperation.DIGEST, sOID));
+      aDigests.put (sOID, ret);
+    }
+    else
+      ret.reset ();
+    return ret;
+  }
+
+  @Nullable
+  private <K, V> V _get (@Nonnull final Map <K, V> aMap, @Nonnull final K aKey)
+  {
+    m_aLock.lock ();
+    try
+    {
+      return aMap.get (aKey);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  private <K, V> void _put (@Nonnull final Map <K, V> aMap, @Nonnull final K aKey, @Nonnull final V aValue)
+  {
+    m_aLock.lock ();
+    try
+    {
+      aMap.put (aKey, aValue);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  SignerTemplate getSignerTemplate (@Nonnull final X509Certificate aX509Cert,
+                                    @Nonnull final ECryptoAlgorithmSign eAlgorithm) throws GeneralSecurityException
+  {
+    final List <Object> aKey = Arrays.<Object> asList (eAlgorithm, aX509Cert);
+    SignerTemplate ret = _get (m_aSignerTemplates, aKey);
+    if (ret == null)
+    {
+      // Created outside the lock - in the worst case it is created twice
+      ret = new SignerTemplate (aX509Cert, eAlgorithm);
+      _put (m_aSignerTemplates, aKey, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Create a new signer info generator for a single message. The signature
+   * instance inside is stateful and must not be shared.
+   *
+   * @param aTemplate
+   *        The cached template to use.
+   * @param aPrivateKey
+   *        The private key to sign with.
+   * @param eAlgorithm
+   *        The signing algorithm.
+   * @return A new signer info generator. Never <code>null</code>.
+   * @throws OperatorCreationException
+   *         In case of an error
+   */
+  @Nonnull
+  SignerInfoGenerator createSignerInfoGenerator (@Nonnull final SignerTemplate aTemplate,
+                                                 @Nonnull final PrivateKey aPrivateKey,
+                                                 @Nonnull final ECryptoAlgorithmSign eAlgorithm) throws OperatorCreationException
+  {
+    final String sSignAlgorithm = eAlgorithm.getSignAlgorithmName ();
+    final ContentSigner aContentSigner = new JcaContentSignerBuilder (sSignAlgorithm).setProvider (getProvider (ECryptoOperation.SIGNATURE,
+                                                                                                               sSignAlgorithm))
+                                                                                     .build (aPrivateKey);
+    return new SignerInfoGeneratorBuilder (m_aDigestCalculatorProvider).setSignedAttributeGenerator (aTemplate.m_aSignedAttrGen)
+                                                                       .build (aContentSigner, aTemplate.m_aCertHolder);
+  }
+
+  /**
+   * Create a verifier for signatures of the passed public key. As the
+   * signature algorithm is only known from the message, the signature
+   * providers of the policy are tried in order for each signature, followed
+   * by BouncyCastle.
+   *
+   * @param aPublicKey
+   *        The public key to verify with.
+   * @return A new verifier. Never <code>null</code>.
+   * @throws OperatorCreationException
+   *         In case of an error
+   */
+  @Nonnull
+  SignerInformationVerifier createSignerInfoVerifier (@Nonnull final PublicKey aPublicKey) throws OperatorCreationException
+  {
+    final List <ContentVerifierProvider> aVerifierProviders = new ArrayList <ContentVerifierProvider> ();
+    for (final Provider aProvider : _getAllProviders (ECryptoOperation.SIGNATURE))
+      aVerifierProviders.add (new JcaContentVerifierProviderBuilder ().setProvider (aProvider).build (aPublicKey));
+
+    final ContentVerifierProvider aContentVerifierProvider = new ContentVerifierProvider ()
+    {
+      public boolean hasAssociatedCertificate ()
+      {
+        return false;
+      }
+
+      public X509CertificateHolder getAssociatedCertificate ()
+      {
+        return null;
+      }
+
+      public ContentVerifier get (final AlgorithmIdentifier aSignatureAlgorithm) throws OperatorCreationException
+      {
+        // E.g. SunRsaSign does not support DSA or EC signatures
+        OperatorCreationException aLastEx = null;
+        for (final ContentVerifierProvider aVerifierProvider : aVerifierProviders)
+          try
+          {
+            return aVerifierProvider.get (aSignatureAlgorithm);
+          }
+          catch (final OperatorCreationException ex)
+          {
+            aLastEx = ex;
+          }
+        throw aLastEx;
+      }
+    };
+    return new SignerInformationVerifier (new DefaultCMSSignatureAlgorithmNameGenerator (),
+                                          new DefaultSignatureAlgorithmIdentifierFinder (),
+                                          aContentVerifierProvider,
+                                          m_aDigestCalculatorProvider);
+  }
+
+  @Nonnull
+  JceKeyTransRecipientInfoGenerator getRecipientInfoGenerator (@Nonnull final X509Certificate aX509Cert) throws GeneralSecurityException
+  {
+    JceKeyTransRecipientInfoGenerator ret = _get (m_aRecipientInfoGenerators, aX509Cert);
+    if (ret == null)
+    {
+      // Creates a new cipher for every key it wraps
+      ret = new JceKeyTransRecipientInfoGenerator (aX509Cert).setProvider (getProvider (ECryptoOperation.KEY_TRANSPORT,
+                                                                                        KEY_TRANSPORT_CIPHER));
+      _put (m_aRecipientInfoGenerators, aX509Cert, ret);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  JceCMSContentEncryptorBuilder getContentEncryptorBuilder (@Nonnull final ECryptoAlgorithmCrypt eAlgorithm)
+  {
+    JceCMSContentEncryptorBuilder ret = _get (m_aEncryptorBuilders, eAlgorithm);
+    if (ret == null)
+    {
+      // The shared random avoids seeding a new SecureRandom per message
+      final Provider aProvider = getProvider (ECryptoOperation.CONTENT_CIPHER, eAlgorithm.getOID ().getId ());
+      ret = new JceCMSContentEncryptorBuilder (eAlgorithm.getOID ()).setProvider (aProvider)
+                                                                    .setSecureRandom (m_aRandom);
+      _put (m_aEncryptorBuilders, eAlgorithm, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * @param aPrivateKey
+   *        The private key to decrypt the content encryption key with.
+   * @param sContentEncryptionOID
+   *        The OID of the content encryption algorithm of the message.
+   * @return The recipient to decrypt the message with. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  JceKeyTransEnvelopedRecipient getEnvelopedRecipient (@Nonnull final PrivateKey aPrivateKey,
+                                                       @Nonnull final String sContentEncryptionOID)
+  {
+    final List <Object> aKey = Arrays.<Object> asList (aPrivateKey, sContentEncryptionOID);
+    JceKeyTransEnvelopedRecipient ret = _get (m_aEnvelopedRecipients, aKey);
+    if (ret == null)
+    {
+      // Creates a new cipher for every key it unwraps
+      ret = new JceKeyTransEnvelopedRecipient (aPrivateKey);
+      ret.setProvider (getProvider (ECryptoOperation.KEY_TRANSPORT, KEY_TRANSPORT_CIPHER));
+      ret.setContentProvider (getProvider (ECryptoOperation.CONTENT_CIPHER, sContentEncryptionOID));
+      _put (m_aEnvelopedRecipients, aKey, ret);
+    }
+    return ret;
+  }
+}
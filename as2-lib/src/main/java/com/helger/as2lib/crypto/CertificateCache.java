@@ -0,0 +1,215 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.lru.LRUMap;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * A cache for the certificates contained in messages verified by
+ * {@link BCCryptoHelper}. Each certificate is converted only once per
+ * fingerprint. All cached certificates can be retrieved e.g. to check for
+ * upcoming expiry.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public final class CertificateCache
+{
+  /** The default maximum number of cached certificates */
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  private final Lock m_aLock = new ReentrantLock ();
+  @GuardedBy ("m_aLock")
+  private final Map <String, X509Certificate> m_aByFingerprint;
+
+  public CertificateCache ()
+  {
+    this (DEFAULT_MAX_ENTRIES);
+  }
+
+  public CertificateCache (@Nonnegative final int nMaxEntries)
+  {
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    m_aByFingerprint = new LRUMap <String, X509Certificate> (nMaxEntries);
+  }
+
+  /**
+   * Get the fingerprint of an encoded certificate.
+   *
+   * @param aEncoded
+   *        The DER encoded certificate. May not be <code>null</code>.
+   * @return The hex encoded SHA-256 hash. Never <code>null</code>.
+   */
+  @Nonnull
+  public static String getFingerprint (@Nonnull final byte [] aEncoded)
+  {
+    try
+    {
+      return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aEncoded));
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("SHA-256 is not supported", ex);
+    }
+  }
+
+  /**
+   * Get the certificate contained in a message. The conversion is only
+   * performed for unknown certificates.
+   *
+   * @param aCertHolder
+   *        The certificate holder from the message. May not be
+   *        <code>null</code>.
+   * @param aProvider
+   *        The JCA provider to use for the conversion. May not be
+   *        <code>null</code>.
+   * @return The certificate. Never <code>null</code>.
+   * @throws CertificateException
+   *         If conversion fails
+   */
+  @Nonnull
+  public X509Certificate getCertificate (@Nonnull final X509CertificateHolder aCertHolder,
+                                         @Nonnull final Provider aProvider) throws CertificateException
+  {
+    final String sFingerprint;
+    try
+    {
+      sFingerprint = getFingerprint (aCertHolder.getEncoded ());
+    }
+    catch (final IOException ex)
+    {
+      throw new CertificateException ("Failed to encode certificate", ex);
+    }
+
+    m_aLock.lock ();
+    try
+    {
+      final X509Certificate aCert = m_aByFingerprint.get (sFingerprint);
+      if (aCert != null)
+        return aCert;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    // Convert outside of the lock
+    final X509Certificate aCert = new JcaX509CertificateConverter ().setProvider (aProvider)
+                                                                    .getCertificate (aCertHolder);
+    m_aLock.lock ();
+    try
+    {
+      m_aByFingerprint.put (sFingerprint, aCert);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    return aCert;
+  }
+
+  /**
+   * @return All cached certificates. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <X509Certificate> getAllCertificates ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return new ArrayList <X509Certificate> (m_aByFingerprint.values ());
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of cached certificates.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_aByFingerprint.size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Remove all cached certificates.
+   */
+  public void clear ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_aByFingerprint.clear ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.system.SystemProperties;
+
+/**
+ * Defines which JCA providers are used for the different
+ * {@link ECryptoOperation}s. For each operation an ordered list of providers
+ * is defined and the first provider supporting the requested algorithm is
+ * used. The BouncyCastle provider is always the implicit last choice, and the
+ * CMS and S/MIME structures are always handled by BouncyCastle.<br>
+ * The JDK providers use hardware support (e.g. AES-NI and SHA intrinsics) and
+ * are therefore considerably faster for bulk encryption and hashing.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@Immutable
+public final class CryptoProviderPolicy
+{
+  /**
+   * Prefix of the system properties to configure the providers. The operation
+   * ID is appended and the value is a comma separated list of provider names,
+   * e.g. <code>AS2.cryptoProviders.contentcipher=SunJCE</code>.
+   */
+  public static final String SYSTEM_PROPERTY_PREFIX = "AS2.cryptoProviders.";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (CryptoProviderPolicy.class);
+
+  private final Map <ECryptoOperation, List <Provider>> m_aProviders = new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class);
+
+  /**
+   * Constructor
+   *
+   * @param aProviders
+   *        The ordered providers per operation. Operations without providers
+   *        only use BouncyCastle. May not be <code>null</code>.
+   */
+  public CryptoProviderPolicy (@Nonnull final Map <ECryptoOperation, ? extends List <Provider>> aProviders)
+  {
+    ValueEnforcer.notNull (aProviders, "Providers");
+    for (final ECryptoOperation eOperation : ECryptoOperation.values ())
+    {
+      final List <Provider> aList = new ArrayList <Provider> ();
+      final List <Provider> aSrc = aProviders.get (eOperation);
+      if (aSrc != null)
+        for (final Provider aProvider : aSrc)
+          if (aProvider != null && !aList.contains (aProvider))
+            aList.add (aProvider);
+      m_aProviders.put (eOperation, Collections.unmodifiableList (aList));
+    }
+  }
+
+  /**
+   * @param eOperation
+   *        The operation to query. May not be <code>null</code>.
+   * @return The preferred providers in the order they are tried. Never
+   *         <code>null</code> but maybe empty, in which case only BouncyCastle
+   *         is used.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <Provider> getAllProviders (@Nonnull final ECryptoOperation eOperation)
+  {
+    ValueEnforcer.notNull (eOperation, "Operation");
+    return new ArrayList <Provider> (m_aProviders.get (eOperation));
+  }
+
+  @Override
+  public String toString ()
+  {
+    final Map <ECryptoOperation, List <String>> aNames = new EnumMap <ECryptoOperation, List <String>> (ECryptoOperation.class);
+    for (final Map.Entry <ECryptoOperation, List <Provider>> aEntry : m_aProviders.entrySet ())
+    {
+      final List <String> aList = new ArrayList <String> ();
+      for (final Provider aProvider : aEntry.getValue ())
+        aList.add (aProvider.getName ());
+      aNames.put (aEntry.getKey (), aList);
+    }
+    return new ToStringGenerator (this).append ("Providers", aNames).toString ();
+  }
+
+  /**
+   * @return A policy using BouncyCastle for everything. This was the behaviour
+   *         up to and including 2.2.5.
+   */
+  @Nonnull
+  public static CryptoProviderPolicy createBouncyCastleOnly ()
+  {
+    return new CryptoProviderPolicy (new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class));
+  }
+
+  private static void _addIfInstalled (@Nonnull final Map <ECryptoOperation, List <Provider>> aMap,
+                                       @Nonnull final ECryptoOperation eOperation,
+                                       @Nonnull final String sProviderName)
+  {
+    final Provider aProvider = Security.getProvider (sProviderName);
+    if (aProvider != null)
+    {
+      List <Provider> aList = aMap.get (eOperation);
+      if (aList == null)
+      {
+        aList = new ArrayList <Provider> ();
+        aMap.put (eOperation, aList);
+      }
+      aList.add (aProvider);
+    }
+  }
+
+  /**
+   * @return A policy preferring the providers of the JDK (SUN, SunJCE and
+   *         SunRsaSign) if they are installed, and using BouncyCastle for
+   *         everything they don't support.
+   */
+  @Nonnull
+  public static CryptoProviderPolicy createJDKFirst ()
+  {
+    final Map <ECryptoOperation, List <Provider>> aMap = new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class);
+    _addIfInstalled (aMap, ECryptoOperation.DIGEST, "SUN");
+    _addIfInstalled (aMap, ECryptoOperation.CONTENT_CIPHER, "SunJCE");
+    _addIfInstalled (aMap, ECryptoOperation.KEY_TRANSPORT, "SunJCE");
+    _addIfInstalled (aMap, ECryptoOperation.SIGNATURE, "SunRsaSign");
+    return new CryptoProviderPolicy (aMap);
+  }
+
+  /**
+   * Create a policy from the system properties starting with
+   * {@link #SYSTEM_PROPERTY_PREFIX}. Unknown provider names are logged and
+   * ignored.
+   *
+   * @return The policy. Uses only BouncyCastle if no system property is set.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public static CryptoProviderPolicy createFromSystemProperties ()
+  {
+    final Map <ECryptoOperation, List <Provider>> aMap = new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class);
+    for (final ECryptoOperation eOperation : ECryptoOperation.values ())
+    {
+      final String sPropertyName = SYSTEM_PROPERTY_PREFIX + eOperation.getID ();
+      final String sValue = SystemProperties.getPropertyValueOrNull (sPropertyName);
+      if (StringHelper.hasText (sValue))
+      {
+        final List <Provider> aList = new ArrayList <Provider> ();
+        for (final String sName : StringHelper.getExploded (',', sValue))
+        {
+          final String sProviderName = sName.trim ();
+          if (sProviderName.length () > 0)
+          {
+            final Provider aProvider = Security.getProvider (sProviderName);
+            if (aProvider != null)
+              aList.add (aProvider);
+            else
+              s_aLogger.warn ("Ignoring unknown security provider '" + sProviderName + "' in " + sPropertyName);
+          }
+        }
+        aMap.put (eOperation, aList);
+      }
+    }
+    return new CryptoProviderPolicy (aMap);
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.as2lib.disposition.DispositionType;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Helper methods to update the {@link MetricsRegistry} of a session from the
+ * processing modules. All methods accept a <code>null</code> session so that
+ * modules that were not initialized don't need special handling.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@Immutable
+public final class AS2MetricsHelper
+{
+  /** The name used for all unknown disposition statuses and modifiers */
+  public static final String DISPOSITION_OTHER = "other";
+
+  // The dispositions come from the peer - only known values become names
+  private static final Set <String> KNOWN_STATUSES = CollectionHelper.newSet ("processed", "failed");
+  private static final Set <String> KNOWN_STATUS_MODIFIERS = CollectionHelper.newSet ("error", "warning", "failure");
+
+  private AS2MetricsHelper ()
+  {}
+
+  @Nonnull
+  @Nonempty
+  public static String getPartnershipMetricName (@Nonnull @Nonempty final String sBaseName,
+                                                 @Nullable final String sPartnershipName)
+  {
+    return sBaseName + CAS2Metrics.PARTNERSHIP_INFIX + (StringHelper.hasText (sPartnershipName) ? sPartnershipName
+                                                                                                : "unknown");
+  }
+
+  @Nonnull
+  @Nonempty
+  private static String _getKnownName (@Nonnull final String sValue, @Nonnull final Set <String> aKnownNames)
+  {
+    final String sName = sValue.trim ().toLowerCase (Locale.US);
+    return aKnownNames.contains (sName) ? sName : DISPOSITION_OTHER;
+  }
+
+  /**
+   * Get the metric name for the passed disposition. Because the disposition is
+   * provided by the peer, only the known statuses (processed, failed) and
+   * status modifiers (error, warning, failure) are used and all other values
+   * are counted as {@link #DISPOSITION_OTHER}. The status description is not
+   * part of the name. So the number of metrics stays bounded.
+   *
+   * @param sPrefix
+   *        The prefix to use. May neither be <code>null</code> nor empty.
+   * @param aDisposition
+   *        The disposition. May not be <code>null</code>.
+   * @return The metric name. Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getDispositionMetricName (@Nonnull @Nonempty final String sPrefix,
+                                                 @Nonnull final DispositionType aDisposition)
+  {
+    final StringBuilder aSB = new StringBuilder (sPrefix).append (_getKnownName (aDisposition.getStatus (),
+                                                                                KNOWN_STATUSES));
+    if (StringHelper.hasText (aDisposition.getStatusModifier ()))
+      aSB.append ('.').append (_getKnownName (aDisposition.getStatusModifier (), KNOWN_STATUS_MODIFIERS));
+    return aSB.toString ();
+  }
+
+  public static void onBytesSent (@Nullable final IAS2Session aSession, @Nonnegative final long nBytes)
+  {
+    if (aSession != null)
+      aSession.getMetrics ().getCounter (CAS2Metrics.BYTES_OUT).add (nBytes);
+  }
+
+  public static void onBytesReceived (@Nullable final IAS2Session aSession, @Nonnegative final long nBytes)
+  {
+    if (aSession != null)
+      aSession.getMetrics ().getCounter (CAS2Metrics.BYTES_IN).add (nBytes);
+  }
+
+  public static void onMessageSent (@Nullable final IAS2Session aSession, @Nonnull final IMessage aMsg)
+  {
+    _onMessage (aSession, CAS2Metrics.MESSAGES_SENT, aMsg);
+  }
+
+  public static void onMessageReceived (@Nullable final IAS2Session aSession, @Nonnull final IMessage aMsg)
+  {
+    _onMessage (aSession, CAS2Metrics.MESSAGES_RECEIVED, aMsg);
+  }
+
+  private static void _onMessage (@Nullable final IAS2Session aSession,
+                                  @Nonnull final String sName,
+                                  @Nonnull final IMessage aMsg)
+  {
+    if (aSession != null)
+    {
+      final MetricsRegistry aMetrics = aSession.getMetrics ();
+      aMetrics.getCounter (sName).increment ();
+      aMetrics.getCounter (getPartnershipMetricName (sName, aMsg.getPartnership ().getName ())).increment ();
+    }
+  }
+
+  public static void onMDNReceived (@Nullable final IAS2Session aSession,
+                                    @Nonnull final DispositionType aDisposition)
+  {
+    if (aSession != null)
+      aSession.getMetrics ()
+              .getCounter (getDispositionMetricName (CAS2Metrics.MDN_RECEIVED_PREFIX, aDisposition))
+              .increment ();
+  }
+
+  public static void onMDNSent (@Nullable final IAS2Session aSession, @Nonnull final DispositionType aDisposition)
+  {
+    if (aSession != null)
+      aSession.getMetrics ()
+              .getCounter (getDispositionMetricName (CAS2Metrics.MDN_SENT_PREFIX, aDisposition))
+              .increment ();
+  }
+
+  public static void onMDNSendFailed (@Nullable final IAS2Session aSession,
+                                      @Nonnull final DispositionType aDisposition)
+  {
+    if (aSession != null)
+      aSession.getMetrics ()
+              .getCounter (getDispositionMetricName (CAS2Metrics.MDN_SEND_FAILED_PREFIX, aDisposition))
+              .increment ();
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The names of the metrics maintained by as2-lib in the {@link MetricsRegistry}
+ * of a session. Per partnership metrics use the base name followed by
+ * {@link #PARTNERSHIP_INFIX} and the partnership name. Disposition based
+ * metrics use the prefix followed by the disposition status and the optional
+ * status modifier (e.g. <code>mdn.received.processed.error</code>).
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@Immutable
+public final class CAS2Metrics
+{
+  /** Counter: number of messages sent successfully */
+  public static final String MESSAGES_SENT = "messages.sent";
+  /** Counter: number of messages received and accepted */
+  public static final String MESSAGES_RECEIVED = "messages.received";
+  /** Counter: number of bytes sent via HTTP (messages and MDNs) */
+  public static final String BYTES_OUT = "bytes.out";
+  /** Counter: number of bytes received via HTTP */
+  public static final String BYTES_IN = "bytes.in";
+  /** Counter prefix: received MDNs by disposition */
+  public static final String MDN_RECEIVED_PREFIX = "mdn.received.";
+  /** Counter prefix: successfully sent MDNs by disposition */
+  public static final String MDN_SENT_PREFIX = "mdn.sent.";
+  /** Counter prefix: MDNs that could not be sent by disposition */
+  public static final String MDN_SEND_FAILED_PREFIX = "mdn.sendfailed.";
+  /** Gauge: number of pending asynchronous MDNs */
+  public static final String PENDING_MDNS = "mdn.pending";
+  /** Gauge prefix: number of messages waiting for resending per module */
+  public static final String RESEND_QUEUE_PREFIX = "resend.queue.";
+  /** Gauge prefix: number of active connections per receiver module */
+  public static final String RECEIVER_CONNECTIONS_PREFIX = "receiver.connections.";
+  /**
+   * Gauge prefix: queue size and counters per stage of the
+   * {@link com.helger.as2lib.processor.StagedMessageProcessor}
+   */
+  public static final String STAGE_PREFIX = "stage.";
+  /** Histogram prefix: duration of the processing operations */
+  public static final String OPERATION_PREFIX = "operation.";
+
+  public static final String PARTNERSHIP_INFIX = ".partnership.";
+
+  private CAS2Metrics ()
+  {}
+}
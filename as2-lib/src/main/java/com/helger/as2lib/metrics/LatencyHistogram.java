@@ -0,0 +1,242 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A lock-free histogram for durations in nanoseconds. Like an HDR histogram
+ * the values are stored in buckets with a logarithmic exponent and linear sub
+ * buckets, so that the relative error of a percentile is at most ~3% over the
+ * whole range of <code>long</code> while using a fixed amount of memory (~15
+ * KB). Recording a value is a few atomic increments and does not allocate.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class LatencyHistogram
+{
+  // 32 linear sub buckets per power of 2
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Values below this are stored exactly
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+  private static final int BUCKET_COUNT = LINEAR_LIMIT + (62 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray m_aBuckets = new AtomicLongArray (BUCKET_COUNT);
+  private final AtomicLong m_aCount = new AtomicLong ();
+  private final AtomicLong m_aSum = new AtomicLong ();
+  private final AtomicLong m_aMin = new AtomicLong (Long.MAX_VALUE);
+  private final AtomicLong m_aMax = new AtomicLong (Long.MIN_VALUE);
+
+  public LatencyHistogram ()
+  {}
+
+  static int getBucketIndex (@Nonnegative final long nValue)
+  {
+    if (nValue < LINEAR_LIMIT)
+      return (int) nValue;
+    // Number of bits to shift so that the value is in [32, 64)
+    final int nShift = 63 - Long.numberOfLeadingZeros (nValue) - SUB_BUCKET_BITS;
+    return LINEAR_LIMIT + (nShift - 1) * SUB_BUCKET_COUNT + (int) (nValue >>> nShift) - SUB_BUCKET_COUNT;
+  }
+
+  static long getBucketLowerBound (@Nonnegative final int nIndex)
+  {
+    if (nIndex < LINEAR_LIMIT)
+      return nIndex;
+    final int nShift = (nIndex - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+    return ((long) ((nIndex - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT)) << nShift;
+  }
+
+  static long getBucketMidValue (@Nonnegative final int nIndex)
+  {
+    if (nIndex < LINEAR_LIMIT)
+      return nIndex;
+    final int nShift = (nIndex - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+    return getBucketLowerBound (nIndex) + (1L << (nShift - 1));
+  }
+
+  /**
+   * Record a single duration.
+   *
+   * @param nDurationNanos
+   *        The duration in nanoseconds. Negative values are recorded as 0.
+   */
+  public void record (final long nDurationNanos)
+  {
+    final long nValue = Math.max (0, nDurationNanos);
+    m_aBuckets.incrementAndGet (getBucketIndex (nValue));
+    m_aCount.incrementAndGet ();
+    m_aSum.addAndGet (nValue);
+
+    long nCur = m_aMin.get ();
+    while (nValue < nCur && !m_aMin.compareAndSet (nCur, nValue))
+      nCur = m_aMin.get ();
+    nCur = m_aMax.get ();
+    while (nValue > nCur && !m_aMax.compareAndSet (nCur, nValue))
+      nCur = m_aMax.get ();
+  }
+
+  @Nonnegative
+  public long getCount ()
+  {
+    return m_aCount.get ();
+  }
+
+  /**
+   * @return The sum of all recorded values in nanoseconds.
+   */
+  @Nonnegative
+  public long getTotalNanos ()
+  {
+    return m_aSum.get ();
+  }
+
+  /**
+   * @return The smallest recorded value in nanoseconds or 0 if nothing was
+   *         recorded.
+   */
+  @Nonnegative
+  public long getMinNanos ()
+  {
+    final long ret = m_aMin.get ();
+    return ret == Long.MAX_VALUE ? 0 : ret;
+  }
+
+  /**
+   * @return The largest recorded value in nanoseconds or 0 if nothing was
+   *         recorded.
+   */
+  @Nonnegative
+  public long getMaxNanos ()
+  {
+    final long ret = m_aMax.get ();
+    return ret == Long.MIN_VALUE ? 0 : ret;
+  }
+
+  @Nonnegative
+  public long getMeanNanos ()
+  {
+    final long nCount = m_aCount.get ();
+    return nCount == 0 ? 0 : m_aSum.get () / nCount;
+  }
+
+  /**
+   * Get the approximated value at the passed percentile. Concurrent recordings
+   * may or may not be considered.
+   *
+   * @param dPercentile
+   *        The percentile to query. Must be between 0 and 100.
+   * @return The value in nanoseconds or 0 if nothing was recorded.
+   */
+  @Nonnegative
+  public long getValueAtPercentileNanos (final double dPercentile)
+  {
+    ValueEnforcer.isBetweenInclusive (dPercentile, "Percentile", 0, 100);
+
+    final long nCount = m_aCount.get ();
+    if (nCount == 0)
+      return 0;
+    final long nTarget = Math.max (1, (long) Math.ceil (dPercentile / 100 * nCount));
+    long nSeen = 0;
+    for (int i = 0; i < BUCKET_COUNT; ++i)
+    {
+      nSeen += m_aBuckets.get (i);
+      if (nSeen >= nTarget)
+        return Math.min (getBucketMidValue (i), getMaxNanos ());
+    }
+    return getMaxNanos ();
+  }
+
+  /**
+   * Convert a nanosecond value of this histogram to fractional milliseconds.
+   *
+   * @param nNanos
+   *        Nanoseconds
+   * @return Milliseconds
+   */
+  public static double getAsMillis (final long nNanos)
+  {
+    return nNanos / (double) TimeUnit.MILLISECONDS.toNanos (1);
+  }
+
+  /**
+   * Remove all recorded values. Values recorded concurrently may get lost.
+   */
+  public void reset ()
+  {
+    for (int i = 0; i < BUCKET_COUNT; ++i)
+      m_aBuckets.set (i, 0);
+    m_aCount.set (0);
+    m_aSum.set (0);
+    m_aMin.set (Long.MAX_VALUE);
+    m_aMax.set (Long.MIN_VALUE);
+  }
+
+  @Nonnull
+  public String getAsSummary ()
+  {
+    return "count=" +
+           getCount () +
+           "; mean=" +
+           getAsMillis (getMeanNanos ()) +
+           "ms; p50=" +
+           getAsMillis (getValueAtPercentileNanos (50)) +
+           "ms; p99=" +
+           getAsMillis (getValueAtPercentileNanos (99)) +
+           "ms; max=" +
+           getAsMillis (getMaxNanos ()) +
+           "ms";
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Count", getCount ())
+                                       .append ("MeanNanos", getMeanNanos ())
+                                       .append ("MinNanos", getMinNanos ())
+                                       .append ("MaxNanos", getMaxNanos ())
+                                       .toString ();
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A counter with low contention when updated from many threads. Like the JDK 8
+ * <code>LongAdder</code> the value is striped over several cells which are
+ * selected by the current thread, and the cells are only summed up when the
+ * value is read. The cells are padded to avoid false sharing.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class MetricCounter
+{
+  private static final int STRIPES;
+  // 8 longs = 64 bytes = one cache line per cell
+  private static final int PADDING = 8;
+
+  static
+  {
+    int nStripes = 1;
+    while (nStripes < Runtime.getRuntime ().availableProcessors () && nStripes < 64)
+      nStripes <<= 1;
+    STRIPES = nStripes;
+  }
+
+  private final AtomicLongArray m_aCells = new AtomicLongArray (STRIPES * PADDING);
+
+  public MetricCounter ()
+  {}
+
+  private static int _getCellIndex ()
+  {
+    final long nThreadID = Thread.currentThread ().getId ();
+    // Spread the bits of the thread ID
+    final int nHash = (int) (nThreadID ^ (nThreadID >>> 16)) * 0x9E3779B9;
+    return ((nHash >>> 16) & (STRIPES - 1)) * PADDING;
+  }
+
+  public void increment ()
+  {
+    m_aCells.incrementAndGet (_getCellIndex ());
+  }
+
+  public void decrement ()
+  {
+    m_aCells.decrementAndGet (_getCellIndex ());
+  }
+
+  /**
+   * @param nDelta
+   *        The value to add. May be negative.
+   */
+  public void add (final long nDelta)
+  {
+    if (nDelta != 0)
+      m_aCells.addAndGet (_getCellIndex (), nDelta);
+  }
+
+  /**
+   * @return The current value. Concurrent updates may or may not be
+   *         considered.
+   */
+  public long get ()
+  {
+    long ret = 0;
+    for (int i = 0; i < STRIPES; ++i)
+      ret += m_aCells.get (i * PADDING);
+    return ret;
+  }
+
+  /**
+   * Reset the value to 0. Concurrent updates may get lost.
+   */
+  public void reset ()
+  {
+    for (int i = 0; i < STRIPES; ++i)
+      m_aCells.set (i * PADDING, 0);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return Long.toString (get ());
+  }
+}
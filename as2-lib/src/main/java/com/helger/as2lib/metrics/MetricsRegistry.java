@@ -0,0 +1,267 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A registry of named counters, gauges and latency histograms. Counters and
+ * histograms are created on first access, so callers don't need to register
+ * them upfront. See {@link CAS2Metrics} for the names used by as2-lib. The
+ * registry can be exposed via JMX (see {@link #registerMBean(String)}).
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class MetricsRegistry implements IMetricsRegistryMXBean
+{
+  public static final String DEFAULT_OBJECT_NAME = "com.helger.as2lib:type=Metrics";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (MetricsRegistry.class);
+
+  private final ConcurrentMap <String, MetricCounter> m_aCounters = new ConcurrentHashMap <String, MetricCounter> ();
+  private final ConcurrentMap <String, IMetricGauge> m_aGauges = new ConcurrentHashMap <String, IMetricGauge> ();
+  private final ConcurrentMap <String, LatencyHistogram> m_aHistograms = new ConcurrentHashMap <String, LatencyHistogram> ();
+  private ObjectName m_aObjectName;
+
+  public MetricsRegistry ()
+  {}
+
+  /**
+   * Get or create the counter with the passed name.
+   *
+   * @param sName
+   *        The counter name. May neither be <code>null</code> nor empty.
+   * @return The counter. Never <code>null</code>.
+   */
+  @Nonnull
+  public MetricCounter getCounter (@Nonnull @Nonempty final String sName)
+  {
+    MetricCounter ret = m_aCounters.get (sName);
+    if (ret == null)
+    {
+      ValueEnforcer.notEmpty (sName, "Name");
+      final MetricCounter aNew = new MetricCounter ();
+      ret = m_aCounters.putIfAbsent (sName, aNew);
+      if (ret == null)
+        ret = aNew;
+    }
+    return ret;
+  }
+
+  /**
+   * Get or create the histogram with the passed name.
+   *
+   * @param sName
+   *        The histogram name. May neither be <code>null</code> nor empty.
+   * @return The histogram. Never <code>null</code>.
+   */
+  @Nonnull
+  public LatencyHistogram getHistogram (@Nonnull @Nonempty final String sName)
+  {
+    LatencyHistogram ret = m_aHistograms.get (sName);
+    if (ret == null)
+    {
+      ValueEnforcer.notEmpty (sName, "Name");
+      final LatencyHistogram aNew = new LatencyHistogram ();
+      ret = m_aHistograms.putIfAbsent (sName, aNew);
+      if (ret == null)
+        ret = aNew;
+    }
+    return ret;
+  }
+
+  /**
+   * Register a gauge. An existing gauge with the same name is replaced.
+   *
+   * @param sName
+   *        The gauge name. May neither be <code>null</code> nor empty.
+   * @param aGauge
+   *        The gauge. May not be <code>null</code>.
+   */
+  public void registerGauge (@Nonnull @Nonempty final String sName, @Nonnull final IMetricGauge aGauge)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aGauge, "Gauge");
+    m_aGauges.put (sName, aGauge);
+  }
+
+  public void removeGauge (@Nullable final String sName)
+  {
+    if (sName != null)
+      m_aGauges.remove (sName);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Long> getCounters ()
+  {
+    final Map <String, Long> ret = new TreeMap <String, Long> ();
+    for (final Map.Entry <String, MetricCounter> aEntry : m_aCounters.entrySet ())
+      ret.put (aEntry.getKey (), Long.valueOf (aEntry.getValue ().get ()));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Long> getGauges ()
+  {
+    final Map <String, Long> ret = new TreeMap <String, Long> ();
+    for (final Map.Entry <String, IMetricGauge> aEntry : m_aGauges.entrySet ())
+      ret.put (aEntry.getKey (), Long.valueOf (_getGaugeValue (aEntry.getKey (), aEntry.getValue ())));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, String> getHistograms ()
+  {
+    final Map <String, String> ret = new TreeMap <String, String> ();
+    for (final Map.Entry <String, LatencyHistogram> aEntry : m_aHistograms.entrySet ())
+      ret.put (aEntry.getKey (), aEntry.getValue ().getAsSummary ());
+    return ret;
+  }
+
+  public long getCounterValue (@Nullable final String sName)
+  {
+    final MetricCounter aCounter = sName == null ? null : m_aCounters.get (sName);
+    return aCounter == null ? 0 : aCounter.get ();
+  }
+
+  private static long _getGaugeValue (@Nonnull final String sName, @Nonnull final IMetricGauge aGauge)
+  {
+    try
+    {
+      return aGauge.getValue ();
+    }
+    catch (final RuntimeException ex)
+    {
+      s_aLogger.warn ("Failed to read gauge '" + sName + "'", ex);
+      return -1;
+    }
+  }
+
+  /**
+   * @param sName
+   *        The gauge name. May be <code>null</code>.
+   * @return The current gauge value or -1 if no such gauge exists or it
+   *         failed.
+   */
+  public long getGaugeValue (@Nullable final String sName)
+  {
+    final IMetricGauge aGauge = sName == null ? null : m_aGauges.get (sName);
+    return aGauge == null ? -1 : _getGaugeValue (sName, aGauge);
+  }
+
+  public double getHistogramPercentileMS (@Nullable final String sName, final double dPercentile)
+  {
+    final LatencyHistogram aHistogram = sName == null ? null : m_aHistograms.get (sName);
+    return aHistogram == null ? 0 : LatencyHistogram.getAsMillis (aHistogram.getValueAtPercentileNanos (dPercentile));
+  }
+
+  /**
+   * Reset all counters and histograms. Gauges are not affected.
+   */
+  public void reset ()
+  {
+    for (final MetricCounter aCounter : m_aCounters.values ())
+      aCounter.reset ();
+    for (final LatencyHistogram aHistogram : m_aHistograms.values ())
+      aHistogram.reset ();
+  }
+
+  /**
+   * Register this registry at the platform MBean server.
+   *
+   * @param sObjectName
+   *        The object name to use. May neither be <code>null</code> nor empty.
+   *        See {@link #DEFAULT_OBJECT_NAME}.
+   * @throws JMException
+   *         If the registration failed, e.g. because the name is already in
+   *         use
+   */
+  public synchronized void registerMBean (@Nonnull @Nonempty final String sObjectName) throws JMException
+  {
+    ValueEnforcer.notEmpty (sObjectName, "ObjectName");
+    if (m_aObjectName != null)
+      throw new IllegalStateException ("MBean is already registered as " + m_aObjectName);
+    final ObjectName aObjectName = new ObjectName (sObjectName);
+    ManagementFactory.getPlatformMBeanServer ().registerMBean (this, aObjectName);
+    m_aObjectName = aObjectName;
+  }
+
+  /**
+   * Unregister this registry from the platform MBean server, if it was
+   * registered.
+   *
+   * @throws JMException
+   *         If unregistering failed
+   */
+  public synchronized void unregisterMBean () throws JMException
+  {
+    if (m_aObjectName != null)
+    {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (m_aObjectName);
+      m_aObjectName = null;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Counters", m_aCounters.size ())
+                                       .append ("Gauges", m_aGauges.size ())
+                                       .append ("Histograms", m_aHistograms.size ())
+                                       .appendIfNotNull ("ObjectName", m_aObjectName)
+                                       .toString ();
+  }
+}
@@ -58,7 +58,14 @@ import com.helger.commons.string.ToStringGenerator;
 
 /**
  * Abstract {@link IPartnershipFactory} implementation using
- * {@link PartnershipMap} as the underlying data storage object.
+ * {@link PartnershipMap} as the underlying data storage object.<br>
+ * The partnership map is used as an immutable snapshot: every modification
+ * creates a modified copy that replaces the current map as a whole. Therefore
+ * read accesses don't need any locking and always see a consistent state,
+ * even while the partnerships are e.g. reloaded. Modifications are serialized
+ * using the write lock. All snapshots share the same partnership objects,
+ * which don't keep any state per snapshot, so that replaced snapshots can
+ * simply be garbage collected.
  *
  * @author Philip Helger
  */
@@ -67,7 +74,8 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractPartnershipFactory.class);
 
-  private final PartnershipMap m_aPartnerships = new PartnershipMap ();
+  // The current snapshot - never modified after publication
+  private volatile PartnershipMap m_aPartnerships = new PartnershipMap ();
 
   /**
    * Callback method that is invoked, when this object is modified. This method
@@ -82,98 +90,97 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
   protected void markAsChanged () throws OpenAS2Exception
   {}
 
+  @Nonnull
+  @ReturnsMutableCopy
+  @IsLocked (ELockType.WRITE)
+  private PartnershipMap _getModifiableCopy ()
+  {
+    final PartnershipMap ret = new PartnershipMap ();
+    ret.setPartnerships (m_aPartnerships);
+    return ret;
+  }
+
   @Nonnull
   @OverridingMethodsMustInvokeSuper
   public Partnership getPartnership (@Nonnull final Partnership aPartnership) throws OpenAS2Exception
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
 
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      Partnership aRealPartnership = m_aPartnerships.getPartnershipByName (aPartnership.getName ());
-      if (aRealPartnership == null)
-      {
-        // Found no partnership by name
-        aRealPartnership = m_aPartnerships.getPartnershipByID (aPartnership.getAllSenderIDs (),
-                                                               aPartnership.getAllReceiverIDs ());
-      }
-
-      if (aRealPartnership == null)
-        throw new PartnershipNotFoundException (aPartnership);
-      return aRealPartnership;
-    }
-    finally
+    // Use the same snapshot for both lookups
+    final PartnershipMap aPartnerships = m_aPartnerships;
+    Partnership aRealPartnership = aPartnerships.getPartnershipByName (aPartnership.getName ());
+    if (aRealPartnership == null)
     {
-      m_aRWLock.readLock ().unlock ();
+      // Found no partnership by name
+      aRealPartnership = aPartnerships.getPartnershipByID (aPartnership.internalGetSenderIDs (),
+                                                           aPartnership.internalGetReceiverIDs ());
     }
+
+    if (aRealPartnership == null)
+      throw new PartnershipNotFoundException (aPartnership);
+    return aRealPartnership;
   }
 
   @Nullable
   public Partnership getPartnershipByName (@Nullable final String sName)
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aPartnerships.getPartnershipByName (sName);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aPartnerships.getPartnershipByName (sName);
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public Set <String> getAllPartnershipNames ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aPartnerships.getAllPartnershipNames ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aPartnerships.getAllPartnershipNames ();
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public List <Partnership> getAllPartnerships ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aPartnerships.getAllPartnerships ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aPartnerships.getAllPartnerships ();
   }
 
+  /**
+   * @return The current snapshot of all partnerships. Later modifications of
+   *         this factory are not reflected in the returned object. Never
+   *         <code>null</code>.
+   */
   @Nonnull
   public IPartnershipMap getPartnershipMap ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aPartnerships;
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aPartnerships;
   }
 
   protected final void setPartnerships (@Nonnull final PartnershipMap aPartnerships) throws OpenAS2Exception
+  {
+    setPartnerships (aPartnerships, true);
+  }
+
+  /**
+   * Replace all partnerships.
+   *
+   * @param aPartnerships
+   *        The new partnerships. May not be <code>null</code>.
+   * @param bMarkAsChanged
+   *        <code>true</code> to call {@link #markAsChanged()},
+   *        <code>false</code> if the partnerships were e.g. just read from the
+   *        persistent storage.
+   * @throws OpenAS2Exception
+   *         In case {@link #markAsChanged()} fails
+   * @since 2.2.6
+   */
+  protected final void setPartnerships (@Nonnull final PartnershipMap aPartnerships,
+                                        final boolean bMarkAsChanged) throws OpenAS2Exception
   {
     m_aRWLock.writeLock ().lock ();
     try
     {
-      m_aPartnerships.setPartnerships (aPartnerships);
-      markAsChanged ();
+      final PartnershipMap aNewPartnerships = new PartnershipMap ();
+      aNewPartnerships.setPartnerships (aPartnerships);
+      m_aPartnerships = aNewPartnerships;
+      if (bMarkAsChanged)
+        markAsChanged ();
     }
     finally
     {
@@ -187,8 +194,10 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (m_aPartnerships.addPartnership (aPartnership).isUnchanged ())
+      final PartnershipMap aNewPartnerships = _getModifiableCopy ();
+      if (aNewPartnerships.addPartnership (aPartnership).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aPartnerships = aNewPartnerships;
       markAsChanged ();
       return EChange.CHANGED;
     }
@@ -204,8 +213,10 @@ public abstract class AbstractPartnershipFactory extends AbstractDynamicComponen
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (m_aPartnerships.removePartnership (aPartnership).isUnchanged ())
+      final PartnershipMap aNewPartnerships = _getModifiableCopy ();
+      if (aNewPartnerships.removePartnership (aPartnership).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aPartnerships = aNewPartnerships;
       markAsChanged ();
       return EChange.CHANGED;
     }
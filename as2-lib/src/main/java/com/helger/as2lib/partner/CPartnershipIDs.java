@@ -190,6 +190,25 @@ public final class CPartnershipIDs
    */
   public static final String PA_DISABLE_DECOMPRESS = "disable_decompress";
 
+  /**
+   * Optional HTTP streaming mode for outgoing messages. Check
+   * {@link com.helger.as2lib.util.http.EHttpStreamingMode} constants for values
+   * (using the value of the <code>getID()</code> method). Use
+   * <code>fixed</code> for servers that reject chunked uploads.
+   *
+   * @since 2.2.6
+   */
+  public static final String PA_HTTP_STREAMING_MODE = "http_streaming_mode";
+
+  /**
+   * Optional timeout in seconds for receiving an asynchronous MDN. Overrides
+   * the default timeout of the
+   * {@link com.helger.as2lib.pendingmdn.AsyncMDNTimeoutModule}.
+   *
+   * @since 2.2.6
+   */
+  public static final String PA_ASYNC_MDN_TIMEOUT = "async_mdn_timeout";
+
   private CPartnershipIDs ()
   {}
 }
@@ -34,6 +34,8 @@ package com.helger.as2lib.partner;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -43,6 +45,7 @@ import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.as2lib.util.StringMap;
+import com.helger.as2lib.util.http.EHttpStreamingMode;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.equals.EqualsHelper;
@@ -54,7 +57,12 @@ import com.helger.commons.string.ToStringGenerator;
  * This class represents a single partnership. It has a unique name, a set of
  * sender and receiver specific attributes (like AS2 ID, Email and key alias)
  * and a set of generic attributes that are interpreted depending on the
- * context.
+ * context.<br>
+ * {@link #copyFrom(Partnership)} does not copy the ID and attribute maps but
+ * shares them with the source partnership. A shared map is copied by the
+ * partnership that modifies it first, so that e.g. the partnership of each
+ * message can be filled from the stored partnership without copying all
+ * attributes.
  *
  * @author Philip Helger
  */
@@ -62,10 +70,23 @@ public class Partnership implements Serializable
 {
   public static final String DEFAULT_NAME = "auto-created-dummy";
 
+  // Incremented upon each ID change of a partnership that is contained in the
+  // ID index of any PartnershipMap
+  private static final AtomicLong s_aIndexedIDRevision = new AtomicLong ();
+
   private String m_sName;
-  private final StringMap m_aSenderIDs = new StringMap ();
-  private final StringMap m_aReceiverIDs = new StringMap ();
-  private final StringMap m_aAttributes = new StringMap ();
+  // The maps may be shared with other partnerships (see copyFrom) and must be
+  // copied before they are modified, if the respective flag is set
+  private StringMap m_aSenderIDs = new StringMap ();
+  private StringMap m_aReceiverIDs = new StringMap ();
+  private StringMap m_aAttributes = new StringMap ();
+  private volatile boolean m_bSenderIDsShared;
+  private volatile boolean m_bReceiverIDsShared;
+  private volatile boolean m_bAttributesShared;
+  // Set once this partnership was added to the ID index of a PartnershipMap
+  private transient volatile boolean m_bIDIndexed;
+  // Compiled lazily from the attributes
+  private transient volatile PartnershipProfile m_aProfile;
 
   public Partnership (@Nonnull final String sName)
   {
@@ -77,6 +98,66 @@ public class Partnership implements Serializable
     m_sName = ValueEnforcer.notNull (sName, "Name");
   }
 
+  /**
+   * Mark this partnership as being contained in the ID index of a
+   * {@link PartnershipMap}. From then on all ID changes increment the
+   * revision returned by {@link #getIndexedIDRevision()}. The mark is never
+   * removed, as it is the same for all maps.
+   */
+  final void markIDIndexed ()
+  {
+    m_bIDIndexed = true;
+  }
+
+  /**
+   * @return The revision that is incremented upon each ID change of a
+   *         partnership that is contained in an ID index. An ID index built
+   *         for an older revision must be rebuilt.
+   */
+  static long getIndexedIDRevision ()
+  {
+    return s_aIndexedIDRevision.get ();
+  }
+
+  @Nonnull
+  private StringMap _getWritableSenderIDs ()
+  {
+    if (m_bSenderIDsShared)
+    {
+      m_aSenderIDs = m_aSenderIDs.getClone ();
+      m_bSenderIDsShared = false;
+    }
+    return m_aSenderIDs;
+  }
+
+  @Nonnull
+  private StringMap _getWritableReceiverIDs ()
+  {
+    if (m_bReceiverIDsShared)
+    {
+      m_aReceiverIDs = m_aReceiverIDs.getClone ();
+      m_bReceiverIDsShared = false;
+    }
+    return m_aReceiverIDs;
+  }
+
+  @Nonnull
+  private StringMap _getWritableAttributes ()
+  {
+    if (m_bAttributesShared)
+    {
+      m_aAttributes = m_aAttributes.getClone ();
+      m_bAttributesShared = false;
+    }
+    return m_aAttributes;
+  }
+
+  private void _onIDChange ()
+  {
+    if (m_bIDIndexed)
+      s_aIndexedIDRevision.incrementAndGet ();
+  }
+
   /**
    * @return The partnership name. Never <code>null</code>.
    */
@@ -97,7 +178,8 @@ public class Partnership implements Serializable
    */
   public void setSenderID (@Nonnull final String sKey, @Nullable final String sValue)
   {
-    m_aSenderIDs.setAttribute (sKey, sValue);
+    _getWritableSenderIDs ().setAttribute (sKey, sValue);
+    _onIDChange ();
   }
 
   /**
@@ -148,7 +230,8 @@ public class Partnership implements Serializable
    */
   public void addSenderIDs (@Nullable final Map <String, String> aMap)
   {
-    m_aSenderIDs.addAttributes (aMap);
+    _getWritableSenderIDs ().addAttributes (aMap);
+    _onIDChange ();
   }
 
   /**
@@ -254,6 +337,15 @@ public class Partnership implements Serializable
     return m_aSenderIDs.getClone ();
   }
 
+  /**
+   * @return The sender IDs without copying. Must not be modified.
+   */
+  @Nonnull
+  final IStringMap internalGetSenderIDs ()
+  {
+    return m_aSenderIDs;
+  }
+
   /**
    * Set an arbitrary receiver ID.
    *
@@ -265,7 +357,8 @@ public class Partnership implements Serializable
    */
   public void setReceiverID (@Nonnull final String sKey, @Nullable final String sValue)
   {
-    m_aReceiverIDs.setAttribute (sKey, sValue);
+    _getWritableReceiverIDs ().setAttribute (sKey, sValue);
+    _onIDChange ();
   }
 
   /**
@@ -316,7 +409,8 @@ public class Partnership implements Serializable
    */
   public void addReceiverIDs (@Nullable final Map <String, String> aMap)
   {
-    m_aReceiverIDs.addAttributes (aMap);
+    _getWritableReceiverIDs ().addAttributes (aMap);
+    _onIDChange ();
   }
 
   /**
@@ -422,6 +516,15 @@ public class Partnership implements Serializable
     return m_aReceiverIDs.getClone ();
   }
 
+  /**
+   * @return The receiver IDs without copying. Must not be modified.
+   */
+  @Nonnull
+  final IStringMap internalGetReceiverIDs ()
+  {
+    return m_aReceiverIDs;
+  }
+
   /**
    * Set an arbitrary partnership attribute.
    *
@@ -436,7 +539,13 @@ public class Partnership implements Serializable
   @Nonnull
   public EChange setAttribute (@Nonnull final String sKey, @Nullable final String sValue)
   {
-    return m_aAttributes.setAttribute (sKey, sValue);
+    if (EqualsHelper.equals (m_aAttributes.getAttributeAsString (sKey), sValue))
+      return EChange.UNCHANGED;
+
+    final EChange eChange = _getWritableAttributes ().setAttribute (sKey, sValue);
+    if (eChange.isChanged ())
+      m_aProfile = null;
+    return eChange;
   }
 
   /**
@@ -789,6 +898,36 @@ public class Partnership implements Serializable
     return setAttribute (CPartnershipIDs.PA_DISABLE_DECOMPRESS, Boolean.toString (bValue));
   }
 
+  @Nullable
+  public String getHttpStreamingMode ()
+  {
+    return getAttribute (CPartnershipIDs.PA_HTTP_STREAMING_MODE);
+  }
+
+  @Nonnull
+  public EChange setHttpStreamingMode (@Nullable final String sValue)
+  {
+    return setAttribute (CPartnershipIDs.PA_HTTP_STREAMING_MODE, sValue);
+  }
+
+  @Nonnull
+  public EChange setHttpStreamingMode (@Nullable final EHttpStreamingMode eValue)
+  {
+    return setHttpStreamingMode (eValue == null ? null : eValue.getID ());
+  }
+
+  @Nullable
+  public String getAsyncMDNTimeout ()
+  {
+    return getAttribute (CPartnershipIDs.PA_ASYNC_MDN_TIMEOUT);
+  }
+
+  @Nonnull
+  public EChange setAsyncMDNTimeout (@Nullable final String sValue)
+  {
+    return setAttribute (CPartnershipIDs.PA_ASYNC_MDN_TIMEOUT, sValue);
+  }
+
   /**
    * @return A copy of all contained attributes. Never <code>null</code>.
    */
@@ -809,7 +948,29 @@ public class Partnership implements Serializable
    */
   public void addAllAttributes (@Nullable final Map <String, String> aAttributes)
   {
-    m_aAttributes.addAttributes (aAttributes);
+    _getWritableAttributes ().addAttributes (aAttributes);
+    m_aProfile = null;
+  }
+
+  /**
+   * Get the typed processing settings of this partnership. The profile is
+   * created upon the first call and re-created after the attributes changed.
+   *
+   * @return The profile based on the current attributes. Never
+   *         <code>null</code>.
+   * @since 2.2.6
+   */
+  @Nonnull
+  public PartnershipProfile getProfile ()
+  {
+    PartnershipProfile ret = m_aProfile;
+    if (ret == null)
+    {
+      // May be created concurrently - no problem
+      ret = new PartnershipProfile (this);
+      m_aProfile = ret;
+    }
+    return ret;
   }
 
   /**
@@ -870,12 +1031,45 @@ public class Partnership implements Serializable
     if (aPartnership != this)
     {
       m_sName = aPartnership.getName ();
-      m_aSenderIDs.setAttributes (aPartnership.m_aSenderIDs);
-      m_aReceiverIDs.setAttributes (aPartnership.m_aReceiverIDs);
-      m_aAttributes.setAttributes (aPartnership.m_aAttributes);
+      // Share the maps - mark them as shared before they are taken
+      aPartnership.m_bSenderIDsShared = true;
+      aPartnership.m_bReceiverIDsShared = true;
+      aPartnership.m_bAttributesShared = true;
+      m_aSenderIDs = aPartnership.m_aSenderIDs;
+      m_aReceiverIDs = aPartnership.m_aReceiverIDs;
+      m_aAttributes = aPartnership.m_aAttributes;
+      m_bSenderIDsShared = true;
+      m_bReceiverIDsShared = true;
+      m_bAttributesShared = true;
+      // Same attributes - share the profile
+      m_aProfile = aPartnership.getProfile ();
+      _onIDChange ();
     }
   }
 
+  /**
+   * Check if the passed partnership has the same name, sender IDs, receiver
+   * IDs and attributes as this partnership. This is not an override of
+   * {@link Object#equals(Object)} because partnerships are mutable and are
+   * otherwise compared by identity.
+   *
+   * @param aPartnership
+   *        The partnership to compare to. May be <code>null</code>.
+   * @return <code>true</code> if both partnerships have the same content.
+   * @since 2.2.6
+   */
+  public boolean hasSameContent (@Nullable final Partnership aPartnership)
+  {
+    if (aPartnership == this)
+      return true;
+    if (aPartnership == null)
+      return false;
+    return EqualsHelper.equals (m_sName, aPartnership.m_sName) &&
+           m_aSenderIDs.equals (aPartnership.m_aSenderIDs) &&
+           m_aReceiverIDs.equals (aPartnership.m_aReceiverIDs) &&
+           m_aAttributes.equals (aPartnership.m_aAttributes);
+  }
+
   @Override
   public String toString ()
   {
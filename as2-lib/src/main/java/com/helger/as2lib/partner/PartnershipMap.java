@@ -32,6 +32,9 @@
  */
 package com.helger.as2lib.partner;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +42,7 @@ import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.as2lib.util.IStringMap;
@@ -49,18 +53,115 @@ import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.state.EChange;
 
 /**
- * The default implementation of {@link IPartnershipMap}.
+ * The default implementation of {@link IPartnershipMap}.<br>
+ * For {@link #getPartnershipByID(IStringMap, IStringMap)} an index from each
+ * sender and receiver ID key/value pair to the partnerships containing it is
+ * used. The index is built upon the first lookup after a modification of the
+ * map or of the IDs of an indexed partnership. The partnerships themselves
+ * only carry a flag and no reference to the maps containing them, as the same
+ * instances are shared by many maps (e.g. the snapshots of
+ * {@link AbstractPartnershipFactory}). Concurrent lookups are safe, as long as
+ * the map itself is not modified at the same time.
  *
  * @author Philip Helger
  */
 @NotThreadSafe
 public final class PartnershipMap implements IPartnershipMap
 {
+  /**
+   * Maps "key=value" of all sender and receiver IDs to the partnerships
+   * containing them, in the order of the partnership map.
+   */
+  @Immutable
+  private static final class IDIndex
+  {
+    private final long m_nRevision;
+    private final Map <String, List <Partnership>> m_aSenderIndex = new HashMap <String, List <Partnership>> ();
+    private final Map <String, List <Partnership>> m_aReceiverIndex = new HashMap <String, List <Partnership>> ();
+
+    IDIndex (@Nonnull final Iterable <Partnership> aPartnerships)
+    {
+      // Read the revision first and mark the partnership before reading the
+      // IDs, so that a concurrent change leads to a rebuild
+      m_nRevision = Partnership.getIndexedIDRevision ();
+      for (final Partnership aPartnership : aPartnerships)
+      {
+        aPartnership.markIDIndexed ();
+        _add (m_aSenderIndex, aPartnership.internalGetSenderIDs (), aPartnership);
+        _add (m_aReceiverIndex, aPartnership.internalGetReceiverIDs (), aPartnership);
+      }
+    }
+
+    private static void _add (@Nonnull final Map <String, List <Partnership>> aIndex,
+                              @Nonnull final IStringMap aIDs,
+                              @Nonnull final Partnership aPartnership)
+    {
+      for (final Map.Entry <String, String> aEntry : aIDs)
+      {
+        final String sKey = _getIndexKey (aEntry.getKey (), aEntry.getValue ());
+        List <Partnership> aList = aIndex.get (sKey);
+        if (aList == null)
+        {
+          aList = new ArrayList <Partnership> (1);
+          aIndex.put (sKey, aList);
+        }
+        aList.add (aPartnership);
+      }
+    }
+
+    /**
+     * Get the partnerships that contain all non-<code>null</code> search IDs.
+     *
+     * @return <code>null</code> if the search IDs contain no value to look up.
+     */
+    @Nullable
+    private static List <Partnership> _getCandidates (@Nonnull final Map <String, List <Partnership>> aIndex,
+                                                      @Nonnull final IStringMap aSearchIDs)
+    {
+      List <Partnership> ret = null;
+      for (final Map.Entry <String, String> aEntry : aSearchIDs)
+        if (aEntry.getValue () != null)
+        {
+          final List <Partnership> aList = aIndex.get (_getIndexKey (aEntry.getKey (), aEntry.getValue ()));
+          if (aList == null)
+            return Collections.emptyList ();
+          if (ret == null || aList.size () < ret.size ())
+            ret = aList;
+        }
+      return ret;
+    }
+  }
+
   private final Map <String, Partnership> m_aMap = new LinkedHashMap <String, Partnership> ();
+  // Built lazily - may be built concurrently by several readers
+  private volatile IDIndex m_aIDIndex;
 
   public PartnershipMap ()
   {}
 
+  @Nonnull
+  private static String _getIndexKey (@Nonnull final String sKey, @Nullable final String sValue)
+  {
+    return sKey + '=' + sValue;
+  }
+
+  private void _invalidateIndex ()
+  {
+    m_aIDIndex = null;
+  }
+
+  @Nonnull
+  private IDIndex _getIDIndex ()
+  {
+    IDIndex ret = m_aIDIndex;
+    if (ret == null || ret.m_nRevision != Partnership.getIndexedIDRevision ())
+    {
+      ret = new IDIndex (m_aMap.values ());
+      m_aIDIndex = ret;
+    }
+    return ret;
+  }
+
   /**
    * Set all partnerships from the passed map. All existing partnerships are
    * removed.
@@ -73,6 +174,7 @@ public final class PartnershipMap implements IPartnershipMap
     ValueEnforcer.notNull (aPartnerships, "Partnerships");
     m_aMap.clear ();
     m_aMap.putAll (aPartnerships.m_aMap);
+    _invalidateIndex ();
   }
 
   /**
@@ -92,6 +194,7 @@ public final class PartnershipMap implements IPartnershipMap
     if (m_aMap.containsKey (sName))
       return EChange.UNCHANGED;
     m_aMap.put (sName, aPartnership);
+    _invalidateIndex ();
     return EChange.CHANGED;
   }
 
@@ -107,6 +210,7 @@ public final class PartnershipMap implements IPartnershipMap
     ValueEnforcer.notNull (aPartnership, "Partnership");
     // overwrite if already present
     m_aMap.put (aPartnership.getName (), aPartnership);
+    _invalidateIndex ();
   }
 
   /**
@@ -121,7 +225,10 @@ public final class PartnershipMap implements IPartnershipMap
   public EChange removePartnership (@Nonnull final Partnership aPartnership)
   {
     ValueEnforcer.notNull (aPartnership, "Partnership");
-    return EChange.valueOf (m_aMap.remove (aPartnership.getName ()) != null);
+    if (m_aMap.remove (aPartnership.getName ()) == null)
+      return EChange.UNCHANGED;
+    _invalidateIndex ();
+    return EChange.CHANGED;
   }
 
   @Nullable
@@ -155,27 +262,49 @@ public final class PartnershipMap implements IPartnershipMap
     return true;
   }
 
+  private static boolean _isMatch (@Nonnull final Partnership aPartnership,
+                                   @Nonnull final IStringMap aSenderIDs,
+                                   @Nonnull final IStringMap aReceiverIDs)
+  {
+    // Do the sender and the receiver attributes of the current partnership
+    // match?
+    return _arePartnerIDsPresent (aSenderIDs, aPartnership.internalGetSenderIDs ()) &&
+           _arePartnerIDsPresent (aReceiverIDs, aPartnership.internalGetReceiverIDs ());
+  }
+
   @Nullable
   public Partnership getPartnershipByID (@Nonnull final IStringMap aSenderIDs, @Nonnull final IStringMap aReceiverIDs)
   {
-    // For all partnerships
-    for (final Partnership aPartnership : m_aMap.values ())
+    if (aSenderIDs.containsNoAttribute () || aReceiverIDs.containsNoAttribute ())
+      return null;
+
+    // Each matching partnership must be contained in both candidate lists, so
+    // the smaller one is sufficient. The lists are in map order so that the
+    // first match is the same as with a full scan.
+    final IDIndex aIndex = _getIDIndex ();
+    final List <Partnership> aSenderCandidates = IDIndex._getCandidates (aIndex.m_aSenderIndex, aSenderIDs);
+    final List <Partnership> aReceiverCandidates = IDIndex._getCandidates (aIndex.m_aReceiverIndex, aReceiverIDs);
+    Iterable <Partnership> aCandidates;
+    if (aSenderCandidates == null)
+      aCandidates = aReceiverCandidates;
+    else
+      if (aReceiverCandidates == null)
+        aCandidates = aSenderCandidates;
+      else
+        aCandidates = aSenderCandidates.size () <= aReceiverCandidates.size () ? aSenderCandidates
+                                                                                : aReceiverCandidates;
+    if (aCandidates == null)
     {
-      // Get all sender attributes of the current partnership
-      final IStringMap aCurrentSenderIDs = aPartnership.getAllSenderIDs ();
-      // Do the sender attributes of the current partnership match?
-      if (_arePartnerIDsPresent (aSenderIDs, aCurrentSenderIDs))
+      // Only null values were searched - scan all partnerships
+      aCandidates = m_aMap.values ();
+    }
+
+    for (final Partnership aPartnership : aCandidates)
+      if (_isMatch (aPartnership, aSenderIDs, aReceiverIDs))
       {
-        // Get the receiver attributes of the current partnership
-        final IStringMap aCurrentReceiverIDs = aPartnership.getAllReceiverIDs ();
-        // Do the sender attributes of the current partnership match?
-        if (_arePartnerIDsPresent (aReceiverIDs, aCurrentReceiverIDs))
-        {
-          // We take the first match :)
-          return aPartnership;
-        }
+        // We take the first match :)
+        return aPartnership;
       }
-    }
 
     return null;
   }
@@ -0,0 +1,264 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.as2lib.crypto.ECompressionType;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.as2lib.disposition.DispositionOptions;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.state.ETriState;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The typed and resolved processing settings of a {@link Partnership}. A
+ * profile is created once from the string attributes of a partnership (see
+ * {@link Partnership#getProfile()}) so that the sender and receiver modules
+ * don't need to parse the attributes for every message. Invalid values are
+ * remembered and reported when the respective setting is queried.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@Immutable
+public final class PartnershipProfile
+{
+  private final String m_sSigningAlgorithm;
+  private final ECryptoAlgorithmSign m_eSigningAlgorithm;
+  private final String m_sEncryptAlgorithm;
+  private final ECryptoAlgorithmCrypt m_eEncryptAlgorithm;
+  private final String m_sCompressionType;
+  private final ECompressionType m_eCompressionType;
+  private final boolean m_bCompressBeforeSign;
+  private final boolean m_bForceDecrypt;
+  private final boolean m_bDisableDecrypt;
+  private final boolean m_bForceVerify;
+  private final boolean m_bDisableVerify;
+  private final boolean m_bDisableDecompress;
+  private final boolean m_bBlockErrorMDN;
+  private final ETriState m_eIncludeCertificateInSignedContent;
+  private final ETriState m_eVerifyUseCertificateInBodyPart;
+  private final ECryptoAlgorithmSign m_eMDNMICAlg;
+  private final OpenAS2Exception m_aMDNOptionsError;
+
+  PartnershipProfile (@Nonnull final Partnership aPartnership)
+  {
+    m_sSigningAlgorithm = aPartnership.getSigningAlgorithm ();
+    m_eSigningAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (m_sSigningAlgorithm);
+    m_sEncryptAlgorithm = aPartnership.getEncryptAlgorithm ();
+    m_eEncryptAlgorithm = ECryptoAlgorithmCrypt.getFromIDOrNull (m_sEncryptAlgorithm);
+    m_sCompressionType = aPartnership.getCompressionType ();
+    m_eCompressionType = ECompressionType.getFromIDCaseInsensitiveOrNull (m_sCompressionType);
+    m_bCompressBeforeSign = aPartnership.isCompressBeforeSign ();
+    m_bForceDecrypt = aPartnership.isForceDecrypt ();
+    m_bDisableDecrypt = aPartnership.isDisableDecrypt ();
+    m_bForceVerify = aPartnership.isForceVerify ();
+    m_bDisableVerify = aPartnership.isDisableVerify ();
+    m_bDisableDecompress = aPartnership.isDisableDecompress ();
+    m_bBlockErrorMDN = aPartnership.isBlockErrorMDN ();
+    m_eIncludeCertificateInSignedContent = aPartnership.getIncludeCertificateInSignedContent ();
+    m_eVerifyUseCertificateInBodyPart = aPartnership.getVerifyUseCertificateInBodyPart ();
+
+    ECryptoAlgorithmSign eMDNMICAlg = null;
+    OpenAS2Exception aMDNOptionsError = null;
+    try
+    {
+      eMDNMICAlg = DispositionOptions.createFromString (aPartnership.getAS2MDNOptions ()).getFirstMICAlg ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      aMDNOptionsError = ex;
+    }
+    m_eMDNMICAlg = eMDNMICAlg;
+    m_aMDNOptionsError = aMDNOptionsError;
+  }
+
+  /**
+   * @return The signing algorithm to use or <code>null</code> if the message
+   *         should not be signed.
+   * @throws OpenAS2Exception
+   *         If the configured signing algorithm is not supported
+   */
+  @Nullable
+  public ECryptoAlgorithmSign getSigningAlgorithm () throws OpenAS2Exception
+  {
+    if (m_sSigningAlgorithm != null && m_eSigningAlgorithm == null)
+      throw new OpenAS2Exception ("The signing algorithm '" + m_sSigningAlgorithm + "' is not supported!");
+    return m_eSigningAlgorithm;
+  }
+
+  /**
+   * @return The encryption algorithm to use or <code>null</code> if the
+   *         message should not be encrypted.
+   * @throws OpenAS2Exception
+   *         If the configured encryption algorithm is not supported
+   */
+  @Nullable
+  public ECryptoAlgorithmCrypt getEncryptAlgorithm () throws OpenAS2Exception
+  {
+    if (m_sEncryptAlgorithm != null && m_eEncryptAlgorithm == null)
+      throw new OpenAS2Exception ("The crypting algorithm '" + m_sEncryptAlgorithm + "' is not supported!");
+    return m_eEncryptAlgorithm;
+  }
+
+  /**
+   * @return The compression type to use or <code>null</code> if the message
+   *         should not be compressed.
+   * @throws OpenAS2Exception
+   *         If the configured compression type is not supported
+   */
+  @Nullable
+  public ECompressionType getCompressionType () throws OpenAS2Exception
+  {
+    if (m_sCompressionType != null && m_eCompressionType == null)
+      throw new OpenAS2Exception ("The compression type '" + m_sCompressionType + "' is not supported!");
+    return m_eCompressionType;
+  }
+
+  public boolean isCompressBeforeSign ()
+  {
+    return m_bCompressBeforeSign;
+  }
+
+  /**
+   * @return <code>true</code> if the MIC must include the MIME headers,
+   *         because signing, encryption or compression is configured.
+   */
+  public boolean isIncludeHeadersInMIC ()
+  {
+    return m_sSigningAlgorithm != null || m_sEncryptAlgorithm != null || m_sCompressionType != null;
+  }
+
+  public boolean isForceDecrypt ()
+  {
+    return m_bForceDecrypt;
+  }
+
+  public boolean isDisableDecrypt ()
+  {
+    return m_bDisableDecrypt;
+  }
+
+  public boolean isForceVerify ()
+  {
+    return m_bForceVerify;
+  }
+
+  public boolean isDisableVerify ()
+  {
+    return m_bDisableVerify;
+  }
+
+  public boolean isDisableDecompress ()
+  {
+    return m_bDisableDecompress;
+  }
+
+  public boolean isBlockErrorMDN ()
+  {
+    return m_bBlockErrorMDN;
+  }
+
+  @Nonnull
+  public ETriState getIncludeCertificateInSignedContent ()
+  {
+    return m_eIncludeCertificateInSignedContent;
+  }
+
+  /**
+   * @param bDefault
+   *        The value to use if the partnership does not define it.
+   * @return <code>true</code> if the certificate should be included in the
+   *         signed content.
+   */
+  public boolean isIncludeCertificateInSignedContent (final boolean bDefault)
+  {
+    return m_eIncludeCertificateInSignedContent.isDefined () ? m_eIncludeCertificateInSignedContent.isTrue ()
+                                                              : bDefault;
+  }
+
+  @Nonnull
+  public ETriState getVerifyUseCertificateInBodyPart ()
+  {
+    return m_eVerifyUseCertificateInBodyPart;
+  }
+
+  /**
+   * @param bDefault
+   *        The value to use if the partnership does not define it.
+   * @return <code>true</code> if the certificate contained in the body part
+   *         should be used for verification.
+   */
+  public boolean isVerifyUseCertificateInBodyPart (final boolean bDefault)
+  {
+    return m_eVerifyUseCertificateInBodyPart.isDefined () ? m_eVerifyUseCertificateInBodyPart.isTrue () : bDefault;
+  }
+
+  /**
+   * @return The first MIC algorithm of the requested MDN options. May be
+   *         <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the MDN options of the partnership could not be parsed
+   */
+  @Nullable
+  public ECryptoAlgorithmSign getMDNMICAlg () throws OpenAS2Exception
+  {
+    if (m_aMDNOptionsError != null)
+      throw new OpenAS2Exception (m_aMDNOptionsError.getMessage (), m_aMDNOptionsError);
+    return m_eMDNMICAlg;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SigningAlgorithm", m_sSigningAlgorithm)
+                                       .append ("EncryptAlgorithm", m_sEncryptAlgorithm)
+                                       .append ("CompressionType", m_sCompressionType)
+                                       .append ("CompressBeforeSign", m_bCompressBeforeSign)
+                                       .append ("ForceDecrypt", m_bForceDecrypt)
+                                       .append ("DisableDecrypt", m_bDisableDecrypt)
+                                       .append ("ForceVerify", m_bForceVerify)
+                                       .append ("DisableVerify", m_bDisableVerify)
+                                       .append ("DisableDecompress", m_bDisableDecompress)
+                                       .append ("BlockErrorMDN", m_bBlockErrorMDN)
+                                       .append ("IncludeCertificateInSignedContent",
+                                                m_eIncludeCertificateInSignedContent)
+                                       .append ("VerifyUseCertificateInBodyPart", m_eVerifyUseCertificateInBodyPart)
+                                       .append ("MDNMICAlg", m_eMDNMICAlg)
+                                       .toString ();
+  }
+}
@@ -57,12 +57,32 @@ public abstract class AbstractPartnershipFactoryWithPartners extends AbstractPar
   private final PartnerMap m_aPartners = new PartnerMap ();
 
   protected final void setPartners (@Nonnull final PartnerMap aPartners) throws OpenAS2Exception
+  {
+    setPartners (aPartners, true);
+  }
+
+  /**
+   * Replace all partners.
+   *
+   * @param aPartners
+   *        The new partners. May not be <code>null</code>.
+   * @param bMarkAsChanged
+   *        <code>true</code> to call {@link #markAsChanged()},
+   *        <code>false</code> if the partners were e.g. just read from the
+   *        persistent storage.
+   * @throws OpenAS2Exception
+   *         In case {@link #markAsChanged()} fails
+   * @since 2.2.6
+   */
+  protected final void setPartners (@Nonnull final PartnerMap aPartners,
+                                    final boolean bMarkAsChanged) throws OpenAS2Exception
   {
     m_aRWLock.writeLock ().lock ();
     try
     {
       m_aPartners.setPartners (aPartners);
-      markAsChanged ();
+      if (bMarkAsChanged)
+        markAsChanged ();
     }
     finally
     {
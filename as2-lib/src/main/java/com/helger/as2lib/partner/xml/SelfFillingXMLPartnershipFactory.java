@@ -83,7 +83,14 @@ public class SelfFillingXMLPartnershipFactory extends XMLPartnershipFactory
       onBeforeAddPartnership (aPartnership);
 
       // Create a new one
-      addPartnership (aPartnership);
+      if (addPartnership (aPartnership).isUnchanged ())
+      {
+        // Another thread added a partnership with the same name in the
+        // meantime
+        final Partnership aExisting = getPartnershipByName (aPartnership.getName ());
+        if (aExisting != null)
+          return aExisting;
+      }
       return aPartnership;
     }
   }
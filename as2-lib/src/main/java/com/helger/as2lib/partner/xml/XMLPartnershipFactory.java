@@ -35,7 +35,12 @@ package com.helger.as2lib.partner.xml;
 import java.io.File;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillClose;
@@ -46,6 +51,7 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.partner.IPartnershipMap;
 import com.helger.as2lib.partner.Partnership;
 import com.helger.as2lib.partner.PartnershipMap;
 import com.helger.as2lib.session.IAS2Session;
@@ -53,6 +59,7 @@ import com.helger.as2lib.util.IOHelper;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.as2lib.util.StringMap;
 import com.helger.as2lib.util.XMLHelper;
+import com.helger.commons.CGlobal;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.microdom.IMicroDocument;
 import com.helger.commons.microdom.IMicroElement;
@@ -60,10 +67,24 @@ import com.helger.commons.microdom.MicroDocument;
 import com.helger.commons.microdom.serialize.MicroReader;
 import com.helger.commons.microdom.serialize.MicroWriter;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 
 /**
  * original author unknown this release added logic to store partnerships and
- * provide methods for partner/partnership command line processor
+ * provide methods for partner/partnership command line processor<br>
+ * The partnership file is always written to a temporary file first, that is
+ * then renamed. The number of kept backup files can be limited with
+ * {@link #ATTR_MAX_BACKUPS}. Using {@link #requestStorePartnership()} many
+ * changes in a short time (e.g. from self-filling factories) are coalesced
+ * into a single write in the background.<br>
+ * If {@link #ATTR_RELOAD_INTERVAL_SECONDS} is set, the partnership file is
+ * polled for changes. A changed file is parsed in the background and compared
+ * to the current partnerships: unchanged partnerships are kept as they are
+ * (including their compiled {@link com.helger.as2lib.partner.PartnershipProfile}),
+ * and only added, modified and removed partnerships are replaced in the newly
+ * published snapshot.<br>
+ * Call {@link #close()} to write pending changes and to stop all background
+ * threads.
  *
  * @author joseph mcverry
  */
@@ -71,11 +92,85 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
 {
   public static final String ATTR_FILENAME = "filename";
   public static final String ATTR_DISABLE_BACKUP = "disablebackup";
+  /**
+   * The maximum number of backup files to keep. The oldest ones are deleted.
+   * Values &le; 0 keep all backup files (the default).
+   *
+   * @since 2.2.6
+   */
+  public static final String ATTR_MAX_BACKUPS = "maxbackups";
+  /**
+   * The delay in milliseconds after the first change, after which all changes
+   * requested via {@link #requestStorePartnership()} are written. Values
+   * &le; 0 write immediately.
+   *
+   * @since 2.2.6
+   */
+  public static final String ATTR_STORE_DELAY_MS = "storedelay";
+  /** The default store delay in milliseconds */
+  public static final long DEFAULT_STORE_DELAY_MS = 1000;
+  /**
+   * The interval in seconds in which the partnership file is checked for
+   * modifications. Values &le; 0 disable reloading (the default).
+   *
+   * @since 2.2.6
+   */
+  public static final String ATTR_RELOAD_INTERVAL_SECONDS = "reloadinterval";
+  /** The extension of the temporary file used while storing */
+  public static final String TEMP_FILE_EXTENSION = ".tmp";
+  /**
+   * The extension of the file the old partnership file is renamed to, if it
+   * cannot be replaced directly
+   */
+  public static final String BACKUP_FILE_EXTENSION = ".bak";
+
+  private static final int BACKUP_INDEX_DIGITS = 7;
 
   private static final String PARTNER_NAME = Partner.PARTNER_NAME;
   private static final String PARTNERSHIP_NAME = Partner.PARTNER_NAME;
   private static final Logger s_aLogger = LoggerFactory.getLogger (XMLPartnershipFactory.class);
 
+  private final class StoreTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      try
+      {
+        flush ();
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        s_aLogger.error ("Failed to store partnership changes", ex);
+      }
+    }
+  }
+
+  private final class ReloadTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      reloadIfModified ();
+    }
+  }
+
+  private Timer m_aReloadTimer;
+  // Last modification and size of the partnership file that was read or
+  // written
+  private long m_nLastFileModification = CGlobal.ILLEGAL_ULONG;
+  private long m_nLastFileLength = CGlobal.ILLEGAL_ULONG;
+  private final AtomicLong m_aReloadCount = new AtomicLong ();
+  private final AtomicLong m_aReloadFailureCount = new AtomicLong ();
+  private final AtomicLong m_aStoreConflictCount = new AtomicLong ();
+  private volatile long m_nLastReloadDurationMS = CGlobal.ILLEGAL_ULONG;
+
+  private final Object m_aStoreLock = new Object ();
+  private Timer m_aStoreTimer;
+  private Thread m_aShutdownHook;
+  private boolean m_bDirty;
+  private boolean m_bStoreScheduled;
+
   public void setFilename (final String filename)
   {
     setAttribute (ATTR_FILENAME, filename);
@@ -92,14 +187,42 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
   {
     super.initDynamicComponent (session, parameters);
 
+    stopReloading ();
     refresh ();
+
+    final long nReloadMS = getAttributeAsLong (ATTR_RELOAD_INTERVAL_SECONDS, 0) * CGlobal.MILLISECONDS_PER_SECOND;
+    if (nReloadMS > 0)
+    {
+      synchronized (this)
+      {
+        m_aReloadTimer = new Timer ("XMLPartnershipReload", true);
+        m_aReloadTimer.schedule (new ReloadTask (), nReloadMS, nReloadMS);
+      }
+      s_aLogger.info ("Checking partnership file '" + getFilename () + "' for modifications every " + nReloadMS + " ms");
+    }
+  }
+
+  private synchronized void _rememberFileState (@Nonnull final File aFile)
+  {
+    m_nLastFileModification = aFile.lastModified ();
+    m_nLastFileLength = aFile.length ();
+  }
+
+  private synchronized boolean _isModifiedExternally (@Nonnull final File aFile)
+  {
+    // Unknown if the file was never read or written
+    if (m_nLastFileModification == CGlobal.ILLEGAL_ULONG)
+      return false;
+    return aFile.lastModified () != m_nLastFileModification || aFile.length () != m_nLastFileLength;
   }
 
   public void refresh () throws OpenAS2Exception
   {
     try
     {
-      load (FileHelper.getInputStream (getFilename ()));
+      final File aFile = new File (getFilename ());
+      _rememberFileState (aFile);
+      load (FileHelper.getInputStream (aFile));
     }
     catch (final Exception ex)
     {
@@ -111,7 +234,31 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
   {
     final PartnerMap aNewPartners = new PartnerMap ();
     final PartnershipMap aNewPartnerships = new PartnershipMap ();
+    read (aIS, aNewPartners, aNewPartnerships);
+
+    setPartners (aNewPartners);
+    setPartnerships (aNewPartnerships);
+  }
 
+  /**
+   * Read all partners and partnerships from the passed XML stream without
+   * modifying this factory.
+   *
+   * @param aIS
+   *        The input stream to read from. May be <code>null</code> in which
+   *        case nothing is read.
+   * @param aNewPartners
+   *        The partner map to fill. May not be <code>null</code>.
+   * @param aNewPartnerships
+   *        The partnership map to fill. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case the content is invalid
+   * @since 2.2.6
+   */
+  protected void read (@Nullable @WillClose final InputStream aIS,
+                       @Nonnull final PartnerMap aNewPartners,
+                       @Nonnull final PartnershipMap aNewPartnerships) throws OpenAS2Exception
+  {
     if (aIS != null)
     {
       final IMicroDocument aDocument = MicroReader.readMicroXML (aIS);
@@ -140,9 +287,216 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
             s_aLogger.warn ("Invalid element '" + sNodeName + "' in XML partnership file");
       }
     }
+  }
 
-    setPartners (aNewPartners);
-    setPartnerships (aNewPartnerships);
+  /**
+   * Stop checking the partnership file for modifications. Does nothing if
+   * reloading is not enabled.
+   *
+   * @since 2.2.6
+   */
+  public synchronized void stopReloading ()
+  {
+    if (m_aReloadTimer != null)
+    {
+      m_aReloadTimer.cancel ();
+      m_aReloadTimer = null;
+    }
+  }
+
+  /**
+   * Check whether the partnership file was modified since it was last read and
+   * if so, parse it and publish the differences. Partnerships that did not
+   * change keep their existing instance, so that their compiled profile stays
+   * valid. Putting them into the new snapshot adds no state to them, so
+   * repeated reloads don't accumulate anything. If parsing fails, the current partnerships stay active and the same
+   * file state is not tried again. If there are changes that were not yet
+   * stored (see {@link #hasPendingChanges()}), the file is not read. The
+   * modification is then reported as a conflict when the pending changes are
+   * stored.
+   *
+   * @return <code>true</code> if at least one partnership was added, modified
+   *         or removed, <code>false</code> otherwise.
+   * @since 2.2.6
+   */
+  public boolean reloadIfModified ()
+  {
+    final File aFile;
+    try
+    {
+      aFile = new File (getFilename ());
+    }
+    catch (final InvalidParameterException ex)
+    {
+      s_aLogger.error ("Cannot reload partnerships", ex);
+      return false;
+    }
+
+    if (hasPendingChanges ())
+      return false;
+
+    final long nModification = aFile.lastModified ();
+    final long nLength = aFile.length ();
+    final long nOldModification;
+    final long nOldLength;
+    synchronized (this)
+    {
+      if (nModification == m_nLastFileModification && nLength == m_nLastFileLength)
+        return false;
+      nOldModification = m_nLastFileModification;
+      nOldLength = m_nLastFileLength;
+      m_nLastFileModification = nModification;
+      m_nLastFileLength = nLength;
+    }
+
+    final long nStart = System.currentTimeMillis ();
+    try
+    {
+      // Parse outside of any lock
+      final InputStream aIS = FileHelper.getInputStream (aFile);
+      if (aIS == null)
+        throw new OpenAS2Exception ("Failed to open partnership file");
+      final PartnerMap aNewPartners = new PartnerMap ();
+      final PartnershipMap aNewPartnerships = new PartnershipMap ();
+      read (aIS, aNewPartners, aNewPartnerships);
+
+      final Boolean aChanged = _publishChanges (aNewPartners, aNewPartnerships);
+      if (aChanged == null)
+      {
+        // Changes were made in the meantime - the file was not applied and
+        // must be reported as a conflict when storing
+        synchronized (this)
+        {
+          if (m_nLastFileModification == nModification && m_nLastFileLength == nLength)
+          {
+            m_nLastFileModification = nOldModification;
+            m_nLastFileLength = nOldLength;
+          }
+        }
+        return false;
+      }
+      final boolean bChanged = aChanged.booleanValue ();
+      m_nLastReloadDurationMS = System.currentTimeMillis () - nStart;
+      m_aReloadCount.incrementAndGet ();
+      return bChanged;
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      m_aReloadFailureCount.incrementAndGet ();
+      s_aLogger.error ("Failed to reload partnership file '" +
+                       aFile.getAbsolutePath () +
+                       "' - keeping the current partnerships",
+                       ex);
+      return false;
+    }
+  }
+
+  /**
+   * @return <code>null</code> if the changes were not published because of
+   *         pending changes, {@link Boolean#TRUE} if at least one partnership
+   *         changed and {@link Boolean#FALSE} otherwise.
+   */
+  @Nullable
+  private Boolean _publishChanges (@Nonnull final PartnerMap aNewPartners,
+                                   @Nonnull final PartnershipMap aNewPartnerships) throws OpenAS2Exception
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      // A concurrent modification is newer than the file
+      if (hasPendingChanges ())
+        return null;
+
+      final IPartnershipMap aOldPartnerships = getPartnershipMap ();
+      final PartnershipMap aMerged = new PartnershipMap ();
+      int nAdded = 0;
+      int nModified = 0;
+      for (final Partnership aNewPartnership : aNewPartnerships.getAllPartnerships ())
+      {
+        final Partnership aOldPartnership = aOldPartnerships.getPartnershipByName (aNewPartnership.getName ());
+        if (aOldPartnership == null)
+        {
+          nAdded++;
+          aMerged.addPartnership (aNewPartnership);
+        }
+        else
+          if (aOldPartnership.hasSameContent (aNewPartnership))
+          {
+            // Keep the existing instance
+            aMerged.addPartnership (aOldPartnership);
+          }
+          else
+          {
+            nModified++;
+            aMerged.addPartnership (aNewPartnership);
+          }
+      }
+      final int nRemoved = aOldPartnerships.getAllPartnershipNames ().size () -
+                           (aMerged.getAllPartnershipNames ().size () - nAdded);
+
+      // Partners are only used when storing
+      setPartners (aNewPartners, false);
+      if (nAdded == 0 && nModified == 0 && nRemoved == 0)
+        return Boolean.FALSE;
+
+      // Don't call markAsChanged - the content is what is in the file
+      setPartnerships (aMerged, false);
+      s_aLogger.info ("Reloaded partnership file: " +
+                      nAdded +
+                      " partnership(s) added, " +
+                      nModified +
+                      " modified and " +
+                      nRemoved +
+                      " removed");
+      return Boolean.TRUE;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The number of successful reloads of the partnership file.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public long getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  /**
+   * @return The number of reloads that failed because the partnership file
+   *         could not be read or was invalid.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public long getReloadFailureCount ()
+  {
+    return m_aReloadFailureCount.get ();
+  }
+
+  /**
+   * @return The number of stores that overwrote an external modification of
+   *         the partnership file, e.g. because there were pending changes when
+   *         the modification was detected.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public long getStoreConflictCount ()
+  {
+    return m_aStoreConflictCount.get ();
+  }
+
+  /**
+   * @return The duration of the last successful reload in milliseconds or
+   *         {@link CGlobal#ILLEGAL_ULONG} if no reload happened so far.
+   * @since 2.2.6
+   */
+  public long getLastReloadDurationMS ()
+  {
+    return m_nLastReloadDurationMS;
   }
 
   protected void loadPartnershipAttributes (@Nonnull final IMicroElement aNode,
@@ -234,39 +588,216 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
     return aPartnership;
   }
 
+  /**
+   * @return All existing backup files of the passed file, sorted by their
+   *         index.
+   */
   @Nonnull
-  private File _getUniqueBackupFile (final String sFilename)
+  private static TreeMap <Long, File> _getAllBackupFiles (@Nonnull final File aFile)
   {
-    long nIndex = 0;
-    File aBackupFile;
-    do
-    {
-      aBackupFile = new File (sFilename + '.' + StringHelper.getLeadingZero (nIndex, 7));
-      nIndex++;
-    } while (aBackupFile.exists ());
-    return aBackupFile;
+    final TreeMap <Long, File> ret = new TreeMap <Long, File> ();
+    final String sPrefix = aFile.getName () + '.';
+    final File [] aFiles = aFile.getParentFile ().listFiles ();
+    if (aFiles != null)
+      for (final File aCandidate : aFiles)
+      {
+        final String sName = aCandidate.getName ();
+        if (sName.length () == sPrefix.length () + BACKUP_INDEX_DIGITS && sName.startsWith (sPrefix))
+        {
+          final long nIndex = StringParser.parseLong (sName.substring (sPrefix.length ()), -1);
+          if (nIndex >= 0)
+            ret.put (Long.valueOf (nIndex), aCandidate);
+        }
+      }
+    return ret;
+  }
+
+  private void _backup (@Nonnull final File aFile)
+  {
+    final TreeMap <Long, File> aBackupFiles = _getAllBackupFiles (aFile);
+    final long nIndex = aBackupFiles.isEmpty () ? 0 : aBackupFiles.lastKey ().longValue () + 1;
+    final String sIndex = StringHelper.getLeadingZero (nIndex, BACKUP_INDEX_DIGITS);
+    final File aBackupFile = new File (aFile.getParentFile (), aFile.getName () + '.' + sIndex);
+
+    s_aLogger.info ("backing up " + aFile.getName () + " to " + aBackupFile.getName ());
+    if (IOHelper.getFileOperationManager ().copyFile (aFile, aBackupFile).isFailure ())
+      return;
+    aBackupFiles.put (Long.valueOf (nIndex), aBackupFile);
+
+    // Delete the oldest backups
+    final int nMaxBackups = getAttributeAsInt (ATTR_MAX_BACKUPS, 0);
+    if (nMaxBackups > 0)
+      while (aBackupFiles.size () > nMaxBackups)
+      {
+        final File aOldBackupFile = aBackupFiles.pollFirstEntry ().getValue ();
+        if (s_aLogger.isDebugEnabled ())
+          s_aLogger.debug ("deleting old backup " + aOldBackupFile.getName ());
+        IOHelper.getFileOperationManager ().deleteFile (aOldBackupFile);
+      }
   }
 
   /**
-   * Store the current status of the partnerships to a file.
+   * Store the partnerships either immediately or, if {@link #ATTR_STORE_DELAY_MS}
+   * is &gt; 0, after the configured delay in the background. All requests
+   * until the partnerships are written are coalesced into a single write.
    *
    * @throws OpenAS2Exception
-   *         In case of an error
+   *         In case storing immediately fails
+   * @since 2.2.6
    */
-  public void storePartnership () throws OpenAS2Exception
+  public void requestStorePartnership () throws OpenAS2Exception
   {
-    final String sFilename = getFilename ();
+    final long nStoreDelayMS = getAttributeAsLong (ATTR_STORE_DELAY_MS, DEFAULT_STORE_DELAY_MS);
+    if (nStoreDelayMS > 0)
+      _scheduleStore (nStoreDelayMS);
+    else
+      storePartnership ();
+  }
 
-    if (!containsAttribute (ATTR_DISABLE_BACKUP))
+  private synchronized void _scheduleStore (final long nStoreDelayMS)
+  {
+    m_bDirty = true;
+    if (!m_bStoreScheduled)
     {
-      final File aBackupFile = _getUniqueBackupFile (sFilename);
+      if (m_aStoreTimer == null)
+      {
+        m_aStoreTimer = new Timer ("XMLPartnershipStore", true);
+        // Write pending changes when the JVM exits
+        m_aShutdownHook = new Thread ("XMLPartnershipStoreOnShutdown")
+        {
+          @Override
+          public void run ()
+          {
+            new StoreTask ().run ();
+          }
+        };
+        Runtime.getRuntime ().addShutdownHook (m_aShutdownHook);
+      }
+      m_aStoreTimer.schedule (new StoreTask (), nStoreDelayMS);
+      m_bStoreScheduled = true;
+    }
+  }
 
-      s_aLogger.info ("backing up " + sFilename + " to " + aBackupFile.getName ());
+  /**
+   * @return <code>true</code> if there are requested changes that are not yet
+   *         written to the partnership file.
+   * @since 2.2.6
+   */
+  public synchronized boolean hasPendingChanges ()
+  {
+    return m_bDirty;
+  }
 
-      final File aSourceFile = new File (sFilename);
-      IOHelper.getFileOperationManager ().renameFile (aSourceFile, aBackupFile);
+  /**
+   * Write all pending changes to the partnership file. Does nothing if there
+   * are no pending changes.
+   *
+   * @throws OpenAS2Exception
+   *         In case storing fails. The changes stay pending in this case.
+   * @since 2.2.6
+   */
+  public void flush () throws OpenAS2Exception
+  {
+    synchronized (this)
+    {
+      m_bStoreScheduled = false;
+      if (!m_bDirty)
+        return;
     }
+    storePartnership ();
+  }
 
+  /**
+   * Stop all background activities of this factory: the reloading of the
+   * partnership file and the delayed storing. Pending changes are written first
+   * and the shutdown hook is removed. Later store requests start the delayed
+   * storing again.
+   *
+   * @throws OpenAS2Exception
+   *         In case writing the pending changes fails. The background
+   *         activities are stopped nevertheless.
+   * @since 2.2.6
+   */
+  public void close () throws OpenAS2Exception
+  {
+    stopReloading ();
+    try
+    {
+      flush ();
+    }
+    finally
+    {
+      synchronized (this)
+      {
+        if (m_aStoreTimer != null)
+        {
+          m_aStoreTimer.cancel ();
+          m_aStoreTimer = null;
+          m_bStoreScheduled = false;
+        }
+        if (m_aShutdownHook != null)
+        {
+          try
+          {
+            Runtime.getRuntime ().removeShutdownHook (m_aShutdownHook);
+          }
+          catch (final IllegalStateException ex)
+          {
+            // The JVM is already shutting down
+          }
+          m_aShutdownHook = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Store the current status of the partnerships to a file. If the file was
+   * modified externally since it was last read or written, the modification
+   * is overwritten and an error is logged (see
+   * {@link #getStoreConflictCount()}).
+   *
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  public void storePartnership () throws OpenAS2Exception
+  {
+    synchronized (m_aStoreLock)
+    {
+      // Changes from now on need another store
+      synchronized (this)
+      {
+        m_bDirty = false;
+      }
+      try
+      {
+        final File aFile = new File (getFilename ()).getAbsoluteFile ();
+        if (_isModifiedExternally (aFile))
+        {
+          m_aStoreConflictCount.incrementAndGet ();
+          final boolean bBackup = !containsAttribute (ATTR_DISABLE_BACKUP) && aFile.exists ();
+          s_aLogger.error ("The partnership file '" +
+                           aFile.getAbsolutePath () +
+                           "' was modified externally since it was last read - overwriting the modification" +
+                           (bBackup ? " (the modified file is kept as a backup)" : ""));
+        }
+        _storePartnership (aFile);
+        // Don't reload what was just written
+        _rememberFileState (aFile);
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        synchronized (this)
+        {
+          m_bDirty = true;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  private void _storePartnership (@Nonnull final File aFile) throws OpenAS2Exception
+  {
     final IMicroDocument aDoc = new MicroDocument ();
     final IMicroElement eRoot = aDoc.appendElement ("partnerships");
     for (final IPartner aPartner : getAllPartners ())
@@ -294,7 +825,46 @@ public class XMLPartnershipFactory extends AbstractPartnershipFactoryWithPartner
                     .setAttribute ("name", aAttr.getKey ())
                     .setAttribute ("value", aAttr.getValue ());
     }
-    if (MicroWriter.writeToFile (aDoc, new File (sFilename)).isFailure ())
-      throw new OpenAS2Exception ("Failed to write to file " + sFilename);
+
+    // Write to a temporary file and rename it afterwards, so that the
+    // partnership file is never left half written
+    final File aTempFile = new File (aFile.getParentFile (), aFile.getName () + TEMP_FILE_EXTENSION);
+    if (MicroWriter.writeToFile (aDoc, aTempFile).isFailure ())
+      throw new OpenAS2Exception ("Failed to write to file " + aTempFile.getAbsolutePath ());
+
+    if (!containsAttribute (ATTR_DISABLE_BACKUP) && aFile.exists ())
+      _backup (aFile);
+
+    if (!aTempFile.renameTo (aFile))
+    {
+      // On some platforms an existing file cannot be replaced by renaming.
+      // Keep the old file until the new one is in place, so that the
+      // partnership file is never missing on disk.
+      final File aOldFile = new File (aFile.getParentFile (), aFile.getName () + BACKUP_FILE_EXTENSION);
+      if (aOldFile.exists () && !aOldFile.delete ())
+        throw new OpenAS2Exception ("Failed to delete '" + aOldFile.getAbsolutePath () + "'");
+      if (!aFile.renameTo (aOldFile))
+        throw new OpenAS2Exception ("Failed to rename '" +
+                                    aFile.getAbsolutePath () +
+                                    "' to '" +
+                                    aOldFile.getAbsolutePath () +
+                                    "'");
+      if (!aTempFile.renameTo (aFile))
+      {
+        if (!aOldFile.renameTo (aFile))
+          s_aLogger.error ("Failed to restore the partnership file '" +
+                           aFile.getAbsolutePath () +
+                           "' from '" +
+                           aOldFile.getAbsolutePath () +
+                           "'");
+        throw new OpenAS2Exception ("Failed to rename '" +
+                                    aTempFile.getAbsolutePath () +
+                                    "' to '" +
+                                    aFile.getAbsolutePath () +
+                                    "'");
+      }
+      if (!aOldFile.delete ())
+        s_aLogger.warn ("Failed to delete '" + aOldFile.getAbsolutePath () + "'");
+    }
   }
 }
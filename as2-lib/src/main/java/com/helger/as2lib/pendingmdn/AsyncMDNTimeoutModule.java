@@ -0,0 +1,373 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.processor.module.AbstractActiveModule;
+import com.helger.as2lib.processor.resender.IProcessorResenderModule;
+import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.HashedTimeoutWheel;
+import com.helger.as2lib.util.IOHelper;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+
+/**
+ * An active module that keeps track of all outgoing messages waiting for an
+ * asynchronous MDN. Each message is added with a deadline when its pending
+ * information is stored and removed again when the MDN is received. All
+ * messages are kept in a {@link HashedTimeoutWheel}, that is swept in the
+ * configured tick interval. If the deadline of a message passes, the
+ * configured {@link EAsyncMDNTimeoutAction} is performed.<br>
+ * The timeout can be overridden per partnership with the attribute
+ * {@link com.helger.as2lib.partner.CPartnershipIDs#PA_ASYNC_MDN_TIMEOUT}.<br>
+ * The tracked timeouts are held in memory only and are lost when the
+ * application is restarted. The pending MDN information itself is not affected
+ * by this.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public class AsyncMDNTimeoutModule extends AbstractActiveModule
+{
+  /** The default timeout in seconds */
+  public static final String ATTR_TIMEOUT_SECONDS = "timeout";
+  /** The action to perform. See {@link EAsyncMDNTimeoutAction} */
+  public static final String ATTR_ACTION = "action";
+  /** The interval in seconds in which the timeouts are checked */
+  public static final String ATTR_TICK_INTERVAL_SECONDS = "tickinterval";
+  /** The number of slots of the timer wheel */
+  public static final String ATTR_WHEEL_SIZE = "wheelsize";
+  /** The error directory - required for action "storeerror" */
+  public static final String ATTR_ERROR_DIRECTORY = "errordir";
+  /** The maximum number of resends per message for action "resend" */
+  public static final String ATTR_MAX_RESENDS = "maxresends";
+
+  /** Message attribute containing the number of resends due to a timeout */
+  public static final String MA_ASYNC_MDN_TIMEOUT_RESENDS = "async_mdn_timeout_resends";
+
+  /** The default timeout in milliseconds (24 hours) */
+  public static final long DEFAULT_TIMEOUT_MS = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+  /** The default tick interval in milliseconds (1 second) */
+  public static final long DEFAULT_TICK_INTERVAL_MS = CGlobal.MILLISECONDS_PER_SECOND;
+  /** The default number of slots of the timer wheel */
+  public static final int DEFAULT_WHEEL_SIZE = 4096;
+  /** The default maximum number of resends per message */
+  public static final int DEFAULT_MAX_RESENDS = 1;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (AsyncMDNTimeoutModule.class);
+
+  private class SweepTask extends TimerTask
+  {
+    @Override
+    public void run ()
+    {
+      checkTimeouts (System.currentTimeMillis ());
+    }
+  }
+
+  private long m_nTimeoutMS = DEFAULT_TIMEOUT_MS;
+  private EAsyncMDNTimeoutAction m_eAction = EAsyncMDNTimeoutAction.DEFAULT;
+  private String m_sErrorDirectory;
+  private int m_nMaxResends = DEFAULT_MAX_RESENDS;
+  private HashedTimeoutWheel <IMessage> m_aWheel;
+  private Timer m_aTimer;
+  private final AtomicLong m_aExpiredCount = new AtomicLong ();
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    if (containsAttribute (ATTR_TIMEOUT_SECONDS))
+    {
+      m_nTimeoutMS = getAttributeAsLong (ATTR_TIMEOUT_SECONDS) * CGlobal.MILLISECONDS_PER_SECOND;
+      if (m_nTimeoutMS < 1)
+        throw new InvalidParameterException ("Value must be > 0", this, ATTR_TIMEOUT_SECONDS, null);
+    }
+
+    final String sAction = getAttributeAsString (ATTR_ACTION);
+    if (sAction != null)
+    {
+      m_eAction = EAsyncMDNTimeoutAction.getFromIDCaseInsensitiveOrNull (sAction);
+      if (m_eAction == null)
+        throw new InvalidParameterException ("Invalid action", this, ATTR_ACTION, sAction);
+    }
+    if (m_eAction == EAsyncMDNTimeoutAction.STORE_ERROR)
+      m_sErrorDirectory = getAttributeAsStringRequired (ATTR_ERROR_DIRECTORY);
+    if (containsAttribute (ATTR_MAX_RESENDS))
+      m_nMaxResends = Math.max (0, getAttributeAsIntRequired (ATTR_MAX_RESENDS));
+
+    long nTickMS = DEFAULT_TICK_INTERVAL_MS;
+    if (containsAttribute (ATTR_TICK_INTERVAL_SECONDS))
+    {
+      nTickMS = getAttributeAsLong (ATTR_TICK_INTERVAL_SECONDS) * CGlobal.MILLISECONDS_PER_SECOND;
+      if (nTickMS < 1)
+        throw new InvalidParameterException ("Value must be > 0", this, ATTR_TICK_INTERVAL_SECONDS, null);
+    }
+    int nWheelSize = DEFAULT_WHEEL_SIZE;
+    if (containsAttribute (ATTR_WHEEL_SIZE))
+    {
+      nWheelSize = getAttributeAsIntRequired (ATTR_WHEEL_SIZE);
+      if (nWheelSize < 1)
+        throw new InvalidParameterException ("Value must be > 0", this, ATTR_WHEEL_SIZE, null);
+    }
+    m_aWheel = new HashedTimeoutWheel <IMessage> (nTickMS, nWheelSize, System.currentTimeMillis ());
+  }
+
+  /**
+   * @return The configured action on timeout. Never <code>null</code>.
+   */
+  @Nonnull
+  public EAsyncMDNTimeoutAction getAction ()
+  {
+    return m_eAction;
+  }
+
+  /**
+   * Get the timeout for the passed partnership.
+   *
+   * @param aPartnership
+   *        The partnership to use. May be <code>null</code>.
+   * @return The timeout in milliseconds from the partnership or the default
+   *         timeout of this module.
+   */
+  @Nonnegative
+  public long getTimeoutMS (@Nullable final Partnership aPartnership)
+  {
+    if (aPartnership != null)
+    {
+      final long nSeconds = StringParser.parseLong (aPartnership.getAsyncMDNTimeout (), -1);
+      if (nSeconds > 0)
+        return nSeconds * CGlobal.MILLISECONDS_PER_SECOND;
+    }
+    return m_nTimeoutMS;
+  }
+
+  @Nonnull
+  private HashedTimeoutWheel <IMessage> _getWheel ()
+  {
+    if (m_aWheel == null)
+      throw new IllegalStateException ("Module was not initialized");
+    return m_aWheel;
+  }
+
+  /**
+   * Start tracking an outgoing message that waits for an asynchronous MDN. If
+   * the message is already tracked, the deadline is reset.
+   *
+   * @param aMsg
+   *        The outgoing message. May not be <code>null</code>.
+   */
+  public void track (@Nonnull final IMessage aMsg)
+  {
+    ValueEnforcer.notNull (aMsg, "Msg");
+
+    final String sMessageID = aMsg.getMessageID ();
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      s_aLogger.warn ("Cannot track message without message ID" + aMsg.getLoggingText ());
+      return;
+    }
+
+    // Only keep the message if it is needed for resending
+    final IMessage aData = m_eAction == EAsyncMDNTimeoutAction.RESEND ? aMsg : null;
+    _getWheel ().put (sMessageID, System.currentTimeMillis () + getTimeoutMS (aMsg.getPartnership ()), aData);
+  }
+
+  /**
+   * Stop tracking an outgoing message, because the MDN was received.
+   *
+   * @param sMessageID
+   *        The message ID of the outgoing message. May be <code>null</code>.
+   * @return <code>true</code> if the message was tracked.
+   */
+  public boolean untrack (@Nullable final String sMessageID)
+  {
+    return _getWheel ().remove (sMessageID);
+  }
+
+  /**
+   * @return The number of currently tracked messages.
+   */
+  @Nonnegative
+  public int getTrackedCount ()
+  {
+    return _getWheel ().size ();
+  }
+
+  /**
+   * @return The number of messages for which no MDN was received in time since
+   *         this module was created.
+   */
+  @Nonnegative
+  public long getExpiredCount ()
+  {
+    return m_aExpiredCount.get ();
+  }
+
+  /**
+   * Perform the configured action for all messages whose deadline passed.
+   * Called periodically while the module is running.
+   *
+   * @param nNowMS
+   *        The current time in milliseconds.
+   */
+  public void checkTimeouts (final long nNowMS)
+  {
+    for (final Map.Entry <String, IMessage> aEntry : _getWheel ().expire (nNowMS).entrySet ())
+    {
+      m_aExpiredCount.incrementAndGet ();
+      try
+      {
+        onTimeout (aEntry.getKey (), aEntry.getValue ());
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        ex.terminate ();
+      }
+      catch (final RuntimeException ex)
+      {
+        // Don't skip the remaining messages and don't kill the timer thread
+        s_aLogger.error ("Error handling the asynchronous MDN timeout of message ID '" + aEntry.getKey () + "'", ex);
+      }
+    }
+  }
+
+  /**
+   * Called for every message for which no MDN was received in time.
+   *
+   * @param sMessageID
+   *        The message ID of the outgoing message. Never <code>null</code>.
+   * @param aMsg
+   *        The outgoing message. Only present for action
+   *        {@link EAsyncMDNTimeoutAction#RESEND}.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  @OverrideOnDemand
+  protected void onTimeout (@Nonnull final String sMessageID, @Nullable final IMessage aMsg) throws OpenAS2Exception
+  {
+    s_aLogger.warn ("No asynchronous MDN received in time for message ID '" +
+                    sMessageID +
+                    "' - performing action " +
+                    m_eAction.getID ());
+
+    switch (m_eAction)
+    {
+      case RESEND:
+        if (aMsg != null)
+        {
+          final int nResends = StringParser.parseInt (aMsg.getAttribute (MA_ASYNC_MDN_TIMEOUT_RESENDS), 0);
+          if (nResends >= m_nMaxResends)
+          {
+            s_aLogger.error ("Maximum number of resends reached - giving up" + aMsg.getLoggingText ());
+            break;
+          }
+          aMsg.setAttribute (MA_ASYNC_MDN_TIMEOUT_RESENDS, Integer.toString (nResends + 1));
+
+          final Map <String, Object> aOptions = new HashMap <String, Object> ();
+          aOptions.put (IProcessorResenderModule.OPTION_CAUSE,
+                        new OpenAS2Exception ("No asynchronous MDN received for message ID '" + sMessageID + "'"));
+          aOptions.put (IProcessorResenderModule.OPTION_INITIAL_SENDER, this);
+          aOptions.put (IProcessorResenderModule.OPTION_RESEND_ACTION, IProcessorSenderModule.DO_SEND);
+          aOptions.put (IProcessorResenderModule.OPTION_RETRIES, "1");
+          getSession ().getMessageProcessor ().handle (IProcessorResenderModule.DO_RESEND, aMsg, aOptions);
+        }
+        break;
+      case STORE_ERROR:
+      {
+        final IPendingMDNStore aPendingMDNStore = getSession ().getPendingMDNStore ();
+        final PendingMDNInfo aPendingInfo = aPendingMDNStore.getPendingInfo (sMessageID);
+        if (aPendingInfo != null)
+        {
+          final File aPendingFile = new File (aPendingInfo.getPendingFilename ());
+          if (aPendingFile.exists ())
+            IOHelper.handleError (aPendingFile, m_sErrorDirectory);
+          aPendingMDNStore.removePendingInfo (sMessageID);
+        }
+        break;
+      }
+      case METRIC:
+        // Counted and logged only
+        break;
+    }
+  }
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void doStart () throws OpenAS2Exception
+  {
+    if (m_aTimer != null)
+      throw new IllegalStateException ("Async MDN timeout timer is already running!");
+
+    final long nTickMS = _getWheel ().getTickMS ();
+    m_aTimer = new Timer ("AsyncMDNTimeout", true);
+    m_aTimer.scheduleAtFixedRate (new SweepTask (), nTickMS, nTickMS);
+  }
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void doStop () throws OpenAS2Exception
+  {
+    if (m_aTimer != null)
+    {
+      m_aTimer.cancel ();
+      m_aTimer = null;
+    }
+  }
+}
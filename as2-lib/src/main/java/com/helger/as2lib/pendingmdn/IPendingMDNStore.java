@@ -0,0 +1,102 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.as2lib.IDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.state.EChange;
+
+/**
+ * Store for the information of outgoing messages that wait for an
+ * asynchronous MDN. Entries are keyed by the message ID of the outgoing
+ * message, which is the original message ID contained in the MDN.
+ * Implementations must be thread-safe.
+ *
+ * @author Philip Helger
+ */
+public interface IPendingMDNStore extends IDynamicComponent
+{
+  /**
+   * Store the pending information of an outgoing message. An existing entry
+   * with the same message ID is overwritten.
+   *
+   * @param sMessageID
+   *        The message ID of the outgoing message. May neither be
+   *        <code>null</code> nor empty.
+   * @param aInfo
+   *        The information to store. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  void storePendingInfo (@Nonnull @Nonempty String sMessageID, @Nonnull PendingMDNInfo aInfo) throws OpenAS2Exception;
+
+  /**
+   * Get the pending information of an outgoing message.
+   *
+   * @param sMessageID
+   *        The message ID of the outgoing message. May be <code>null</code>.
+   * @return <code>null</code> if no such information is present.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  @Nullable
+  PendingMDNInfo getPendingInfo (@Nullable String sMessageID) throws OpenAS2Exception;
+
+  /**
+   * Remove the pending information of an outgoing message, e.g. because the
+   * MDN was received.
+   *
+   * @param sMessageID
+   *        The message ID of the outgoing message. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if an entry was removed. Never
+   *         <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  @Nonnull
+  EChange removePendingInfo (@Nullable String sMessageID) throws OpenAS2Exception;
+
+  /**
+   * @return The number of pending entries, e.g. for monitoring.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   * @since 2.2.6
+   */
+  @Nonnegative
+  int getPendingInfoCount () throws OpenAS2Exception;
+}
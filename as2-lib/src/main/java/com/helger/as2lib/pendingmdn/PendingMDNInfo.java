@@ -0,0 +1,109 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import java.io.Serializable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The information stored for an outgoing message that waits for an
+ * asynchronous MDN: the original MIC and the name of the file containing a
+ * copy of the outgoing message.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class PendingMDNInfo implements Serializable
+{
+  private final String m_sOriginalMIC;
+  private final String m_sPendingFilename;
+
+  public PendingMDNInfo (@Nonnull final String sOriginalMIC, @Nonnull final String sPendingFilename)
+  {
+    m_sOriginalMIC = ValueEnforcer.notNull (sOriginalMIC, "OriginalMIC");
+    m_sPendingFilename = ValueEnforcer.notNull (sPendingFilename, "PendingFilename");
+  }
+
+  /**
+   * @return The MIC calculated when the message was sent. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public String getOriginalMIC ()
+  {
+    return m_sOriginalMIC;
+  }
+
+  /**
+   * @return The name of the file containing the pending message. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public String getPendingFilename ()
+  {
+    return m_sPendingFilename;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final PendingMDNInfo rhs = (PendingMDNInfo) o;
+    return EqualsHelper.equals (m_sOriginalMIC, rhs.m_sOriginalMIC) &&
+           EqualsHelper.equals (m_sPendingFilename, rhs.m_sPendingFilename);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_sOriginalMIC).append (m_sPendingFilename).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("OriginalMIC", m_sOriginalMIC)
+                                       .append ("PendingFilename", m_sPendingFilename)
+                                       .toString ();
+  }
+}
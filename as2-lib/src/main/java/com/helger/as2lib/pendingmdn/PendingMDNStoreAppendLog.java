@@ -0,0 +1,607 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An {@link IPendingMDNStore} that keeps all entries in a single append-only
+ * log file and an in-memory hash index, so that lookups never touch the disk.
+ * <ul>
+ * <li>Every store and remove operation appends a checksummed record to the
+ * log.</li>
+ * <li>On startup the log is replayed to rebuild the index. A truncated or
+ * corrupt record at the end of the log (e.g. after a crash) is discarded and
+ * the log is truncated to the last valid record.</li>
+ * <li>If the log contains more obsolete records than live entries (and at
+ * least {@link #ATTR_COMPACTION_MIN_RECORDS} records), it is compacted by
+ * writing all live entries to a new file that atomically replaces the old
+ * log.</li>
+ * </ul>
+ * Supported attributes:
+ * <ul>
+ * <li>{@link #ATTR_FILENAME} - the log file name (required)</li>
+ * <li>{@link #ATTR_COMPACTION_MIN_RECORDS} - the minimum number of records
+ * before compaction is considered</li>
+ * <li>{@link #ATTR_SYNC_WRITES} - <code>true</code> to force every record to
+ * the disk before returning</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class PendingMDNStoreAppendLog extends AbstractDynamicComponent implements IPendingMDNStore
+{
+  /** The name of the log file */
+  public static final String ATTR_FILENAME = "filename";
+  /** Minimum number of log records before a compaction is considered */
+  public static final String ATTR_COMPACTION_MIN_RECORDS = "compactionminrecords";
+  /** If <code>true</code> every write is synced to the disk */
+  public static final String ATTR_SYNC_WRITES = "syncwrites";
+
+  public static final int DEFAULT_COMPACTION_MIN_RECORDS = 10000;
+  public static final boolean DEFAULT_SYNC_WRITES = false;
+
+  /** Extension of the temporary file used while compacting */
+  public static final String COMPACT_FILE_EXTENSION = ".compact";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (PendingMDNStoreAppendLog.class);
+
+  private static final byte RECORD_STORE = 1;
+  private static final byte RECORD_REMOVE = 2;
+  // Sanity limit to detect corrupt length fields
+  private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+  @GuardedBy ("m_aRWLock")
+  private final Map <String, PendingMDNInfo> m_aIndex = new HashMap <String, PendingMDNInfo> ();
+  @GuardedBy ("m_aRWLock")
+  private File m_aFile;
+  @GuardedBy ("m_aRWLock")
+  private FileOutputStream m_aFOS;
+  @GuardedBy ("m_aRWLock")
+  private DataOutputStream m_aDOS;
+  @GuardedBy ("m_aRWLock")
+  private int m_nRecordCount = 0;
+  private int m_nCompactionMinRecords = DEFAULT_COMPACTION_MIN_RECORDS;
+  private boolean m_bSyncWrites = DEFAULT_SYNC_WRITES;
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+    m_nCompactionMinRecords = getAttributeAsInt (ATTR_COMPACTION_MIN_RECORDS, DEFAULT_COMPACTION_MIN_RECORDS);
+    m_bSyncWrites = getAttributeAsBoolean (ATTR_SYNC_WRITES, DEFAULT_SYNC_WRITES);
+    open (new File (getAttributeAsStringRequired (ATTR_FILENAME)));
+  }
+
+  @Nonnull
+  private static File _getCompactFile (@Nonnull final File aFile)
+  {
+    return new File (aFile.getParentFile (), aFile.getName () + COMPACT_FILE_EXTENSION);
+  }
+
+  /**
+   * Open the passed log file, replay all records and prepare it for appending.
+   * A previously opened log file is closed.
+   *
+   * @param aFile
+   *        The log file. May not be <code>null</code>. Needs not to exist.
+   * @throws OpenAS2Exception
+   *         In case of an IO error
+   */
+  public void open (@Nonnull final File aFile) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      close ();
+
+      final File aCompactFile = _getCompactFile (aFile);
+      if (aCompactFile.exists ())
+      {
+        if (aFile.exists ())
+        {
+          // Compaction was interrupted before the log was replaced
+          s_aLogger.warn ("Deleting incomplete compacted pending MDN log " + aCompactFile.getAbsolutePath ());
+          if (!aCompactFile.delete ())
+            throw new OpenAS2Exception ("Failed to delete " + aCompactFile.getAbsolutePath ());
+        }
+        else
+        {
+          // Compaction was interrupted after the old log was deleted
+          s_aLogger.warn ("Recovering compacted pending MDN log " + aCompactFile.getAbsolutePath ());
+          if (!aCompactFile.renameTo (aFile))
+            throw new OpenAS2Exception ("Failed to rename " + aCompactFile.getAbsolutePath () + " to " + aFile);
+        }
+      }
+
+      m_aIndex.clear ();
+      m_nRecordCount = 0;
+      if (aFile.exists ())
+        _replay (aFile);
+      else
+        FileHelper.ensureParentDirectoryIsPresent (aFile);
+
+      m_aFile = aFile;
+      _openForAppend ();
+      s_aLogger.info ("Opened pending MDN log " +
+                      aFile.getAbsolutePath () +
+                      " with " +
+                      m_aIndex.size () +
+                      " entries in " +
+                      m_nRecordCount +
+                      " records");
+    }
+    catch (final IOException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _replay (@Nonnull final File aFile) throws IOException
+  {
+    long nValidLength = 0;
+    final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (aFile)));
+    try
+    {
+      final CRC32 aCRC = new CRC32 ();
+      while (true)
+      {
+        final int nLength;
+        try
+        {
+          nLength = aDIS.readInt ();
+        }
+        catch (final EOFException ex)
+        {
+          // Regular end of log
+          break;
+        }
+        if (nLength <= 0 || nLength > MAX_RECORD_LENGTH)
+          break;
+
+        final byte [] aPayload = new byte [nLength];
+        final long nChecksum;
+        try
+        {
+          nChecksum = aDIS.readLong ();
+          aDIS.readFully (aPayload);
+        }
+        catch (final EOFException ex)
+        {
+          // Truncated record
+          break;
+        }
+
+        aCRC.reset ();
+        aCRC.update (aPayload);
+        if (aCRC.getValue () != nChecksum)
+          break;
+
+        _applyRecord (aPayload);
+        m_nRecordCount++;
+        nValidLength += 4 + 8 + nLength;
+      }
+    }
+    finally
+    {
+      StreamHelper.close (aDIS);
+    }
+
+    if (nValidLength < aFile.length ())
+    {
+      s_aLogger.warn ("Pending MDN log " +
+                      aFile.getAbsolutePath () +
+                      " contains " +
+                      (aFile.length () - nValidLength) +
+                      " invalid trailing bytes - truncating");
+      final RandomAccessFile aRAF = new RandomAccessFile (aFile, "rw");
+      try
+      {
+        aRAF.setLength (nValidLength);
+      }
+      finally
+      {
+        StreamHelper.close (aRAF);
+      }
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _applyRecord (@Nonnull final byte [] aPayload) throws IOException
+  {
+    final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aPayload));
+    final byte nType = aDIS.readByte ();
+    final String sMessageID = aDIS.readUTF ();
+    if (nType == RECORD_STORE)
+      m_aIndex.put (sMessageID, new PendingMDNInfo (aDIS.readUTF (), aDIS.readUTF ()));
+    else
+      if (nType == RECORD_REMOVE)
+        m_aIndex.remove (sMessageID);
+      else
+        throw new IOException ("Unsupported pending MDN log record type " + nType);
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _openForAppend () throws IOException
+  {
+    m_aFOS = new FileOutputStream (m_aFile, true);
+    m_aDOS = new DataOutputStream (new BufferedOutputStream (m_aFOS));
+  }
+
+  @Nonnull
+  private static byte [] _createPayload (final byte nType,
+                                         @Nonnull final String sMessageID,
+                                         @Nullable final PendingMDNInfo aInfo) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    final DataOutputStream aDOS = new DataOutputStream (aBAOS);
+    aDOS.writeByte (nType);
+    aDOS.writeUTF (sMessageID);
+    if (aInfo != null)
+    {
+      aDOS.writeUTF (aInfo.getOriginalMIC ());
+      aDOS.writeUTF (aInfo.getPendingFilename ());
+    }
+    aDOS.flush ();
+    return aBAOS.toByteArray ();
+  }
+
+  private static void _writeRecord (@Nonnull final DataOutputStream aDOS, @Nonnull final byte [] aPayload) throws IOException
+  {
+    final CRC32 aCRC = new CRC32 ();
+    aCRC.update (aPayload);
+    aDOS.writeInt (aPayload.length);
+    aDOS.writeLong (aCRC.getValue ());
+    aDOS.write (aPayload);
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _append (@Nonnull final byte [] aPayload) throws IOException
+  {
+    if (m_aDOS == null)
+      throw new IllegalStateException ("Pending MDN log is not open");
+    // The stream is flushed after every record, so this is the end of the last
+    // complete record
+    final long nOldLength = m_aFOS.getChannel ().size ();
+    try
+    {
+      _writeRecord (m_aDOS, aPayload);
+      m_aDOS.flush ();
+      if (m_bSyncWrites)
+        m_aFOS.getFD ().sync ();
+    }
+    catch (final IOException ex)
+    {
+      // Don't leave a partial record in the log, as replaying would drop all
+      // records following it
+      _truncateAndReopen (nOldLength);
+      throw ex;
+    }
+    m_nRecordCount++;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _truncateAndReopen (final long nLength)
+  {
+    StreamHelper.close (m_aDOS);
+    m_aDOS = null;
+    m_aFOS = null;
+    try
+    {
+      final RandomAccessFile aRAF = new RandomAccessFile (m_aFile, "rw");
+      try
+      {
+        aRAF.setLength (nLength);
+      }
+      finally
+      {
+        StreamHelper.close (aRAF);
+      }
+      _openForAppend ();
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to restore pending MDN log " + m_aFile.getAbsolutePath () + " after a failed write", ex);
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _compactIfNecessary () throws IOException
+  {
+    if (m_nRecordCount >= m_nCompactionMinRecords && m_nRecordCount > 2 * m_aIndex.size ())
+      _compact ();
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _compact () throws IOException
+  {
+    final int nOldRecordCount = m_nRecordCount;
+
+    // Write all live entries to a new file
+    final File aCompactFile = _getCompactFile (m_aFile);
+    final FileOutputStream aFOS = new FileOutputStream (aCompactFile, false);
+    final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (aFOS));
+    try
+    {
+      for (final Map.Entry <String, PendingMDNInfo> aEntry : m_aIndex.entrySet ())
+        _writeRecord (aDOS, _createPayload (RECORD_STORE, aEntry.getKey (), aEntry.getValue ()));
+      aDOS.flush ();
+      aFOS.getFD ().sync ();
+    }
+    finally
+    {
+      StreamHelper.close (aDOS);
+    }
+
+    // Replace the old log
+    StreamHelper.close (m_aDOS);
+    m_aDOS = null;
+    m_aFOS = null;
+    try
+    {
+      if (!aCompactFile.renameTo (m_aFile))
+      {
+        // Some platforms cannot rename onto an existing file
+        if (!m_aFile.delete () || !aCompactFile.renameTo (m_aFile))
+          throw new IOException ("Failed to replace " + m_aFile.getAbsolutePath () + " with compacted log");
+      }
+      m_nRecordCount = m_aIndex.size ();
+    }
+    finally
+    {
+      // Keep the log writable, even if the replacement failed
+      if (!m_aFile.exists () && aCompactFile.renameTo (m_aFile))
+        m_nRecordCount = m_aIndex.size ();
+      else
+        if (aCompactFile.exists () && !aCompactFile.delete ())
+          s_aLogger.warn ("Failed to delete " + aCompactFile.getAbsolutePath ());
+      try
+      {
+        _openForAppend ();
+      }
+      catch (final IOException ex)
+      {
+        s_aLogger.error ("Failed to reopen pending MDN log " + m_aFile.getAbsolutePath (), ex);
+      }
+    }
+
+    s_aLogger.info ("Compacted pending MDN log " +
+                    m_aFile.getAbsolutePath () +
+                    " from " +
+                    nOldRecordCount +
+                    " to " +
+                    m_nRecordCount +
+                    " records");
+  }
+
+  /**
+   * Compact the log file, so that it only contains the live entries.
+   *
+   * @throws OpenAS2Exception
+   *         In case of an IO error
+   */
+  public void compact () throws OpenAS2Exception
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _compact ();
+    }
+    catch (final IOException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  public void storePendingInfo (@Nonnull @Nonempty final String sMessageID,
+                                @Nonnull final PendingMDNInfo aInfo) throws OpenAS2Exception
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aInfo, "Info");
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      // Write ahead
+      _append (_createPayload (RECORD_STORE, sMessageID, aInfo));
+      m_aIndex.put (sMessageID, aInfo);
+      _compactIfNecessary ();
+    }
+    catch (final IOException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Nullable
+  public PendingMDNInfo getPendingInfo (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_aIndex.get (sMessageID);
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  public EChange removePendingInfo (@Nullable final String sMessageID) throws OpenAS2Exception
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (!m_aIndex.containsKey (sMessageID))
+        return EChange.UNCHANGED;
+
+      _append (_createPayload (RECORD_REMOVE, sMessageID, null));
+      m_aIndex.remove (sMessageID);
+      _compactIfNecessary ();
+      return EChange.CHANGED;
+    }
+    catch (final IOException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The number of pending entries.
+   */
+  @Nonnegative
+  public int getPendingInfoCount ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_aIndex.size ();
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The number of records in the log file, including obsolete ones.
+   */
+  @Nonnegative
+  public int getRecordCount ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_nRecordCount;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Close the log file. All entries remain available for reading but no more
+   * modifications are possible until the log is opened again.
+   */
+  public void close ()
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      StreamHelper.close (m_aDOS);
+      m_aDOS = null;
+      m_aFOS = null;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("File", m_aFile)
+                            .append ("CompactionMinRecords", m_nCompactionMinRecords)
+                            .append ("SyncWrites", m_bSyncWrites)
+                            .toString ();
+  }
+}
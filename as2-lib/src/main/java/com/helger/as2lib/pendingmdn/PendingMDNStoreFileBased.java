@@ -0,0 +1,210 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IOHelper;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.charset.CCharset;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.NonBlockingBufferedReader;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * The default {@link IPendingMDNStore}: one small file per pending message in
+ * a directory. The file name is derived from the message ID, the first line
+ * contains the original MIC and the second line contains the pending
+ * filename.<br>
+ * If the attribute {@link #ATTR_DIRECTORY} is not set, the attribute
+ * {@link #ATTR_PENDINGMDNINFO} of the message processor is used.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class PendingMDNStoreFileBased extends AbstractDynamicComponent implements IPendingMDNStore
+{
+  /** The directory to store the pending information files in */
+  public static final String ATTR_DIRECTORY = "directory";
+  /** The message processor attribute used if no directory is configured */
+  public static final String ATTR_PENDINGMDNINFO = "pendingmdninfo";
+
+  private String m_sDirectory;
+
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    String sDirectory = getAttributeAsString (ATTR_DIRECTORY);
+    if (sDirectory == null)
+      sDirectory = aSession.getMessageProcessor ().getAttributeAsString (ATTR_PENDINGMDNINFO);
+    if (StringHelper.hasNoText (sDirectory))
+      throw new InvalidParameterException ("Parameter not found", this, ATTR_DIRECTORY, null);
+    m_sDirectory = FilenameHelper.getAsSecureValidASCIIFilename (sDirectory);
+  }
+
+  /**
+   * @return The directory the pending information files are stored in. Only
+   *         <code>null</code> if this component was not yet initialized.
+   */
+  @Nullable
+  public String getDirectory ()
+  {
+    return m_sDirectory;
+  }
+
+  @Nonnull
+  protected File getPendingInfoFile (@Nonnull final String sMessageID)
+  {
+    if (m_sDirectory == null)
+      throw new IllegalStateException ("Pending MDN store was not initialized");
+    return new File (m_sDirectory, IOHelper.getFilenameFromMessageID (sMessageID));
+  }
+
+  public void storePendingInfo (@Nonnull @Nonempty final String sMessageID,
+                                @Nonnull final PendingMDNInfo aInfo) throws OpenAS2Exception
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aInfo, "Info");
+
+    // input pending folder & original outgoing file name to get and
+    // unique file name in order to avoid file overwriting.
+    final OutputStream aFOS = FileHelper.getOutputStream (getPendingInfoFile (sMessageID));
+    if (aFOS == null)
+      throw new OpenAS2Exception ("Failed to open pending information file for message ID '" + sMessageID + "'");
+    try
+    {
+      aFOS.write ((aInfo.getOriginalMIC () + "\n" + aInfo.getPendingFilename ()).getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      StreamHelper.close (aFOS);
+    }
+  }
+
+  @Nullable
+  public PendingMDNInfo getPendingInfo (@Nullable final String sMessageID) throws OpenAS2Exception
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    NonBlockingBufferedReader aPendingInfoReader = null;
+    try
+    {
+      aPendingInfoReader = new NonBlockingBufferedReader (new FileReader (getPendingInfoFile (sMessageID)));
+
+      // Get the original mic from the first line of pending information file
+      final String sOriginalMIC = aPendingInfoReader.readLine ();
+
+      // Get the original pending file from the second line of pending
+      // information file
+      final String sPendingFilename = aPendingInfoReader.readLine ();
+      if (sOriginalMIC == null || sPendingFilename == null)
+        return null;
+      return new PendingMDNInfo (sOriginalMIC, sPendingFilename);
+    }
+    catch (final FileNotFoundException ex)
+    {
+      return null;
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      StreamHelper.close (aPendingInfoReader);
+    }
+  }
+
+  @Nonnull
+  public EChange removePendingInfo (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+    return EChange.valueOf (getPendingInfoFile (sMessageID).delete ());
+  }
+
+  @Nonnegative
+  public int getPendingInfoCount ()
+  {
+    if (m_sDirectory == null)
+      return 0;
+    final File [] aFiles = new File (m_sDirectory).listFiles ();
+    return aFiles == null ? 0 : aFiles.length;
+  }
+
+  /**
+   * Create the default store for the passed session, based on the attributes
+   * of the message processor.
+   *
+   * @param aSession
+   *        The session to use. May not be <code>null</code>.
+   * @return The new store. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the message processor is missing or not configured
+   */
+  @Nonnull
+  public static PendingMDNStoreFileBased createDefault (@Nonnull final IAS2Session aSession) throws OpenAS2Exception
+  {
+    final PendingMDNStoreFileBased ret = new PendingMDNStoreFileBased ();
+    ret.initDynamicComponent (aSession, null);
+    return ret;
+  }
+}
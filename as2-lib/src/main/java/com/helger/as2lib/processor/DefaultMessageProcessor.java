@@ -33,19 +33,26 @@
 package com.helger.as2lib.processor;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.module.IProcessorActiveModule;
 import com.helger.as2lib.processor.module.IProcessorModule;
 import com.helger.commons.ValueEnforcer;
@@ -56,14 +63,109 @@ import com.helger.commons.state.EChange;
 @NotThreadSafe
 public class DefaultMessageProcessor extends AbstractMessageProcessor
 {
+  /**
+   * The immutable lookup structure used by
+   * {@link DefaultMessageProcessor#handle(String, IMessage, Map)}. It is
+   * rebuilt whenever a module is added or removed.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class DispatchTable
+  {
+    private final List <IProcessorModule> m_aAllModules;
+    // Modules not using the actions of IActionAwareProcessorModule
+    private final List <IProcessorModule> m_aWildcardModules;
+    // Action to the modules that may handle it, in registration order
+    private final Map <String, List <IProcessorModule>> m_aModulesPerAction;
+
+    /**
+     * Check if the actions declared by the passed module can be used. This is
+     * not the case if a subclass overrides {@link IProcessorModule#canHandle}
+     * of a class that declares the handled actions, because the overridden
+     * method may accept other actions. Such modules are asked for all actions.
+     */
+    private static boolean _isActionAware (@Nonnull final IProcessorModule aModule)
+    {
+      if (!(aModule instanceof IActionAwareProcessorModule))
+        return false;
+      try
+      {
+        final Class <?> aClass = aModule.getClass ();
+        final Class <?> aCanHandleClass = aClass.getMethod ("canHandle", String.class, IMessage.class, Map.class)
+                                                .getDeclaringClass ();
+        final Class <?> aActionsClass = aClass.getMethod ("getAllHandledActions").getDeclaringClass ();
+        return aCanHandleClass.isAssignableFrom (aActionsClass);
+      }
+      catch (final NoSuchMethodException ex)
+      {
+        return false;
+      }
+    }
+
+    DispatchTable (@Nonnull final List <IProcessorModule> aModules)
+    {
+      final List <IProcessorModule> aWildcardModules = new ArrayList <IProcessorModule> ();
+      final Map <String, List <IProcessorModule>> aModulesPerAction = new HashMap <String, List <IProcessorModule>> ();
+      for (final IProcessorModule aModule : aModules)
+        if (_isActionAware (aModule))
+        {
+          for (final String sAction : ((IActionAwareProcessorModule) aModule).getAllHandledActions ())
+            if (!aModulesPerAction.containsKey (sAction))
+              aModulesPerAction.put (sAction, new ArrayList <IProcessorModule> ());
+        }
+        else
+          aWildcardModules.add (aModule);
+
+      // Second pass, so that wildcard modules keep their relative position
+      for (final IProcessorModule aModule : aModules)
+      {
+        final boolean bActionAware = _isActionAware (aModule);
+        for (final Map.Entry <String, List <IProcessorModule>> aEntry : aModulesPerAction.entrySet ())
+          if (!bActionAware ||
+              ((IActionAwareProcessorModule) aModule).getAllHandledActions ().contains (aEntry.getKey ()))
+            aEntry.getValue ().add (aModule);
+      }
+
+      m_aAllModules = Collections.unmodifiableList (CollectionHelper.newList (aModules));
+      m_aWildcardModules = Collections.unmodifiableList (aWildcardModules);
+      for (final Map.Entry <String, List <IProcessorModule>> aEntry : aModulesPerAction.entrySet ())
+        aEntry.setValue (Collections.unmodifiableList (aEntry.getValue ()));
+      m_aModulesPerAction = aModulesPerAction;
+    }
+
+    @Nonnull
+    List <IProcessorModule> getAllModules ()
+    {
+      return m_aAllModules;
+    }
+
+    @Nonnull
+    List <IProcessorModule> getAllModulesForAction (@Nonnull final String sAction)
+    {
+      final List <IProcessorModule> ret = m_aModulesPerAction.get (sAction);
+      return ret != null ? ret : m_aWildcardModules;
+    }
+  }
+
   private static final Logger s_aLogger = LoggerFactory.getLogger (DefaultMessageProcessor.class);
 
   private final List <IProcessorModule> m_aModules = new ArrayList <IProcessorModule> ();
+  private volatile DispatchTable m_aDispatchTable = new DispatchTable (m_aModules);
+  private final Map <Class <?>, IProcessorModule> m_aModuleOfClassCache = new ConcurrentHashMap <Class <?>, IProcessorModule> ();
+  private final List <IMessageProcessorInterceptor> m_aInterceptors = new CopyOnWriteArrayList <IMessageProcessorInterceptor> ();
+
+  private void _modulesChanged ()
+  {
+    m_aDispatchTable = new DispatchTable (m_aModules);
+    m_aModuleOfClassCache.clear ();
+  }
 
   public void addModule (@Nonnull final IProcessorModule aModule)
   {
     ValueEnforcer.notNull (aModule, "Module");
     m_aModules.add (aModule);
+    _modulesChanged ();
   }
 
   @Nonnull
@@ -71,29 +173,39 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
   {
     if (aModule == null)
       return EChange.UNCHANGED;
-    return EChange.valueOf (m_aModules.remove (aModule));
+    if (!m_aModules.remove (aModule))
+      return EChange.UNCHANGED;
+    _modulesChanged ();
+    return EChange.CHANGED;
   }
 
   @Nonnegative
   public int getModuleCount ()
   {
-    return m_aModules.size ();
+    return m_aDispatchTable.getAllModules ().size ();
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public List <IProcessorModule> getAllModules ()
   {
-    return CollectionHelper.newList (m_aModules);
+    return CollectionHelper.newList (m_aDispatchTable.getAllModules ());
   }
 
   @Nullable
   public <T extends IProcessorModule> T getModuleOfClass (@Nonnull final Class <T> aClass)
   {
     ValueEnforcer.notNull (aClass, "Class");
-    for (final IProcessorModule aModule : m_aModules)
+    final IProcessorModule aCached = m_aModuleOfClassCache.get (aClass);
+    if (aCached != null)
+      return aClass.cast (aCached);
+
+    for (final IProcessorModule aModule : m_aDispatchTable.getAllModules ())
       if (aClass.isAssignableFrom (aModule.getClass ()))
+      {
+        m_aModuleOfClassCache.put (aClass, aModule);
         return aClass.cast (aModule);
+      }
     return null;
   }
 
@@ -103,7 +215,7 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
   {
     ValueEnforcer.notNull (aClass, "Class");
     final List <T> ret = new ArrayList <T> ();
-    for (final IProcessorModule aModule : m_aModules)
+    for (final IProcessorModule aModule : m_aDispatchTable.getAllModules ())
       if (aClass.isAssignableFrom (aModule.getClass ()))
         ret.add (aClass.cast (aModule));
     return ret;
@@ -114,12 +226,90 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
   public List <IProcessorActiveModule> getAllActiveModules ()
   {
     final List <IProcessorActiveModule> ret = new ArrayList <IProcessorActiveModule> ();
-    for (final IProcessorModule aModule : getAllModules ())
+    for (final IProcessorModule aModule : m_aDispatchTable.getAllModules ())
       if (aModule instanceof IProcessorActiveModule)
         ret.add ((IProcessorActiveModule) aModule);
     return ret;
   }
 
+  /**
+   * Add an interceptor that is notified about every module invocation and
+   * every timed processing step.
+   *
+   * @param aInterceptor
+   *        The interceptor to add. May not be <code>null</code>.
+   * @since 2.2.6
+   */
+  public void addInterceptor (@Nonnull final IMessageProcessorInterceptor aInterceptor)
+  {
+    ValueEnforcer.notNull (aInterceptor, "Interceptor");
+    m_aInterceptors.add (aInterceptor);
+  }
+
+  /**
+   * @param aInterceptor
+   *        The interceptor to remove. May be <code>null</code>.
+   * @return {@link EChange}
+   * @since 2.2.6
+   */
+  @Nonnull
+  public EChange removeInterceptor (@Nullable final IMessageProcessorInterceptor aInterceptor)
+  {
+    return EChange.valueOf (aInterceptor != null && m_aInterceptors.remove (aInterceptor));
+  }
+
+  /**
+   * @return A copy of all registered interceptors. Never <code>null</code>.
+   * @since 2.2.6
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <IMessageProcessorInterceptor> getAllInterceptors ()
+  {
+    return CollectionHelper.newList (m_aInterceptors);
+  }
+
+  /**
+   * @return <code>true</code> if at least one interceptor is registered.
+   * @since 2.2.6
+   */
+  public boolean hasInterceptors ()
+  {
+    return !m_aInterceptors.isEmpty ();
+  }
+
+  private void _onModuleHandled (@Nonnull final IProcessorModule aModule,
+                                 @Nonnull final String sAction,
+                                 @Nonnull final IMessage aMsg,
+                                 final long nDurationNanos,
+                                 @Nullable final OpenAS2Exception aError)
+  {
+    for (final IMessageProcessorInterceptor aInterceptor : m_aInterceptors)
+      try
+      {
+        aInterceptor.onModuleHandled (aModule, sAction, aMsg, nDurationNanos, aError);
+      }
+      catch (final RuntimeException ex)
+      {
+        s_aLogger.error ("Interceptor " + aInterceptor + " failed", ex);
+      }
+  }
+
+  void onOperationFinished (@Nonnull final EProcessingOperation eOperation,
+                            @Nonnull final IMessage aMsg,
+                            final long nDurationNanos)
+  {
+    for (final IMessageProcessorInterceptor aInterceptor : m_aInterceptors)
+      try
+      {
+        aInterceptor.onOperationFinished (eOperation, aMsg, nDurationNanos);
+      }
+      catch (final RuntimeException ex)
+      {
+        s_aLogger.error ("Interceptor " + aInterceptor + " failed", ex);
+      }
+  }
+
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aMsg,
                       @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
@@ -129,10 +319,14 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
 
     final List <Throwable> aCauses = new ArrayList <Throwable> ();
     boolean bModuleFound = false;
+    final boolean bIntercept = !m_aInterceptors.isEmpty ();
 
-    for (final IProcessorModule aModule : getAllModules ())
+    // The list is immutable so no copy is needed
+    for (final IProcessorModule aModule : m_aDispatchTable.getAllModulesForAction (sAction))
       if (aModule.canHandle (sAction, aMsg, aOptions))
       {
+        final long nStart = bIntercept ? System.nanoTime () : 0;
+        OpenAS2Exception aError = null;
         try
         {
           if (s_aLogger.isDebugEnabled ())
@@ -143,8 +337,20 @@ public class DefaultMessageProcessor extends AbstractMessageProcessor
         }
         catch (final OpenAS2Exception ex)
         {
+          aError = ex;
           aCauses.add (ex);
         }
+        catch (final RuntimeException ex)
+        {
+          // Propagated, but the interceptors are notified nevertheless
+          aError = WrappedOpenAS2Exception.wrap (ex);
+          throw ex;
+        }
+        finally
+        {
+          if (bIntercept)
+            _onModuleHandled (aModule, sAction, aMsg, System.nanoTime () - nStart, aError);
+        }
       }
 
     if (!aCauses.isEmpty ())
@@ -0,0 +1,91 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.IProcessorModule;
+
+/**
+ * Interceptor that is invoked by {@link DefaultMessageProcessor} after each
+ * module invocation and after each timed processing step. Implementations are
+ * called synchronously in the processing thread and must therefore be fast and
+ * thread-safe.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public interface IMessageProcessorInterceptor
+{
+  /**
+   * Called after {@link IProcessorModule#handle(String, IMessage, java.util.Map)}
+   * returned or threw an exception.
+   *
+   * @param aModule
+   *        The module that handled the message. Never <code>null</code>.
+   * @param sAction
+   *        The handled action. Never <code>null</code>.
+   * @param aMsg
+   *        The handled message. Never <code>null</code>.
+   * @param nDurationNanos
+   *        The duration of the handle call in nanoseconds.
+   * @param aError
+   *        The exception thrown by the module or <code>null</code> if the
+   *        module succeeded. Runtime exceptions are passed wrapped in a
+   *        {@link com.helger.as2lib.exception.WrappedOpenAS2Exception}.
+   */
+  void onModuleHandled (@Nonnull IProcessorModule aModule,
+                        @Nonnull String sAction,
+                        @Nonnull IMessage aMsg,
+                        @Nonnegative long nDurationNanos,
+                        @Nullable OpenAS2Exception aError);
+
+  /**
+   * Called after a processing step of a message finished successfully.
+   *
+   * @param eOperation
+   *        The finished operation. Never <code>null</code>.
+   * @param aMsg
+   *        The message the operation was performed on. Never
+   *        <code>null</code>.
+   * @param nDurationNanos
+   *        The duration of the operation in nanoseconds.
+   */
+  void onOperationFinished (@Nonnull EProcessingOperation eOperation,
+                            @Nonnull IMessage aMsg,
+                            @Nonnegative long nDurationNanos);
+}
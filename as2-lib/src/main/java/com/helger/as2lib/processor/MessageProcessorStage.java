@@ -0,0 +1,297 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single stage of the {@link StagedMessageProcessor}. Each stage handles
+ * exactly one action with its own bounded queue and thread pool. If the queue
+ * is full (or the stage was shut down), the action is handled in the thread
+ * that submitted it, so that a slow stage throttles its producers instead of
+ * buffering an unlimited number of messages. A stage that was shut down can be
+ * started again, keeping its counters.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class MessageProcessorStage
+{
+  /**
+   * The work to be done by a stage.
+   */
+  interface IStageTask
+  {
+    void run () throws OpenAS2Exception;
+  }
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (MessageProcessorStage.class);
+
+  private final String m_sAction;
+  private final int m_nThreads;
+  private final int m_nQueueSize;
+  private final ThreadFactory m_aThreadFactory;
+  private final RejectedExecutionHandler m_aRejectionHandler;
+  private volatile ThreadPoolExecutor m_aExecutor;
+  private final AtomicLong m_aSubmitted = new AtomicLong ();
+  private final AtomicLong m_aCompleted = new AtomicLong ();
+  private final AtomicLong m_aFailed = new AtomicLong ();
+  private final AtomicLong m_aCallerRuns = new AtomicLong ();
+  private final AtomicLong m_aProcessingNanos = new AtomicLong ();
+
+  MessageProcessorStage (@Nonnull @Nonempty final String sAction,
+                         @Nonnegative final int nThreads,
+                         @Nonnegative final int nQueueSize)
+  {
+    m_sAction = ValueEnforcer.notEmpty (sAction, "Action");
+    m_nThreads = ValueEnforcer.isGT0 (nThreads, "Threads");
+    m_nQueueSize = ValueEnforcer.isGT0 (nQueueSize, "QueueSize");
+
+    final AtomicInteger aThreadIndex = new AtomicInteger ();
+    m_aThreadFactory = new ThreadFactory ()
+    {
+      public Thread newThread (@Nonnull final Runnable aRunnable)
+      {
+        final Thread aThread = new Thread (aRunnable, "AS2Stage-" + sAction + "-" + aThreadIndex.incrementAndGet ());
+        aThread.setDaemon (true);
+        return aThread;
+      }
+    };
+    m_aRejectionHandler = new RejectedExecutionHandler ()
+    {
+      public void rejectedExecution (@Nonnull final Runnable aRunnable, @Nonnull final ThreadPoolExecutor aExecutor)
+      {
+        // Queue is full or the stage is shut down - back pressure
+        m_aCallerRuns.incrementAndGet ();
+        aRunnable.run ();
+      }
+    };
+    m_aExecutor = _createExecutor ();
+  }
+
+  @Nonnull
+  private ThreadPoolExecutor _createExecutor ()
+  {
+    return new ThreadPoolExecutor (m_nThreads,
+                                   m_nThreads,
+                                   0L,
+                                   TimeUnit.MILLISECONDS,
+                                   new ArrayBlockingQueue <Runnable> (m_nQueueSize),
+                                   m_aThreadFactory,
+                                   m_aRejectionHandler);
+  }
+
+  /**
+   * Start the stage again after it was shut down. Does nothing if the stage is
+   * running.
+   */
+  synchronized void start ()
+  {
+    if (m_aExecutor.isShutdown ())
+      m_aExecutor = _createExecutor ();
+  }
+
+  void submit (@Nonnull final IStageTask aTask)
+  {
+    m_aSubmitted.incrementAndGet ();
+    m_aExecutor.execute (new Runnable ()
+    {
+      public void run ()
+      {
+        final long nStart = System.nanoTime ();
+        try
+        {
+          aTask.run ();
+          m_aCompleted.incrementAndGet ();
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          m_aFailed.incrementAndGet ();
+          ex.terminate ();
+        }
+        catch (final RuntimeException ex)
+        {
+          m_aFailed.incrementAndGet ();
+          s_aLogger.error ("Error handling action '" + m_sAction + "' asynchronously", ex);
+        }
+        finally
+        {
+          m_aProcessingNanos.addAndGet (System.nanoTime () - nStart);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stop accepting new work and wait for the queued work to finish.
+   *
+   * @param nTimeoutMS
+   *        Maximum milliseconds to wait.
+   * @return <code>true</code> if all queued work finished in time.
+   */
+  boolean shutdown (@Nonnegative final long nTimeoutMS)
+  {
+    final ThreadPoolExecutor aExecutor;
+    synchronized (this)
+    {
+      aExecutor = m_aExecutor;
+      aExecutor.shutdown ();
+    }
+    try
+    {
+      return aExecutor.awaitTermination (nTimeoutMS, TimeUnit.MILLISECONDS);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      return false;
+    }
+  }
+
+  /**
+   * @return The action handled by this stage. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getAction ()
+  {
+    return m_sAction;
+  }
+
+  @Nonnegative
+  public int getThreadCount ()
+  {
+    return m_nThreads;
+  }
+
+  @Nonnegative
+  public int getQueueCapacity ()
+  {
+    return m_nQueueSize;
+  }
+
+  /**
+   * @return The number of currently queued but not yet started actions.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  /**
+   * @return The number of threads currently handling an action.
+   */
+  @Nonnegative
+  public int getActiveThreadCount ()
+  {
+    return m_aExecutor.getActiveCount ();
+  }
+
+  @Nonnegative
+  public long getSubmittedCount ()
+  {
+    return m_aSubmitted.get ();
+  }
+
+  @Nonnegative
+  public long getCompletedCount ()
+  {
+    return m_aCompleted.get ();
+  }
+
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailed.get ();
+  }
+
+  /**
+   * @return The number of actions that were handled in the submitting thread,
+   *         because the queue was full.
+   */
+  @Nonnegative
+  public long getCallerRunsCount ()
+  {
+    return m_aCallerRuns.get ();
+  }
+
+  /**
+   * @return The average duration in milliseconds of the finished actions.
+   */
+  @Nonnegative
+  public long getAverageProcessingMS ()
+  {
+    final long nFinished = m_aCompleted.get () + m_aFailed.get ();
+    return nFinished == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis (m_aProcessingNanos.get () / nFinished);
+  }
+
+  public boolean isShutdown ()
+  {
+    return m_aExecutor.isShutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Action", m_sAction)
+                                       .append ("Threads", getThreadCount ())
+                                       .append ("QueueCapacity", m_nQueueSize)
+                                       .append ("QueueSize", getQueueSize ())
+                                       .append ("Submitted", m_aSubmitted.get ())
+                                       .append ("Completed", m_aCompleted.get ())
+                                       .append ("Failed", m_aFailed.get ())
+                                       .append ("CallerRuns", m_aCallerRuns.get ())
+                                       .toString ();
+  }
+}
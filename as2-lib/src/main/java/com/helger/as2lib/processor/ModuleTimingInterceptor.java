@@ -0,0 +1,281 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.LatencyHistogram;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The built-in {@link IMessageProcessorInterceptor} that records latency
+ * histograms and error counts per module and action. The data can be queried
+ * via the API or via JMX (see {@link #registerMBean(String)}). The durations of
+ * the {@link EProcessingOperation}s are not recorded here, as they are already
+ * available in the histograms <code>operation.&lt;id&gt;</code> of the
+ * session's {@link com.helger.as2lib.metrics.MetricsRegistry}.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class ModuleTimingInterceptor implements IMessageProcessorInterceptor, IModuleTimingMXBean
+{
+  public static final String DEFAULT_OBJECT_NAME = "com.helger.as2lib:type=ModuleTiming";
+
+  /**
+   * The timing of a single module and action.
+   *
+   * @author Philip Helger
+   */
+  @ThreadSafe
+  public static final class ModuleTiming
+  {
+    private final String m_sModuleName;
+    private final String m_sAction;
+    private final LatencyHistogram m_aHistogram = new LatencyHistogram ();
+    private final AtomicLong m_aErrors = new AtomicLong ();
+
+    ModuleTiming (@Nonnull final String sModuleName, @Nonnull final String sAction)
+    {
+      m_sModuleName = sModuleName;
+      m_sAction = sAction;
+    }
+
+    @Nonnull
+    public String getModuleName ()
+    {
+      return m_sModuleName;
+    }
+
+    @Nonnull
+    public String getAction ()
+    {
+      return m_sAction;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getKey ()
+    {
+      return getKey (m_sModuleName, m_sAction);
+    }
+
+    /**
+     * @return The durations of all invocations, including the failed ones.
+     */
+    @Nonnull
+    public LatencyHistogram getHistogram ()
+    {
+      return m_aHistogram;
+    }
+
+    @Nonnegative
+    public long getErrorCount ()
+    {
+      return m_aErrors.get ();
+    }
+
+    @Nonnull
+    @Nonempty
+    static String getKey (@Nonnull final String sModuleName, @Nonnull final String sAction)
+    {
+      return sModuleName + "/" + sAction;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("ModuleName", m_sModuleName)
+                                         .append ("Action", m_sAction)
+                                         .append ("Histogram", m_aHistogram)
+                                         .append ("Errors", m_aErrors.get ())
+                                         .toString ();
+    }
+  }
+
+  private final ConcurrentMap <String, ModuleTiming> m_aModuleTimings = new ConcurrentHashMap <String, ModuleTiming> ();
+  private ObjectName m_aObjectName;
+
+  public ModuleTimingInterceptor ()
+  {}
+
+  public void onModuleHandled (@Nonnull final IProcessorModule aModule,
+                               @Nonnull final String sAction,
+                               @Nonnull final IMessage aMsg,
+                               @Nonnegative final long nDurationNanos,
+                               @Nullable final OpenAS2Exception aError)
+  {
+    final String sModuleName = aModule.getName ();
+    final String sKey = ModuleTiming.getKey (sModuleName, sAction);
+    ModuleTiming aTiming = m_aModuleTimings.get (sKey);
+    if (aTiming == null)
+    {
+      final ModuleTiming aNewTiming = new ModuleTiming (sModuleName, sAction);
+      aTiming = m_aModuleTimings.putIfAbsent (sKey, aNewTiming);
+      if (aTiming == null)
+        aTiming = aNewTiming;
+    }
+    aTiming.m_aHistogram.record (nDurationNanos);
+    if (aError != null)
+      aTiming.m_aErrors.incrementAndGet ();
+  }
+
+  public void onOperationFinished (@Nonnull final EProcessingOperation eOperation,
+                                   @Nonnull final IMessage aMsg,
+                                   @Nonnegative final long nDurationNanos)
+  {
+    // Recorded by ProcessingTimer in the MetricsRegistry of the session
+  }
+
+  @Nullable
+  public ModuleTiming getModuleTiming (@Nullable final String sModuleName, @Nullable final String sAction)
+  {
+    if (sModuleName == null || sAction == null)
+      return null;
+    return m_aModuleTimings.get (ModuleTiming.getKey (sModuleName, sAction));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <ModuleTiming> getAllModuleTimings ()
+  {
+    return new ArrayList <ModuleTiming> (m_aModuleTimings.values ());
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Long> getModuleHandleCounts ()
+  {
+    final Map <String, Long> ret = new TreeMap <String, Long> ();
+    for (final ModuleTiming aTiming : m_aModuleTimings.values ())
+      ret.put (aTiming.getKey (), Long.valueOf (aTiming.m_aHistogram.getCount ()));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Long> getModuleErrorCounts ()
+  {
+    final Map <String, Long> ret = new TreeMap <String, Long> ();
+    for (final ModuleTiming aTiming : m_aModuleTimings.values ())
+      ret.put (aTiming.getKey (), Long.valueOf (aTiming.getErrorCount ()));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, String> getModuleSummaries ()
+  {
+    final Map <String, String> ret = new TreeMap <String, String> ();
+    for (final ModuleTiming aTiming : m_aModuleTimings.values ())
+      ret.put (aTiming.getKey (), aTiming.m_aHistogram.getAsSummary () + "; errors=" + aTiming.getErrorCount ());
+    return ret;
+  }
+
+  public double getModulePercentileMS (@Nullable final String sModuleKey, final double dPercentile)
+  {
+    final ModuleTiming aTiming = sModuleKey == null ? null : m_aModuleTimings.get (sModuleKey);
+    return aTiming == null ? 0
+                           : LatencyHistogram.getAsMillis (aTiming.m_aHistogram.getValueAtPercentileNanos (dPercentile));
+  }
+
+  public void reset ()
+  {
+    m_aModuleTimings.clear ();
+  }
+
+  /**
+   * Register this interceptor at the platform MBean server.
+   *
+   * @param sObjectName
+   *        The object name to use. May neither be <code>null</code> nor empty.
+   *        See {@link #DEFAULT_OBJECT_NAME}.
+   * @throws JMException
+   *         If the registration failed, e.g. because the name is already in
+   *         use
+   */
+  public synchronized void registerMBean (@Nonnull @Nonempty final String sObjectName) throws JMException
+  {
+    ValueEnforcer.notEmpty (sObjectName, "ObjectName");
+    if (m_aObjectName != null)
+      throw new IllegalStateException ("MBean is already registered as " + m_aObjectName);
+    final ObjectName aObjectName = new ObjectName (sObjectName);
+    ManagementFactory.getPlatformMBeanServer ().registerMBean (this, aObjectName);
+    m_aObjectName = aObjectName;
+  }
+
+  /**
+   * Unregister this interceptor from the platform MBean server, if it was
+   * registered.
+   *
+   * @throws JMException
+   *         If unregistering failed
+   */
+  public synchronized void unregisterMBean () throws JMException
+  {
+    if (m_aObjectName != null)
+    {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (m_aObjectName);
+      m_aObjectName = null;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ModuleTimings", m_aModuleTimings.size ())
+                                       .appendIfNotNull ("ObjectName", m_aObjectName)
+                                       .toString ();
+  }
+}
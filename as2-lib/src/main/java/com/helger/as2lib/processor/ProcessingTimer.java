@@ -0,0 +1,129 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.LatencyHistogram;
+import com.helger.as2lib.session.ComponentNotFoundException;
+import com.helger.as2lib.session.IAS2Session;
+
+/**
+ * Times a single processing step of a message. The duration is recorded in
+ * the histogram <code>operation.&lt;id&gt;</code> of the session's
+ * {@link com.helger.as2lib.metrics.MetricsRegistry}, which is the only place
+ * where these durations are kept, and reported to the interceptors of the
+ * session's {@link DefaultMessageProcessor}, if any. Only successful operations
+ * are reported: <code>stop</code> is meant to be called after the operation
+ * returned.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@Immutable
+public final class ProcessingTimer
+{
+  private static final ProcessingTimer NO_OP = new ProcessingTimer (null, null, null, null);
+
+  private final LatencyHistogram m_aHistogram;
+  private final DefaultMessageProcessor m_aProcessor;
+  private final EProcessingOperation m_eOperation;
+  private final IMessage m_aMsg;
+  private final long m_nStartNanos;
+
+  private ProcessingTimer (@Nullable final LatencyHistogram aHistogram,
+                           @Nullable final DefaultMessageProcessor aProcessor,
+                           @Nullable final EProcessingOperation eOperation,
+                           @Nullable final IMessage aMsg)
+  {
+    m_aHistogram = aHistogram;
+    m_aProcessor = aProcessor;
+    m_eOperation = eOperation;
+    m_aMsg = aMsg;
+    m_nStartNanos = aHistogram == null ? 0 : System.nanoTime ();
+  }
+
+  /**
+   * Report the duration since this timer was started.
+   */
+  public void stop ()
+  {
+    if (m_aHistogram != null)
+    {
+      final long nDurationNanos = System.nanoTime () - m_nStartNanos;
+      m_aHistogram.record (nDurationNanos);
+      if (m_aProcessor != null)
+        m_aProcessor.onOperationFinished (m_eOperation, m_aMsg, nDurationNanos);
+    }
+  }
+
+  /**
+   * Start timing an operation.
+   *
+   * @param aSession
+   *        The session to report to. May be <code>null</code>.
+   * @param eOperation
+   *        The operation to be timed. May not be <code>null</code>.
+   * @param aMsg
+   *        The message the operation is performed on. May not be
+   *        <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static ProcessingTimer start (@Nullable final IAS2Session aSession,
+                                       @Nonnull final EProcessingOperation eOperation,
+                                       @Nonnull final IMessage aMsg)
+  {
+    if (aSession == null)
+      return NO_OP;
+
+    final LatencyHistogram aHistogram = aSession.getMetrics ()
+                                                .getHistogram (CAS2Metrics.OPERATION_PREFIX + eOperation.getID ());
+    DefaultMessageProcessor aProcessor = null;
+    try
+    {
+      final IMessageProcessor aMP = aSession.getMessageProcessor ();
+      if (aMP instanceof DefaultMessageProcessor && ((DefaultMessageProcessor) aMP).hasInterceptors ())
+        aProcessor = (DefaultMessageProcessor) aMP;
+    }
+    catch (final ComponentNotFoundException ex)
+    {
+      // No message processor present
+    }
+    return new ProcessingTimer (aHistogram, aProcessor, eOperation, aMsg);
+  }
+}
@@ -0,0 +1,295 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.IMetricGauge;
+import com.helger.as2lib.metrics.MetricsRegistry;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+
+/**
+ * A message processor that handles selected actions asynchronously, each in
+ * its own stage with a bounded queue and thread pool (see
+ * {@link MessageProcessorStage}). This isolates e.g. a slow storage backend
+ * from the sending of messages and allows to size the threads per action
+ * independently. Actions without a stage are handled synchronously like in
+ * {@link DefaultMessageProcessor}.<br>
+ * Errors of asynchronously handled actions are logged but not propagated to
+ * the caller. Therefore only actions should be staged, for which the caller
+ * does not evaluate the outcome, e.g.
+ * {@link com.helger.as2lib.processor.sender.IProcessorSenderModule#DO_SENDMDN},
+ * {@link com.helger.as2lib.processor.storage.IProcessorStorageModule#DO_STOREMDN}
+ * or
+ * {@link com.helger.as2lib.processor.resender.IProcessorResenderModule#DO_RESEND}
+ * . The stages can be configured with the attribute {@link #ATTR_STAGES}, e.g.
+ * <code>sendmdn:4:100,storemdn</code>.<br>
+ * The queue size and the counters of each stage are registered as gauges
+ * named {@link CAS2Metrics#STAGE_PREFIX}<code>action.name</code> in the
+ * metrics of the session.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public class StagedMessageProcessor extends DefaultMessageProcessor
+{
+  /**
+   * Comma separated list of stages in the form
+   * <code>action[:threads[:queuesize]]</code>
+   */
+  public static final String ATTR_STAGES = "stages";
+  /** Maximum seconds to wait for the queued work when stopping */
+  public static final String ATTR_SHUTDOWN_TIMEOUT_SECONDS = "shutdowntimeout";
+
+  public static final int DEFAULT_THREADS = 1;
+  public static final int DEFAULT_QUEUE_SIZE = 100;
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT_MS = 30 * CGlobal.MILLISECONDS_PER_SECOND;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (StagedMessageProcessor.class);
+
+  private final Map <String, MessageProcessorStage> m_aStages = new ConcurrentHashMap <String, MessageProcessorStage> ();
+  private long m_nShutdownTimeoutMS = DEFAULT_SHUTDOWN_TIMEOUT_MS;
+  // Set upon initialization
+  private volatile MetricsRegistry m_aMetrics;
+
+  @Override
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    // Stages added before
+    m_aMetrics = aSession.getMetrics ();
+    for (final MessageProcessorStage aStage : getAllStages ())
+      _registerGauges (aStage);
+
+    final String sStages = getAttributeAsString (ATTR_STAGES);
+    if (StringHelper.hasText (sStages))
+      for (final String sStage : StringHelper.getExploded (',', sStages))
+      {
+        final List <String> aParts = StringHelper.getExploded (':', sStage.trim (), 3);
+        final String sAction = aParts.get (0).trim ();
+        final int nThreads = aParts.size () > 1 ? StringParser.parseInt (aParts.get (1).trim (), -1)
+                                                : DEFAULT_THREADS;
+        final int nQueueSize = aParts.size () > 2 ? StringParser.parseInt (aParts.get (2).trim (), -1)
+                                                  : DEFAULT_QUEUE_SIZE;
+        if (sAction.length () == 0 || nThreads <= 0 || nQueueSize <= 0 || m_aStages.containsKey (sAction))
+          throw new InvalidParameterException ("Invalid stage '" + sStage + "'", this, ATTR_STAGES, sStages);
+        addStage (sAction, nThreads, nQueueSize);
+      }
+
+    if (containsAttribute (ATTR_SHUTDOWN_TIMEOUT_SECONDS))
+    {
+      m_nShutdownTimeoutMS = getAttributeAsLong (ATTR_SHUTDOWN_TIMEOUT_SECONDS, -1) *
+                             CGlobal.MILLISECONDS_PER_SECOND;
+      if (m_nShutdownTimeoutMS < 0)
+        throw new InvalidParameterException ("Value must be >= 0", this, ATTR_SHUTDOWN_TIMEOUT_SECONDS, null);
+    }
+  }
+
+  /**
+   * Add a new stage for the passed action.
+   *
+   * @param sAction
+   *        The action to be handled asynchronously. May neither be
+   *        <code>null</code> nor empty.
+   * @param nThreads
+   *        Number of threads of the stage. Must be &gt; 0.
+   * @param nQueueSize
+   *        Maximum number of queued actions. Must be &gt; 0.
+   * @return The created stage. Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If a stage for the action is already present
+   */
+  @Nonnull
+  public MessageProcessorStage addStage (@Nonnull @Nonempty final String sAction,
+                                         @Nonnegative final int nThreads,
+                                         @Nonnegative final int nQueueSize)
+  {
+    final MessageProcessorStage aStage = new MessageProcessorStage (sAction, nThreads, nQueueSize);
+    synchronized (m_aStages)
+    {
+      if (m_aStages.containsKey (sAction))
+        throw new IllegalArgumentException ("A stage for action '" + sAction + "' is already present!");
+      m_aStages.put (sAction, aStage);
+    }
+    s_aLogger.info ("Added stage for action '" + sAction + "' with " + nThreads + " thread(s)");
+    if (m_aMetrics != null)
+      _registerGauges (aStage);
+    return aStage;
+  }
+
+  private void _registerGauges (@Nonnull final MessageProcessorStage aStage)
+  {
+    final String sPrefix = CAS2Metrics.STAGE_PREFIX + aStage.getAction () + '.';
+    m_aMetrics.registerGauge (sPrefix + "queue", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getQueueSize ();
+      }
+    });
+    m_aMetrics.registerGauge (sPrefix + "active", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getActiveThreadCount ();
+      }
+    });
+    m_aMetrics.registerGauge (sPrefix + "submitted", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getSubmittedCount ();
+      }
+    });
+    m_aMetrics.registerGauge (sPrefix + "completed", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getCompletedCount ();
+      }
+    });
+    m_aMetrics.registerGauge (sPrefix + "failed", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getFailedCount ();
+      }
+    });
+    m_aMetrics.registerGauge (sPrefix + "callerruns", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return aStage.getCallerRunsCount ();
+      }
+    });
+  }
+
+  @Nullable
+  public MessageProcessorStage getStage (@Nullable final String sAction)
+  {
+    return sAction == null ? null : m_aStages.get (sAction);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <MessageProcessorStage> getAllStages ()
+  {
+    return new ArrayList <MessageProcessorStage> (m_aStages.values ());
+  }
+
+  public void setShutdownTimeoutMS (@Nonnegative final long nShutdownTimeoutMS)
+  {
+    m_nShutdownTimeoutMS = ValueEnforcer.isGE0 (nShutdownTimeoutMS, "ShutdownTimeoutMS");
+  }
+
+  @Override
+  public void handle (@Nonnull final String sAction,
+                      @Nonnull final IMessage aMsg,
+                      @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+  {
+    final MessageProcessorStage aStage = m_aStages.get (sAction);
+    if (aStage == null)
+    {
+      super.handle (sAction, aMsg, aOptions);
+      return;
+    }
+
+    // The caller may modify the options after this method returned
+    final Map <String, Object> aOptionsCopy = aOptions == null ? null : new HashMap <String, Object> (aOptions);
+    aStage.submit (new MessageProcessorStage.IStageTask ()
+    {
+      public void run () throws OpenAS2Exception
+      {
+        StagedMessageProcessor.super.handle (sAction, aMsg, aOptionsCopy);
+      }
+    });
+  }
+
+  /**
+   * Start all stages that were stopped before and afterwards all active
+   * modules.
+   */
+  @Override
+  public void startActiveModules ()
+  {
+    for (final MessageProcessorStage aStage : getAllStages ())
+      aStage.start ();
+
+    super.startActiveModules ();
+  }
+
+  /**
+   * Stop all active modules and afterwards all stages. Queued actions are
+   * finished within the shutdown timeout. Actions submitted afterwards are
+   * handled synchronously until {@link #startActiveModules()} is called.
+   */
+  @Override
+  public void stopActiveModules ()
+  {
+    super.stopActiveModules ();
+
+    for (final MessageProcessorStage aStage : getAllStages ())
+      if (!aStage.shutdown (m_nShutdownTimeoutMS))
+        s_aLogger.warn ("Stage for action '" +
+                        aStage.getAction () +
+                        "' did not finish within " +
+                        m_nShutdownTimeoutMS +
+                        " ms - " +
+                        aStage.getQueueSize () +
+                        " action(s) left in queue");
+  }
+}
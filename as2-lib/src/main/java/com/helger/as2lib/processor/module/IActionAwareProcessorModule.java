@@ -0,0 +1,67 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.module;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+
+/**
+ * A processor module that declares the actions it can handle. This allows
+ * {@link DefaultMessageProcessor} to only ask the modules registered for an
+ * action instead of all modules. {@link #canHandle} is still called for these
+ * modules, e.g. to check the message protocol, but it must never return
+ * <code>true</code> for an action that is not contained in
+ * {@link #getAllHandledActions()}.<br>
+ * If a subclass overrides {@link #canHandle} without also overriding
+ * {@link #getAllHandledActions()}, the declared actions are ignored and the
+ * module is asked for all actions as before, so that existing subclasses
+ * accepting more actions keep working.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public interface IActionAwareProcessorModule extends IProcessorModule
+{
+  /**
+   * @return All actions this module can handle. Never <code>null</code>. The
+   *         result must not change after the module was added to a
+   *         processor.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  Set <String> getAllHandledActions ();
+}
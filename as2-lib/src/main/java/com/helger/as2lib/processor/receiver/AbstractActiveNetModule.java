@@ -38,6 +38,7 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -50,6 +51,8 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.IMetricGauge;
 import com.helger.as2lib.params.CompositeParameters;
 import com.helger.as2lib.params.DateParameters;
 import com.helger.as2lib.params.MessageParameters;
@@ -121,6 +124,8 @@ public abstract class AbstractActiveNetModule extends AbstractActiveReceiverModu
                                             "There is no guarantee however that the EDI Interchange was syntactically correct, or was received by the EDI application/translator.";
 
   private MainThread m_aMainThread;
+  private final AtomicInteger m_aActiveConnections = new AtomicInteger ();
+  private String m_sConnectionsGaugeName;
 
   public AbstractActiveNetModule ()
   {}
@@ -134,6 +139,17 @@ public abstract class AbstractActiveNetModule extends AbstractActiveReceiverModu
       final int nPort = getAttributeAsInt (ATTR_PORT, 0);
       m_aMainThread = new MainThread (this, sAddress, nPort);
       m_aMainThread.start ();
+
+      // Per port, so that several modules of the same class don't overwrite
+      // each other
+      m_sConnectionsGaugeName = CAS2Metrics.RECEIVER_CONNECTIONS_PREFIX + getName () + '.' + nPort;
+      getSession ().getMetrics ().registerGauge (m_sConnectionsGaugeName, new IMetricGauge ()
+      {
+        public long getValue ()
+        {
+          return getActiveConnectionCount ();
+        }
+      });
     }
     catch (final IOException ioe)
     {
@@ -149,6 +165,11 @@ public abstract class AbstractActiveNetModule extends AbstractActiveReceiverModu
       m_aMainThread.terminate ();
       m_aMainThread = null;
     }
+    if (m_sConnectionsGaugeName != null)
+    {
+      getSession ().getMetrics ().removeGauge (m_sConnectionsGaugeName);
+      m_sConnectionsGaugeName = null;
+    }
   }
 
   @Override
@@ -161,6 +182,16 @@ public abstract class AbstractActiveNetModule extends AbstractActiveReceiverModu
     getAttributeAsStringRequired (ATTR_PORT);
   }
 
+  /**
+   * @return The number of connections currently being handled.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public int getActiveConnectionCount ()
+  {
+    return m_aActiveConnections.get ();
+  }
+
   @Nonnull
   public abstract INetModuleHandler createHandler ();
 
@@ -226,7 +257,15 @@ public abstract class AbstractActiveNetModule extends AbstractActiveReceiverModu
     {
       s_aLogger.info ("AS2ConnectionThread: run");
 
-      m_aOwner.createHandler ().handle (m_aOwner, m_aSocket);
+      m_aOwner.m_aActiveConnections.incrementAndGet ();
+      try
+      {
+        m_aOwner.createHandler ().handle (m_aOwner, m_aSocket);
+      }
+      finally
+      {
+        m_aOwner.m_aActiveConnections.decrementAndGet ();
+      }
 
       try
       {
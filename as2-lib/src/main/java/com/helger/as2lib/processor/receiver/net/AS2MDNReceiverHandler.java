@@ -33,7 +33,6 @@
 package com.helger.as2lib.processor.receiver.net;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -58,6 +57,10 @@ import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.AS2MessageMDN;
 import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.metrics.AS2MetricsHelper;
+import com.helger.as2lib.pendingmdn.AsyncMDNTimeoutModule;
+import com.helger.as2lib.pendingmdn.IPendingMDNStore;
+import com.helger.as2lib.pendingmdn.PendingMDNInfo;
 import com.helger.as2lib.processor.NoModuleException;
 import com.helger.as2lib.processor.receiver.AS2MDNReceiverModule;
 import com.helger.as2lib.processor.receiver.AbstractActiveNetModule;
@@ -65,24 +68,20 @@ import com.helger.as2lib.processor.storage.IProcessorStorageModule;
 import com.helger.as2lib.session.ComponentNotFoundException;
 import com.helger.as2lib.util.AS2Helper;
 import com.helger.as2lib.util.CAS2Header;
-import com.helger.as2lib.util.IOHelper;
+import com.helger.as2lib.util.http.AS2HttpConnectionHttpURLConnection;
 import com.helger.as2lib.util.http.AS2HttpResponseHandlerSocket;
 import com.helger.as2lib.util.http.AS2InputStreamProviderSocket;
 import com.helger.as2lib.util.http.HTTPHelper;
+import com.helger.as2lib.util.http.IAS2HttpConnection;
 import com.helger.as2lib.util.http.IAS2HttpResponseHandler;
 import com.helger.as2lib.util.javamail.ByteArrayDataSource;
 import com.helger.commons.ValueEnforcer;
-import com.helger.commons.io.stream.NonBlockingBufferedReader;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
-import com.helger.commons.state.ETriState;
 import com.helger.commons.string.StringParser;
 
 public class AS2MDNReceiverHandler extends AbstractReceiverHandler
 {
-  private static final String ATTR_PENDINGMDNINFO = "pendingmdninfo";
-  private static final String ATTR_PENDINGMDN = "pendingmdn";
-
   private static final Logger s_aLogger = LoggerFactory.getLogger (AS2MDNReceiverHandler.class);
 
   private final AS2MDNReceiverModule m_aModule;
@@ -113,6 +112,7 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
     try
     {
       aData = readAndDecodeHttpRequest (new AS2InputStreamProviderSocket (aSocket), aResponseHandler, aMsg);
+      AS2MetricsHelper.onBytesReceived (getModule ().getSession (), aData.length);
 
       // Asynch MDN 2007-03-12
       // check if the requested URL is defined in attribute "as2_receipt_option"
@@ -183,18 +183,11 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
       final ICertificateFactory aCertFactory = getModule ().getSession ().getCertificateFactory ();
       final X509Certificate aSenderCert = aCertFactory.getCertificate (aMDN, ECertificatePartnershipType.SENDER);
 
-      boolean bUseCertificateInBodyPart;
-      final ETriState eUseCertificateInBodyPart = aMsg.getPartnership ().getVerifyUseCertificateInBodyPart ();
-      if (eUseCertificateInBodyPart.isDefined ())
-      {
-        // Use per partnership
-        bUseCertificateInBodyPart = eUseCertificateInBodyPart.getAsBooleanValue ();
-      }
-      else
-      {
-        // Use global value
-        bUseCertificateInBodyPart = getModule ().getSession ().isCryptoVerifyUseCertificateInBodyPart ();
-      }
+      // Per partnership or global
+      final boolean bUseCertificateInBodyPart = aMsg.getPartnership ()
+                                                    .getProfile ()
+                                                    .isVerifyUseCertificateInBodyPart (getModule ().getSession ()
+                                                                                                   .isCryptoVerifyUseCertificateInBodyPart ());
 
       AS2Helper.parseMDN (aMsg, aSenderCert, bUseCertificateInBodyPart);
 
@@ -227,7 +220,9 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
       final String sDisposition = aMsg.getMDN ().getAttribute (AS2MessageMDN.MDNA_DISPOSITION);
       try
       {
-        DispositionType.createFromString (sDisposition).validate ();
+        final DispositionType aDisposition = DispositionType.createFromString (sDisposition);
+        AS2MetricsHelper.onMDNReceived (getModule ().getSession (), aDisposition);
+        aDisposition.validate ();
       }
       catch (final DispositionException ex)
       {
@@ -273,33 +268,31 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
       // get the returned mic from mdn object
       final String sReturnMIC = aMsg.getMDN ().getAttribute (AS2MessageMDN.MDNA_MIC);
 
-      // use original message id. to open the pending information file
-      // from pendinginfo folder.
+      // use original message id. to get the pending information from the
+      // pending MDN store.
       final String sOrigMessageID = aMsg.getMDN ().getAttribute (AS2MessageMDN.MDNA_ORIG_MESSAGEID);
-      final String sPendingInfoFile = getModule ().getSession ()
-                                                  .getMessageProcessor ()
-                                                  .getAttributeAsString (ATTR_PENDINGMDNINFO) +
-                                      "/" +
-                                      IOHelper.getFilenameFromMessageID (sOrigMessageID);
-      final NonBlockingBufferedReader aPendingInfoReader = new NonBlockingBufferedReader (new FileReader (sPendingInfoFile));
-
-      String sOriginalMIC;
-      File aPendingFile;
-      try
-      {
-        // Get the original mic from the first line of pending information
-        // file
-        sOriginalMIC = aPendingInfoReader.readLine ();
 
-        // Get the original pending file from the second line of pending
-        // information file
-        aPendingFile = new File (aPendingInfoReader.readLine ());
-      }
-      finally
+      // The MDN arrived - no matter whether the MIC matches
+      final AsyncMDNTimeoutModule aTimeoutModule = getModule ().getSession ()
+                                                               .getMessageProcessor ()
+                                                               .getModuleOfClass (AsyncMDNTimeoutModule.class);
+      if (aTimeoutModule != null)
+        aTimeoutModule.untrack (sOrigMessageID);
+
+      final IPendingMDNStore aPendingMDNStore = getModule ().getSession ().getPendingMDNStore ();
+      final PendingMDNInfo aPendingInfo = aPendingMDNStore.getPendingInfo (sOrigMessageID);
+      if (aPendingInfo == null)
       {
-        StreamHelper.close (aPendingInfoReader);
+        s_aLogger.error ("No pending MDN information found for original message ID '" +
+                         sOrigMessageID +
+                         "'" +
+                         aMsg.getLoggingText ());
+        return false;
       }
 
+      final String sOriginalMIC = aPendingInfo.getOriginalMIC ();
+      final File aPendingFile = new File (aPendingInfo.getPendingFilename ());
+
       final String sDisposition = aMsg.getMDN ().getAttribute (AS2MessageMDN.MDNA_DISPOSITION);
 
       s_aLogger.info ("received MDN [" + sDisposition + "]" + aMsg.getLoggingText ());
@@ -324,13 +317,12 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
       // delete the pendinginfo & pending file if mic is matched
       s_aLogger.info ("mic is matched, mic: " + sReturnMIC + aMsg.getLoggingText ());
 
-      final File aPendingInfoFile = new File (sPendingInfoFile);
-      s_aLogger.info ("delete pendinginfo file : " +
-                      aPendingInfoFile.getName () +
-                      " from pending folder : " +
-                      getModule ().getSession ().getMessageProcessor ().getAttributeAsString (ATTR_PENDINGMDN) +
+      s_aLogger.info ("delete pending info of message ID '" +
+                      sOrigMessageID +
+                      "' from " +
+                      aPendingMDNStore.getName () +
                       aMsg.getLoggingText ());
-      aPendingInfoFile.delete ();
+      aPendingMDNStore.removePendingInfo (sOrigMessageID);
 
       s_aLogger.info ("delete pending file : " +
                       aPendingFile.getName () +
@@ -348,6 +340,11 @@ public class AS2MDNReceiverHandler extends AbstractReceiverHandler
   }
 
   public void reparse (@Nonnull final AS2Message aMsg, final HttpURLConnection aConn)
+  {
+    reparse (aMsg, new AS2HttpConnectionHttpURLConnection (aConn));
+  }
+
+  public void reparse (@Nonnull final AS2Message aMsg, @Nonnull final IAS2HttpConnection aConn)
   {
     // Create a MessageMDN and copy HTTP headers
     final IMessageMDN aMDN = new AS2MessageMDN (aMsg);
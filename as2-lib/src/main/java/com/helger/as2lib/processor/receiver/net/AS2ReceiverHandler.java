@@ -62,8 +62,12 @@ import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.metrics.AS2MetricsHelper;
+import com.helger.as2lib.partner.PartnershipProfile;
 import com.helger.as2lib.processor.CNetAttribute;
+import com.helger.as2lib.processor.EProcessingOperation;
 import com.helger.as2lib.processor.NoModuleException;
+import com.helger.as2lib.processor.ProcessingTimer;
 import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
 import com.helger.as2lib.processor.receiver.AbstractActiveNetModule;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
@@ -83,7 +87,6 @@ import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.StackTraceHelper;
-import com.helger.commons.state.ETriState;
 import com.helger.commons.timing.StopWatch;
 
 public class AS2ReceiverHandler extends AbstractReceiverHandler
@@ -129,9 +132,10 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
     try
     {
-      final boolean bDisableDecrypt = aMsg.getPartnership ().isDisableDecrypt ();
+      final PartnershipProfile aProfile = aMsg.getPartnership ().getProfile ();
+      final boolean bDisableDecrypt = aProfile.isDisableDecrypt ();
       final boolean bMsgIsEncrypted = aCryptoHelper.isEncrypted (aMsg.getData ());
-      final boolean bForceDecrypt = aMsg.getPartnership ().isForceDecrypt ();
+      final boolean bForceDecrypt = aProfile.isForceDecrypt ();
       if (bMsgIsEncrypted && bDisableDecrypt)
       {
         s_aLogger.info ("Message claims to be encrypted but decryption is disabled" + aMsg.getLoggingText ());
@@ -169,9 +173,10 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
     try
     {
-      final boolean bDisableVerify = aMsg.getPartnership ().isDisableVerify ();
+      final PartnershipProfile aProfile = aMsg.getPartnership ().getProfile ();
+      final boolean bDisableVerify = aProfile.isDisableVerify ();
       final boolean bMsgIsSigned = aCryptoHelper.isSigned (aMsg.getData ());
-      final boolean bForceVerify = aMsg.getPartnership ().isForceVerify ();
+      final boolean bForceVerify = aProfile.isForceVerify ();
       if (bMsgIsSigned && bDisableVerify)
       {
         s_aLogger.info ("Message claims to be signed but signature validation is disabled" + aMsg.getLoggingText ());
@@ -186,18 +191,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
               s_aLogger.debug ("Verifying signature" + aMsg.getLoggingText ());
 
           final X509Certificate aSenderCert = aCertFactory.getCertificateOrNull (aMsg, ECertificatePartnershipType.SENDER);
-          boolean bUseCertificateInBodyPart;
-          final ETriState eUseCertificateInBodyPart = aMsg.getPartnership ().getVerifyUseCertificateInBodyPart ();
-          if (eUseCertificateInBodyPart.isDefined ())
-          {
-            // Use per partnership
-            bUseCertificateInBodyPart = eUseCertificateInBodyPart.getAsBooleanValue ();
-          }
-          else
-          {
-            // Use global value
-            bUseCertificateInBodyPart = m_aReceiverModule.getSession ().isCryptoVerifyUseCertificateInBodyPart ();
-          }
+          // Per partnership or global
+          final boolean bUseCertificateInBodyPart = aProfile.isVerifyUseCertificateInBodyPart (m_aReceiverModule.getSession ()
+                                                                                                                .isCryptoVerifyUseCertificateInBodyPart ());
 
           final MimeBodyPart aVerifiedData = aCryptoHelper.verify (aMsg.getData (), aSenderCert, bUseCertificateInBodyPart, bForceVerify);
           aMsg.setData (aVerifiedData);
@@ -219,7 +215,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
   {
     try
     {
-      if (aMsg.getPartnership ().isDisableDecompress ())
+      if (aMsg.getPartnership ().getProfile ().isDisableDecompress ())
       {
         s_aLogger.info ("Message claims to be compressed but decompression is disabled" + aMsg.getLoggingText ());
       }
@@ -253,13 +249,18 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
                               @Nonnull final DispositionType aDisposition,
                               @Nonnull final String sText)
   {
-    final boolean bMDNBlocked = aMsg.getPartnership ().isBlockErrorMDN ();
+    final boolean bMDNBlocked = aMsg.getPartnership ().getProfile ().isBlockErrorMDN ();
     if (!bMDNBlocked)
     {
+      final IAS2Session aSession = m_aReceiverModule.getSession ();
+      // Set once the MDN was sent or passed to the asynchronous MDN sender,
+      // which counts the result itself
+      boolean bMDNHandledOver = false;
       try
       {
-        final IAS2Session aSession = m_aReceiverModule.getSession ();
+        final ProcessingTimer aMDNTimer = ProcessingTimer.start (aSession, EProcessingOperation.CREATE_MDN, aMsg);
         final IMessageMDN aMdn = AS2Helper.createMDN (aSession, aMsg, aDisposition, sText);
+        aMDNTimer.stop ();
 
         if (aMsg.isRequestingAsynchMDN ())
         {
@@ -274,6 +275,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
           s_aLogger.info ("Setup to send asynch MDN [" + aDisposition.getAsString () + "] " + sClientInfo + aMsg.getLoggingText ());
 
           // trigger explicit sending
+          bMDNHandledOver = true;
           aSession.getMessageProcessor ().handle (IProcessorSenderModule.DO_SENDMDN, aMsg, null);
         }
         else
@@ -289,6 +291,8 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
           // start HTTP response
           aResponseHandler.sendHttpResponse (HttpURLConnection.HTTP_OK, aMdn.getHeaders (), aData);
+          bMDNHandledOver = true;
+          AS2MetricsHelper.onMDNSent (aSession, aDisposition);
 
           // Save sent MDN for later examination
           try
@@ -308,6 +312,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
       }
       catch (final Exception ex)
       {
+        if (!bMDNHandledOver)
+          AS2MetricsHelper.onMDNSendFailed (aSession, aDisposition);
+
         final OpenAS2Exception we = WrappedOpenAS2Exception.wrap (ex);
         we.addSource (OpenAS2Exception.SOURCE_MESSAGE, aMsg);
         we.terminate ();
@@ -339,6 +346,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
     try
     {
       final IAS2Session aSession = m_aReceiverModule.getSession ();
+      AS2MetricsHelper.onBytesReceived (aSession, aMsgData.length);
 
       //Added by MPA
       try {
@@ -400,17 +408,23 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
       // Decrypt and verify signature of the data, and attach data to the
       // message
+      final ProcessingTimer aDecryptTimer = ProcessingTimer.start (aSession, EProcessingOperation.DECRYPT, aMsg);
       decrypt (aMsg);
+      aDecryptTimer.stop ();
 
       if (aCryptoHelper.isCompressed (aMsg.getContentType ()))
       {
         if (s_aLogger.isTraceEnabled ())
           s_aLogger.trace ("Decompressing received message before checking signature...");
+        final ProcessingTimer aDecompressTimer = ProcessingTimer.start (aSession, EProcessingOperation.DECOMPRESS, aMsg);
         decompress (aMsg);
+        aDecompressTimer.stop ();
         bIsDecompressed = true;
       }
 
+      final ProcessingTimer aVerifyTimer = ProcessingTimer.start (aSession, EProcessingOperation.VERIFY, aMsg);
       verify (aMsg);
+      aVerifyTimer.stop ();
 
       if (aCryptoHelper.isCompressed (aMsg.getContentType ()))
       {
@@ -428,7 +442,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
             s_aLogger.trace ("Decompressing received message after verifying signature...");
           else
             s_aLogger.trace ("Decompressing received message after decryption...");
+        final ProcessingTimer aDecompressTimer = ProcessingTimer.start (aSession, EProcessingOperation.DECOMPRESS, aMsg);
         decompress (aMsg);
+        aDecompressTimer.stop ();
         bIsDecompressed = true;
       }
 
@@ -497,6 +513,10 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
                                         ex);
       }
 
+      // Only count messages that were successfully decrypted, verified and
+      // validated
+      AS2MetricsHelper.onMessageReceived (aSession, aMsg);
+
       try
       {
         if (aMsg.isRequestingMDN ())
@@ -537,6 +557,9 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
     final IAS2HttpResponseHandler aResponseHandler = new AS2HttpResponseHandlerSocket (aSocket);
 
     // Time the transmission
+    final ProcessingTimer aHttpTimer = ProcessingTimer.start (m_aReceiverModule.getSession (),
+                                                              EProcessingOperation.HTTP_RECEIVE,
+                                                              aMsg);
     final StopWatch aSW = StopWatch.createdStarted ();
     byte [] aMsgData = null;
     try
@@ -554,6 +577,7 @@ public class AS2ReceiverHandler extends AbstractReceiverHandler
 
     if (aMsgData != null)
     {
+      aHttpTimer.stop ();
       s_aLogger.info ("received " + IOHelper.getTransferRate (aMsgData.length, aSW) + " from " + sClientInfo + aMsg.getLoggingText ());
 
       handleIncomingMessage (sClientInfo, aMsgData, aMsg, aResponseHandler);
@@ -34,6 +34,7 @@ package com.helger.as2lib.processor.resender;
 
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -41,11 +42,14 @@ import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 
 import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.IMetricGauge;
 import com.helger.as2lib.params.InvalidParameterException;
 import com.helger.as2lib.processor.module.AbstractActiveModule;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.commons.CGlobal;
+import com.helger.commons.annotation.OverrideOnDemand;
 
 /**
  * Base class for an active resender module.
@@ -76,7 +80,12 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
     }
   }
 
+  private static final AtomicInteger s_aInstanceCounter = new AtomicInteger ();
+
   private Timer m_aTimer;
+  // Unique ID for the metric names
+  private final int m_nInstanceIndex = s_aInstanceCounter.incrementAndGet ();
+  private String m_sQueueGaugeName;
 
   /** The timer polling interval in milliseconds. Defaults to 30 seconds. */
   private long m_nPollingMS = DEFAULT_POLLING_MS;
@@ -112,6 +121,19 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
 
   public abstract void resend ();
 
+  /**
+   * @return The gauge for the number of messages waiting for resending. It is
+   *         registered in the metrics of the session while this module is
+   *         running. May be <code>null</code> if the module has no such gauge.
+   * @since 2.2.6
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected IMetricGauge createResendQueueGauge ()
+  {
+    return null;
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public void doStart () throws OpenAS2Exception
@@ -121,6 +143,15 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
 
     m_aTimer = new Timer ("Resender", true);
     m_aTimer.scheduleAtFixedRate (new ResendPollTask (), 0, m_nPollingMS);
+
+    final IMetricGauge aGauge = createResendQueueGauge ();
+    if (aGauge != null)
+    {
+      // Per instance, so that several modules of the same class don't
+      // overwrite each other
+      m_sQueueGaugeName = CAS2Metrics.RESEND_QUEUE_PREFIX + getName () + '.' + m_nInstanceIndex;
+      getSession ().getMetrics ().registerGauge (m_sQueueGaugeName, aGauge);
+    }
   }
 
   @Override
@@ -132,5 +163,10 @@ public abstract class AbstractActiveResenderModule extends AbstractActiveModule
       m_aTimer.cancel ();
       m_aTimer = null;
     }
+    if (m_sQueueGaugeName != null)
+    {
+      getSession ().getMetrics ().removeGauge (m_sQueueGaugeName);
+      m_sQueueGaugeName = null;
+    }
   }
 }
@@ -43,8 +43,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -54,13 +56,16 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.IMetricGauge;
 import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.DateHelper;
 import com.helger.as2lib.util.IOHelper;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
 
 /**
  * An asynchronous, persisting, file based, polling resender module. Upon
@@ -71,7 +76,7 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
  *
  * @author OpenAS2
  */
-public class DirectoryResenderModule extends AbstractActiveResenderModule
+public class DirectoryResenderModule extends AbstractActiveResenderModule implements IActionAwareProcessorModule
 {
   public static final String ATTR_RESEND_DIRECTORY = "resenddir";
   public static final String ATTR_ERROR_DIRECTORY = "errordir";
@@ -89,6 +94,26 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
     getAttributeAsStringRequired (ATTR_ERROR_DIRECTORY);
   }
 
+  @Override
+  @Nonnull
+  protected IMetricGauge createResendQueueGauge ()
+  {
+    return new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return getResendItemCount ();
+      }
+    };
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (IProcessorResenderModule.DO_RESEND);
+  }
+
   @Override
   public boolean canHandle (@Nonnull final String sAction,
                             @Nonnull final IMessage aMsg,
@@ -256,6 +281,24 @@ public class DirectoryResenderModule extends AbstractActiveResenderModule
     return ret;
   }
 
+  /**
+   * @return The number of files in the resend directory, including the ones
+   *         that are not yet due for resending. 0 if the directory cannot be
+   *         read.
+   * @since 2.2.6
+   */
+  @Nonnegative
+  public int getResendItemCount ()
+  {
+    final File [] aFiles = new File (getAttributeAsString (ATTR_RESEND_DIRECTORY)).listFiles ();
+    int ret = 0;
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        if (aFile.isFile ())
+          ret++;
+    return ret;
+  }
+
   @Override
   public void resend ()
   {
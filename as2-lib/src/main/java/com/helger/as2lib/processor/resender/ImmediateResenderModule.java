@@ -33,6 +33,7 @@
 package com.helger.as2lib.processor.resender;
 
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -42,7 +43,10 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
 
 /**
  * A synchronous, in-memory resender module that has no delay.
@@ -50,10 +54,17 @@ import com.helger.as2lib.processor.sender.IProcessorSenderModule;
  * @author Philip Helger
  * @since 2.2.0
  */
-public class ImmediateResenderModule extends AbstractResenderModule
+public class ImmediateResenderModule extends AbstractResenderModule implements IActionAwareProcessorModule
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ImmediateResenderModule.class);
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (IProcessorResenderModule.DO_RESEND);
+  }
+
   @Override
   public boolean canHandle (@Nonnull final String sAction,
                             @Nonnull final IMessage aMsg,
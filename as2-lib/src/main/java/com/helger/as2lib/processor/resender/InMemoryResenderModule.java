@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -47,6 +48,8 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.IMetricGauge;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.sender.IProcessorSenderModule;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.CollectionHelper;
@@ -60,13 +63,33 @@ import com.helger.commons.collection.CollectionHelper;
  * @author Philip Helger
  * @since 2.2.0
  */
-public class InMemoryResenderModule extends AbstractActiveResenderModule
+public class InMemoryResenderModule extends AbstractActiveResenderModule implements IActionAwareProcessorModule
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (InMemoryResenderModule.class);
 
   @GuardedBy ("m_aRWLock")
   private final List <ResendItem> m_aItems = new ArrayList <ResendItem> ();
 
+  @Override
+  @Nonnull
+  protected IMetricGauge createResendQueueGauge ()
+  {
+    return new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return getResendItemCount ();
+      }
+    };
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (IProcessorResenderModule.DO_RESEND);
+  }
+
   @Override
   public boolean canHandle (@Nonnull final String sAction,
                             @Nonnull final IMessage aMsg,
@@ -40,6 +40,7 @@ import java.net.HttpURLConnection;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -57,7 +58,6 @@ import com.helger.as2lib.crypto.ECompressionType;
 import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.as2lib.disposition.DispositionException;
-import com.helger.as2lib.disposition.DispositionOptions;
 import com.helger.as2lib.disposition.DispositionType;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
@@ -65,12 +65,20 @@ import com.helger.as2lib.message.AS2Message;
 import com.helger.as2lib.message.AS2MessageMDN;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.metrics.AS2MetricsHelper;
 import com.helger.as2lib.params.InvalidParameterException;
 import com.helger.as2lib.partner.CPartnershipIDs;
 import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipProfile;
+import com.helger.as2lib.pendingmdn.AsyncMDNTimeoutModule;
+import com.helger.as2lib.pendingmdn.IPendingMDNStore;
+import com.helger.as2lib.pendingmdn.PendingMDNInfo;
 import com.helger.as2lib.processor.CFileAttribute;
 import com.helger.as2lib.processor.CNetAttribute;
+import com.helger.as2lib.processor.EProcessingOperation;
 import com.helger.as2lib.processor.NoModuleException;
+import com.helger.as2lib.processor.ProcessingTimer;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.storage.IProcessorStorageModule;
 import com.helger.as2lib.session.ComponentNotFoundException;
 import com.helger.as2lib.util.AS2Helper;
@@ -78,18 +86,20 @@ import com.helger.as2lib.util.CAS2Header;
 import com.helger.as2lib.util.DateHelper;
 import com.helger.as2lib.util.EContentTransferEncoding;
 import com.helger.as2lib.util.IOHelper;
-import com.helger.as2lib.util.http.AS2HttpHeaderWrapperHttpURLConnection;
+import com.helger.as2lib.util.http.EHttpStreamingMode;
 import com.helger.as2lib.util.http.HTTPHelper;
+import com.helger.as2lib.util.http.IAS2HttpConnection;
 import com.helger.as2lib.util.http.IAS2HttpHeaderWrapper;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.charset.CCharset;
+import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.io.stream.WrappedOutputStream;
-import com.helger.commons.state.ETriState;
 import com.helger.commons.string.StringParser;
 import com.helger.commons.timing.StopWatch;
 /**
@@ -97,15 +107,21 @@ import com.helger.commons.timing.StopWatch;
  *
  * @author Philip Helger
  */
-public class AS2SenderModule extends AbstractHttpSenderModule
+public class AS2SenderModule extends AbstractHttpSenderModule implements IActionAwareProcessorModule
 {
-  private static final String ATTR_PENDINGMDNINFO = "pendingmdninfo";
   private static final String ATTR_PENDINGMDN = "pendingmdn";
   private static final Logger s_aLogger = LoggerFactory.getLogger (AS2SenderModule.class);
 
   public AS2SenderModule ()
   {}
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (IProcessorSenderModule.DO_SEND);
+  }
+
   public boolean canHandle (@Nonnull final String sAction,
                             @Nonnull final IMessage aMsg,
                             @Nullable final Map <String, Object> aOptions)
@@ -153,29 +169,29 @@ public class AS2SenderModule extends AbstractHttpSenderModule
    */
   protected void storePendingInfo (@Nonnull final AS2Message aMsg, @Nonnull final String sMIC) throws OpenAS2Exception
   {
-    OutputStream aFOS = null;
     try
     {
       if (s_aLogger.isDebugEnabled ())
         s_aLogger.debug ("Original MIC is '" + sMIC + "'" + aMsg.getLoggingText ());
 
-      final String sPendingFolder = FilenameHelper.getAsSecureValidASCIIFilename (getSession ().getMessageProcessor ()
-                                                                                               .getAttributeAsString (ATTR_PENDINGMDNINFO));
       final String sMsgFilename = IOHelper.getFilenameFromMessageID (aMsg.getMessageID ());
       final String sPendingFilename = FilenameHelper.getAsSecureValidASCIIFilename (getSession ().getMessageProcessor ()
                                                                                                  .getAttributeAsString (ATTR_PENDINGMDN)) +
                                       "/" +
                                       sMsgFilename;
 
-      s_aLogger.info ("Save Original MIC & message id information into folder '" +
-                      sPendingFolder +
-                      "'" +
+      final IPendingMDNStore aPendingMDNStore = getSession ().getPendingMDNStore ();
+      s_aLogger.info ("Save Original MIC & message id information into " +
+                      aPendingMDNStore.getName () +
                       aMsg.getLoggingText ());
 
-      // input pending folder & original outgoing file name to get and
-      // unique file name in order to avoid file overwriting.
-      aFOS = FileHelper.getOutputStream (sPendingFolder + "/" + sMsgFilename);
-      aFOS.write ((sMIC + "\n" + sPendingFilename).getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+      aPendingMDNStore.storePendingInfo (aMsg.getMessageID (), new PendingMDNInfo (sMIC, sPendingFilename));
+
+      // Watch for the MDN to arrive in time
+      final AsyncMDNTimeoutModule aTimeoutModule = getSession ().getMessageProcessor ()
+                                                                .getModuleOfClass (AsyncMDNTimeoutModule.class);
+      if (aTimeoutModule != null)
+        aTimeoutModule.track (aMsg);
 
       // remember
       aMsg.setAttribute (CFileAttribute.MA_PENDING_FILENAME, sPendingFilename);
@@ -187,10 +203,6 @@ public class AS2SenderModule extends AbstractHttpSenderModule
       we.addSource (OpenAS2Exception.SOURCE_MESSAGE, aMsg);
       throw we;
     }
-    finally
-    {
-      StreamHelper.close (aFOS);
-    }
   }
 
   /**
@@ -238,20 +250,16 @@ public class AS2SenderModule extends AbstractHttpSenderModule
   protected String calculateAndStoreMIC (@Nonnull final AS2Message aMsg) throws Exception
   {
     final Partnership aPartnership = aMsg.getPartnership ();
-    final String sDispositionOptions = aPartnership.getAS2MDNOptions ();
-    final DispositionOptions aDispositionOptions = DispositionOptions.createFromString (sDispositionOptions);
+    final PartnershipProfile aProfile = aPartnership.getProfile ();
+    final ECryptoAlgorithmSign eMICAlg = aProfile.getMDNMICAlg ();
 
     if (s_aLogger.isDebugEnabled ())
-      s_aLogger.debug ("DispositionOptions=" + aDispositionOptions);
+      s_aLogger.debug ("MIC algorithm from DispositionOptions=" + eMICAlg);
 
     // Calculate and get the original mic
-    final boolean bIncludeHeadersInMIC = aPartnership.getSigningAlgorithm () != null ||
-                                         aPartnership.getEncryptAlgorithm () != null ||
-                                         aPartnership.getCompressionType () != null;
-
     final String sMIC = AS2Helper.getCryptoHelper ().calculateMIC (aMsg.getData (),
-                                                                   aDispositionOptions.getFirstMICAlg (),
-                                                                   bIncludeHeadersInMIC);
+                                                                   eMICAlg,
+                                                                   aProfile.isIncludeHeadersInMIC ());
     if (s_aLogger.isDebugEnabled ())
       s_aLogger.debug ("Calculated MIC: '" + sMIC + "'");
 
@@ -299,22 +307,13 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     // Set up encrypt/sign variables
     MimeBodyPart aDataBP = aMsg.getData ();
 
-    final Partnership aPartnership = aMsg.getPartnership ();
+    final PartnershipProfile aProfile = aMsg.getPartnership ().getProfile ();
     final ICertificateFactory aCertFactory = getSession ().getCertificateFactory ();
 
     // Check compression parameters
     // If compression is enabled, by default is is compressed before signing
-    final String sCompressionType = aPartnership.getCompressionType ();
-    ECompressionType eCompressionType = null;
-    boolean bCompressBeforeSign = true;
-    if (sCompressionType != null)
-    {
-      eCompressionType = ECompressionType.getFromIDCaseInsensitiveOrNull (sCompressionType);
-      if (eCompressionType == null)
-        throw new OpenAS2Exception ("The compression type '" + sCompressionType + "' is not supported!");
-
-      bCompressBeforeSign = aPartnership.isCompressBeforeSign ();
-    }
+    final ECompressionType eCompressionType = aProfile.getCompressionType ();
+    final boolean bCompressBeforeSign = eCompressionType == null || aProfile.isCompressBeforeSign ();
 
     if (eCompressionType != null && bCompressBeforeSign)
     {
@@ -328,30 +327,15 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     }
 
     // Sign the data if requested
-    final String sSignAlgorithm = aPartnership.getSigningAlgorithm ();
-    if (sSignAlgorithm != null)
+    final ECryptoAlgorithmSign eSignAlgorithm = aProfile.getSigningAlgorithm ();
+    if (eSignAlgorithm != null)
     {
       final X509Certificate aSenderCert = aCertFactory.getCertificate (aMsg, ECertificatePartnershipType.SENDER);
       final PrivateKey aSenderKey = aCertFactory.getPrivateKey (aMsg, aSenderCert);
-      final ECryptoAlgorithmSign eSignAlgorithm = ECryptoAlgorithmSign.getFromIDOrNull (sSignAlgorithm);
-      if (eSignAlgorithm == null)
-        throw new OpenAS2Exception ("The signing algorithm '" + sSignAlgorithm + "' is not supported!");
-
-      // Include certificate in signed content?
-      boolean bIncludeCertificateInSignedContent;
-      final ETriState eIncludeCertificateInSignedContent = aMsg.getPartnership ()
-                                                               .getIncludeCertificateInSignedContent ();
-      if (eIncludeCertificateInSignedContent.isDefined ())
-      {
-        // Use per partnership
-        bIncludeCertificateInSignedContent = eIncludeCertificateInSignedContent.getAsBooleanValue ();
-      }
-      else
-      {
-        // Use global value
-        bIncludeCertificateInSignedContent = getSession ().isCryptoSignIncludeCertificateInBodyPart ();
-      }
-      
+
+      // Include certificate in signed content? Per partnership or global
+      final boolean bIncludeCertificateInSignedContent = aProfile.isIncludeCertificateInSignedContent (getSession ().isCryptoSignIncludeCertificateInBodyPart ());
+
       // Main signing
       aDataBP = AS2Helper.getCryptoHelper ()
                          .sign (aDataBP, aSenderCert, aSenderKey, eSignAlgorithm, bIncludeCertificateInSignedContent);
@@ -374,13 +358,10 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     }
 
     // Encrypt the data if requested
-    final String sCryptAlgorithm = aPartnership.getEncryptAlgorithm ();
-    if (sCryptAlgorithm != null)
+    final ECryptoAlgorithmCrypt eCryptAlgorithm = aProfile.getEncryptAlgorithm ();
+    if (eCryptAlgorithm != null)
     {
       final X509Certificate aReceiverCert = aCertFactory.getCertificate (aMsg, ECertificatePartnershipType.RECEIVER);
-      final ECryptoAlgorithmCrypt eCryptAlgorithm = ECryptoAlgorithmCrypt.getFromIDOrNull (sCryptAlgorithm);
-      if (eCryptAlgorithm == null)
-        throw new OpenAS2Exception ("The crypting algorithm '" + sCryptAlgorithm + "' is not supported!");
 
       aDataBP = AS2Helper.getCryptoHelper ().encrypt (aDataBP, aReceiverCert, eCryptAlgorithm);
 
@@ -444,7 +425,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
    * @param aMsg
    *        AS2Message
    * @param aConn
-   *        URLConnection
+   *        HTTP connection
    * @param sOriginalMIC
    *        mic value from original msg
    * @throws OpenAS2Exception
@@ -453,7 +434,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
    *         in case of an IO error
    */
   protected void receiveSyncMDN (@Nonnull final AS2Message aMsg,
-                                 @Nonnull final HttpURLConnection aConn,
+                                 @Nonnull final IAS2HttpConnection aConn,
                                  @Nonnull final String sOriginalMIC) throws OpenAS2Exception, IOException
   {
     if (s_aLogger.isDebugEnabled ())
@@ -503,18 +484,10 @@ public class AS2SenderModule extends AbstractHttpSenderModule
       final ICertificateFactory aCertFactory = getSession ().getCertificateFactory ();
       final X509Certificate aSenderCert = aCertFactory.getCertificate (aMDN, ECertificatePartnershipType.SENDER);
 
-      boolean bUseCertificateInBodyPart;
-      final ETriState eUseCertificateInBodyPart = aMsg.getPartnership ().getVerifyUseCertificateInBodyPart ();
-      if (eUseCertificateInBodyPart.isDefined ())
-      {
-        // Use per partnership
-        bUseCertificateInBodyPart = eUseCertificateInBodyPart.getAsBooleanValue ();
-      }
-      else
-      {
-        // Use global value
-        bUseCertificateInBodyPart = getSession ().isCryptoVerifyUseCertificateInBodyPart ();
-      }
+      // Per partnership or global
+      final boolean bUseCertificateInBodyPart = aMsg.getPartnership ()
+                                                    .getProfile ()
+                                                    .isVerifyUseCertificateInBodyPart (getSession ().isCryptoVerifyUseCertificateInBodyPart ());
 
       AS2Helper.parseMDN (aMsg, aSenderCert, bUseCertificateInBodyPart);
 
@@ -560,7 +533,9 @@ public class AS2SenderModule extends AbstractHttpSenderModule
 
       try
       {
-        DispositionType.createFromString (sDisposition).validate ();
+        final DispositionType aDisposition = DispositionType.createFromString (sDisposition);
+        AS2MetricsHelper.onMDNReceived (getSession (), aDisposition);
+        aDisposition.validate ();
       }
       catch (final DispositionException ex)
       {
@@ -605,25 +580,22 @@ public class AS2SenderModule extends AbstractHttpSenderModule
 
     // Create the HTTP connection
     final String sUrl = aPartnership.getAS2URL ();
-    final boolean bOutput = true;
-    final boolean bInput = true;
-    final boolean bUseCaches = false;
-    final String sRequestMethod = "POST";
-    final HttpURLConnection aConn = getConnection (sUrl,
-                                                   bOutput,
-                                                   bInput,
-                                                   bUseCaches,
-                                                   sRequestMethod,
-                                                   getSession ().getHttpProxy ());
+    final IAS2HttpConnection aConn = openConnection (sUrl, "POST");
     try
     {
       s_aLogger.info ("Connecting to " + sUrl + aMsg.getLoggingText ());
 
-      updateHttpHeaders (new AS2HttpHeaderWrapperHttpURLConnection (aConn), aMsg);
+      updateHttpHeaders (aConn, aMsg);
 
       aMsg.setAttribute (CNetAttribute.MA_DESTINATION_IP, aConn.getURL ().getHost ());
       aMsg.setAttribute (CNetAttribute.MA_DESTINATION_PORT, Integer.toString (aConn.getURL ().getPort ()));
 
+      // Must be done before the output stream is retrieved
+      final EHttpStreamingMode eStreamingMode = getStreamingMode (aPartnership);
+      final InputStream aMsgIS = prepareStreamingBody (aConn, aSecuredMimePart, eStreamingMode);
+      if (s_aLogger.isDebugEnabled ())
+        s_aLogger.debug ("Using HTTP streaming mode '" + eStreamingMode.getID () + "'" + aMsg.getLoggingText ());
+
       // Note: closing this stream causes connection abort errors on some AS2
       // servers
       OutputStream aMsgOS = aConn.getOutputStream ();
@@ -653,12 +625,12 @@ public class AS2SenderModule extends AbstractHttpSenderModule
 
 
       // Transfer the data
-      final InputStream aMsgIS = aSecuredMimePart.getInputStream ();
-
+      final ProcessingTimer aHttpTimer = ProcessingTimer.start (getSession (), EProcessingOperation.HTTP_SEND, aMsg);
       final StopWatch aSW = StopWatch.createdStarted ();
       // Main transmission - closes InputStream
       final long nBytes = IOHelper.copy (aMsgIS, aMsgOS);
       aSW.stop ();
+      AS2MetricsHelper.onBytesSent (getSession (), nBytes);
       s_aLogger.info ("transferred " + IOHelper.getTransferRate (nBytes, aSW) + aMsg.getLoggingText ());
 
       // Close debug OS (if used)
@@ -666,6 +638,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
 
       // Check the HTTP Response code
       final int nResponseCode = aConn.getResponseCode ();
+      aHttpTimer.stop ();
       // Accept most of 2xx HTTP response codes
       if (nResponseCode != HttpURLConnection.HTTP_OK &&
           nResponseCode != HttpURLConnection.HTTP_CREATED &&
@@ -676,6 +649,7 @@ public class AS2SenderModule extends AbstractHttpSenderModule
         s_aLogger.error ("Error URL '" + sUrl + "' - HTTP " + nResponseCode + " " + aConn.getResponseMessage ());
         throw new HttpResponseException (sUrl, nResponseCode, aConn.getResponseMessage ());
       }
+      AS2MetricsHelper.onMessageSent (getSession (), aMsg);
 
       // Asynch MDN 2007-03-12
       // Receive an MDN
@@ -724,10 +698,17 @@ public class AS2SenderModule extends AbstractHttpSenderModule
 
     final int nRetries = getRetryCount (aMsg.getPartnership (), aOptions);
 
+    // Don't even try if the destination is known to be down
+    final HttpCircuitBreaker aCircuitBreaker = getCircuitBreaker (aMsg.getPartnership ().getAS2URL ());
+    if (!checkCircuitBreaker (aCircuitBreaker, IProcessorSenderModule.DO_SEND, aMsg, nRetries))
+      return;
+
     try
     {
       // compress and/or sign and/or encrypt the message if needed
+      final ProcessingTimer aSecureTimer = ProcessingTimer.start (getSession (), EProcessingOperation.SECURE, aMsg);
       final MimeBodyPart aSecuredData = secure (aMsg);
+      aSecureTimer.stop ();
 
       // Calculate MIC after compress/sign/crypt was handled, because the
       // message data might change if compression before signing is active.
@@ -738,9 +719,11 @@ public class AS2SenderModule extends AbstractHttpSenderModule
       aMsg.setContentType (aSecuredData.getContentType ());
 
       _sendViaHTTP (aMsg, aSecuredData, sMIC);
+      recordCircuitBreakerResult (aCircuitBreaker, null);
     }
     catch (final HttpResponseException ex)
     {
+      recordCircuitBreakerResult (aCircuitBreaker, ex);
       s_aLogger.error ("Http Response Error " + ex.getMessage ());
       ex.terminate ();
 
@@ -749,6 +732,8 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     }
     catch (final IOException ex)
     {
+      recordCircuitBreakerResult (aCircuitBreaker, ex);
+
       // Re-send if a network error occurs during transmission
       final OpenAS2Exception wioe = WrappedOpenAS2Exception.wrap (ex);
       wioe.addSource (OpenAS2Exception.SOURCE_MESSAGE, aMsg);
@@ -759,6 +744,8 @@ public class AS2SenderModule extends AbstractHttpSenderModule
     }
     catch (final Exception ex)
     {
+      recordCircuitBreakerResult (aCircuitBreaker, ex);
+
       // Propagate error if it can't be handled by a re-send
       throw WrappedOpenAS2Exception.wrap (ex);
     }
@@ -33,81 +33,408 @@
 package com.helger.as2lib.processor.sender;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.Proxy;
-import java.net.URL;
-import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.CheckForSigned;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimePart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.helger.as2lib.AS2GlobalSettings;
 import com.helger.as2lib.exception.OpenAS2Exception;
-import com.helger.as2lib.exception.WrappedOpenAS2Exception;
-import com.helger.as2lib.util.http.DoNothingTrustManager;
-import com.helger.as2lib.util.http.HostnameVerifierAlwaysTrue;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IOHelper;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.as2lib.util.http.AS2HttpTransportHttpURLConnection;
+import com.helger.as2lib.util.http.EHttpStreamingMode;
+import com.helger.as2lib.util.http.IAS2HttpConnection;
+import com.helger.as2lib.util.http.IAS2HttpTransport;
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
-import com.helger.commons.random.VerySecureRandom;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.lang.GenericReflection;
+import com.helger.commons.string.StringHelper;
 
 public abstract class AbstractHttpSenderModule extends AbstractSenderModule
 {
+  private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractHttpSenderModule.class);
+  // Set while a short-circuited message is handed to the resender
+  private static final ThreadLocal <Boolean> s_aShortCircuitInProgress = new ThreadLocal <Boolean> ();
+
   /** Connection timeout in milliseconds */
   public static final String ATTR_CONNECT_TIMEOUT = "connecttimeout";
   /** Read timeout in milliseconds */
   public static final String ATTR_READ_TIMEOUT = "readtimeout";
+  /** The default connect timeout of 60 seconds */
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 60000;
+  /** The default read timeout of 60 seconds */
+  public static final int DEFAULT_READ_TIMEOUT_MS = 60000;
+  /**
+   * Number of consecutive transfer failures after which the circuit breaker of
+   * a URL opens. If not present or &le; 0 no circuit breaker is used.
+   */
+  public static final String ATTR_CIRCUIT_BREAKER_THRESHOLD = "circuitbreakerthreshold";
+  /**
+   * Time in milliseconds an open circuit breaker waits before a single probe
+   * transfer is attempted.
+   */
+  public static final String ATTR_CIRCUIT_BREAKER_OPEN_TIME = "circuitbreakeropentime";
+
+  /** The default circuit breaker open time of 60 seconds. */
+  public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME_MS = 60 * CGlobal.MILLISECONDS_PER_SECOND;
+
+  /**
+   * Fully qualified class name of the {@link IAS2HttpTransport} implementation
+   * to use. Must have a public no-argument constructor.
+   */
+  public static final String ATTR_HTTP_TRANSPORT = "httptransport";
+
+  private volatile IAS2HttpTransport m_aHttpTransport = new AS2HttpTransportHttpURLConnection ();
+  private final ConcurrentMap <String, HttpCircuitBreaker> m_aCircuitBreakers = new ConcurrentHashMap <String, HttpCircuitBreaker> ();
+  // Partnership name to the URL of its last transfer
+  private final ConcurrentMap <String, String> m_aPartnershipURLs = new ConcurrentHashMap <String, String> ();
 
+  @Override
+  @OverridingMethodsMustInvokeSuper
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    final String sHttpTransport = getAttributeAsString (ATTR_HTTP_TRANSPORT);
+    if (StringHelper.hasText (sHttpTransport))
+    {
+      final IAS2HttpTransport aHttpTransport = GenericReflection.newInstance (sHttpTransport,
+                                                                             IAS2HttpTransport.class);
+      if (aHttpTransport == null)
+        throw new OpenAS2Exception ("Failed to create HTTP transport of class '" + sHttpTransport + "'");
+      setHttpTransport (aHttpTransport);
+    }
+  }
+
+  /**
+   * @return The HTTP transport used to create outgoing connections. Never
+   *         <code>null</code>.
+   */
   @Nonnull
-  public HttpURLConnection getConnection (@Nonnull @Nonempty final String sUrl,
-                                          final boolean bOutput,
-                                          final boolean bInput,
-                                          final boolean bUseCaches,
-                                          @Nonnull @Nonempty final String sRequestMethod,
-                                          @Nullable final Proxy aProxy) throws OpenAS2Exception
+  public IAS2HttpTransport getHttpTransport ()
   {
-    try
+    return m_aHttpTransport;
+  }
+
+  /**
+   * Set the HTTP transport to be used for outgoing connections.
+   *
+   * @param aHttpTransport
+   *        The transport to use. May not be <code>null</code>.
+   */
+  public void setHttpTransport (@Nonnull final IAS2HttpTransport aHttpTransport)
+  {
+    m_aHttpTransport = ValueEnforcer.notNull (aHttpTransport, "HttpTransport");
+  }
+
+  /**
+   * Open a new outgoing connection with the configured HTTP transport, the
+   * configured timeouts and the HTTP proxy of the session.
+   *
+   * @param sUrl
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @param sRequestMethod
+   *        The HTTP request method. May neither be <code>null</code> nor empty.
+   * @return The new connection. Never <code>null</code>.
+   * @throws IOException
+   *         In case the connection could not be created
+   */
+  @Nonnull
+  public IAS2HttpConnection openConnection (@Nonnull @Nonempty final String sUrl,
+                                            @Nonnull @Nonempty final String sRequestMethod) throws IOException
+  {
+    return m_aHttpTransport.openConnection (sUrl,
+                                            sRequestMethod,
+                                            getSession ().getHttpProxy (),
+                                            getAttributeAsInt (ATTR_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS),
+                                            getAttributeAsInt (ATTR_READ_TIMEOUT, DEFAULT_READ_TIMEOUT_MS));
+  }
+
+  /**
+   * Get the number of bytes the passed MIME part will deliver via
+   * {@link MimePart#getInputStream()}, without serializing it.
+   *
+   * @param aPart
+   *        The MIME part to check. May not be <code>null</code>.
+   * @return -1 if the length cannot be determined in advance.
+   * @throws MessagingException
+   *         In case the MIME part cannot be accessed
+   */
+  @CheckForSigned
+  public static long getKnownContentLength (@Nonnull final MimePart aPart) throws MessagingException
+  {
+    // The size is the size of the raw content, which is only identical to the
+    // size of the decoded content for identity transfer encodings
+    final String sEncoding = aPart.getEncoding ();
+    if (sEncoding != null &&
+        !"binary".equalsIgnoreCase (sEncoding) &&
+        !"8bit".equalsIgnoreCase (sEncoding) &&
+        !"7bit".equalsIgnoreCase (sEncoding))
+      return -1;
+    return aPart.getSize ();
+  }
+
+  /**
+   * Get the streaming mode to be used for the passed partnership.
+   *
+   * @param aPartnership
+   *        The partnership to be used. May not be <code>null</code>.
+   * @return The streaming mode and never <code>null</code>. If the partnership
+   *         contains no or an invalid streaming mode,
+   *         {@link EHttpStreamingMode#DEFAULT} is returned.
+   */
+  @Nonnull
+  public static EHttpStreamingMode getStreamingMode (@Nonnull final Partnership aPartnership)
+  {
+    final String sStreamingMode = aPartnership.getHttpStreamingMode ();
+    final EHttpStreamingMode eStreamingMode = EHttpStreamingMode.getFromIDCaseInsensitiveOrNull (sStreamingMode);
+    if (eStreamingMode == null)
     {
-      final URL aUrlObj = new URL (sUrl);
-      final HttpURLConnection aConn = (HttpURLConnection) (aProxy == null ? aUrlObj.openConnection ()
-                                                                          : aUrlObj.openConnection (aProxy));
-      aConn.setDoOutput (bOutput);
-      aConn.setDoInput (bInput);
-      aConn.setUseCaches (bUseCaches);
-      aConn.setRequestMethod (sRequestMethod);
-      aConn.setConnectTimeout (getAttributeAsInt (ATTR_CONNECT_TIMEOUT, 60000));
-      aConn.setReadTimeout (getAttributeAsInt (ATTR_READ_TIMEOUT, 60000));
-
-      if (aConn instanceof HttpsURLConnection)
+      if (sStreamingMode != null)
+        s_aLogger.warn ("Unsupported HTTP streaming mode '" +
+                        sStreamingMode +
+                        "' in partnership '" +
+                        aPartnership.getName () +
+                        "' - using '" +
+                        EHttpStreamingMode.DEFAULT.getID () +
+                        "'");
+      return EHttpStreamingMode.DEFAULT;
+    }
+    return eStreamingMode;
+  }
+
+  /**
+   * Configure the streaming mode of the passed connection for the passed body.
+   * This must be called before the output stream of the connection is
+   * retrieved.
+   *
+   * @param aConn
+   *        The connection to be configured. May not be <code>null</code>.
+   * @param aPart
+   *        The MIME part to be sent as the HTTP body. May not be
+   *        <code>null</code>.
+   * @param eStreamingMode
+   *        The streaming mode to use. May not be <code>null</code>.
+   * @return The input stream with the body to be copied to the output stream
+   *         of the connection. Never <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   * @throws MessagingException
+   *         In case the MIME part cannot be accessed
+   */
+  @Nonnull
+  protected static InputStream prepareStreamingBody (@Nonnull final IAS2HttpConnection aConn,
+                                                     @Nonnull final MimePart aPart,
+                                                     @Nonnull final EHttpStreamingMode eStreamingMode) throws IOException,
+                                                                                                        MessagingException
+  {
+    switch (eStreamingMode)
+    {
+      case BUFFERED:
+        // Let the HTTP implementation buffer the body
+        break;
+      case CHUNKED:
+        aConn.setChunkedStreamingMode (0);
+        break;
+      case AUTO:
+      case FIXED_LENGTH:
       {
-        // SSL handling
-        final HttpsURLConnection aConns = (HttpsURLConnection) aConn;
+        final long nContentLength = getKnownContentLength (aPart);
+        if (nContentLength >= 0)
+          aConn.setFixedLengthStreamingMode (nContentLength);
+        else
+          if (eStreamingMode == EHttpStreamingMode.AUTO)
+            aConn.setChunkedStreamingMode (0);
+          else
+          {
+            // Serialize once to determine the length
+            final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+            IOHelper.copy (aPart.getInputStream (), aBAOS);
+            aConn.setFixedLengthStreamingMode (aBAOS.getSize ());
+            return new NonBlockingByteArrayInputStream (aBAOS.toByteArray ());
+          }
+        break;
+      }
+    }
+    return aPart.getInputStream ();
+  }
 
-        // Trust all server certificates
-        final SSLContext aSSLCtx = SSLContext.getInstance ("TLSv1.2");
-        SecureRandom aSecureRandom = null;
-        if (AS2GlobalSettings.isUseSecureRandom ())
-          aSecureRandom = VerySecureRandom.getInstance ();
-        // else aSecureRandom stays null what is also okay
+  /**
+   * Get the circuit breaker for the provided URL. The breaker is created on
+   * demand.
+   *
+   * @param sUrl
+   *        The destination URL. May be <code>null</code>.
+   * @return <code>null</code> if no circuit breaker is configured or if no URL
+   *         is provided.
+   */
+  @Nullable
+  public HttpCircuitBreaker getCircuitBreaker (@Nullable final String sUrl)
+  {
+    final int nThreshold = getAttributeAsInt (ATTR_CIRCUIT_BREAKER_THRESHOLD, 0);
+    if (nThreshold <= 0 || StringHelper.hasNoText (sUrl))
+      return null;
 
-        aSSLCtx.init (null, new TrustManager [] { new DoNothingTrustManager () }, aSecureRandom);
-        aConns.setSSLSocketFactory (aSSLCtx.getSocketFactory ());
+    HttpCircuitBreaker aCircuitBreaker = m_aCircuitBreakers.get (sUrl);
+    if (aCircuitBreaker == null)
+    {
+      final HttpCircuitBreaker aNewCircuitBreaker = new HttpCircuitBreaker (sUrl,
+                                                                            nThreshold,
+                                                                            getAttributeAsLong (ATTR_CIRCUIT_BREAKER_OPEN_TIME,
+                                                                                                DEFAULT_CIRCUIT_BREAKER_OPEN_TIME_MS));
+      aCircuitBreaker = m_aCircuitBreakers.putIfAbsent (sUrl, aNewCircuitBreaker);
+      if (aCircuitBreaker == null)
+        aCircuitBreaker = aNewCircuitBreaker;
+    }
+    return aCircuitBreaker;
+  }
 
-        // Trust all host names
-        aConns.setHostnameVerifier (new HostnameVerifierAlwaysTrue ());
-      }
+  /**
+   * @return A map from destination URL to the respective circuit breaker. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, HttpCircuitBreaker> getAllCircuitBreakers ()
+  {
+    return new HashMap <String, HttpCircuitBreaker> (m_aCircuitBreakers);
+  }
 
-      return aConn;
+  /**
+   * @return A map from partnership name to the state of the circuit breaker of
+   *         the URL the partnership last sent to. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, ECircuitBreakerState> getAllCircuitBreakerStatesByPartnership ()
+  {
+    final Map <String, ECircuitBreakerState> ret = new TreeMap <String, ECircuitBreakerState> ();
+    for (final Map.Entry <String, String> aEntry : m_aPartnershipURLs.entrySet ())
+    {
+      final HttpCircuitBreaker aCircuitBreaker = m_aCircuitBreakers.get (aEntry.getValue ());
+      if (aCircuitBreaker != null)
+        ret.put (aEntry.getKey (), aCircuitBreaker.getState ());
     }
-    catch (final IOException ex)
+    return ret;
+  }
+
+  /**
+   * Check if a transfer to the provided URL may be attempted. If the circuit
+   * breaker is open, the message is directly scheduled for re-sending. As no
+   * transfer was attempted, this does not use up a retry. Only if the resender
+   * hands the message straight back on the same thread (e.g. the
+   * {@link com.helger.as2lib.processor.resender.ImmediateResenderModule}) the
+   * retries are counted, so that the recursion ends.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to use. May be <code>null</code>.
+   * @param sResendAction
+   *        Handler action name to use for resending. May not be
+   *        <code>null</code>.
+   * @param aMsg
+   *        The message to be send.
+   * @param nRetries
+   *        The number of retries left.
+   * @return <code>true</code> if the transfer may be attempted,
+   *         <code>false</code> if the message was scheduled for re-sending.
+   * @throws OpenAS2Exception
+   *         If the circuit breaker is open and no re-sending is possible.
+   */
+  protected final boolean checkCircuitBreaker (@Nullable final HttpCircuitBreaker aCircuitBreaker,
+                                               @Nonnull final String sResendAction,
+                                               @Nonnull final IMessage aMsg,
+                                               final int nRetries) throws OpenAS2Exception
+  {
+    if (aCircuitBreaker == null)
+      return true;
+
+    final String sPartnershipName = aMsg.getPartnership ().getName ();
+    if (sPartnershipName != null)
+      m_aPartnershipURLs.put (sPartnershipName, aCircuitBreaker.getUrl ());
+
+    if (aCircuitBreaker.tryAcquirePermission ())
+      return true;
+
+    final CircuitBreakerOpenException ex = new CircuitBreakerOpenException (aCircuitBreaker.getUrl ());
+    ex.addSource (OpenAS2Exception.SOURCE_MESSAGE, aMsg);
+    ex.terminate ();
+
+    // The resender decrements the retries - compensate for it
+    final boolean bNested = s_aShortCircuitInProgress.get () != null;
+    s_aShortCircuitInProgress.set (Boolean.TRUE);
+    try
+    {
+      if (!doResend (sResendAction, aMsg, ex, bNested || nRetries <= 0 ? nRetries : nRetries + 1))
+        throw ex;
+    }
+    finally
+    {
+      if (!bNested)
+        s_aShortCircuitInProgress.remove ();
+    }
+    return false;
+  }
+
+  /**
+   * Record the outcome of an HTTP transfer in the circuit breaker. Network
+   * errors and HTTP 5xx responses are considered failures.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to use. May be <code>null</code>.
+   * @param aError
+   *        The error that occurred. <code>null</code> for success.
+   */
+  protected static void recordCircuitBreakerResult (@Nullable final HttpCircuitBreaker aCircuitBreaker,
+                                                    @Nullable final Exception aError)
+  {
+    if (aCircuitBreaker == null)
+      return;
+
+    if (aError == null)
+    {
+      aCircuitBreaker.recordSuccess ();
+      return;
+    }
+
+    if (aError instanceof IOException)
     {
-      throw WrappedOpenAS2Exception.wrap (ex);
+      aCircuitBreaker.recordFailure ();
+      return;
     }
-    catch (final GeneralSecurityException ex)
+
+    if (aError instanceof HttpResponseException)
     {
-      throw WrappedOpenAS2Exception.wrap (ex);
+      // The endpoint is reachable - only server errors count as failure
+      if (((HttpResponseException) aError).getCode () >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+        aCircuitBreaker.recordFailure ();
+      else
+        aCircuitBreaker.recordSuccess ();
+      return;
     }
+
+    // Unrelated to the endpoint
+    aCircuitBreaker.releasePermission ();
   }
 }
@@ -38,6 +38,7 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -51,22 +52,37 @@ import com.helger.as2lib.disposition.DispositionType;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.AS2MessageMDN;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.metrics.AS2MetricsHelper;
+import com.helger.as2lib.processor.EProcessingOperation;
 import com.helger.as2lib.processor.NoModuleException;
+import com.helger.as2lib.processor.ProcessingTimer;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.processor.storage.IProcessorStorageModule;
 import com.helger.as2lib.session.ComponentNotFoundException;
 import com.helger.as2lib.util.CAS2Header;
 import com.helger.as2lib.util.IOHelper;
+import com.helger.as2lib.util.http.IAS2HttpConnection;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.timing.StopWatch;
 
-public class AsynchMDNSenderModule extends AbstractHttpSenderModule
+public class AsynchMDNSenderModule extends AbstractHttpSenderModule implements IActionAwareProcessorModule
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (AsynchMDNSenderModule.class);
 
   public AsynchMDNSenderModule ()
   {}
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (IProcessorSenderModule.DO_SENDMDN);
+  }
+
   public boolean canHandle (@Nonnull final String sAction,
                             @Nonnull final IMessage aMsg,
                             @Nullable final Map <String, Object> aOptions)
@@ -84,45 +100,42 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
 
     // Create a HTTP connection
     final String sUrl = aMsg.getAsyncMDNurl ();
-    final boolean bOutput = true;
-    final boolean bInput = true;
-    final boolean bUseCaches = false;
-    final String sRequestMethod = "POST";
-    final HttpURLConnection aConn = getConnection (sUrl,
-                                                   bOutput,
-                                                   bInput,
-                                                   bUseCaches,
-                                                   sRequestMethod,
-                                                   getSession ().getHttpProxy ());
+    final IAS2HttpConnection aConn = openConnection (sUrl, "POST");
 
     try
     {
       s_aLogger.info ("connected to " + sUrl + aMsg.getLoggingText ());
 
-      aConn.setRequestProperty (CAS2Header.HEADER_CONNECTION, CAS2Header.DEFAULT_CONNECTION);
-      aConn.setRequestProperty (CAS2Header.HEADER_USER_AGENT, CAS2Header.DEFAULT_USER_AGENT);
+      aConn.setHttpHeader (CAS2Header.HEADER_CONNECTION, CAS2Header.DEFAULT_CONNECTION);
+      aConn.setHttpHeader (CAS2Header.HEADER_USER_AGENT, CAS2Header.DEFAULT_USER_AGENT);
       // Copy all the header from mdn to the RequestProperties of conn
       final Enumeration <?> aHeaders = aMdn.getHeaders ().getAllHeaders ();
       while (aHeaders.hasMoreElements ())
       {
         final Header aHeader = (Header) aHeaders.nextElement ();
-        final String sHeaderValue = aHeader.getValue ().replace ('\t', ' ').replace ('\n', ' ').replace ('\r', ' ');
-        aConn.setRequestProperty (aHeader.getName (), sHeaderValue);
+        aConn.setHttpHeader (aHeader.getName (), aHeader.getValue ());
       }
 
+      // Must be done before the output stream is retrieved
+      final InputStream aMessageIS = prepareStreamingBody (aConn,
+                                                           aMdn.getData (),
+                                                           getStreamingMode (aMsg.getPartnership ()));
+
       // Note: closing this stream causes connection abort errors on some AS2
       // servers
       final OutputStream aMessageOS = aConn.getOutputStream ();
 
       // Transfer the data
-      final InputStream aMessageIS = aMdn.getData ().getInputStream ();
+      final ProcessingTimer aHttpTimer = ProcessingTimer.start (getSession (), EProcessingOperation.HTTP_SEND, aMsg);
       final StopWatch aSW = StopWatch.createdStarted ();
       final long nBytes = IOHelper.copy (aMessageIS, aMessageOS);
       aSW.stop ();
+      AS2MetricsHelper.onBytesSent (getSession (), nBytes);
       s_aLogger.info ("transferred " + IOHelper.getTransferRate (nBytes, aSW) + aMsg.getLoggingText ());
 
       // Check the HTTP Response code
       final int nResponseCode = aConn.getResponseCode ();
+      aHttpTimer.stop ();
       if (nResponseCode != HttpURLConnection.HTTP_OK &&
           nResponseCode != HttpURLConnection.HTTP_CREATED &&
           nResponseCode != HttpURLConnection.HTTP_ACCEPTED &&
@@ -134,6 +147,7 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
       }
 
       s_aLogger.info ("sent AsyncMDN [" + aDisposition.getAsString () + "] OK " + aMsg.getLoggingText ());
+      AS2MetricsHelper.onMDNSent (getSession (), aDisposition);
 
       // log & store mdn into backup folder.
       try
@@ -155,25 +169,52 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
     }
   }
 
+  /**
+   * @return The disposition of the MDN to be sent or a success disposition if
+   *         it is missing or invalid.
+   */
+  @Nonnull
+  private static DispositionType _getDisposition (@Nonnull final AS2Message aMsg)
+  {
+    final IMessageMDN aMdn = aMsg.getMDN ();
+    final String sDisposition = aMdn == null ? null : aMdn.getAttribute (AS2MessageMDN.MDNA_DISPOSITION);
+    if (sDisposition != null)
+      try
+      {
+        return DispositionType.createFromString (sDisposition);
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        // Invalid disposition - use the default
+      }
+    return DispositionType.createSuccess ();
+  }
+
   public void handle (@Nonnull final String sAction,
                       @Nonnull final IMessage aBaseMsg,
                       @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
   {
+    final AS2Message aMsg = (AS2Message) aBaseMsg;
+    final DispositionType aDisposition = _getDisposition (aMsg);
     try
     {
-      final AS2Message aMsg = (AS2Message) aBaseMsg;
-
       s_aLogger.info ("Async MDN submitted" + aMsg.getLoggingText ());
-      final DispositionType aDisposition = DispositionType.createSuccess ();
 
       final int nRetries = getRetryCount (aMsg.getPartnership (), aOptions);
 
+      // Don't even try if the destination is known to be down
+      final HttpCircuitBreaker aCircuitBreaker = getCircuitBreaker (aMsg.getAsyncMDNurl ());
+      if (!checkCircuitBreaker (aCircuitBreaker, IProcessorSenderModule.DO_SENDMDN, aMsg, nRetries))
+        return;
+
       try
       {
         _sendViaHTTP (aMsg, aDisposition);
+        recordCircuitBreakerResult (aCircuitBreaker, null);
       }
       catch (final HttpResponseException ex)
       {
+        recordCircuitBreakerResult (aCircuitBreaker, ex);
         s_aLogger.error ("Http Response Error " + ex.getMessage ());
 
         // Resend if the HTTP Response has an error code
@@ -184,6 +225,8 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
       }
       catch (final IOException ex)
       {
+        recordCircuitBreakerResult (aCircuitBreaker, ex);
+
         // Resend if a network error occurs during transmission
         final OpenAS2Exception wioe = WrappedOpenAS2Exception.wrap (ex);
         wioe.addSource (OpenAS2Exception.SOURCE_MESSAGE, aMsg);
@@ -194,10 +237,18 @@ public class AsynchMDNSenderModule extends AbstractHttpSenderModule
       }
       catch (final Exception ex)
       {
+        recordCircuitBreakerResult (aCircuitBreaker, ex);
+
         // Propagate error if it can't be handled by a resend
         throw WrappedOpenAS2Exception.wrap (ex);
       }
     }
+    catch (final OpenAS2Exception ex)
+    {
+      // No resend was scheduled - the MDN is lost
+      AS2MetricsHelper.onMDNSendFailed (getSession (), aDisposition);
+      throw ex;
+    }
     finally
     {
       if (s_aLogger.isDebugEnabled ())
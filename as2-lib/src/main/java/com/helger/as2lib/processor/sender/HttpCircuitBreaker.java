@@ -0,0 +1,285 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.sender;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A circuit breaker for a single destination URL. After the configured number
+ * of consecutive transfer failures the breaker opens and all transfers are
+ * short-circuited. After the open duration elapsed, exactly one probe transfer
+ * is permitted (half-open state). If the probe succeeds the breaker closes
+ * again, otherwise it re-opens.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class HttpCircuitBreaker
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (HttpCircuitBreaker.class);
+
+  private final Lock m_aLock = new ReentrantLock ();
+  private final String m_sURL;
+  private final int m_nFailureThreshold;
+  private final long m_nOpenDurationMS;
+  @GuardedBy ("m_aLock")
+  private ECircuitBreakerState m_eState = ECircuitBreakerState.CLOSED;
+  @GuardedBy ("m_aLock")
+  private int m_nConsecutiveFailures = 0;
+  @GuardedBy ("m_aLock")
+  private long m_nOpenedAtMS = 0;
+  @GuardedBy ("m_aLock")
+  private boolean m_bProbeInFlight = false;
+  private final AtomicLong m_aShortCircuitCount = new AtomicLong (0);
+
+  public HttpCircuitBreaker (@Nonnull @Nonempty final String sUrl,
+                             @Nonnegative final int nFailureThreshold,
+                             @Nonnegative final long nOpenDurationMS)
+  {
+    m_sURL = ValueEnforcer.notEmpty (sUrl, "URL");
+    m_nFailureThreshold = ValueEnforcer.isGT0 (nFailureThreshold, "FailureThreshold");
+    m_nOpenDurationMS = ValueEnforcer.isGE0 (nOpenDurationMS, "OpenDurationMS");
+  }
+
+  /**
+   * @return The URL this circuit breaker is responsible for. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getUrl ()
+  {
+    return m_sURL;
+  }
+
+  /**
+   * @return The number of consecutive failures after which the breaker opens.
+   */
+  @Nonnegative
+  public int getFailureThreshold ()
+  {
+    return m_nFailureThreshold;
+  }
+
+  /**
+   * @return The number of milliseconds the breaker stays open before a probe
+   *         is permitted.
+   */
+  @Nonnegative
+  public long getOpenDurationMS ()
+  {
+    return m_nOpenDurationMS;
+  }
+
+  /**
+   * Check whether a transfer may be attempted. If this method returns
+   * <code>true</code> the caller must call exactly one of
+   * {@link #recordSuccess()}, {@link #recordFailure()} or
+   * {@link #releasePermission()} afterwards.
+   *
+   * @return <code>true</code> if the transfer may be attempted,
+   *         <code>false</code> if it should be short-circuited.
+   */
+  public boolean tryAcquirePermission ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      switch (m_eState)
+      {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.currentTimeMillis () - m_nOpenedAtMS >= m_nOpenDurationMS)
+          {
+            // Let exactly one probe pass
+            m_eState = ECircuitBreakerState.HALF_OPEN;
+            m_bProbeInFlight = true;
+            s_aLogger.info ("Circuit breaker for " + m_sURL + " is half-open - probing");
+            return true;
+          }
+          break;
+        case HALF_OPEN:
+          if (!m_bProbeInFlight)
+          {
+            m_bProbeInFlight = true;
+            return true;
+          }
+          break;
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    m_aShortCircuitCount.incrementAndGet ();
+    return false;
+  }
+
+  /**
+   * Record a successful transfer. This closes the breaker.
+   */
+  public void recordSuccess ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      if (m_eState != ECircuitBreakerState.CLOSED)
+        s_aLogger.info ("Circuit breaker for " + m_sURL + " is closed again");
+      m_eState = ECircuitBreakerState.CLOSED;
+      m_nConsecutiveFailures = 0;
+      m_bProbeInFlight = false;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Record a failed transfer. This opens the breaker if the failure threshold
+   * is reached or if the failed transfer was the half-open probe.
+   */
+  public void recordFailure ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_nConsecutiveFailures++;
+      if (m_eState == ECircuitBreakerState.HALF_OPEN || m_nConsecutiveFailures >= m_nFailureThreshold)
+      {
+        if (m_eState != ECircuitBreakerState.OPEN)
+          s_aLogger.warn ("Circuit breaker for " +
+                          m_sURL +
+                          " is open after " +
+                          m_nConsecutiveFailures +
+                          " consecutive failures");
+        m_eState = ECircuitBreakerState.OPEN;
+        m_nOpenedAtMS = System.currentTimeMillis ();
+      }
+      m_bProbeInFlight = false;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Release a permission without recording a result. This is necessary if the
+   * transfer was not attempted for reasons unrelated to the endpoint.
+   */
+  public void releasePermission ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      m_bProbeInFlight = false;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The current state. Never <code>null</code>. An open breaker whose
+   *         open duration has elapsed is still reported as open until the
+   *         next transfer is attempted.
+   */
+  @Nonnull
+  public ECircuitBreakerState getState ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_eState;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of consecutive failures so far.
+   */
+  @Nonnegative
+  public int getConsecutiveFailures ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_nConsecutiveFailures;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The total number of transfers that were short-circuited by this
+   *         breaker.
+   */
+  @Nonnegative
+  public long getShortCircuitCount ()
+  {
+    return m_aShortCircuitCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("URL", m_sURL)
+                                       .append ("FailureThreshold", m_nFailureThreshold)
+                                       .append ("OpenDurationMS", m_nOpenDurationMS)
+                                       .append ("State", getState ())
+                                       .append ("ShortCircuitCount", getShortCircuitCount ())
+                                       .toString ();
+  }
+}
@@ -37,6 +37,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,15 +47,20 @@ import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.params.InvalidParameterException;
 import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.IOHelper;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.io.stream.StreamHelper;
 
-public abstract class AbstractStorageModule extends AbstractProcessorModule implements IProcessorStorageModule
+public abstract class AbstractStorageModule extends AbstractProcessorModule implements
+                                            IProcessorStorageModule,
+                                            IActionAwareProcessorModule
 {
   public static final String ATTR_FILENAME = "filename";
   public static final String ATTR_PROTOCOL = "protocol";
@@ -67,6 +73,13 @@ public abstract class AbstractStorageModule extends AbstractProcessorModule impl
     m_sModuleAction = ValueEnforcer.notEmpty (sModuleAction, "ModuleAction");
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllHandledActions ()
+  {
+    return CollectionHelper.newSet (m_sModuleAction);
+  }
+
   public final boolean canHandle (@Nonnull final String sAction,
                                   @Nonnull final IMessage aMsg,
                                   @Nullable final Map <String, Object> aOptions)
@@ -45,7 +45,13 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 import com.helger.as2lib.IDynamicComponent;
 import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.IMetricGauge;
+import com.helger.as2lib.metrics.MetricsRegistry;
 import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.pendingmdn.IPendingMDNStore;
+import com.helger.as2lib.pendingmdn.PendingMDNStoreFileBased;
 import com.helger.as2lib.processor.IMessageProcessor;
 import com.helger.as2lib.util.javamail.DispositionDataContentHandler;
 import com.helger.commons.ValueEnforcer;
@@ -66,6 +72,7 @@ public class AS2Session implements IAS2Session
   public static final String COMPONENT_ID_CERTIFICATE_FACTORY = "certificatefactory";
   public static final String COMPONENT_ID_PARTNERSHIP_FACTORY = "partnershipfactory";
   public static final String COMPONENT_ID_MESSAGE_PROCESSOR = "message-processor";
+  public static final String COMPONENT_ID_PENDING_MDN_STORE = "pendingmdnstore";
 
   public static final boolean DEFAULT_CRYPTO_SIGN_INCLUDE_CERTIFICATE_IN_BODY_PART = true;
   public static final boolean DEFAULT_CRYPTO_VERIFY_USE_CERTIFICATE_IN_BODY_PART = true;
@@ -74,6 +81,9 @@ public class AS2Session implements IAS2Session
   private boolean m_bCryptoSignIncludeCertificateInBodyPart = DEFAULT_CRYPTO_SIGN_INCLUDE_CERTIFICATE_IN_BODY_PART;
   private boolean m_bCryptoVerifyUseCertificateInBodyPart = DEFAULT_CRYPTO_VERIFY_USE_CERTIFICATE_IN_BODY_PART;
   private Proxy m_aHttpProxy;
+  private final MetricsRegistry m_aMetrics = new MetricsRegistry ();
+  // Created upon first use, if no pending MDN store component is present
+  private volatile IPendingMDNStore m_aDefaultPendingMDNStore;
 
   /**
    * Constructor
@@ -96,6 +106,21 @@ public class AS2Session implements IAS2Session
         return null;
       }
     });
+
+    m_aMetrics.registerGauge (CAS2Metrics.PENDING_MDNS, new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        try
+        {
+          return getPendingMDNStore ().getPendingInfoCount ();
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          return -1;
+        }
+      }
+    });
   }
 
   public final void addComponent (@Nonnull @Nonempty final String sComponentID,
@@ -123,6 +148,11 @@ public class AS2Session implements IAS2Session
     addComponent (COMPONENT_ID_MESSAGE_PROCESSOR, aMsgProcessor);
   }
 
+  public void setPendingMDNStore (@Nonnull final IPendingMDNStore aPendingMDNStore) throws ComponentDuplicateException
+  {
+    addComponent (COMPONENT_ID_PENDING_MDN_STORE, aPendingMDNStore);
+  }
+
   @Nonnull
   public final IDynamicComponent getComponent (@Nonnull @Nonempty final String sComponentID) throws ComponentNotFoundException
   {
@@ -158,6 +188,37 @@ public class AS2Session implements IAS2Session
     return (IMessageProcessor) getComponent (COMPONENT_ID_MESSAGE_PROCESSOR);
   }
 
+  @Nonnull
+  public IPendingMDNStore getPendingMDNStore () throws OpenAS2Exception
+  {
+    final IDynamicComponent aComponent = m_aComponents.get (COMPONENT_ID_PENDING_MDN_STORE);
+    if (aComponent != null)
+      return (IPendingMDNStore) aComponent;
+
+    // Default: one file per message - created only once, because this is
+    // called per message and for every read of the metrics
+    IPendingMDNStore ret = m_aDefaultPendingMDNStore;
+    if (ret == null)
+    {
+      synchronized (this)
+      {
+        ret = m_aDefaultPendingMDNStore;
+        if (ret == null)
+        {
+          ret = PendingMDNStoreFileBased.createDefault (this);
+          m_aDefaultPendingMDNStore = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  @Nonnull
+  public final MetricsRegistry getMetrics ()
+  {
+    return m_aMetrics;
+  }
+
   public boolean isCryptoSignIncludeCertificateInBodyPart ()
   {
     return m_bCryptoSignIncludeCertificateInBodyPart;
@@ -40,7 +40,10 @@ import javax.annotation.Nullable;
 
 import com.helger.as2lib.IDynamicComponent;
 import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.metrics.MetricsRegistry;
 import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.pendingmdn.IPendingMDNStore;
 import com.helger.as2lib.processor.IMessageProcessor;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
@@ -129,6 +132,34 @@ public interface IAS2Session
   @Nonnull
   IMessageProcessor getMessageProcessor () throws ComponentNotFoundException;
 
+  /**
+   * Short-cut method to retrieve the pending MDN store. If no such component
+   * was registered, the default file based store is returned, which uses the
+   * <code>pendingmdninfo</code> attribute of the message processor.
+   *
+   * @return the currently registered <code>PendingMDNStore</code> component
+   *         or the default one. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If no component is registered and the default one could not be
+   *         created
+   * @see IPendingMDNStore
+   * @since 2.2.6
+   */
+  @Nonnull
+  IPendingMDNStore getPendingMDNStore () throws OpenAS2Exception;
+
+  /**
+   * Get the metrics of this session. The registry contains the counters,
+   * gauges and histograms maintained by the processing modules (see
+   * {@link com.helger.as2lib.metrics.CAS2Metrics}) and may be exposed via
+   * JMX.
+   *
+   * @return The metrics registry of this session. Never <code>null</code>.
+   * @since 2.2.6
+   */
+  @Nonnull
+  MetricsRegistry getMetrics ();
+
   /**
    * @return <code>true</code> if the certificate used for signing a message
    *         should be included in the signed MIME body part or not. Defaults to
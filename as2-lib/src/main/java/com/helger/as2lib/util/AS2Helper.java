@@ -63,11 +63,11 @@ import com.helger.as2lib.message.IMessage;
 import com.helger.as2lib.message.IMessageMDN;
 import com.helger.as2lib.params.MessageParameters;
 import com.helger.as2lib.partner.PartnershipNotFoundException;
+import com.helger.as2lib.partner.PartnershipProfile;
 import com.helger.as2lib.processor.CNetAttribute;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.mime.CMimeType;
-import com.helger.commons.state.ETriState;
 
 @Immutable
 public final class AS2Helper
@@ -286,13 +286,9 @@ public final class AS2Helper
     {
       // If the source message was signed or encrypted, include the headers -
       // see message sending for details
-      final boolean bIncludeHeadersInMIC = aMsg.getPartnership ().getSigningAlgorithm () != null ||
-                                           aMsg.getPartnership ().getEncryptAlgorithm () != null ||
-                                           aMsg.getPartnership ().getCompressionType () != null;
-
       sMIC = getCryptoHelper ().calculateMIC (aMsg.getData (),
                                               aDispositionOptions.getFirstMICAlg (),
-                                              bIncludeHeadersInMIC);
+                                              aMsg.getPartnership ().getProfile ().isIncludeHeadersInMIC ());
     }
     aMDN.setAttribute (AS2MessageMDN.MDNA_MIC, sMIC);
 
@@ -305,19 +301,10 @@ public final class AS2Helper
         // Sign if required or if optional and a MIC algorithm is present
         bSignMDN = true;
 
-        // Include certificate in signed content?
-        final ETriState eIncludeCertificateInSignedContent = aMsg.getPartnership ()
-                                                                 .getIncludeCertificateInSignedContent ();
-        if (eIncludeCertificateInSignedContent.isDefined ())
-        {
-          // Use per partnership
-          bIncludeCertificateInSignedContent = eIncludeCertificateInSignedContent.getAsBooleanValue ();
-        }
-        else
-        {
-          // Use global value
-          bIncludeCertificateInSignedContent = aSession.isCryptoSignIncludeCertificateInBodyPart ();
-        }
+        // Include certificate in signed content? Per partnership or global
+        bIncludeCertificateInSignedContent = aMsg.getPartnership ()
+                                                 .getProfile ()
+                                                 .isIncludeCertificateInSignedContent (aSession.isCryptoSignIncludeCertificateInBodyPart ());
       }
     }
 
@@ -342,9 +329,10 @@ public final class AS2Helper
     MimeBodyPart aMainPart = aMdn.getData ();
     final ICryptoHelper aCryptoHelper = getCryptoHelper ();
 
-    final boolean bDisableVerify = aMsg.getPartnership ().isDisableVerify ();
+    final PartnershipProfile aProfile = aMsg.getPartnership ().getProfile ();
+    final boolean bDisableVerify = aProfile.isDisableVerify ();
     final boolean bMsgIsSigned = aCryptoHelper.isSigned (aMainPart);
-    final boolean bForceVerify = aMsg.getPartnership ().isForceVerify ();
+    final boolean bForceVerify = aProfile.isForceVerify ();
     if (bMsgIsSigned && bDisableVerify)
     {
       s_aLogger.info ("Message claims to be signed but signature validation is disabled" + aMsg.getLoggingText ());
@@ -0,0 +1,313 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A hashed timer wheel for a large number of keyed timeouts. Each timeout is
+ * linked into the slot of its deadline tick, so adding and removing a timeout
+ * is O(1) and each call to {@link #expire(long)} only visits the slots of the
+ * elapsed ticks. The per-entry overhead is a single small node object plus
+ * the entry in the key index.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The type of the data attached to each timeout
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class HashedTimeoutWheel <DATATYPE>
+{
+  private static final class Node <DATATYPE>
+  {
+    private final String m_sKey;
+    private final long m_nDeadlineTick;
+    private final DATATYPE m_aData;
+    private Node <DATATYPE> m_aPrev;
+    private Node <DATATYPE> m_aNext;
+
+    Node (@Nonnull final String sKey, final long nDeadlineTick, @Nullable final DATATYPE aData)
+    {
+      m_sKey = sKey;
+      m_nDeadlineTick = nDeadlineTick;
+      m_aData = aData;
+    }
+  }
+
+  private final Lock m_aLock = new ReentrantLock ();
+  private final long m_nTickMS;
+  private final int m_nMask;
+  @GuardedBy ("m_aLock")
+  private final Node <DATATYPE> [] m_aSlots;
+  @GuardedBy ("m_aLock")
+  private final Map <String, Node <DATATYPE>> m_aIndex = new HashMap <String, Node <DATATYPE>> ();
+  @GuardedBy ("m_aLock")
+  private long m_nLastTick;
+
+  /**
+   * Constructor
+   *
+   * @param nTickMS
+   *        The duration of a single tick in milliseconds. This is the
+   *        resolution of the timeouts. Must be &gt; 0.
+   * @param nWheelSize
+   *        The number of slots. Is rounded up to the next power of 2. Must be
+   *        &gt; 0.
+   * @param nNowMS
+   *        The current time in milliseconds.
+   */
+  @SuppressWarnings ("unchecked")
+  public HashedTimeoutWheel (@Nonnegative final long nTickMS, @Nonnegative final int nWheelSize, final long nNowMS)
+  {
+    ValueEnforcer.isGT0 (nTickMS, "TickMS");
+    ValueEnforcer.isBetweenInclusive (nWheelSize, "WheelSize", 1, 1 << 30);
+    int nSize = 1;
+    while (nSize < nWheelSize)
+      nSize <<= 1;
+    m_nTickMS = nTickMS;
+    m_nMask = nSize - 1;
+    m_aSlots = new Node [nSize];
+    m_nLastTick = nNowMS / nTickMS;
+  }
+
+  /**
+   * @return The duration of a single tick in milliseconds.
+   */
+  @Nonnegative
+  public long getTickMS ()
+  {
+    return m_nTickMS;
+  }
+
+  /**
+   * @return The number of slots of the wheel.
+   */
+  @Nonnegative
+  public int getWheelSize ()
+  {
+    return m_aSlots.length;
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _unlink (@Nonnull final Node <DATATYPE> aNode)
+  {
+    if (aNode.m_aPrev != null)
+      aNode.m_aPrev.m_aNext = aNode.m_aNext;
+    else
+      m_aSlots[(int) (aNode.m_nDeadlineTick & m_nMask)] = aNode.m_aNext;
+    if (aNode.m_aNext != null)
+      aNode.m_aNext.m_aPrev = aNode.m_aPrev;
+    aNode.m_aPrev = null;
+    aNode.m_aNext = null;
+  }
+
+  /**
+   * Add a timeout. An existing timeout with the same key is replaced.
+   *
+   * @param sKey
+   *        The key of the timeout. May neither be <code>null</code> nor empty.
+   * @param nDeadlineMS
+   *        The absolute point in time in milliseconds when the timeout
+   *        expires.
+   * @param aData
+   *        Optional data to attach. May be <code>null</code>.
+   */
+  public void put (@Nonnull @Nonempty final String sKey, final long nDeadlineMS, @Nullable final DATATYPE aData)
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+
+    // Round up, so that a timeout never expires early
+    final long nDeadlineTick = (nDeadlineMS + m_nTickMS - 1) / m_nTickMS;
+
+    m_aLock.lock ();
+    try
+    {
+      final Node <DATATYPE> aOld = m_aIndex.remove (sKey);
+      if (aOld != null)
+        _unlink (aOld);
+
+      // Deadlines in the past expire with the next tick
+      final Node <DATATYPE> aNode = new Node <DATATYPE> (sKey, Math.max (nDeadlineTick, m_nLastTick + 1), aData);
+      final int nSlot = (int) (aNode.m_nDeadlineTick & m_nMask);
+      aNode.m_aNext = m_aSlots[nSlot];
+      if (aNode.m_aNext != null)
+        aNode.m_aNext.m_aPrev = aNode;
+      m_aSlots[nSlot] = aNode;
+      m_aIndex.put (sKey, aNode);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Remove a timeout.
+   *
+   * @param sKey
+   *        The key of the timeout. May be <code>null</code>.
+   * @return <code>true</code> if the timeout was present, <code>false</code>
+   *         otherwise.
+   */
+  public boolean remove (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return false;
+
+    m_aLock.lock ();
+    try
+    {
+      final Node <DATATYPE> aNode = m_aIndex.remove (sKey);
+      if (aNode == null)
+        return false;
+      _unlink (aNode);
+      return true;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @param sKey
+   *        The key of the timeout. May be <code>null</code>.
+   * @return <code>true</code> if a timeout with the passed key is present.
+   */
+  public boolean contains (@Nullable final String sKey)
+  {
+    if (sKey == null)
+      return false;
+
+    m_aLock.lock ();
+    try
+    {
+      return m_aIndex.containsKey (sKey);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of pending timeouts.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_aIndex.size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Advance the wheel to the passed point in time and remove all timeouts that
+   * expired in the meantime.
+   *
+   * @param nNowMS
+   *        The current time in milliseconds.
+   * @return A map from key to the attached data of all expired timeouts in
+   *         deadline order of the visited slots. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, DATATYPE> expire (final long nNowMS)
+  {
+    final Map <String, DATATYPE> ret = new LinkedHashMap <String, DATATYPE> ();
+    final long nNowTick = nNowMS / m_nTickMS;
+
+    m_aLock.lock ();
+    try
+    {
+      if (nNowTick <= m_nLastTick)
+        return ret;
+
+      // Each slot needs to be visited at most once
+      final long nTicks = Math.min (nNowTick - m_nLastTick, m_aSlots.length);
+      for (long nTick = nNowTick - nTicks + 1; nTick <= nNowTick; ++nTick)
+      {
+        Node <DATATYPE> aNode = m_aSlots[(int) (nTick & m_nMask)];
+        while (aNode != null)
+        {
+          final Node <DATATYPE> aNext = aNode.m_aNext;
+          if (aNode.m_nDeadlineTick <= nNowTick)
+          {
+            _unlink (aNode);
+            m_aIndex.remove (aNode.m_sKey);
+            ret.put (aNode.m_sKey, aNode.m_aData);
+          }
+          aNode = aNext;
+        }
+      }
+      m_nLastTick = nNowTick;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TickMS", m_nTickMS)
+                                       .append ("WheelSize", m_aSlots.length)
+                                       .append ("Size", size ())
+                                       .toString ();
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+
+/**
+ * Implementation of {@link IAS2HttpConnection} for {@link HttpURLConnection}.
+ *
+ * @author Philip Helger
+ */
+public class AS2HttpConnectionHttpURLConnection implements IAS2HttpConnection
+{
+  private final HttpURLConnection m_aConn;
+  private final AS2HttpHeaderWrapperHttpURLConnection m_aHeaderWrapper;
+
+  public AS2HttpConnectionHttpURLConnection (@Nonnull final HttpURLConnection aConn)
+  {
+    m_aConn = ValueEnforcer.notNull (aConn, "Connection");
+    m_aHeaderWrapper = new AS2HttpHeaderWrapperHttpURLConnection (aConn);
+  }
+
+  /**
+   * @return The underlying {@link HttpURLConnection}. Never <code>null</code>.
+   */
+  @Nonnull
+  public HttpURLConnection getHttpURLConnection ()
+  {
+    return m_aConn;
+  }
+
+  public void setHttpHeader (@Nonnull final String sName, @Nonnull final String sValue)
+  {
+    m_aHeaderWrapper.setHttpHeader (sName, sValue);
+  }
+
+  @Nonnull
+  public URL getURL ()
+  {
+    return m_aConn.getURL ();
+  }
+
+  public void setFixedLengthStreamingMode (final long nContentLength)
+  {
+    ValueEnforcer.isGE0 (nContentLength, "ContentLength");
+    if (nContentLength <= Integer.MAX_VALUE)
+      m_aConn.setFixedLengthStreamingMode ((int) nContentLength);
+    else
+    {
+      // The long overload requires Java 7
+      m_aConn.setChunkedStreamingMode (0);
+    }
+  }
+
+  public void setChunkedStreamingMode (final int nChunkLength)
+  {
+    m_aConn.setChunkedStreamingMode (nChunkLength);
+  }
+
+  @Nonnull
+  public OutputStream getOutputStream () throws IOException
+  {
+    return m_aConn.getOutputStream ();
+  }
+
+  public int getResponseCode () throws IOException
+  {
+    return m_aConn.getResponseCode ();
+  }
+
+  @Nullable
+  public String getResponseMessage () throws IOException
+  {
+    return m_aConn.getResponseMessage ();
+  }
+
+  @Nonnull
+  @ReturnsMutableObject ("design")
+  public Map <String, List <String>> getResponseHeaderFields ()
+  {
+    return m_aConn.getHeaderFields ();
+  }
+
+  @Nonnull
+  public InputStream getInputStream () throws IOException
+  {
+    return m_aConn.getInputStream ();
+  }
+
+  public void disconnect ()
+  {
+    m_aConn.disconnect ();
+  }
+}
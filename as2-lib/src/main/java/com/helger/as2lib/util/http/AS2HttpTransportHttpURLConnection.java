@@ -0,0 +1,145 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+
+import com.helger.as2lib.AS2GlobalSettings;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.random.VerySecureRandom;
+
+/**
+ * The default implementation of {@link IAS2HttpTransport} based on
+ * {@link HttpURLConnection}. For HTTPS connections all server certificates and
+ * all host names are trusted.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public class AS2HttpTransportHttpURLConnection implements IAS2HttpTransport
+{
+  public AS2HttpTransportHttpURLConnection ()
+  {}
+
+  /**
+   * Create and configure the underlying {@link HttpURLConnection}.
+   *
+   * @param sUrl
+   *        Destination URL
+   * @param sRequestMethod
+   *        HTTP request method
+   * @param aProxy
+   *        Optional proxy
+   * @param nConnectTimeoutMS
+   *        Connect timeout in milliseconds
+   * @param nReadTimeoutMS
+   *        Read timeout in milliseconds
+   * @return The non-<code>null</code> connection.
+   * @throws IOException
+   *         In case of an IO error
+   * @throws GeneralSecurityException
+   *         In case the SSL context could not be initialized
+   */
+  @Nonnull
+  public static HttpURLConnection createHttpURLConnection (@Nonnull @Nonempty final String sUrl,
+                                                           @Nonnull @Nonempty final String sRequestMethod,
+                                                           @Nullable final Proxy aProxy,
+                                                           @Nonnegative final int nConnectTimeoutMS,
+                                                           @Nonnegative final int nReadTimeoutMS) throws IOException,
+                                                                                                  GeneralSecurityException
+  {
+    final URL aUrlObj = new URL (sUrl);
+    final HttpURLConnection aConn = (HttpURLConnection) (aProxy == null ? aUrlObj.openConnection ()
+                                                                        : aUrlObj.openConnection (aProxy));
+    aConn.setDoOutput (true);
+    aConn.setDoInput (true);
+    aConn.setUseCaches (false);
+    aConn.setRequestMethod (sRequestMethod);
+    aConn.setConnectTimeout (nConnectTimeoutMS);
+    aConn.setReadTimeout (nReadTimeoutMS);
+
+    if (aConn instanceof HttpsURLConnection)
+    {
+      // SSL handling
+      final HttpsURLConnection aConns = (HttpsURLConnection) aConn;
+
+      // Trust all server certificates
+      final SSLContext aSSLCtx = SSLContext.getInstance ("TLSv1.2");
+      SecureRandom aSecureRandom = null;
+      if (AS2GlobalSettings.isUseSecureRandom ())
+        aSecureRandom = VerySecureRandom.getInstance ();
+      // else aSecureRandom stays null what is also okay
+
+      aSSLCtx.init (null, new TrustManager [] { new DoNothingTrustManager () }, aSecureRandom);
+      aConns.setSSLSocketFactory (aSSLCtx.getSocketFactory ());
+
+      // Trust all host names
+      aConns.setHostnameVerifier (new HostnameVerifierAlwaysTrue ());
+    }
+    return aConn;
+  }
+
+  @Nonnull
+  public IAS2HttpConnection openConnection (@Nonnull @Nonempty final String sUrl,
+                                            @Nonnull @Nonempty final String sRequestMethod,
+                                            @Nullable final Proxy aProxy,
+                                            @Nonnegative final int nConnectTimeoutMS,
+                                            @Nonnegative final int nReadTimeoutMS) throws IOException
+  {
+    try
+    {
+      return new AS2HttpConnectionHttpURLConnection (createHttpURLConnection (sUrl,
+                                                                              sRequestMethod,
+                                                                              aProxy,
+                                                                              nConnectTimeoutMS,
+                                                                              nReadTimeoutMS));
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      throw new IOException ("Failed to initialize the SSL context for " + sUrl, ex);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines how the body of an outgoing HTTP request is transmitted.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+public enum EHttpStreamingMode implements IHasID <String>
+{
+  /**
+   * Use a fixed length if the body length is known in advance, and chunked
+   * transfer encoding otherwise. The body is never copied.
+   */
+  AUTO ("auto"),
+  /**
+   * Always use a fixed length. If the body length is not known in advance, the
+   * body is serialized into memory once to determine it. Use this for servers
+   * that reject chunked uploads.
+   */
+  FIXED_LENGTH ("fixed"),
+  /** Always use chunked transfer encoding. */
+  CHUNKED ("chunked"),
+  /**
+   * Let the HTTP implementation buffer the whole body before sending it. This
+   * was the behaviour up to and including 2.2.5.
+   */
+  BUFFERED ("buffered");
+
+  public static final EHttpStreamingMode DEFAULT = AUTO;
+
+  private final String m_sID;
+
+  private EHttpStreamingMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EHttpStreamingMode getFromIDCaseInsensitiveOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDCaseInsensitiveOrNull (EHttpStreamingMode.class, sID);
+  }
+
+  @Nullable
+  public static EHttpStreamingMode getFromIDCaseInsensitiveOrDefault (@Nullable final String sID,
+                                                                      @Nullable final EHttpStreamingMode eDefault)
+  {
+    return EnumHelper.getFromIDCaseInsensitiveOrDefault (EHttpStreamingMode.class, sID, eDefault);
+  }
+}
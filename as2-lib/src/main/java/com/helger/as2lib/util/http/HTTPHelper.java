@@ -492,7 +492,27 @@ public final class HTTPHelper
    */
   public static void copyHttpHeaders (@Nonnull final HttpURLConnection aConn, @Nonnull final InternetHeaders aHeaders)
   {
-    for (final Map.Entry <String, List <String>> aConnHeader : aConn.getHeaderFields ().entrySet ())
+    _copyHttpHeaders (aConn.getHeaderFields (), aHeaders);
+  }
+
+  /**
+   * Copy the response headers from an HTTP connection to an InternetHeaders
+   * object
+   *
+   * @param aConn
+   *        Connection - source. May not be <code>null</code>.
+   * @param aHeaders
+   *        Headers - destination. May not be <code>null</code>.
+   */
+  public static void copyHttpHeaders (@Nonnull final IAS2HttpConnection aConn, @Nonnull final InternetHeaders aHeaders)
+  {
+    _copyHttpHeaders (aConn.getResponseHeaderFields (), aHeaders);
+  }
+
+  private static void _copyHttpHeaders (@Nonnull final Map <String, List <String>> aHeaderFields,
+                                        @Nonnull final InternetHeaders aHeaders)
+  {
+    for (final Map.Entry <String, List <String>> aConnHeader : aHeaderFields.entrySet ())
     {
       final String sHeaderName = aConnHeader.getKey ();
       if (sHeaderName != null)
@@ -0,0 +1,128 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.ReturnsMutableObject;
+
+/**
+ * A single outgoing HTTP request created by an {@link IAS2HttpTransport}. The
+ * expected call order is: set all request headers, write the body to
+ * {@link #getOutputStream()}, read the response code and finally read the
+ * response body from {@link #getInputStream()}.
+ *
+ * @author Philip Helger
+ */
+public interface IAS2HttpConnection extends IAS2HttpHeaderWrapper
+{
+  /**
+   * @return The URL this connection is targeting. Never <code>null</code>.
+   */
+  @Nonnull
+  URL getURL ();
+
+  /**
+   * Announce that the request body has the provided length and shall be
+   * streamed directly without internal buffering. Must be called before
+   * {@link #getOutputStream()}.
+   *
+   * @param nContentLength
+   *        The exact number of bytes that will be written. Must be &ge; 0.
+   */
+  void setFixedLengthStreamingMode (long nContentLength);
+
+  /**
+   * Announce that the request body shall be streamed directly using chunked
+   * transfer encoding. Must be called before {@link #getOutputStream()}.
+   *
+   * @param nChunkLength
+   *        The number of bytes per chunk. If &le; 0 a default value is used.
+   */
+  void setChunkedStreamingMode (int nChunkLength);
+
+  /**
+   * @return The stream to write the request body to. Never <code>null</code>.
+   *         Closing this stream causes connection abort errors on some AS2
+   *         servers.
+   * @throws IOException
+   *         In case the connection could not be established
+   */
+  @Nonnull
+  OutputStream getOutputStream () throws IOException;
+
+  /**
+   * @return The HTTP response code. This implicitly finishes the request.
+   * @throws IOException
+   *         In case of an IO error
+   */
+  int getResponseCode () throws IOException;
+
+  /**
+   * @return The HTTP response message. May be <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   */
+  @Nullable
+  String getResponseMessage () throws IOException;
+
+  /**
+   * @return All response header fields. Never <code>null</code>. The key may
+   *         be <code>null</code> for the status line.
+   */
+  @Nonnull
+  @ReturnsMutableObject ("design")
+  Map <String, List <String>> getResponseHeaderFields ();
+
+  /**
+   * @return The stream to read the response body from. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   */
+  @Nonnull
+  InputStream getInputStream () throws IOException;
+
+  /**
+   * Release all resources associated with this connection.
+   */
+  void disconnect ();
+}
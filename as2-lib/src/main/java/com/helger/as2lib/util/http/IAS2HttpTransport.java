@@ -0,0 +1,78 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import java.io.IOException;
+import java.net.Proxy;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * The SPI to create outgoing HTTP connections. It is used by the sender modules
+ * to transmit AS2 messages and asynchronous MDNs.
+ *
+ * @author Philip Helger
+ * @see AS2HttpTransportHttpURLConnection
+ */
+public interface IAS2HttpTransport
+{
+  /**
+   * Create a new connection. The connection is not yet established when this
+   * method returns.
+   *
+   * @param sUrl
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @param sRequestMethod
+   *        The HTTP request method (e.g. "POST"). May neither be
+   *        <code>null</code> nor empty.
+   * @param aProxy
+   *        The HTTP proxy to use. May be <code>null</code>.
+   * @param nConnectTimeoutMS
+   *        The connect timeout in milliseconds.
+   * @param nReadTimeoutMS
+   *        The read timeout in milliseconds.
+   * @return The new connection and never <code>null</code>.
+   * @throws IOException
+   *         In case the connection could not be created
+   */
+  @Nonnull
+  IAS2HttpConnection openConnection (@Nonnull @Nonempty String sUrl,
+                                     @Nonnull @Nonempty String sRequestMethod,
+                                     @Nullable Proxy aProxy,
+                                     @Nonnegative int nConnectTimeoutMS,
+                                     @Nonnegative int nReadTimeoutMS) throws IOException;
+}
@@ -0,0 +1,159 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.session.AS2Session;
+import com.helger.commons.CGlobal;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link CertificateExpiryModule}.
+ *
+ * @author Philip Helger
+ */
+public final class CertificateExpiryModuleTest
+{
+  private static final long MILLISECONDS_PER_DAY = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+
+  private static final class MockModule extends CertificateExpiryModule
+  {
+    private final Map <String, X509Certificate> m_aCerts = new LinkedHashMap <String, X509Certificate> ();
+    private final List <Long> m_aDaysLeft = new ArrayList <Long> ();
+    private final AtomicInteger m_aFailures = new AtomicInteger ();
+
+    @Override
+    @Nonnull
+    protected Map <String, X509Certificate> getAllCertificatesToCheck ()
+    {
+      if (m_aFailures.getAndDecrement () > 0)
+        throw new IllegalStateException ("Failing on purpose");
+      return m_aCerts;
+    }
+
+    @Override
+    protected void onCertificateExpiring (@Nonnull final String sName,
+                                          @Nonnull final X509Certificate aCert,
+                                          final long nDaysLeft)
+    {
+      m_aDaysLeft.add (Long.valueOf (nDaysLeft));
+    }
+  }
+
+  @Nonnull
+  private static X509Certificate _readKey1 () throws Exception
+  {
+    final KeyStore aKeyStore = KeyStore.getInstance ("PKCS12");
+    final InputStream aIS = FileHelper.getInputStream (new File ("src/test/resources/mendelson/key1.pfx"));
+    try
+    {
+      aKeyStore.load (aIS, "test".toCharArray ());
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+    return (X509Certificate) aKeyStore.getCertificate ("key1");
+  }
+
+  @Test
+  public void testScan () throws Exception
+  {
+    final X509Certificate aCert = _readKey1 ();
+    final long nNotAfterMS = aCert.getNotAfter ().getTime ();
+
+    final MockModule aModule = new MockModule ();
+    aModule.initDynamicComponent (new AS2Session (), null);
+    assertEquals (CertificateExpiryModule.DEFAULT_WARN_DAYS, aModule.getWarnDays ());
+    aModule.m_aCerts.put ("key1", aCert);
+
+    // Expired
+    aModule.scan (nNotAfterMS + 1);
+    assertEquals (1, aModule.getExpiredCount ());
+    assertEquals (0, aModule.getExpiringCount ());
+    assertEquals (Long.valueOf (-1), aModule.m_aDaysLeft.get (0));
+
+    // Within the warning period
+    aModule.scan (nNotAfterMS - 10 * MILLISECONDS_PER_DAY - 1);
+    assertEquals (0, aModule.getExpiredCount ());
+    assertEquals (1, aModule.getExpiringCount ());
+    assertEquals (Long.valueOf (10), aModule.m_aDaysLeft.get (1));
+
+    // Not yet relevant
+    aModule.scan (nNotAfterMS - 100 * MILLISECONDS_PER_DAY);
+    assertEquals (0, aModule.getExpiredCount ());
+    assertEquals (0, aModule.getExpiringCount ());
+    assertEquals (2, aModule.m_aDaysLeft.size ());
+    assertEquals (3, aModule.getScanCount ());
+  }
+
+  @Test
+  public void testTimerSurvivesRuntimeException () throws Exception
+  {
+    final MockModule aModule = new MockModule ();
+    aModule.setAttribute (CertificateExpiryModule.ATTR_INTERVAL_SECONDS, "1");
+    aModule.initDynamicComponent (new AS2Session (), null);
+    aModule.m_aFailures.set (1);
+
+    aModule.doStart ();
+    try
+    {
+      // The first scan fails, the next one is still performed
+      final long nEndMS = System.currentTimeMillis () + 10 * CGlobal.MILLISECONDS_PER_SECOND;
+      while (aModule.getScanCount () == 0 && System.currentTimeMillis () < nEndMS)
+        Thread.sleep (50);
+      assertTrue (aModule.getScanCount () > 0);
+    }
+    finally
+    {
+      aModule.doStop ();
+    }
+  }
+}
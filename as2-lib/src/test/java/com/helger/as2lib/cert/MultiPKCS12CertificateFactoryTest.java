@@ -0,0 +1,79 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.as2lib.util.StringMap;
+
+/**
+ * Test class for class {@link MultiPKCS12CertificateFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class MultiPKCS12CertificateFactoryTest
+{
+  private static final String KEYSTORE_FILE = "src/test/resources/mendelson/key1.pfx";
+
+  @Test
+  public void testAliasIndex () throws OpenAS2Exception
+  {
+    final StringMap aOptions = new StringMap ();
+    for (final String sStore : new String [] { "b", "a" })
+    {
+      aOptions.setAttribute ("store." + sStore + ".filename", KEYSTORE_FILE);
+      aOptions.setAttribute ("store." + sStore + ".password", "test");
+      aOptions.setAttribute ("store." + sStore + ".autosave", false);
+    }
+    // Store "b" is only loaded on demand
+    aOptions.setAttribute ("store.b.aliases", "other");
+
+    final MultiPKCS12CertificateFactory aCF = new MultiPKCS12CertificateFactory ();
+    aCF.initDynamicComponent (new AS2Session (), aOptions);
+    assertEquals ("[a, b]", aCF.getAllStoreNames ().toString ());
+
+    // Loaded from store "a"
+    assertEquals ("a", aCF.getStoreNameOfAlias ("key1"));
+    assertNotNull (aCF.getPrivateKey (aCF.getCertificate ("key1")));
+
+    // The declared alias does not exist in the file of store "b"
+    assertNull (aCF.getStoreNameOfAlias ("other"));
+    assertNull (aCF.getStoreNameOfAlias ("unknown"));
+  }
+}
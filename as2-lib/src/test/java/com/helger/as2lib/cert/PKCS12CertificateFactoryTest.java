@@ -0,0 +1,214 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.as2lib.util.StringMap;
+import com.helger.commons.io.file.SimpleFileIO;
+
+/**
+ * Test class for class {@link PKCS12CertificateFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class PKCS12CertificateFactoryTest
+{
+  private static final File KEYSTORE_FILE = new File ("src/test/resources/mendelson/key1.pfx");
+
+  private static PKCS12CertificateFactory _createFactory (final File aFile) throws OpenAS2Exception
+  {
+    final StringMap aOptions = new StringMap ();
+    aOptions.setAttribute (PKCS12CertificateFactory.ATTR_FILENAME, aFile.getAbsolutePath ());
+    aOptions.setAttribute (PKCS12CertificateFactory.ATTR_PASSWORD, "test");
+    aOptions.setAttribute (PKCS12CertificateFactory.ATTR_SAVE_CHANGES_TO_FILE, false);
+
+    final PKCS12CertificateFactory aCF = new PKCS12CertificateFactory ();
+    aCF.initDynamicComponent (new AS2Session (), aOptions);
+    return aCF;
+  }
+
+  @Test
+  public void testCachedLookup () throws OpenAS2Exception
+  {
+    final PKCS12CertificateFactory aCF = _createFactory (KEYSTORE_FILE);
+    final X509Certificate aCert = aCF.getCertificate ("key1");
+    assertSame (aCert, aCF.getCertificate ("key1"));
+
+    final PrivateKey aKey = aCF.getPrivateKey (aCert);
+    assertNotNull (aKey);
+    assertSame (aKey, aCF.getPrivateKey (aCert));
+  }
+
+  @Test
+  public void testInvalidation () throws OpenAS2Exception
+  {
+    final PKCS12CertificateFactory aCF = _createFactory (KEYSTORE_FILE);
+    final X509Certificate aCert = aCF.getCertificate ("key1");
+    final PrivateKey aKey = aCF.getPrivateKey (aCert);
+
+    // Modifying the key store drops the cache
+    aCF.addCertificate ("copy", aCert, false);
+    final PrivateKey aKey2 = aCF.getPrivateKey (aCert);
+    assertNotSame (aKey, aKey2);
+    assertEquals (aKey, aKey2);
+
+    // Reloading drops the cache as well
+    aCF.load ();
+    assertNotSame (aKey2, aCF.getPrivateKey (aCert));
+  }
+
+  @Test
+  public void testReloadIfModified () throws OpenAS2Exception, IOException
+  {
+    final File aFile = File.createTempFile ("keystore", ".p12");
+    try
+    {
+      final byte [] aBytes = SimpleFileIO.getAllFileBytes (KEYSTORE_FILE);
+      assertTrue (SimpleFileIO.writeFile (aFile, aBytes).isSuccess ());
+
+      final PKCS12CertificateFactory aCF = _createFactory (aFile);
+      final X509Certificate aCert = aCF.getCertificate ("key1");
+      assertFalse (aCF.reloadIfModified ());
+
+      // An invalid file keeps the old key store
+      assertTrue (SimpleFileIO.writeFile (aFile, new byte [] { 1, 2, 3 }).isSuccess ());
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 2000));
+      assertFalse (aCF.reloadIfModified ());
+      assertEquals (1, aCF.getReloadFailureCount ());
+      assertNotNull (aCF.getPrivateKey (aCert));
+      // The same broken state is not tried again
+      assertFalse (aCF.reloadIfModified ());
+      assertEquals (1, aCF.getReloadFailureCount ());
+
+      // A valid file is swapped in
+      assertTrue (SimpleFileIO.writeFile (aFile, aBytes).isSuccess ());
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 4000));
+      assertTrue (aCF.reloadIfModified ());
+      assertEquals (1, aCF.getReloadCount ());
+      assertTrue (aCF.getLastReloadDurationMS () >= 0);
+      assertNotSame (aCert, aCF.getCertificate ("key1"));
+      assertEquals (aCert, aCF.getCertificate ("key1"));
+    }
+    finally
+    {
+      aFile.delete ();
+    }
+  }
+
+  @Test
+  public void testNoReloadWithPendingChanges () throws OpenAS2Exception, IOException
+  {
+    final File aFile = File.createTempFile ("keystore", ".p12");
+    try
+    {
+      final byte [] aBytes = SimpleFileIO.getAllFileBytes (KEYSTORE_FILE);
+      assertTrue (SimpleFileIO.writeFile (aFile, aBytes).isSuccess ());
+
+      final PKCS12CertificateFactory aCF = _createFactory (aFile);
+      aCF.setSaveChangesToFile (true);
+      aCF.setAttribute (PKCS12CertificateFactory.ATTR_SAVE_DELAY_MS, 60 * 1000);
+      aCF.addCertificate ("copy", aCF.getCertificate ("key1"), false);
+      assertTrue (aCF.hasPendingChanges ());
+
+      // The external modification would discard the pending change
+      assertTrue (SimpleFileIO.writeFile (aFile, aBytes).isSuccess ());
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 2000));
+      assertFalse (aCF.reloadIfModified ());
+      assertEquals (0, aCF.getReloadCount ());
+      assertNotNull (aCF.getCertificate ("copy"));
+
+      // The pending change is written
+      aCF.flush ();
+      assertFalse (aCF.reloadIfModified ());
+      assertEquals (2, _createFactory (aFile).getCertificates ().size ());
+    }
+    finally
+    {
+      aFile.delete ();
+    }
+  }
+
+  @Test
+  public void testDelayedSave () throws OpenAS2Exception, IOException
+  {
+    final File aFile = File.createTempFile ("keystore", ".p12");
+    try
+    {
+      assertTrue (SimpleFileIO.writeFile (aFile, SimpleFileIO.getAllFileBytes (KEYSTORE_FILE)).isSuccess ());
+
+      final PKCS12CertificateFactory aCF = _createFactory (aFile);
+      aCF.setSaveChangesToFile (true);
+      aCF.setAttribute (PKCS12CertificateFactory.ATTR_SAVE_DELAY_MS, 60 * 1000);
+      final X509Certificate aCert = aCF.getCertificate ("key1");
+      final long nLength = aFile.length ();
+
+      // Changes are only collected
+      for (int i = 0; i < 10; ++i)
+        aCF.addCertificate ("copy" + i, aCert, false);
+      assertTrue (aCF.hasPendingChanges ());
+      assertEquals (nLength, aFile.length ());
+
+      aCF.flush ();
+      assertFalse (aCF.hasPendingChanges ());
+      assertFalse (new File (aFile.getAbsolutePath () + PKCS12CertificateFactory.TEMP_FILE_EXTENSION).exists ());
+      assertFalse (new File (aFile.getAbsolutePath () + PKCS12CertificateFactory.BACKUP_FILE_EXTENSION).exists ());
+      assertEquals (11, _createFactory (aFile).getCertificates ().size ());
+
+      // Closing writes the pending changes
+      aCF.removeCertificate ("copy0");
+      assertTrue (aCF.hasPendingChanges ());
+      aCF.close ();
+      assertFalse (aCF.hasPendingChanges ());
+      assertEquals (10, _createFactory (aFile).getCertificates ().size ());
+    }
+    finally
+    {
+      aFile.delete ();
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.cms.SignerInformationVerifier;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link BCCryptoPrimitiveCache}.
+ *
+ * @author Philip Helger
+ */
+public final class BCCryptoPrimitiveCacheTest
+{
+  private static final Provider BC = new BouncyCastleProvider ();
+
+  private static X509Certificate s_aCert;
+  private static PrivateKey s_aPrivateKey;
+
+  @BeforeClass
+  public static void loadKey () throws Exception
+  {
+    final KeyStore aKeyStore = KeyStore.getInstance ("PKCS12");
+    final InputStream aIS = FileHelper.getInputStream (new File ("src/test/resources/mendelson/key1.pfx"));
+    try
+    {
+      aKeyStore.load (aIS, "test".toCharArray ());
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+    // The cache does not check the validity, so the expired certificate is
+    // fine
+    s_aCert = (X509Certificate) aKeyStore.getCertificate ("key1");
+    s_aPrivateKey = (PrivateKey) aKeyStore.getKey ("key1", "test".toCharArray ());
+  }
+
+  @Test
+  public void testProviderBouncyCastleOnly () throws Exception
+  {
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, CryptoProviderPolicy.createBouncyCastleOnly ());
+    for (final ECryptoOperation eOperation : ECryptoOperation.values ())
+      assertSame (BC, aCache.getProvider (eOperation, "SHA-256"));
+  }
+
+  @Test
+  public void testProviderPolicyOrder () throws Exception
+  {
+    final Provider aSun = Security.getProvider ("SUN");
+    assertNotNull (aSun);
+    final Map <ECryptoOperation, List <Provider>> aMap = new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class);
+    aMap.put (ECryptoOperation.DIGEST, Arrays.asList (aSun));
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, new CryptoProviderPolicy (aMap));
+
+    assertSame (aSun, aCache.getProvider (ECryptoOperation.DIGEST, "SHA-256"));
+    // Cached choice
+    assertSame (aSun, aCache.getProvider (ECryptoOperation.DIGEST, "SHA-256"));
+    // Not supported by SUN - fall back to BouncyCastle
+    assertSame (BC, aCache.getProvider (ECryptoOperation.DIGEST, "RIPEMD160"));
+    // No providers for this operation
+    assertSame (BC, aCache.getProvider (ECryptoOperation.SIGNATURE, "SHA256WITHRSA"));
+  }
+
+  @Test
+  public void testMessageDigestPerThread () throws Exception
+  {
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, CryptoProviderPolicy.createJDKFirst ());
+    final MessageDigest aMD = aCache.getMessageDigest (ECryptoAlgorithmSign.DIGEST_SHA_256);
+    aMD.update ((byte) 1);
+
+    // Same instance, but reset
+    final MessageDigest aMD2 = aCache.getMessageDigest (ECryptoAlgorithmSign.DIGEST_SHA_256);
+    assertSame (aMD, aMD2);
+    assertArrayEquals (MessageDigest.getInstance ("SHA-256").digest (), aMD2.digest ());
+    assertNotSame (aMD, aCache.getMessageDigest (ECryptoAlgorithmSign.DIGEST_SHA_1));
+
+    // Other threads get their own instance
+    final MessageDigest [] aOther = new MessageDigest [1];
+    final Thread aThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          aOther[0] = aCache.getMessageDigest (ECryptoAlgorithmSign.DIGEST_SHA_256);
+        }
+        catch (final Exception ex)
+        {
+          throw new IllegalStateException (ex);
+        }
+      }
+    });
+    aThread.start ();
+    aThread.join ();
+    assertNotNull (aOther[0]);
+    assertNotSame (aMD, aOther[0]);
+  }
+
+  @Test
+  public void testSignerTemplate () throws Exception
+  {
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, CryptoProviderPolicy.createJDKFirst ());
+    final BCCryptoPrimitiveCache.SignerTemplate aTemplate = aCache.getSignerTemplate (s_aCert,
+                                                                                     ECryptoAlgorithmSign.DIGEST_SHA_256);
+    assertSame (aTemplate, aCache.getSignerTemplate (s_aCert, ECryptoAlgorithmSign.DIGEST_SHA_256));
+    assertNotSame (aTemplate, aCache.getSignerTemplate (s_aCert, ECryptoAlgorithmSign.DIGEST_SHA_1));
+
+    // A new generator per message
+    assertNotSame (aCache.createSignerInfoGenerator (aTemplate, s_aPrivateKey, ECryptoAlgorithmSign.DIGEST_SHA_256),
+                   aCache.createSignerInfoGenerator (aTemplate, s_aPrivateKey, ECryptoAlgorithmSign.DIGEST_SHA_256));
+    assertNotNull (aCache.createSignerInfoVerifier (s_aCert.getPublicKey ()));
+  }
+
+  @Test
+  public void testSignerInfoVerifierFallback () throws Exception
+  {
+    // SunRsaSign is the only JDK signature provider and does not support EC
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, CryptoProviderPolicy.createJDKFirst ());
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("EC");
+    aKPG.initialize (256);
+    final KeyPair aKeyPair = aKPG.generateKeyPair ();
+
+    final SignerInformationVerifier aVerifier = aCache.createSignerInfoVerifier (aKeyPair.getPublic ());
+    assertNotNull (aVerifier.getContentVerifier (new DefaultSignatureAlgorithmIdentifierFinder ().find ("SHA256withECDSA"),
+                                                 new DefaultDigestAlgorithmIdentifierFinder ().find ("SHA-256")));
+  }
+
+  @Test
+  public void testEncryptionPrimitives () throws Exception
+  {
+    final BCCryptoPrimitiveCache aCache = new BCCryptoPrimitiveCache (BC, CryptoProviderPolicy.createJDKFirst ());
+    assertSame (aCache.getRecipientInfoGenerator (s_aCert), aCache.getRecipientInfoGenerator (s_aCert));
+    assertSame (aCache.getContentEncryptorBuilder (ECryptoAlgorithmCrypt.CRYPT_AES128_CBC),
+                aCache.getContentEncryptorBuilder (ECryptoAlgorithmCrypt.CRYPT_AES128_CBC));
+    assertNotSame (aCache.getContentEncryptorBuilder (ECryptoAlgorithmCrypt.CRYPT_AES128_CBC),
+                   aCache.getContentEncryptorBuilder (ECryptoAlgorithmCrypt.CRYPT_3DES));
+
+    final String sOID = ECryptoAlgorithmCrypt.CRYPT_AES128_CBC.getOID ().getId ();
+    assertSame (aCache.getEnvelopedRecipient (s_aPrivateKey, sOID), aCache.getEnvelopedRecipient (s_aPrivateKey, sOID));
+    assertNotSame (aCache.getEnvelopedRecipient (s_aPrivateKey, sOID),
+                   aCache.getEnvelopedRecipient (s_aPrivateKey, ECryptoAlgorithmCrypt.CRYPT_3DES.getOID ().getId ()));
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link CertificateCache}.
+ *
+ * @author Philip Helger
+ */
+public final class CertificateCacheTest
+{
+  private static X509Certificate _readKey1 () throws Exception
+  {
+    final KeyStore aKeyStore = KeyStore.getInstance ("PKCS12");
+    final InputStream aIS = FileHelper.getInputStream (new File ("src/test/resources/mendelson/key1.pfx"));
+    try
+    {
+      aKeyStore.load (aIS, "test".toCharArray ());
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+    return (X509Certificate) aKeyStore.getCertificate ("key1");
+  }
+
+  private static X509Certificate _readKey2 () throws Exception
+  {
+    final InputStream aIS = FileHelper.getInputStream (new File ("src/test/resources/mendelson/key2.cer"));
+    try
+    {
+      return (X509Certificate) CertificateFactory.getInstance ("X.509").generateCertificate (aIS);
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
+  @Test
+  public void testGetCertificate () throws Exception
+  {
+    final BouncyCastleProvider aProvider = new BouncyCastleProvider ();
+    final X509Certificate aCert1 = _readKey1 ();
+    final X509Certificate aCert2 = _readKey2 ();
+
+    final CertificateCache aCache = new CertificateCache ();
+    final X509Certificate aCached1 = aCache.getCertificate (new JcaX509CertificateHolder (aCert1), aProvider);
+    assertEquals (aCert1, aCached1);
+    assertEquals (1, aCache.size ());
+
+    // Another holder with the same encoding is converted only once
+    assertSame (aCached1, aCache.getCertificate (new JcaX509CertificateHolder (aCert1), aProvider));
+    assertEquals (1, aCache.size ());
+
+    final X509Certificate aCached2 = aCache.getCertificate (new JcaX509CertificateHolder (aCert2), aProvider);
+    assertEquals (aCert2, aCached2);
+    assertEquals (2, aCache.size ());
+    assertTrue (aCache.getAllCertificates ().contains (aCached1));
+    assertTrue (aCache.getAllCertificates ().contains (aCached2));
+
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+    assertTrue (aCache.getAllCertificates ().isEmpty ());
+  }
+
+  @Test
+  public void testMaxEntries () throws Exception
+  {
+    final BouncyCastleProvider aProvider = new BouncyCastleProvider ();
+    final CertificateCache aCache = new CertificateCache (1);
+    aCache.getCertificate (new JcaX509CertificateHolder (_readKey1 ()), aProvider);
+    final X509Certificate aCert2 = aCache.getCertificate (new JcaX509CertificateHolder (_readKey2 ()), aProvider);
+
+    // The least recently used certificate is dropped
+    assertEquals (1, aCache.size ());
+    assertSame (aCert2, aCache.getAllCertificates ().get (0));
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link CryptoProviderPolicy}.
+ *
+ * @author Philip Helger
+ */
+public final class CryptoProviderPolicyTest
+{
+  @Test
+  public void testConstructor ()
+  {
+    final Provider aSun = Security.getProvider ("SUN");
+    final Provider aSunJCE = Security.getProvider ("SunJCE");
+    final Map <ECryptoOperation, List <Provider>> aMap = new EnumMap <ECryptoOperation, List <Provider>> (ECryptoOperation.class);
+    aMap.put (ECryptoOperation.DIGEST, Arrays.asList (aSunJCE, null, aSun, aSunJCE));
+    final CryptoProviderPolicy aPolicy = new CryptoProviderPolicy (aMap);
+
+    // Order is kept, duplicates and null are removed
+    assertEquals (Arrays.asList (aSunJCE, aSun), aPolicy.getAllProviders (ECryptoOperation.DIGEST));
+    assertTrue (aPolicy.getAllProviders (ECryptoOperation.SIGNATURE).isEmpty ());
+
+    // Changes to the source map or the result have no effect
+    aMap.put (ECryptoOperation.SIGNATURE, Arrays.asList (aSun));
+    aPolicy.getAllProviders (ECryptoOperation.DIGEST).clear ();
+    assertEquals (2, aPolicy.getAllProviders (ECryptoOperation.DIGEST).size ());
+    assertTrue (aPolicy.getAllProviders (ECryptoOperation.SIGNATURE).isEmpty ());
+  }
+
+  @Test
+  public void testPredefined ()
+  {
+    final CryptoProviderPolicy aBCOnly = CryptoProviderPolicy.createBouncyCastleOnly ();
+    for (final ECryptoOperation eOperation : ECryptoOperation.values ())
+      assertTrue (aBCOnly.getAllProviders (eOperation).isEmpty ());
+
+    final CryptoProviderPolicy aJDKFirst = CryptoProviderPolicy.createJDKFirst ();
+    assertEquals (Arrays.asList (Security.getProvider ("SUN")), aJDKFirst.getAllProviders (ECryptoOperation.DIGEST));
+    assertEquals (Arrays.asList (Security.getProvider ("SunJCE")),
+                  aJDKFirst.getAllProviders (ECryptoOperation.CONTENT_CIPHER));
+    assertEquals (Arrays.asList (Security.getProvider ("SunJCE")),
+                  aJDKFirst.getAllProviders (ECryptoOperation.KEY_TRANSPORT));
+    assertEquals (Arrays.asList (Security.getProvider ("SunRsaSign")),
+                  aJDKFirst.getAllProviders (ECryptoOperation.SIGNATURE));
+  }
+
+  @Test
+  public void testFromSystemProperties ()
+  {
+    final String sPropertyName = CryptoProviderPolicy.SYSTEM_PROPERTY_PREFIX + ECryptoOperation.DIGEST.getID ();
+    System.setProperty (sPropertyName, " SunJCE, NoSuchProvider,,SUN ");
+    try
+    {
+      final CryptoProviderPolicy aPolicy = CryptoProviderPolicy.createFromSystemProperties ();
+      // Unknown providers are ignored
+      assertEquals (Arrays.asList (Security.getProvider ("SunJCE"), Security.getProvider ("SUN")),
+                    aPolicy.getAllProviders (ECryptoOperation.DIGEST));
+      assertTrue (aPolicy.getAllProviders (ECryptoOperation.CONTENT_CIPHER).isEmpty ());
+    }
+    finally
+    {
+      System.clearProperty (sPropertyName);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link LatencyHistogram}.
+ *
+ * @author Philip Helger
+ */
+public final class LatencyHistogramTest
+{
+  @Test
+  public void testBuckets ()
+  {
+    long nLastLowerBound = -1;
+    for (final long nValue : new long [] { 0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE })
+    {
+      final int nIndex = LatencyHistogram.getBucketIndex (nValue);
+      final long nLowerBound = LatencyHistogram.getBucketLowerBound (nIndex);
+      assertTrue (nLowerBound <= nValue);
+      assertTrue (nLowerBound >= nLastLowerBound);
+      // Relative error of at most 1/32
+      assertTrue (nValue - nLowerBound <= nValue / 32);
+      nLastLowerBound = nLowerBound;
+    }
+  }
+
+  @Test
+  public void testPercentiles ()
+  {
+    final LatencyHistogram aHistogram = new LatencyHistogram ();
+    assertEquals (0, aHistogram.getValueAtPercentileNanos (50));
+
+    for (int i = 1; i <= 1000; ++i)
+      aHistogram.record (i * 1000L);
+    assertEquals (1000, aHistogram.getCount ());
+    assertEquals (1000, aHistogram.getMinNanos ());
+    assertEquals (1000000, aHistogram.getMaxNanos ());
+    assertEquals (500500, aHistogram.getMeanNanos ());
+
+    final long nP50 = aHistogram.getValueAtPercentileNanos (50);
+    assertTrue (Math.abs (nP50 - 500000) <= 500000 / 32);
+    final long nP99 = aHistogram.getValueAtPercentileNanos (99);
+    assertTrue (Math.abs (nP99 - 990000) <= 990000 / 32);
+    assertEquals (1000000, aHistogram.getValueAtPercentileNanos (100));
+
+    aHistogram.reset ();
+    assertEquals (0, aHistogram.getCount ());
+    assertEquals (0, aHistogram.getMaxNanos ());
+  }
+}
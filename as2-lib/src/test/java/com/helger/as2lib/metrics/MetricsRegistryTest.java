@@ -0,0 +1,191 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.helger.as2lib.disposition.DispositionType;
+import com.helger.as2lib.session.AS2Session;
+
+/**
+ * Test class for class {@link MetricsRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class MetricsRegistryTest
+{
+  @Test
+  public void testCounterFromMultipleThreads () throws InterruptedException
+  {
+    final MetricCounter aCounter = new MetricCounter ();
+    final Thread [] aThreads = new Thread [8];
+    for (int i = 0; i < aThreads.length; ++i)
+    {
+      aThreads[i] = new Thread ()
+      {
+        @Override
+        public void run ()
+        {
+          for (int j = 0; j < 10000; ++j)
+            aCounter.increment ();
+          aCounter.add (5);
+          aCounter.decrement ();
+        }
+      };
+      aThreads[i].start ();
+    }
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+    assertEquals (8 * 10004, aCounter.get ());
+
+    aCounter.reset ();
+    assertEquals (0, aCounter.get ());
+  }
+
+  @Test
+  public void testRegistry ()
+  {
+    final MetricsRegistry aRegistry = new MetricsRegistry ();
+    assertEquals (0, aRegistry.getCounterValue ("unknown"));
+    assertEquals (-1, aRegistry.getGaugeValue ("unknown"));
+
+    // Counters and histograms are created on demand
+    final MetricCounter aCounter = aRegistry.getCounter (CAS2Metrics.MESSAGES_SENT);
+    assertSame (aCounter, aRegistry.getCounter (CAS2Metrics.MESSAGES_SENT));
+    aCounter.add (3);
+    assertEquals (3, aRegistry.getCounterValue (CAS2Metrics.MESSAGES_SENT));
+    assertEquals (Long.valueOf (3), aRegistry.getCounters ().get (CAS2Metrics.MESSAGES_SENT));
+
+    aRegistry.getHistogram ("operation.test").record (TimeUnit.MILLISECONDS.toNanos (2));
+    assertTrue (Math.abs (aRegistry.getHistogramPercentileMS ("operation.test", 50) - 2) < 0.1);
+    assertTrue (aRegistry.getHistograms ().containsKey ("operation.test"));
+
+    aRegistry.registerGauge ("gauge", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        return 42;
+      }
+    });
+    aRegistry.registerGauge ("failing", new IMetricGauge ()
+    {
+      public long getValue ()
+      {
+        throw new IllegalStateException ("Expected test exception");
+      }
+    });
+    assertEquals (42, aRegistry.getGaugeValue ("gauge"));
+    assertEquals (-1, aRegistry.getGaugeValue ("failing"));
+    assertEquals (2, aRegistry.getGauges ().size ());
+    aRegistry.removeGauge ("failing");
+    assertEquals (1, aRegistry.getGauges ().size ());
+
+    // Reset does not affect the gauges
+    aRegistry.reset ();
+    assertEquals (0, aRegistry.getCounterValue (CAS2Metrics.MESSAGES_SENT));
+    assertEquals (0, aRegistry.getHistogram ("operation.test").getCount ());
+    assertEquals (42, aRegistry.getGaugeValue ("gauge"));
+  }
+
+  @Test
+  public void testMetricNames ()
+  {
+    assertEquals ("messages.sent.partnership.p1",
+                  AS2MetricsHelper.getPartnershipMetricName (CAS2Metrics.MESSAGES_SENT, "p1"));
+    assertEquals ("mdn.received.processed",
+                  AS2MetricsHelper.getDispositionMetricName (CAS2Metrics.MDN_RECEIVED_PREFIX,
+                                                             DispositionType.createSuccess ()));
+    assertEquals ("mdn.sent.processed.error",
+                  AS2MetricsHelper.getDispositionMetricName (CAS2Metrics.MDN_SENT_PREFIX,
+                                                             DispositionType.createError ("decryption-failed")));
+    // Unknown values from the peer don't create new metrics
+    assertEquals ("mdn.received.other.other",
+                  AS2MetricsHelper.getDispositionMetricName (CAS2Metrics.MDN_RECEIVED_PREFIX,
+                                                             new DispositionType (DispositionType.ACTION_AUTOMATIC_ACTION,
+                                                                                  DispositionType.MDNACTION_MDN_SENT_AUTOMATICALLY,
+                                                                                  "random-" + System.nanoTime (),
+                                                                                  "x" + System.nanoTime (),
+                                                                                  null)));
+    assertEquals ("mdn.received.failed.failure",
+                  AS2MetricsHelper.getDispositionMetricName (CAS2Metrics.MDN_RECEIVED_PREFIX,
+                                                             new DispositionType (DispositionType.ACTION_AUTOMATIC_ACTION,
+                                                                                  DispositionType.MDNACTION_MDN_SENT_AUTOMATICALLY,
+                                                                                  "Failed",
+                                                                                  "Failure",
+                                                                                  "unsupported format")));
+  }
+
+  @Test
+  public void testMDNCounters ()
+  {
+    final AS2Session aSession = new AS2Session ();
+    AS2MetricsHelper.onMDNSent (aSession, DispositionType.createSuccess ());
+    AS2MetricsHelper.onMDNSendFailed (aSession, DispositionType.createSuccess ());
+    AS2MetricsHelper.onMDNSendFailed (aSession, DispositionType.createError ("decryption-failed"));
+    final MetricsRegistry aRegistry = aSession.getMetrics ();
+    assertEquals (1, aRegistry.getCounterValue ("mdn.sent.processed"));
+    assertEquals (1, aRegistry.getCounterValue ("mdn.sendfailed.processed"));
+    assertEquals (1, aRegistry.getCounterValue ("mdn.sendfailed.processed.error"));
+    assertEquals (0, aRegistry.getCounterValue ("mdn.sent.processed.error"));
+  }
+
+  @Test
+  public void testMBean () throws Exception
+  {
+    final MetricsRegistry aRegistry = new MetricsRegistry ();
+    aRegistry.registerMBean ("com.helger.as2lib:type=MetricsTest");
+    try
+    {
+      aRegistry.getCounter (CAS2Metrics.BYTES_IN).add (100);
+      final Object aValue = ManagementFactory.getPlatformMBeanServer ()
+                                             .invoke (new ObjectName ("com.helger.as2lib:type=MetricsTest"),
+                                                      "getCounterValue",
+                                                      new Object [] { CAS2Metrics.BYTES_IN },
+                                                      new String [] { String.class.getName () });
+      assertEquals (Long.valueOf (100), aValue);
+    }
+    finally
+    {
+      aRegistry.unregisterMBean ();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.util.StringMap;
+
+/**
+ * Test class for class {@link PartnershipMap}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipMapTest
+{
+  @Nonnull
+  private static Partnership _create (final String sName, final String sSender, final String sReceiver)
+  {
+    final Partnership ret = new Partnership (sName);
+    ret.setSenderAS2ID (sSender);
+    ret.setReceiverAS2ID (sReceiver);
+    return ret;
+  }
+
+  @Nonnull
+  private static StringMap _ids (final String sAS2ID)
+  {
+    final StringMap ret = new StringMap ();
+    ret.setAttribute (CPartnershipIDs.PID_AS2, sAS2ID);
+    return ret;
+  }
+
+  @Test
+  public void testGetPartnershipByID ()
+  {
+    final PartnershipMap aMap = new PartnershipMap ();
+    final Partnership p1 = _create ("p1", "a", "b");
+    final Partnership p2 = _create ("p2", "a", "c");
+    final Partnership p3 = _create ("p3", "a", "c");
+    p3.setSenderEmail ("a@example.org");
+    assertTrue (aMap.addPartnership (p1).isChanged ());
+    assertTrue (aMap.addPartnership (p2).isChanged ());
+    assertTrue (aMap.addPartnership (p3).isChanged ());
+
+    assertSame (p1, aMap.getPartnershipByID (_ids ("a"), _ids ("b")));
+    // First match wins
+    assertSame (p2, aMap.getPartnershipByID (_ids ("a"), _ids ("c")));
+    assertNull (aMap.getPartnershipByID (_ids ("b"), _ids ("a")));
+    assertNull (aMap.getPartnershipByID (new StringMap (), _ids ("b")));
+
+    // Arbitrary IDs
+    final StringMap aSenderIDs = _ids ("a");
+    aSenderIDs.setAttribute (CPartnershipIDs.PID_EMAIL, "a@example.org");
+    assertSame (p3, aMap.getPartnershipByID (aSenderIDs, _ids ("c")));
+
+    // Changing the IDs of a contained partnership is noticed
+    p1.setReceiverAS2ID ("d");
+    assertNull (aMap.getPartnershipByID (_ids ("a"), _ids ("b")));
+    assertSame (p1, aMap.getPartnershipByID (_ids ("a"), _ids ("d")));
+
+    assertTrue (aMap.removePartnership (p2).isChanged ());
+    assertSame (p3, aMap.getPartnershipByID (_ids ("a"), _ids ("c")));
+  }
+
+  @Test
+  public void testIDChangesInSeveralMaps ()
+  {
+    final Partnership p1 = _create ("p1", "a", "b");
+    final PartnershipMap aMap1 = new PartnershipMap ();
+    aMap1.addPartnership (p1);
+    final PartnershipMap aMap2 = new PartnershipMap ();
+    aMap2.setPartnerships (aMap1);
+    assertSame (p1, aMap1.getPartnershipByID (_ids ("a"), _ids ("b")));
+    assertSame (p1, aMap2.getPartnershipByID (_ids ("a"), _ids ("b")));
+
+    // Both maps notice the change
+    p1.setReceiverAS2ID ("c");
+    assertSame (p1, aMap1.getPartnershipByID (_ids ("a"), _ids ("c")));
+    assertSame (p1, aMap2.getPartnershipByID (_ids ("a"), _ids ("c")));
+
+    // A removed partnership is no longer found
+    aMap1.removePartnership (p1);
+    p1.setReceiverAS2ID ("d");
+    assertNull (aMap1.getPartnershipByID (_ids ("a"), _ids ("d")));
+    assertSame (p1, aMap2.getPartnershipByID (_ids ("a"), _ids ("d")));
+
+    // Replaced partnerships are no longer found either
+    final Partnership p1b = _create ("p1", "a", "e");
+    aMap2.setPartnership (p1b);
+    p1.setReceiverAS2ID ("e");
+    assertSame (p1b, aMap2.getPartnershipByID (_ids ("a"), _ids ("e")));
+  }
+
+  @Test
+  public void testManySnapshots ()
+  {
+    final Partnership p1 = _create ("p1", "a", "b");
+    PartnershipMap aMap = new PartnershipMap ();
+    aMap.addPartnership (p1);
+    final long nRevision = Partnership.getIndexedIDRevision ();
+
+    // Copy, modify and query the map like AbstractPartnershipFactory does
+    for (int i = 0; i < 1000; ++i)
+    {
+      final PartnershipMap aNewMap = new PartnershipMap ();
+      aNewMap.setPartnerships (aMap);
+      final Partnership aOther = _create ("other" + i, "x" + i, "y" + i);
+      aNewMap.addPartnership (aOther);
+      assertSame (aOther, aNewMap.getPartnershipByID (_ids ("x" + i), _ids ("y" + i)));
+      aNewMap.removePartnership (aOther);
+      assertSame (p1, aNewMap.getPartnershipByID (_ids ("a"), _ids ("b")));
+      aMap = aNewMap;
+    }
+
+    // Building the indices leaves no state per map in the partnerships, so an
+    // ID change costs the same, no matter how many maps contained it
+    assertEquals (nRevision, Partnership.getIndexedIDRevision ());
+    p1.setReceiverAS2ID ("c");
+    assertEquals (nRevision + 1, Partnership.getIndexedIDRevision ());
+    assertSame (p1, aMap.getPartnershipByID (_ids ("a"), _ids ("c")));
+    assertNull (aMap.getPartnershipByID (_ids ("a"), _ids ("b")));
+  }
+}
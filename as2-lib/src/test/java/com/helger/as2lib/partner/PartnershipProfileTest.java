@@ -0,0 +1,117 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.helger.as2lib.crypto.ECompressionType;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.state.ETriState;
+
+/**
+ * Test class for class {@link PartnershipProfile}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipProfileTest
+{
+  @Test
+  public void testBasic () throws OpenAS2Exception
+  {
+    final Partnership aPartnership = new Partnership ("p1");
+    PartnershipProfile aProfile = aPartnership.getProfile ();
+    assertSame (aProfile, aPartnership.getProfile ());
+    assertNull (aProfile.getSigningAlgorithm ());
+    assertNull (aProfile.getEncryptAlgorithm ());
+    assertNull (aProfile.getCompressionType ());
+    assertNull (aProfile.getMDNMICAlg ());
+    assertFalse (aProfile.isIncludeHeadersInMIC ());
+    assertFalse (aProfile.isForceDecrypt ());
+    assertTrue (aProfile.isIncludeCertificateInSignedContent (true));
+    assertFalse (aProfile.isVerifyUseCertificateInBodyPart (false));
+
+    // Changing an attribute creates a new profile
+    aPartnership.setSigningAlgorithm (ECryptoAlgorithmSign.DIGEST_SHA_256);
+    aPartnership.setEncryptAlgorithm (ECryptoAlgorithmCrypt.CRYPT_3DES);
+    aPartnership.setCompressionType (ECompressionType.ZLIB);
+    aPartnership.setForceDecrypt (true);
+    aPartnership.setIncludeCertificateInSignedContent (ETriState.FALSE);
+    aPartnership.setAS2MDNOptions ("signed-receipt-protocol=optional, pkcs7-signature; signed-receipt-micalg=optional, sha-256");
+    assertNotSame (aProfile, aPartnership.getProfile ());
+    aProfile = aPartnership.getProfile ();
+    assertEquals (ECryptoAlgorithmSign.DIGEST_SHA_256, aProfile.getSigningAlgorithm ());
+    assertEquals (ECryptoAlgorithmCrypt.CRYPT_3DES, aProfile.getEncryptAlgorithm ());
+    assertEquals (ECompressionType.ZLIB, aProfile.getCompressionType ());
+    assertEquals (ECryptoAlgorithmSign.DIGEST_SHA_256, aProfile.getMDNMICAlg ());
+    assertTrue (aProfile.isIncludeHeadersInMIC ());
+    assertTrue (aProfile.isCompressBeforeSign ());
+    assertTrue (aProfile.isForceDecrypt ());
+    assertFalse (aProfile.isIncludeCertificateInSignedContent (true));
+
+    // Unchanged attribute keeps the profile
+    aPartnership.setForceDecrypt (true);
+    assertSame (aProfile, aPartnership.getProfile ());
+
+    // The copy shares the profile
+    final Partnership aCopy = Partnership.createPlaceholderPartnership ();
+    aCopy.copyFrom (aPartnership);
+    assertSame (aProfile, aCopy.getProfile ());
+  }
+
+  @Test
+  public void testUnsupported ()
+  {
+    final Partnership aPartnership = new Partnership ("p1");
+    aPartnership.setSigningAlgorithm ("foo");
+    try
+    {
+      aPartnership.getProfile ().getSigningAlgorithm ();
+      fail ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      // expected
+    }
+    assertTrue (aPartnership.getProfile ().isIncludeHeadersInMIC ());
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link Partnership}.
+ *
+ * @author Philip Helger
+ */
+public final class PartnershipTest
+{
+  @Test
+  public void testCopyFromIsIndependent ()
+  {
+    final Partnership aSource = new Partnership ("p1");
+    aSource.setSenderAS2ID ("a");
+    aSource.setReceiverAS2ID ("b");
+    aSource.setSubject ("subject");
+
+    final Partnership aCopy = Partnership.createPlaceholderPartnership ();
+    aCopy.copyFrom (aSource);
+    assertEquals ("p1", aCopy.getName ());
+    assertEquals ("a", aCopy.getSenderAS2ID ());
+    assertEquals ("b", aCopy.getReceiverAS2ID ());
+    assertEquals ("subject", aCopy.getSubject ());
+    assertSame (aSource.getProfile (), aCopy.getProfile ());
+
+    // Modify the copy
+    aCopy.setSenderAS2ID ("c");
+    aCopy.setSubject ("other");
+    aCopy.setAS2URL ("http://localhost");
+    assertEquals ("a", aSource.getSenderAS2ID ());
+    assertEquals ("subject", aSource.getSubject ());
+    assertNull (aSource.getAS2URL ());
+    assertEquals ("b", aCopy.getReceiverAS2ID ());
+
+    // Modify the source
+    aSource.setReceiverAS2ID ("d");
+    aSource.setMDNSubject ("mdn");
+    assertEquals ("b", aCopy.getReceiverAS2ID ());
+    assertNull (aCopy.getMDNSubject ());
+
+    // Copies of copies
+    final Partnership aCopy2 = Partnership.createPlaceholderPartnership ();
+    aCopy2.copyFrom (aCopy);
+    aCopy.setReceiverAS2ID ("e");
+    assertEquals ("b", aCopy2.getReceiverAS2ID ());
+    assertEquals ("c", aCopy2.getSenderAS2ID ());
+    assertEquals ("other", aCopy2.getSubject ());
+  }
+}
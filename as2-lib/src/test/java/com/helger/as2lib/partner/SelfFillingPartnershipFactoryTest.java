@@ -0,0 +1,117 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+
+/**
+ * Test class for class {@link SelfFillingPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class SelfFillingPartnershipFactoryTest
+{
+  @Test
+  public void testSnapshots () throws OpenAS2Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final IPartnershipMap aSnapshot = aPF.getPartnershipMap ();
+    assertEquals (0, aSnapshot.getAllPartnerships ().size ());
+
+    final Partnership aPartnership = new Partnership ("p1");
+    aPartnership.setSenderAS2ID ("a");
+    aPartnership.setReceiverAS2ID ("b");
+    // Added automatically
+    assertSame (aPartnership, aPF.getPartnership (aPartnership));
+    assertNotNull (aPF.getPartnershipByName ("p1"));
+
+    // The old snapshot is unchanged
+    assertEquals (0, aSnapshot.getAllPartnerships ().size ());
+    assertNull (aSnapshot.getPartnershipByName ("p1"));
+
+    final IPartnershipMap aSnapshot2 = aPF.getPartnershipMap ();
+    assertEquals (1, aSnapshot2.getAllPartnerships ().size ());
+
+    // Lookup by ID
+    final Partnership aSearch = new Partnership ("other");
+    aSearch.setSenderAS2ID ("a");
+    aSearch.setReceiverAS2ID ("b");
+    assertSame (aPartnership, aPF.getPartnership (aSearch));
+
+    assertTrue (aPF.removePartnership (aPartnership).isChanged ());
+    assertEquals (1, aSnapshot2.getAllPartnerships ().size ());
+    assertNull (aPF.getPartnershipByName ("p1"));
+  }
+
+  @Test
+  public void testManyPartnerPairs () throws OpenAS2Exception
+  {
+    final SelfFillingPartnershipFactory aPF = new SelfFillingPartnershipFactory ();
+    final Partnership aFirst = new Partnership ("p0");
+    aFirst.setSenderAS2ID ("a0");
+    aFirst.setReceiverAS2ID ("b0");
+    assertSame (aFirst, aPF.getPartnership (aFirst));
+
+    // Each new partner pair creates a new snapshot
+    for (int i = 1; i < 1000; ++i)
+    {
+      final Partnership aPartnership = new Partnership ("p" + i);
+      aPartnership.setSenderAS2ID ("a" + i);
+      aPartnership.setReceiverAS2ID ("b" + i);
+      assertSame (aPartnership, aPF.getPartnership (aPartnership));
+
+      final Partnership aSearch = new Partnership ("other");
+      aSearch.setSenderAS2ID ("a0");
+      aSearch.setReceiverAS2ID ("b0");
+      assertSame (aFirst, aPF.getPartnership (aSearch));
+    }
+    assertEquals (1000, aPF.getAllPartnerships ().size ());
+
+    // The snapshots left nothing behind in the shared partnerships
+    final long nRevision = Partnership.getIndexedIDRevision ();
+    aFirst.setReceiverAS2ID ("c0");
+    assertEquals (nRevision + 1, Partnership.getIndexedIDRevision ());
+    final Partnership aSearch = new Partnership ("other");
+    aSearch.setSenderAS2ID ("a0");
+    aSearch.setReceiverAS2ID ("c0");
+    assertSame (aFirst, aPF.getPartnership (aSearch));
+  }
+}
@@ -0,0 +1,292 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.partner.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.commons.io.file.FileHelper;
+
+/**
+ * Test class for class {@link XMLPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class XMLPartnershipFactoryTest
+{
+  @Nonnull
+  private static Partnership _create (final String sName)
+  {
+    final Partnership ret = new Partnership (sName);
+    ret.setSenderAS2ID (sName + "-sender");
+    ret.setReceiverAS2ID (sName + "-receiver");
+    return ret;
+  }
+
+  @Nonnull
+  private static Partnership _search (final String sSenderAS2ID, final String sReceiverAS2ID)
+  {
+    final Partnership ret = new Partnership ("search");
+    ret.setSenderAS2ID (sSenderAS2ID);
+    ret.setReceiverAS2ID (sReceiverAS2ID);
+    return ret;
+  }
+
+  @Nonnull
+  private static File _createTempDir () throws IOException
+  {
+    final File aDir = File.createTempFile ("partnerships", "");
+    assertTrue (aDir.delete ());
+    assertTrue (aDir.mkdir ());
+    return aDir;
+  }
+
+  private static void _deleteDir (@Nonnull final File aDir)
+  {
+    final File [] aFiles = aDir.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        aFile.delete ();
+    aDir.delete ();
+  }
+
+  @Test
+  public void testStoreWithBackups () throws OpenAS2Exception, IOException
+  {
+    final File aDir = _createTempDir ();
+    try
+    {
+      final File aFile = new File (aDir, "partnerships.xml");
+      final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+      aPF.setFilename (aFile.getAbsolutePath ());
+      aPF.setAttribute (XMLPartnershipFactory.ATTR_MAX_BACKUPS, 2);
+
+      for (int i = 0; i < 5; ++i)
+      {
+        aPF.addPartnership (_create ("p" + i));
+        aPF.storePartnership ();
+      }
+      assertTrue (aFile.exists ());
+      assertFalse (new File (aDir, "partnerships.xml" + XMLPartnershipFactory.TEMP_FILE_EXTENSION).exists ());
+
+      // The current file and the latest 2 backups
+      assertEquals (3, aDir.listFiles ().length);
+      assertTrue (new File (aDir, "partnerships.xml.0000003").exists ());
+      assertTrue (new File (aDir, "partnerships.xml.0000002").exists ());
+
+      final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+      aPF2.load (FileHelper.getInputStream (aFile));
+      assertEquals (5, aPF2.getAllPartnerships ().size ());
+      assertNotNull (aPF2.getPartnershipByName ("p4"));
+    }
+    finally
+    {
+      _deleteDir (aDir);
+    }
+  }
+
+  @Test
+  public void testDelayedStore () throws OpenAS2Exception, IOException
+  {
+    final File aDir = _createTempDir ();
+    try
+    {
+      final File aFile = new File (aDir, "partnerships.xml");
+      final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+      aPF.setFilename (aFile.getAbsolutePath ());
+      aPF.setAttribute (XMLPartnershipFactory.ATTR_STORE_DELAY_MS, 60 * 1000);
+
+      // Changes are only collected
+      for (int i = 0; i < 10; ++i)
+      {
+        aPF.addPartnership (_create ("p" + i));
+        aPF.requestStorePartnership ();
+      }
+      assertTrue (aPF.hasPendingChanges ());
+      assertFalse (aFile.exists ());
+
+      aPF.flush ();
+      assertFalse (aPF.hasPendingChanges ());
+      assertTrue (aFile.exists ());
+      // Nothing to back up on the first write
+      assertEquals (1, aDir.listFiles ().length);
+
+      // Close writes pending changes
+      aPF.addPartnership (_create ("p10"));
+      aPF.requestStorePartnership ();
+      aPF.close ();
+      assertFalse (aPF.hasPendingChanges ());
+      final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+      aPF2.load (FileHelper.getInputStream (aFile));
+      assertEquals (11, aPF2.getAllPartnerships ().size ());
+    }
+    finally
+    {
+      _deleteDir (aDir);
+    }
+  }
+
+  @Test
+  public void testReloadIfModified () throws OpenAS2Exception, IOException
+  {
+    final File aDir = _createTempDir ();
+    try
+    {
+      final File aFile = new File (aDir, "partnerships.xml");
+      final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+      aPF.setFilename (aFile.getAbsolutePath ());
+      aPF.setAttribute (XMLPartnershipFactory.ATTR_DISABLE_BACKUP, true);
+      for (int i = 0; i < 3; ++i)
+        aPF.addPartnership (_create ("p" + i));
+      aPF.storePartnership ();
+      aPF.refresh ();
+
+      // Nothing changed
+      assertFalse (aPF.reloadIfModified ());
+      final Partnership aP0 = aPF.getPartnershipByName ("p0");
+      final Partnership aP1 = aPF.getPartnershipByName ("p1");
+      assertNotNull (aP0);
+      assertNotNull (aP1);
+
+      // Modify the file with a different factory
+      final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+      aPF2.setFilename (aFile.getAbsolutePath ());
+      aPF2.setAttribute (XMLPartnershipFactory.ATTR_DISABLE_BACKUP, true);
+      aPF2.refresh ();
+      aPF2.getPartnershipByName ("p1").setAttribute ("mykey", "myvalue");
+      aPF2.removePartnership (aPF2.getPartnershipByName ("p2"));
+      aPF2.addPartnership (_create ("p3"));
+      aPF2.storePartnership ();
+      // Make sure the modification is detected
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 5000));
+
+      assertTrue (aPF.reloadIfModified ());
+      assertEquals (1, aPF.getReloadCount ());
+      assertEquals (0, aPF.getReloadFailureCount ());
+      assertEquals (3, aPF.getAllPartnerships ().size ());
+      // Unchanged partnerships are kept
+      assertSame (aP0, aPF.getPartnershipByName ("p0"));
+      final Partnership aNewP1 = aPF.getPartnershipByName ("p1");
+      assertNotSame (aP1, aNewP1);
+      assertEquals ("myvalue", aNewP1.getAttribute ("mykey"));
+      assertNull (aPF.getPartnershipByName ("p2"));
+      assertNotNull (aPF.getPartnershipByName ("p3"));
+      // Lookup by ID uses the new partnerships as well
+      assertSame (aNewP1, aPF.getPartnership (_create ("p1")));
+      assertFalse (aPF.hasPendingChanges ());
+
+      // Same file state again
+      assertFalse (aPF.reloadIfModified ());
+      assertEquals (1, aPF.getReloadCount ());
+
+      // Pending changes are not overwritten by the file
+      aPF.setAttribute (XMLPartnershipFactory.ATTR_STORE_DELAY_MS, 60 * 1000);
+      aPF.addPartnership (_create ("p4"));
+      aPF.requestStorePartnership ();
+      aPF2.addPartnership (_create ("p5"));
+      aPF2.storePartnership ();
+      assertTrue (aFile.setLastModified (aFile.lastModified () + 10000));
+      assertFalse (aPF.reloadIfModified ());
+      assertNull (aPF.getPartnershipByName ("p5"));
+
+      // The conflict is detected when storing
+      assertEquals (0, aPF.getStoreConflictCount ());
+      aPF.close ();
+      assertEquals (1, aPF.getStoreConflictCount ());
+      assertNotNull (aPF.getPartnershipByName ("p4"));
+    }
+    finally
+    {
+      _deleteDir (aDir);
+    }
+  }
+
+  @Test
+  public void testRepeatedReloads () throws OpenAS2Exception, IOException
+  {
+    final File aDir = _createTempDir ();
+    try
+    {
+      final File aFile = new File (aDir, "partnerships.xml");
+      final XMLPartnershipFactory aPF = new XMLPartnershipFactory ();
+      aPF.setFilename (aFile.getAbsolutePath ());
+      aPF.setAttribute (XMLPartnershipFactory.ATTR_DISABLE_BACKUP, true);
+      aPF.addPartnership (_create ("p0"));
+      aPF.addPartnership (_create ("p1"));
+      aPF.storePartnership ();
+      aPF.refresh ();
+      final Partnership aP0 = aPF.getPartnershipByName ("p0");
+
+      final XMLPartnershipFactory aPF2 = new XMLPartnershipFactory ();
+      aPF2.setFilename (aFile.getAbsolutePath ());
+      aPF2.setAttribute (XMLPartnershipFactory.ATTR_DISABLE_BACKUP, true);
+      aPF2.refresh ();
+
+      final int nReloads = 100;
+      for (int i = 0; i < nReloads; ++i)
+      {
+        // Only p1 changes - p0 is reused by every reload
+        aPF2.getPartnershipByName ("p1").setAttribute ("mykey", Integer.toString (i));
+        aPF2.storePartnership ();
+        assertTrue (aFile.setLastModified (aFile.lastModified () + 5000));
+
+        assertTrue (aPF.reloadIfModified ());
+        assertSame (aP0, aPF.getPartnershipByName ("p0"));
+        assertSame (aP0, aPF.getPartnership (_search ("p0-sender", "p0-receiver")));
+      }
+      assertEquals (nReloads, aPF.getReloadCount ());
+
+      // ID changes of the reused partnership are still noticed
+      aP0.setReceiverAS2ID ("other-receiver");
+      assertSame (aP0, aPF.getPartnership (_search ("p0-sender", "other-receiver")));
+    }
+    finally
+    {
+      _deleteDir (aDir);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.commons.CGlobal;
+
+/**
+ * Test class for class {@link AsyncMDNTimeoutModule}.
+ *
+ * @author Philip Helger
+ */
+public final class AsyncMDNTimeoutModuleTest
+{
+  private static final class MockModule extends AsyncMDNTimeoutModule
+  {
+    private final List <String> m_aTimedOut = new ArrayList <String> ();
+    private final List <IMessage> m_aMessages = new ArrayList <IMessage> ();
+
+    @Override
+    protected void onTimeout (@Nonnull final String sMessageID, @Nullable final IMessage aMsg) throws OpenAS2Exception
+    {
+      m_aTimedOut.add (sMessageID);
+      m_aMessages.add (aMsg);
+      if (sMessageID.startsWith ("<fail"))
+        throw new IllegalStateException ("Failing for " + sMessageID);
+    }
+  }
+
+  @Nonnull
+  private static MockModule _createModule (@Nullable final String sAction) throws OpenAS2Exception
+  {
+    final MockModule aModule = new MockModule ();
+    aModule.setAttribute (AsyncMDNTimeoutModule.ATTR_TIMEOUT_SECONDS, "1");
+    aModule.setAttribute (AsyncMDNTimeoutModule.ATTR_WHEEL_SIZE, "16");
+    if (sAction != null)
+      aModule.setAttribute (AsyncMDNTimeoutModule.ATTR_ACTION, sAction);
+    aModule.initDynamicComponent (new AS2Session (), null);
+    return aModule;
+  }
+
+  @Nonnull
+  private static AS2Message _createMessage (@Nonnull final String sMessageID)
+  {
+    final AS2Message aMsg = new AS2Message ();
+    aMsg.setMessageID (sMessageID);
+    return aMsg;
+  }
+
+  @Test
+  public void testTrackAndUntrack () throws OpenAS2Exception
+  {
+    final MockModule aModule = _createModule (null);
+    assertSame (EAsyncMDNTimeoutAction.DEFAULT, aModule.getAction ());
+
+    aModule.track (_createMessage ("<msg1@as2>"));
+    aModule.track (_createMessage ("<msg2@as2>"));
+    // Re-tracking only resets the deadline
+    aModule.track (_createMessage ("<msg2@as2>"));
+    assertEquals (2, aModule.getTrackedCount ());
+
+    assertTrue (aModule.untrack ("<msg1@as2>"));
+    assertFalse (aModule.untrack ("<msg1@as2>"));
+    assertEquals (1, aModule.getTrackedCount ());
+
+    // Nothing expired yet
+    aModule.checkTimeouts (System.currentTimeMillis ());
+    assertEquals (0, aModule.getExpiredCount ());
+
+    aModule.checkTimeouts (System.currentTimeMillis () + 10 * CGlobal.MILLISECONDS_PER_SECOND);
+    assertEquals (1, aModule.getExpiredCount ());
+    assertEquals ("<msg2@as2>", aModule.m_aTimedOut.get (0));
+    // The message itself is only kept for action "resend"
+    assertNull (aModule.m_aMessages.get (0));
+    assertEquals (0, aModule.getTrackedCount ());
+  }
+
+  @Test
+  public void testRuntimeExceptionDoesNotStopChecking () throws OpenAS2Exception
+  {
+    final MockModule aModule = _createModule (EAsyncMDNTimeoutAction.RESEND.getID ());
+    aModule.track (_createMessage ("<fail1@as2>"));
+    aModule.track (_createMessage ("<msg1@as2>"));
+    aModule.track (_createMessage ("<fail2@as2>"));
+
+    aModule.checkTimeouts (System.currentTimeMillis () + 10 * CGlobal.MILLISECONDS_PER_SECOND);
+    assertEquals (3, aModule.getExpiredCount ());
+    assertEquals (3, aModule.m_aTimedOut.size ());
+    assertTrue (aModule.m_aTimedOut.contains ("<msg1@as2>"));
+    assertEquals ("<msg1@as2>", aModule.m_aMessages.get (aModule.m_aTimedOut.indexOf ("<msg1@as2>")).getMessageID ());
+    assertEquals (0, aModule.getTrackedCount ());
+  }
+}
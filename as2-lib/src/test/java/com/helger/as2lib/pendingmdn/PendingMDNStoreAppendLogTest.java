@@ -0,0 +1,156 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.pendingmdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link PendingMDNStoreAppendLog}.
+ *
+ * @author Philip Helger
+ */
+public final class PendingMDNStoreAppendLogTest
+{
+  private File m_aFile;
+
+  @Before
+  public void createFile () throws IOException
+  {
+    m_aFile = File.createTempFile ("pendingmdn", ".log");
+    assertTrue (m_aFile.delete ());
+  }
+
+  @After
+  public void deleteFile ()
+  {
+    m_aFile.delete ();
+    new File (m_aFile.getParentFile (), m_aFile.getName () + PendingMDNStoreAppendLog.COMPACT_FILE_EXTENSION).delete ();
+  }
+
+  @Test
+  public void testStoreAndReopen () throws OpenAS2Exception
+  {
+    final PendingMDNStoreAppendLog aStore = new PendingMDNStoreAppendLog ();
+    aStore.open (m_aFile);
+    try
+    {
+      aStore.storePendingInfo ("<msg1@as2>", new PendingMDNInfo ("mic1, sha1", "pending/msg1"));
+      aStore.storePendingInfo ("<msg2@as2>", new PendingMDNInfo ("mic2, sha1", "pending/msg2"));
+      aStore.storePendingInfo ("<msg2@as2>", new PendingMDNInfo ("mic2b, sha1", "pending/msg2"));
+      assertTrue (aStore.removePendingInfo ("<msg1@as2>").isChanged ());
+      assertTrue (aStore.removePendingInfo ("<msg1@as2>").isUnchanged ());
+      assertEquals (1, aStore.getPendingInfoCount ());
+      assertEquals (4, aStore.getRecordCount ());
+    }
+    finally
+    {
+      aStore.close ();
+    }
+
+    // Replay the log
+    final PendingMDNStoreAppendLog aStore2 = new PendingMDNStoreAppendLog ();
+    aStore2.open (m_aFile);
+    try
+    {
+      assertNull (aStore2.getPendingInfo ("<msg1@as2>"));
+      assertEquals (new PendingMDNInfo ("mic2b, sha1", "pending/msg2"), aStore2.getPendingInfo ("<msg2@as2>"));
+      assertEquals (4, aStore2.getRecordCount ());
+
+      aStore2.compact ();
+      assertEquals (1, aStore2.getRecordCount ());
+      assertEquals (new PendingMDNInfo ("mic2b, sha1", "pending/msg2"), aStore2.getPendingInfo ("<msg2@as2>"));
+    }
+    finally
+    {
+      aStore2.close ();
+    }
+  }
+
+  @Test
+  public void testTruncatedTail () throws Exception
+  {
+    final PendingMDNStoreAppendLog aStore = new PendingMDNStoreAppendLog ();
+    aStore.open (m_aFile);
+    aStore.storePendingInfo ("<msg1@as2>", new PendingMDNInfo ("mic1, sha1", "pending/msg1"));
+    aStore.close ();
+    final long nValidLength = m_aFile.length ();
+
+    // Simulate a crash while writing the next record
+    final FileOutputStream aFOS = new FileOutputStream (m_aFile, true);
+    try
+    {
+      aFOS.write (new byte [] { 0, 0, 0, 42, 1, 2, 3 });
+    }
+    finally
+    {
+      StreamHelper.close (aFOS);
+    }
+
+    aStore.open (m_aFile);
+    try
+    {
+      assertEquals (nValidLength, m_aFile.length ());
+      assertEquals (new PendingMDNInfo ("mic1, sha1", "pending/msg1"), aStore.getPendingInfo ("<msg1@as2>"));
+
+      // Appending after recovery works
+      aStore.storePendingInfo ("<msg2@as2>", new PendingMDNInfo ("mic2, sha1", "pending/msg2"));
+    }
+    finally
+    {
+      aStore.close ();
+    }
+
+    aStore.open (m_aFile);
+    try
+    {
+      assertEquals (2, aStore.getPendingInfoCount ());
+    }
+    finally
+    {
+      aStore.close ();
+    }
+  }
+}
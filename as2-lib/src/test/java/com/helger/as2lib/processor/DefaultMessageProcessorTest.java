@@ -0,0 +1,201 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
+import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.state.EChange;
+
+/**
+ * Test class for class {@link DefaultMessageProcessor}.
+ *
+ * @author Philip Helger
+ */
+public final class DefaultMessageProcessorTest
+{
+  private static class MockModule extends AbstractProcessorModule
+  {
+    protected final String m_sAction;
+    private final List <String> m_aLog;
+
+    MockModule (@Nonnull final String sAction, @Nonnull final List <String> aLog)
+    {
+      m_sAction = sAction;
+      m_aLog = aLog;
+    }
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return sAction.equals (m_sAction);
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      m_aLog.add (getClass ().getSimpleName () + ":" + sAction);
+    }
+  }
+
+  private static class MockActionAwareModule extends MockModule implements IActionAwareProcessorModule
+  {
+    MockActionAwareModule (@Nonnull final String sAction, @Nonnull final List <String> aLog)
+    {
+      super (sAction, aLog);
+    }
+
+    @Nonnull
+    public Set <String> getAllHandledActions ()
+    {
+      return CollectionHelper.newSet (m_sAction);
+    }
+  }
+
+  private static final class MockOverridingModule extends MockActionAwareModule
+  {
+    MockOverridingModule (@Nonnull final String sAction, @Nonnull final List <String> aLog)
+    {
+      super (sAction, aLog);
+    }
+
+    @Override
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return super.canHandle (sAction, aMsg, aOptions) || sAction.equals ("custom");
+    }
+  }
+
+  @Test
+  public void testDispatchOrder () throws OpenAS2Exception
+  {
+    final List <String> aLog = new ArrayList <String> ();
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.addModule (new MockModule ("store", aLog));
+    aMP.addModule (new MockActionAwareModule ("send", aLog));
+    aMP.addModule (new MockActionAwareModule ("store", aLog));
+    aMP.addModule (new MockModule ("custom", aLog));
+    assertEquals (4, aMP.getModuleCount ());
+
+    // Action-aware and wildcard modules in registration order
+    aMP.handle ("store", new AS2Message (), null);
+    assertEquals (CollectionHelper.newList ("MockModule:store", "MockActionAwareModule:store"), aLog);
+
+    aLog.clear ();
+    aMP.handle ("send", new AS2Message (), null);
+    assertEquals (CollectionHelper.newList ("MockActionAwareModule:send"), aLog);
+
+    // Unknown actions are only passed to the wildcard modules
+    aLog.clear ();
+    aMP.handle ("custom", new AS2Message (), null);
+    assertEquals (CollectionHelper.newList ("MockModule:custom"), aLog);
+
+    try
+    {
+      aMP.handle ("unknown", new AS2Message (), null);
+      fail ();
+    }
+    catch (final NoModuleException ex)
+    {
+      assertEquals ("unknown", ex.getAction ());
+    }
+  }
+
+  @Test
+  public void testOverriddenCanHandle () throws OpenAS2Exception
+  {
+    final List <String> aLog = new ArrayList <String> ();
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.addModule (new MockActionAwareModule ("send", aLog));
+    aMP.addModule (new MockOverridingModule ("send", aLog));
+
+    // The declared actions are ignored for the overriding module
+    aMP.handle ("custom", new AS2Message (), null);
+    assertEquals (CollectionHelper.newList ("MockOverridingModule:custom"), aLog);
+
+    aLog.clear ();
+    aMP.handle ("send", new AS2Message (), null);
+    assertEquals (CollectionHelper.newList ("MockActionAwareModule:send", "MockOverridingModule:send"), aLog);
+  }
+
+  @Test
+  public void testRemoveModule () throws OpenAS2Exception
+  {
+    final List <String> aLog = new ArrayList <String> ();
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    final MockActionAwareModule aSend = new MockActionAwareModule ("send", aLog);
+    aMP.addModule (aSend);
+    assertSame (aSend, aMP.getModuleOfClass (MockActionAwareModule.class));
+    assertSame (aSend, aMP.getModuleOfClass (MockModule.class));
+
+    assertEquals (EChange.CHANGED, aMP.removeModule (aSend));
+    assertEquals (EChange.UNCHANGED, aMP.removeModule (aSend));
+    assertEquals (0, aMP.getModuleCount ());
+    // The class lookup cache must be cleared
+    assertNull (aMP.getModuleOfClass (MockActionAwareModule.class));
+    assertNull (aMP.getModuleOfClass (MockModule.class));
+
+    try
+    {
+      aMP.handle ("send", new AS2Message (), null);
+      fail ();
+    }
+    catch (final NoModuleException ex)
+    {
+      // expected
+    }
+    assertEquals (0, aLog.size ());
+  }
+}
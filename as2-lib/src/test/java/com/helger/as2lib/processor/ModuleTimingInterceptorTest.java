@@ -0,0 +1,133 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.commons.state.EChange;
+
+/**
+ * Test class for class {@link ModuleTimingInterceptor}.
+ *
+ * @author Philip Helger
+ */
+public final class ModuleTimingInterceptorTest
+{
+  private static final class MockModule extends AbstractProcessorModule
+  {
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return true;
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      if (sAction.equals ("fail"))
+        throw new OpenAS2Exception ("failed");
+      if (sAction.equals ("crash"))
+        throw new IllegalStateException ("crashed");
+    }
+  }
+
+  @Test
+  public void testModuleTiming () throws OpenAS2Exception
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aMP.addModule (new MockModule ());
+    final ModuleTimingInterceptor aInterceptor = new ModuleTimingInterceptor ();
+    aMP.addInterceptor (aInterceptor);
+    assertTrue (aMP.hasInterceptors ());
+
+    aMP.handle ("send", new AS2Message (), null);
+    aMP.handle ("send", new AS2Message (), null);
+    try
+    {
+      aMP.handle ("fail", new AS2Message (), null);
+    }
+    catch (final ProcessorException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aMP.handle ("crash", new AS2Message (), null);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    final ModuleTimingInterceptor.ModuleTiming aSend = aInterceptor.getModuleTiming ("MockModule", "send");
+    assertNotNull (aSend);
+    assertEquals (2, aSend.getHistogram ().getCount ());
+    assertEquals (0, aSend.getErrorCount ());
+    assertEquals (1, aInterceptor.getModuleTiming ("MockModule", "fail").getErrorCount ());
+    // Runtime exceptions are recorded as well
+    assertEquals (1, aInterceptor.getModuleTiming ("MockModule", "crash").getErrorCount ());
+    assertNull (aInterceptor.getModuleTiming ("MockModule", "store"));
+    assertEquals (Long.valueOf (2), aInterceptor.getModuleHandleCounts ().get ("MockModule/send"));
+    assertEquals (Long.valueOf (1), aInterceptor.getModuleErrorCounts ().get ("MockModule/fail"));
+
+    // Operations are not recorded by the interceptor
+    aMP.onOperationFinished (EProcessingOperation.SECURE, new AS2Message (), 1000);
+    assertEquals (3, aInterceptor.getAllModuleTimings ().size ());
+
+    aInterceptor.reset ();
+    assertEquals (0, aInterceptor.getAllModuleTimings ().size ());
+
+    // Not notified after removal
+    assertEquals (EChange.CHANGED, aMP.removeInterceptor (aInterceptor));
+    aMP.handle ("send", new AS2Message (), null);
+    assertEquals (0, aInterceptor.getAllModuleTimings ().size ());
+  }
+}
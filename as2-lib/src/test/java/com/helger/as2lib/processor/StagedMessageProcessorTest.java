@@ -0,0 +1,233 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.metrics.CAS2Metrics;
+import com.helger.as2lib.metrics.MetricsRegistry;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.session.AS2Session;
+
+/**
+ * Test class for class {@link StagedMessageProcessor}.
+ *
+ * @author Philip Helger
+ */
+public final class StagedMessageProcessorTest
+{
+  private static final class MockModule extends AbstractProcessorModule
+  {
+    private final CountDownLatch m_aBlock;
+    private final CountDownLatch m_aDone;
+    private volatile Thread m_aThread;
+
+    MockModule (@Nonnull final CountDownLatch aBlock, final int nExpected)
+    {
+      m_aBlock = aBlock;
+      m_aDone = new CountDownLatch (nExpected);
+    }
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return true;
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      m_aThread = Thread.currentThread ();
+      try
+      {
+        m_aBlock.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      m_aDone.countDown ();
+    }
+  }
+
+  @Test
+  public void testStagedAndSynchronous () throws Exception
+  {
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    final MockModule aModule = new MockModule (aBlock, 1);
+    final StagedMessageProcessor aMP = new StagedMessageProcessor ();
+    aMP.addModule (aModule);
+    final MessageProcessorStage aStage = aMP.addStage ("storemdn", 1, 10);
+    assertSame (aStage, aMP.getStage ("storemdn"));
+    assertNull (aMP.getStage ("send"));
+
+    // Returns although the module blocks
+    aMP.handle ("storemdn", new AS2Message (), null);
+    aBlock.countDown ();
+    assertTrue (aModule.m_aDone.await (10, TimeUnit.SECONDS));
+    assertNotSame (Thread.currentThread (), aModule.m_aThread);
+    assertEquals (1, aStage.getSubmittedCount ());
+
+    // Actions without a stage are handled synchronously
+    aMP.handle ("send", new AS2Message (), null);
+    assertSame (Thread.currentThread (), aModule.m_aThread);
+
+    aMP.stopActiveModules ();
+    assertTrue (aStage.isShutdown ());
+    assertEquals (1, aStage.getCompletedCount ());
+
+    // Stopped stages are handled synchronously
+    aMP.handle ("storemdn", new AS2Message (), null);
+    assertSame (Thread.currentThread (), aModule.m_aThread);
+
+    // Started again
+    aMP.startActiveModules ();
+    assertFalse (aStage.isShutdown ());
+    assertSame (aStage, aMP.getStage ("storemdn"));
+    aMP.handle ("storemdn", new AS2Message (), null);
+    final long nEnd = System.currentTimeMillis () + 10000;
+    while (aStage.getCompletedCount () < 3 && System.currentTimeMillis () < nEnd)
+      Thread.sleep (10);
+    assertNotSame (Thread.currentThread (), aModule.m_aThread);
+    assertEquals (3, aStage.getSubmittedCount ());
+    aMP.stopActiveModules ();
+  }
+
+  @Test
+  public void testGauges () throws Exception
+  {
+    final AS2Session aSession = new AS2Session ();
+    final StagedMessageProcessor aMP = new StagedMessageProcessor ();
+    aMP.addStage ("storemdn", 1, 10);
+    aMP.setAttribute (StagedMessageProcessor.ATTR_STAGES, "sendmdn:2:5");
+    aMP.initDynamicComponent (aSession, null);
+    aMP.addStage ("resend", 1, 10);
+    aMP.addModule (new MockModule (new CountDownLatch (0), 1));
+
+    aMP.handle ("storemdn", new AS2Message (), null);
+    final MessageProcessorStage aStage = aMP.getStage ("storemdn");
+    final long nEnd = System.currentTimeMillis () + 10000;
+    while (aStage.getCompletedCount () == 0 && System.currentTimeMillis () < nEnd)
+      Thread.sleep (10);
+
+    final MetricsRegistry aMetrics = aSession.getMetrics ();
+    assertEquals (1, aMetrics.getGaugeValue (CAS2Metrics.STAGE_PREFIX + "storemdn.submitted"));
+    assertEquals (1, aMetrics.getGaugeValue (CAS2Metrics.STAGE_PREFIX + "storemdn.completed"));
+    assertEquals (0, aMetrics.getGaugeValue (CAS2Metrics.STAGE_PREFIX + "storemdn.queue"));
+    assertEquals (0, aMetrics.getGaugeValue (CAS2Metrics.STAGE_PREFIX + "sendmdn.failed"));
+    assertTrue (aMetrics.getGauges ().containsKey (CAS2Metrics.STAGE_PREFIX + "resend.callerruns"));
+    aMP.stopActiveModules ();
+  }
+
+  @Test
+  public void testBackPressure () throws Exception
+  {
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    final MockModule aModule = new MockModule (aBlock, 3);
+    final StagedMessageProcessor aMP = new StagedMessageProcessor ();
+    aMP.addModule (aModule);
+    final MessageProcessorStage aStage = aMP.addStage ("storemdn", 1, 1);
+
+    // First one is handled by the stage thread, second one is queued
+    aMP.handle ("storemdn", new AS2Message (), null);
+    aMP.handle ("storemdn", new AS2Message (), null);
+    final long nEnd = System.currentTimeMillis () + 10000;
+    while (aStage.getActiveThreadCount () == 0 && System.currentTimeMillis () < nEnd)
+      Thread.sleep (10);
+    assertEquals (1, aStage.getQueueSize ());
+
+    // Queue is full - handled in the calling thread
+    final Thread aCaller = new Thread ("caller")
+    {
+      @Override
+      public void run ()
+      {
+        try
+        {
+          aMP.handle ("storemdn", new AS2Message (), null);
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          // ignore
+        }
+      }
+    };
+    aCaller.start ();
+    while (aStage.getCallerRunsCount () == 0 && System.currentTimeMillis () < nEnd)
+      Thread.sleep (10);
+    assertEquals (1, aStage.getCallerRunsCount ());
+    aBlock.countDown ();
+    aCaller.join ();
+    assertTrue (aModule.m_aDone.await (10, TimeUnit.SECONDS));
+    aMP.stopActiveModules ();
+    assertEquals (3, aStage.getCompletedCount ());
+  }
+
+  @Test
+  public void testDuplicateStage ()
+  {
+    final StagedMessageProcessor aMP = new StagedMessageProcessor ();
+    assertNotNull (aMP.addStage ("resend", 2, 10));
+    try
+    {
+      aMP.addStage ("resend", 1, 1);
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // expected
+    }
+    assertEquals (1, aMP.getAllStages ().size ());
+  }
+}
@@ -0,0 +1,332 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.resender.IProcessorResenderModule;
+import com.helger.as2lib.processor.resender.ImmediateResenderModule;
+import com.helger.as2lib.session.AS2Session;
+import com.helger.as2lib.util.CAS2Header;
+import com.helger.as2lib.util.http.EHttpStreamingMode;
+import com.helger.as2lib.util.http.IAS2HttpConnection;
+import com.helger.commons.charset.CCharset;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AbstractHttpSenderModule}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractHttpSenderModuleTest
+{
+  private static final String DEST_URL = "http://localhost/as2";
+  private static final String BODY = "AS2 message body";
+
+  private static final class MockSender extends AbstractHttpSenderModule
+  {
+    private final List <Integer> m_aRetries = new ArrayList <Integer> ();
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return sAction.equals (IProcessorSenderModule.DO_SEND);
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      final int nRetries = getRetryCount (aMsg.getPartnership (), aOptions);
+      m_aRetries.add (Integer.valueOf (nRetries));
+      if (checkCircuitBreaker (getCircuitBreaker (DEST_URL), IProcessorSenderModule.DO_SEND, aMsg, nRetries))
+        fail ("Circuit breaker should be open");
+    }
+  }
+
+  private static final class MockResender extends AbstractProcessorModule
+  {
+    private final List <String> m_aRetries = new ArrayList <String> ();
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return sAction.equals (IProcessorResenderModule.DO_RESEND);
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      m_aRetries.add ((String) aOptions.get (IProcessorResenderModule.OPTION_RETRIES));
+    }
+  }
+
+  private static final class MockConnection implements IAS2HttpConnection
+  {
+    private long m_nFixedLength = -1;
+    private int m_nChunkLength = -1;
+
+    public void setHttpHeader (@Nonnull final String sName, @Nonnull final String sValue)
+    {}
+
+    @Nonnull
+    public URL getURL ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    public void setFixedLengthStreamingMode (final long nContentLength)
+    {
+      m_nFixedLength = nContentLength;
+    }
+
+    public void setChunkedStreamingMode (final int nChunkLength)
+    {
+      m_nChunkLength = nChunkLength;
+    }
+
+    @Nonnull
+    public OutputStream getOutputStream ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    public int getResponseCode ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    public String getResponseMessage ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Nonnull
+    public Map <String, List <String>> getResponseHeaderFields ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Nonnull
+    public InputStream getInputStream ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    public void disconnect ()
+    {}
+  }
+
+  @Nonnull
+  private static MimeBodyPart _createKnownLengthPart (@Nullable final String sTransferEncoding) throws MessagingException
+  {
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    if (sTransferEncoding != null)
+      aHeaders.setHeader (CAS2Header.HEADER_CONTENT_TRANSFER_ENCODING, sTransferEncoding);
+    return new MimeBodyPart (aHeaders, BODY.getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+  }
+
+  @Nonnull
+  private static MimeBodyPart _createUnknownLengthPart () throws MessagingException
+  {
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setText (BODY, CCharset.CHARSET_ISO_8859_1);
+    return aPart;
+  }
+
+  @Nonnull
+  private static String _prepare (@Nonnull final MockConnection aConn,
+                                  @Nonnull final MimeBodyPart aPart,
+                                  @Nonnull final EHttpStreamingMode eMode) throws IOException, MessagingException
+  {
+    final InputStream aIS = AbstractHttpSenderModule.prepareStreamingBody (aConn, aPart, eMode);
+    return new String (StreamHelper.getAllBytes (aIS), CCharset.CHARSET_ISO_8859_1_OBJ);
+  }
+
+  @Test
+  public void testGetKnownContentLength () throws MessagingException
+  {
+    assertEquals (BODY.length (), AbstractHttpSenderModule.getKnownContentLength (_createKnownLengthPart (null)));
+    assertEquals (BODY.length (), AbstractHttpSenderModule.getKnownContentLength (_createKnownLengthPart ("binary")));
+    assertEquals (BODY.length (), AbstractHttpSenderModule.getKnownContentLength (_createKnownLengthPart ("7bit")));
+    // The raw size differs from the decoded size
+    assertEquals (-1, AbstractHttpSenderModule.getKnownContentLength (_createKnownLengthPart ("base64")));
+    // Content not yet serialized
+    assertEquals (-1, AbstractHttpSenderModule.getKnownContentLength (_createUnknownLengthPart ()));
+  }
+
+  @Test
+  public void testPrepareStreamingBodyAuto () throws IOException, MessagingException
+  {
+    MockConnection aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createKnownLengthPart ("binary"), EHttpStreamingMode.AUTO));
+    assertEquals (BODY.length (), aConn.m_nFixedLength);
+    assertEquals (-1, aConn.m_nChunkLength);
+
+    aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createUnknownLengthPart (), EHttpStreamingMode.AUTO));
+    assertEquals (-1, aConn.m_nFixedLength);
+    assertEquals (0, aConn.m_nChunkLength);
+  }
+
+  @Test
+  public void testPrepareStreamingBodyFixedLength () throws IOException, MessagingException
+  {
+    MockConnection aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createKnownLengthPart ("binary"), EHttpStreamingMode.FIXED_LENGTH));
+    assertEquals (BODY.length (), aConn.m_nFixedLength);
+    assertEquals (-1, aConn.m_nChunkLength);
+
+    // Serialized once to determine the length
+    aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createUnknownLengthPart (), EHttpStreamingMode.FIXED_LENGTH));
+    assertEquals (BODY.length (), aConn.m_nFixedLength);
+    assertEquals (-1, aConn.m_nChunkLength);
+  }
+
+  @Test
+  public void testPrepareStreamingBodyChunkedAndBuffered () throws IOException, MessagingException
+  {
+    MockConnection aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createKnownLengthPart ("binary"), EHttpStreamingMode.CHUNKED));
+    assertEquals (-1, aConn.m_nFixedLength);
+    assertEquals (0, aConn.m_nChunkLength);
+
+    aConn = new MockConnection ();
+    assertEquals (BODY, _prepare (aConn, _createKnownLengthPart ("binary"), EHttpStreamingMode.BUFFERED));
+    assertEquals (-1, aConn.m_nFixedLength);
+    assertEquals (-1, aConn.m_nChunkLength);
+  }
+
+  @Nonnull
+  private static MockSender _createOpenSender (@Nonnull final AS2Session aSession) throws OpenAS2Exception
+  {
+    final MockSender aSender = new MockSender ();
+    aSender.setAttribute (AbstractHttpSenderModule.ATTR_CIRCUIT_BREAKER_THRESHOLD, "1");
+    aSender.initDynamicComponent (aSession, null);
+
+    // Open the breaker
+    final HttpCircuitBreaker aCB = aSender.getCircuitBreaker (DEST_URL);
+    assertNotNull (aCB);
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    return aSender;
+  }
+
+  @Test
+  public void testShortCircuitKeepsRetries () throws OpenAS2Exception
+  {
+    final AS2Session aSession = new AS2Session ();
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aSession.setMessageProcessor (aMP);
+    final MockResender aResender = new MockResender ();
+    aMP.addModule (aResender);
+    final MockSender aSender = _createOpenSender (aSession);
+
+    final AS2Message aMsg = new AS2Message ();
+    aMsg.getPartnership ().setName ("p1");
+    assertFalse (aSender.checkCircuitBreaker (aSender.getCircuitBreaker (DEST_URL), IProcessorSenderModule.DO_SEND, aMsg, 3));
+
+    // The resender decrements by one, so the budget stays at 3
+    assertEquals ("4", aResender.m_aRetries.get (0));
+    assertEquals (ECircuitBreakerState.OPEN, aSender.getAllCircuitBreakerStatesByPartnership ().get ("p1"));
+
+    // Without retries the error is propagated
+    try
+    {
+      aSender.checkCircuitBreaker (aSender.getCircuitBreaker (DEST_URL), IProcessorSenderModule.DO_SEND, aMsg, 0);
+      fail ();
+    }
+    catch (final CircuitBreakerOpenException ex)
+    {
+      // expected
+    }
+    assertEquals (1, aResender.m_aRetries.size ());
+  }
+
+  @Test
+  public void testShortCircuitWithImmediateResender () throws OpenAS2Exception
+  {
+    final AS2Session aSession = new AS2Session ();
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    aSession.setMessageProcessor (aMP);
+    aMP.addModule (new ImmediateResenderModule ());
+    final MockSender aSender = _createOpenSender (aSession);
+    aMP.addModule (aSender);
+
+    final AS2Message aMsg = new AS2Message ();
+    aMsg.getPartnership ().setAttribute (IProcessorResenderModule.OPTION_RETRIES, "2");
+    try
+    {
+      aMP.handle (IProcessorSenderModule.DO_SEND, aMsg, null);
+      fail ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      // expected - retries exhausted
+    }
+    // Only the first short-circuit is free - synchronous resending uses up
+    // the retries so that it terminates
+    assertEquals (4, aSender.m_aRetries.size ());
+    assertEquals (Integer.valueOf (2), aSender.m_aRetries.get (1));
+    assertEquals (Integer.valueOf (0), aSender.m_aRetries.get (3));
+  }
+}
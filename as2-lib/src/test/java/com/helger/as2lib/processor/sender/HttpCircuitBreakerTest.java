@@ -0,0 +1,122 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.processor.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HttpCircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpCircuitBreakerTest
+{
+  @Test
+  public void testOpenAfterThreshold ()
+  {
+    final HttpCircuitBreaker aCB = new HttpCircuitBreaker ("http://localhost/as2", 2, 60000);
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+
+    // Short-circuited
+    assertFalse (aCB.tryAcquirePermission ());
+    assertFalse (aCB.tryAcquirePermission ());
+    assertEquals (2, aCB.getShortCircuitCount ());
+  }
+
+  @Test
+  public void testSuccessResetsFailures ()
+  {
+    final HttpCircuitBreaker aCB = new HttpCircuitBreaker ("http://localhost/as2", 2, 60000);
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    assertEquals (1, aCB.getConsecutiveFailures ());
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordSuccess ();
+    assertEquals (0, aCB.getConsecutiveFailures ());
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+  }
+
+  @Test
+  public void testHalfOpenSingleProbe ()
+  {
+    final HttpCircuitBreaker aCB = new HttpCircuitBreaker ("http://localhost/as2", 1, 0);
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+
+    // Open duration is 0 - exactly one probe may pass
+    assertTrue (aCB.tryAcquirePermission ());
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+    assertFalse (aCB.tryAcquirePermission ());
+
+    // Probe failed - open again
+    aCB.recordFailure ();
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+
+    // Next probe succeeds
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordSuccess ();
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+    assertTrue (aCB.tryAcquirePermission ());
+    assertTrue (aCB.tryAcquirePermission ());
+  }
+
+  @Test
+  public void testReleasePermission ()
+  {
+    final HttpCircuitBreaker aCB = new HttpCircuitBreaker ("http://localhost/as2", 1, 0);
+    assertTrue (aCB.tryAcquirePermission ());
+    aCB.recordFailure ();
+
+    assertTrue (aCB.tryAcquirePermission ());
+    assertFalse (aCB.tryAcquirePermission ());
+    // Probe was not executed
+    aCB.releasePermission ();
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+    assertTrue (aCB.tryAcquirePermission ());
+  }
+}
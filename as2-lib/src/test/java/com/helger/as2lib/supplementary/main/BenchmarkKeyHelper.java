@@ -0,0 +1,97 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import com.helger.commons.CGlobal;
+
+/**
+ * Creates a key pair with a currently valid self-signed certificate for the
+ * crypto benchmarks, as the certificates of the test resources are expired.
+ * The BouncyCastle provider must be registered.
+ *
+ * @author Philip Helger
+ */
+final class BenchmarkKeyHelper
+{
+  private final KeyPair m_aKeyPair;
+  private final X509Certificate m_aCert;
+
+  BenchmarkKeyHelper () throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    m_aKeyPair = aKPG.generateKeyPair ();
+
+    final X500Name aName = new X500Name ("CN=AS2 benchmark");
+    final long nNow = System.currentTimeMillis ();
+    final Date aNotBefore = new Date (nNow - CGlobal.MILLISECONDS_PER_HOUR);
+    final Date aNotAfter = new Date (nNow + 24 * CGlobal.MILLISECONDS_PER_HOUR);
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  aNotBefore,
+                                                                                  aNotAfter,
+                                                                                  aName,
+                                                                                  m_aKeyPair.getPublic ());
+    final ContentSigner aSigner = new JcaContentSignerBuilder ("SHA256withRSA").setProvider (BouncyCastleProvider.PROVIDER_NAME)
+                                                                               .build (m_aKeyPair.getPrivate ());
+    m_aCert = new JcaX509CertificateConverter ().setProvider (BouncyCastleProvider.PROVIDER_NAME)
+                                                .getCertificate (aBuilder.build (aSigner));
+  }
+
+  @Nonnull
+  KeyPair getKeyPair ()
+  {
+    return m_aKeyPair;
+  }
+
+  @Nonnull
+  X509Certificate getCertificate ()
+  {
+    return m_aCert;
+  }
+}
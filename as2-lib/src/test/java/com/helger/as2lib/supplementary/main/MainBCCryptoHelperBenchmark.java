@@ -0,0 +1,108 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.MimeBodyPart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.crypto.BCCryptoHelper;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.commons.mime.CMimeType;
+
+/**
+ * Compares the per message costs of {@link BCCryptoHelper} with and without
+ * cached crypto primitives. Small messages are used, because for them the
+ * setup costs dominate.
+ *
+ * @author Philip Helger
+ */
+public final class MainBCCryptoHelperBenchmark
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (MainBCCryptoHelperBenchmark.class);
+  private static final int WARMUP = 200;
+  private static final int RUNS = 2000;
+
+  private static long _run (@Nonnull final BCCryptoHelper aCryptoHelper,
+                            @Nonnull final MimeBodyPart aPart,
+                            @Nonnull final X509Certificate aCert,
+                            @Nonnull final PrivateKey aKey,
+                            final int nRuns) throws Exception
+  {
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < nRuns; ++i)
+    {
+      aCryptoHelper.calculateMIC (aPart, ECryptoAlgorithmSign.DIGEST_SHA_256, true);
+
+      // Signing and encryption happen when the part is written
+      final MimeBodyPart aSigned = aCryptoHelper.sign (aPart, aCert, aKey, ECryptoAlgorithmSign.DIGEST_SHA_256, false);
+      final MimeBodyPart aEncrypted = aCryptoHelper.encrypt (aSigned, aCert, ECryptoAlgorithmCrypt.CRYPT_3DES);
+      aEncrypted.writeTo (new NullOutputStream ());
+
+      aCryptoHelper.decrypt (aEncrypted, aCert, aKey, false);
+    }
+    return System.nanoTime () - nStart;
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final BCCryptoHelper aCryptoHelper = new BCCryptoHelper ();
+
+    // The certificates of the test resources are expired
+    final BenchmarkKeyHelper aKeyHelper = new BenchmarkKeyHelper ();
+    final X509Certificate aCert = aKeyHelper.getCertificate ();
+    final PrivateKey aKey = aKeyHelper.getKeyPair ().getPrivate ();
+
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setContent ("A small AS2 test message", CMimeType.TEXT_PLAIN.getAsString ());
+    aPart.setHeader ("Content-Type", CMimeType.TEXT_PLAIN.getAsString ());
+
+    for (final boolean bCache : new boolean [] { false, true })
+    {
+      aCryptoHelper.setCachePrimitives (bCache);
+      _run (aCryptoHelper, aPart, aCert, aKey, WARMUP);
+      final long nNanos = _run (aCryptoHelper, aPart, aCert, aKey, RUNS);
+      s_aLogger.info ((bCache ? "Cached" : "Uncached") +
+                      " primitives: " +
+                      (nNanos / RUNS / 1000) +
+                      " microseconds per message (MIC, sign, encrypt, decrypt)");
+    }
+  }
+}
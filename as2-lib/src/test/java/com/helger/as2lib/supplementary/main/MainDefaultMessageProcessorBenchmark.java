@@ -0,0 +1,172 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.supplementary.main;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.AS2Message;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.module.AbstractProcessorModule;
+import com.helger.as2lib.processor.module.IActionAwareProcessorModule;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.as2lib.processor.resender.ImmediateResenderModule;
+import com.helger.as2lib.processor.sender.IProcessorSenderModule;
+import com.helger.as2lib.processor.storage.AbstractStorageModule;
+import com.helger.as2lib.processor.storage.MDNFileModule;
+import com.helger.as2lib.processor.storage.MessageFileModule;
+import com.helger.commons.collection.CollectionHelper;
+
+/**
+ * Measures the dispatching overhead of {@link DefaultMessageProcessor} with a
+ * typical module configuration. The modules are registered once as they are
+ * and once wrapped so that they don't declare their actions, in which case all
+ * modules are asked for every action.
+ *
+ * @author Philip Helger
+ */
+public final class MainDefaultMessageProcessorBenchmark
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (MainDefaultMessageProcessorBenchmark.class);
+  private static final int WARMUP = 1000000;
+  private static final int RUNS = 5000000;
+
+  private static final class CountingSenderModule extends AbstractProcessorModule implements IActionAwareProcessorModule
+  {
+    private long m_nCount;
+
+    @Nonnull
+    public Set <String> getAllHandledActions ()
+    {
+      return CollectionHelper.newSet (IProcessorSenderModule.DO_SEND);
+    }
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return IProcessorSenderModule.DO_SEND.equals (sAction);
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions)
+    {
+      m_nCount++;
+    }
+  }
+
+  /**
+   * Hides the actions of the wrapped module.
+   */
+  private static final class WildcardModule extends AbstractProcessorModule
+  {
+    private final IProcessorModule m_aModule;
+
+    WildcardModule (@Nonnull final IProcessorModule aModule)
+    {
+      m_aModule = aModule;
+    }
+
+    public boolean canHandle (@Nonnull final String sAction,
+                              @Nonnull final IMessage aMsg,
+                              @Nullable final Map <String, Object> aOptions)
+    {
+      return m_aModule.canHandle (sAction, aMsg, aOptions);
+    }
+
+    public void handle (@Nonnull final String sAction,
+                        @Nonnull final IMessage aMsg,
+                        @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+    {
+      m_aModule.handle (sAction, aMsg, aOptions);
+    }
+  }
+
+  @Nonnull
+  private static DefaultMessageProcessor _createProcessor (final boolean bWrap)
+  {
+    final DefaultMessageProcessor aMP = new DefaultMessageProcessor ();
+    for (final String sProtocol : new String [] { "as2", "as2-archive" })
+    {
+      final AbstractStorageModule aMsgStore = new MessageFileModule ();
+      aMsgStore.setAttribute (AbstractStorageModule.ATTR_PROTOCOL, sProtocol);
+      final AbstractStorageModule aMDNStore = new MDNFileModule ();
+      aMDNStore.setAttribute (AbstractStorageModule.ATTR_PROTOCOL, sProtocol);
+      for (final IProcessorModule aModule : new IProcessorModule [] { aMsgStore, aMDNStore })
+        aMP.addModule (bWrap ? new WildcardModule (aModule) : aModule);
+    }
+    final IProcessorModule aResender = new ImmediateResenderModule ();
+    aMP.addModule (bWrap ? new WildcardModule (aResender) : aResender);
+    final IProcessorModule aSender = new CountingSenderModule ();
+    aMP.addModule (bWrap ? new WildcardModule (aSender) : aSender);
+    return aMP;
+  }
+
+  private static long _run (@Nonnull final DefaultMessageProcessor aMP,
+                            @Nonnull final IMessage aMsg,
+                            final int nRuns) throws OpenAS2Exception
+  {
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < nRuns; ++i)
+      aMP.handle (IProcessorSenderModule.DO_SEND, aMsg, null);
+    return System.nanoTime () - nStart;
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final IMessage aMsg = new AS2Message ();
+    for (final boolean bWrap : new boolean [] { true, false })
+    {
+      final DefaultMessageProcessor aMP = _createProcessor (bWrap);
+      _run (aMP, aMsg, WARMUP);
+      final long nNanos = _run (aMP, aMsg, RUNS);
+      s_aLogger.info ((bWrap ? "All modules asked" : "Action-indexed") +
+                      ": " +
+                      (nNanos / RUNS) +
+                      " ns per dispatch of '" +
+                      IProcessorSenderModule.DO_SEND +
+                      "' with " +
+                      aMP.getModuleCount () +
+                      " modules");
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HashedTimeoutWheel}.
+ *
+ * @author Philip Helger
+ */
+public final class HashedTimeoutWheelTest
+{
+  @Test
+  public void testExpire ()
+  {
+    final HashedTimeoutWheel <String> aWheel = new HashedTimeoutWheel <String> (100, 5, 0);
+    assertEquals (8, aWheel.getWheelSize ());
+
+    aWheel.put ("a", 250, "A");
+    aWheel.put ("b", 250, "B");
+    aWheel.put ("c", 1200, "C");
+    aWheel.put ("d", 400, null);
+    assertEquals (4, aWheel.size ());
+
+    // Never expire early
+    assertTrue (aWheel.expire (200).isEmpty ());
+
+    assertTrue (aWheel.remove ("b"));
+    assertFalse (aWheel.remove ("b"));
+
+    Map <String, String> aExpired = aWheel.expire (300);
+    assertEquals (1, aExpired.size ());
+    assertEquals ("A", aExpired.get ("a"));
+
+    // "c" shares the slot with "d" but needs another round
+    aExpired = aWheel.expire (1000);
+    assertEquals (1, aExpired.size ());
+    assertTrue (aExpired.containsKey ("d"));
+    assertTrue (aWheel.contains ("c"));
+
+    // Jump far ahead
+    aExpired = aWheel.expire (100000);
+    assertEquals ("C", aExpired.get ("c"));
+    assertEquals (0, aWheel.size ());
+  }
+
+  @Test
+  public void testReplaceAndPastDeadline ()
+  {
+    final HashedTimeoutWheel <String> aWheel = new HashedTimeoutWheel <String> (10, 16, 1000);
+    aWheel.put ("a", 1100, "A");
+    aWheel.put ("a", 2000, "A2");
+    assertEquals (1, aWheel.size ());
+    assertTrue (aWheel.expire (1500).isEmpty ());
+    assertEquals ("A2", aWheel.expire (2000).get ("a"));
+
+    // Deadline already passed - expires with the next tick
+    aWheel.put ("b", 0, "B");
+    assertTrue (aWheel.expire (2000).isEmpty ());
+    assertEquals ("B", aWheel.expire (2010).get ("b"));
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2lib.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import javax.annotation.Nonnull;
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.charset.CCharset;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link AS2HttpTransportHttpURLConnection}.
+ *
+ * @author Philip Helger
+ */
+@SuppressWarnings ("restriction")
+public final class AS2HttpTransportHttpURLConnectionTest
+{
+  private HttpServer m_aServer;
+
+  @Before
+  public void startServer () throws IOException
+  {
+    // In-process HTTP stub that echoes the request body and a request header
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.createContext ("/as2", new HttpHandler ()
+    {
+      public void handle (final HttpExchange aExchange) throws IOException
+      {
+        final NonBlockingByteArrayOutputStream aBody = new NonBlockingByteArrayOutputStream ();
+        StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aExchange.getRequestBody (), aBody);
+        aExchange.getResponseHeaders ().add ("X-Echo", aExchange.getRequestHeaders ().getFirst ("X-Test"));
+        _echoIfPresent (aExchange, "Content-Length");
+        _echoIfPresent (aExchange, "Transfer-Encoding");
+        aExchange.sendResponseHeaders (200, aBody.getSize ());
+        final OutputStream aOS = aExchange.getResponseBody ();
+        aBody.writeTo (aOS);
+        aOS.close ();
+      }
+    });
+    m_aServer.start ();
+  }
+
+  private static void _echoIfPresent (@Nonnull final HttpExchange aExchange, @Nonnull final String sHeaderName)
+  {
+    final String sValue = aExchange.getRequestHeaders ().getFirst (sHeaderName);
+    if (sValue != null)
+      aExchange.getResponseHeaders ().add ("X-Echo-" + sHeaderName, sValue);
+  }
+
+  @After
+  public void stopServer ()
+  {
+    m_aServer.stop (0);
+  }
+
+  @Nonnull
+  private IAS2HttpConnection _openConnection () throws IOException
+  {
+    final String sUrl = "http://localhost:" + m_aServer.getAddress ().getPort () + "/as2";
+    return new AS2HttpTransportHttpURLConnection ().openConnection (sUrl, "POST", null, 5000, 5000);
+  }
+
+  @Nonnull
+  private static String _readResponse (@Nonnull final IAS2HttpConnection aConn) throws IOException
+  {
+    final NonBlockingByteArrayOutputStream aResponse = new NonBlockingByteArrayOutputStream ();
+    StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aConn.getInputStream (), aResponse);
+    return aResponse.getAsString (CCharset.CHARSET_ISO_8859_1_OBJ);
+  }
+
+  @Test
+  public void testRoundTrip () throws IOException
+  {
+    final IAS2HttpConnection aConn = _openConnection ();
+    try
+    {
+      aConn.setHttpHeader ("X-Test", "multi\nline");
+      final OutputStream aOS = aConn.getOutputStream ();
+      aOS.write ("Hello AS2".getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+
+      assertEquals (200, aConn.getResponseCode ());
+      final InternetHeaders aHeaders = new InternetHeaders ();
+      HTTPHelper.copyHttpHeaders (aConn, aHeaders);
+      assertEquals ("multi line", aHeaders.getHeader ("X-Echo", null));
+
+      assertEquals ("Hello AS2", _readResponse (aConn));
+    }
+    finally
+    {
+      aConn.disconnect ();
+    }
+  }
+
+  @Test
+  public void testFixedLengthStreamingMode () throws IOException
+  {
+    final byte [] aPayload = "Fixed length".getBytes (CCharset.CHARSET_ISO_8859_1_OBJ);
+    final IAS2HttpConnection aConn = _openConnection ();
+    try
+    {
+      aConn.setFixedLengthStreamingMode (aPayload.length);
+      aConn.getOutputStream ().write (aPayload);
+
+      assertEquals (200, aConn.getResponseCode ());
+      final InternetHeaders aHeaders = new InternetHeaders ();
+      HTTPHelper.copyHttpHeaders (aConn, aHeaders);
+      assertEquals (Integer.toString (aPayload.length), aHeaders.getHeader ("X-Echo-Content-Length", null));
+      assertNull (aHeaders.getHeader ("X-Echo-Transfer-Encoding", null));
+      assertEquals ("Fixed length", _readResponse (aConn));
+    }
+    finally
+    {
+      aConn.disconnect ();
+    }
+  }
+
+  @Test
+  public void testChunkedStreamingMode () throws IOException
+  {
+    final IAS2HttpConnection aConn = _openConnection ();
+    try
+    {
+      aConn.setChunkedStreamingMode (4);
+      aConn.getOutputStream ().write ("Chunked body".getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+
+      assertEquals (200, aConn.getResponseCode ());
+      final InternetHeaders aHeaders = new InternetHeaders ();
+      HTTPHelper.copyHttpHeaders (aConn, aHeaders);
+      assertEquals ("chunked", aHeaders.getHeader ("X-Echo-Transfer-Encoding", null));
+      assertEquals ("Chunked body", _readResponse (aConn));
+    }
+    finally
+    {
+      aConn.disconnect ();
+    }
+  }
+}
@@ -0,0 +1,807 @@
+/**
+ * Copyright (C) 2015-2016 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.as2lib.partner.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.message.IMessageMDN;
+import com.helger.as2lib.params.MessageParameters;
+import com.helger.as2lib.partner.CPartnershipIDs;
+import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipNotFoundException;
+import com.helger.as2lib.util.IStringMap;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.charset.CCharset;
+import com.helger.commons.collection.lru.LRUMap;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * JDBC based implementation of {@link IPartnershipFactory}. The partnerships
+ * are stored in three tables (see {@link #SCHEMA_RESOURCE}): the partnerships
+ * with a version column, the sender and receiver IDs and the attributes.
+ * Lookups by name use the primary key and lookups by IDs use an index on the
+ * ID values.<br>
+ * The connections are taken from the provided {@link DataSource}, which should
+ * be a pooling data source. Lookups are cached in bounded LRU caches
+ * (including misses), so that usually no connection is needed per message. The
+ * caches are invalidated by all modifications through this factory, and if
+ * the count or the maximum version of the partnerships in the database
+ * changes. The latter is checked at most every
+ * {@link #setVersionCheckIntervalMS(long)} milliseconds, so that
+ * modifications by other applications are picked up, as long as they set the
+ * version of a modified partnership to a value greater than all existing
+ * versions.
+ *
+ * @author Philip Helger
+ * @since 2.2.6
+ */
+@ThreadSafe
+public class JDBCPartnershipFactory extends AbstractDynamicComponent implements IPartnershipFactory
+{
+  /** The class path resource containing the DDL of the required tables */
+  public static final String SCHEMA_RESOURCE = "sql/as2-partnerships.sql";
+  /** The default maximum number of cached lookups per cache */
+  public static final int DEFAULT_CACHE_SIZE = 1000;
+  /** The default interval in which the version is checked */
+  public static final long DEFAULT_VERSION_CHECK_INTERVAL_MS = 5000;
+
+  private static final String DIRECTION_SENDER = "S";
+  private static final String DIRECTION_RECEIVER = "R";
+
+  private static final String SQL_GET_VERSION = "SELECT COUNT(*), MAX(version) FROM as2_partnership";
+  private static final String SQL_EXISTS = "SELECT version FROM as2_partnership WHERE name=?";
+  private static final String SQL_GET_IDS = "SELECT direction, id_name, id_value FROM as2_partnership_id WHERE partnership=?";
+  private static final String SQL_GET_ATTRS = "SELECT attr_name, attr_value FROM as2_partnership_attr WHERE partnership=?";
+  private static final String SQL_FIND_BY_IDS = "SELECT s.partnership FROM as2_partnership_id s" +
+                                                " INNER JOIN as2_partnership_id r ON r.partnership=s.partnership" +
+                                                " WHERE s.direction='" +
+                                                DIRECTION_SENDER +
+                                                "' AND s.id_name=? AND s.id_value=?" +
+                                                " AND r.direction='" +
+                                                DIRECTION_RECEIVER +
+                                                "' AND r.id_name=? AND r.id_value=?" +
+                                                " ORDER BY s.partnership";
+  private static final String SQL_GET_ALL_NAMES = "SELECT name FROM as2_partnership ORDER BY name";
+  private static final String SQL_GET_ALL_IDS = "SELECT partnership, direction, id_name, id_value FROM as2_partnership_id";
+  private static final String SQL_GET_ALL_ATTRS = "SELECT partnership, attr_name, attr_value FROM as2_partnership_attr";
+  private static final String SQL_GET_NEXT_VERSION = "SELECT COALESCE(MAX(version), 0) + 1 FROM as2_partnership";
+  private static final String SQL_INSERT = "INSERT INTO as2_partnership (name, version) VALUES (?, ?)";
+  private static final String SQL_INSERT_ID = "INSERT INTO as2_partnership_id (partnership, direction, id_name, id_value) VALUES (?, ?, ?, ?)";
+  private static final String SQL_INSERT_ATTR = "INSERT INTO as2_partnership_attr (partnership, attr_name, attr_value) VALUES (?, ?, ?)";
+  private static final String SQL_DELETE_IDS = "DELETE FROM as2_partnership_id WHERE partnership=?";
+  private static final String SQL_DELETE_ATTRS = "DELETE FROM as2_partnership_attr WHERE partnership=?";
+  private static final String SQL_DELETE = "DELETE FROM as2_partnership WHERE name=?";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (JDBCPartnershipFactory.class);
+
+  /**
+   * A connection that is only retrieved from the data source when it is first
+   * needed, so that lookups answered from the cache need no connection.
+   */
+  private final class LazyConnection implements AutoCloseable
+  {
+    private Connection m_aConnection;
+
+    @Nonnull
+    public Connection get () throws SQLException
+    {
+      if (m_aConnection == null)
+        m_aConnection = m_aDataSource.getConnection ();
+      return m_aConnection;
+    }
+
+    public void close () throws SQLException
+    {
+      if (m_aConnection != null)
+        m_aConnection.close ();
+    }
+  }
+
+  private final DataSource m_aDataSource;
+
+  private final Object m_aCacheLock = new Object ();
+  // Partnership name to partnership - null values for unknown names
+  @GuardedBy ("m_aCacheLock")
+  private Map <String, Partnership> m_aByName;
+  // ID key to partnership name - null values for unknown IDs
+  @GuardedBy ("m_aCacheLock")
+  private Map <String, String> m_aNameByIDs;
+  // Incremented on every invalidation, so that concurrent loads don't store
+  // outdated values
+  @GuardedBy ("m_aCacheLock")
+  private long m_nGeneration;
+  private final AtomicLong m_aCacheHits = new AtomicLong ();
+  private final AtomicLong m_aCacheMisses = new AtomicLong ();
+
+  private final Object m_aVersionLock = new Object ();
+  private volatile long m_nVersionCheckIntervalMS = DEFAULT_VERSION_CHECK_INTERVAL_MS;
+  @GuardedBy ("m_aVersionLock")
+  private long m_nLastVersionCheck;
+  @GuardedBy ("m_aVersionLock")
+  private String m_sLastVersion;
+
+  /**
+   * Constructor
+   *
+   * @param aDataSource
+   *        The data source to retrieve the connections from. Should be a
+   *        pooling data source. May not be <code>null</code>.
+   */
+  public JDBCPartnershipFactory (@Nonnull final DataSource aDataSource)
+  {
+    m_aDataSource = ValueEnforcer.notNull (aDataSource, "DataSource");
+    setCacheSize (DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @return The data source used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final DataSource getDataSource ()
+  {
+    return m_aDataSource;
+  }
+
+  /**
+   * Create the required tables using the statements from
+   * {@link #SCHEMA_RESOURCE}.
+   *
+   * @throws OpenAS2Exception
+   *         If the tables could not be created, e.g. because they already
+   *         exist.
+   */
+  public void createTables () throws OpenAS2Exception
+  {
+    final String sSchema = StreamHelper.getAllBytesAsString (new ClassPathResource (SCHEMA_RESOURCE),
+                                                             CCharset.CHARSET_UTF_8_OBJ);
+    if (sSchema == null)
+      throw new OpenAS2Exception ("Failed to read " + SCHEMA_RESOURCE);
+
+    // Remove all comment lines
+    final StringBuilder aSB = new StringBuilder ();
+    for (final String sLine : StringHelper.getExploded ('\n', sSchema))
+      if (!sLine.trim ().startsWith ("--"))
+        aSB.append (sLine).append ('\n');
+
+    try (final Connection aConnection = m_aDataSource.getConnection ();
+         final Statement aStatement = aConnection.createStatement ())
+    {
+      for (final String sStatement : StringHelper.getExploded (';', aSB.toString ()))
+        if (StringHelper.hasText (sStatement))
+          aStatement.execute (sStatement.trim ());
+    }
+    catch (final SQLException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+
+  /**
+   * Replace the lookup caches. All cached lookups are discarded.
+   *
+   * @param nCacheSize
+   *        The maximum number of cached lookups per cache. Values &le; 0
+   *        disable caching.
+   */
+  public final void setCacheSize (final int nCacheSize)
+  {
+    synchronized (m_aCacheLock)
+    {
+      m_aByName = nCacheSize > 0 ? new LRUMap <String, Partnership> (nCacheSize) : null;
+      m_aNameByIDs = nCacheSize > 0 ? new LRUMap <String, String> (nCacheSize) : null;
+      m_nGeneration++;
+    }
+  }
+
+  /**
+   * @return The interval in milliseconds in which the partnership version in
+   *         the database is checked.
+   */
+  public final long getVersionCheckIntervalMS ()
+  {
+    return m_nVersionCheckIntervalMS;
+  }
+
+  /**
+   * @param nVersionCheckIntervalMS
+   *        The interval in milliseconds in which the partnership version in
+   *        the database is checked. Values &le; 0 check the version on every
+   *        lookup.
+   */
+  public final void setVersionCheckIntervalMS (final long nVersionCheckIntervalMS)
+  {
+    m_nVersionCheckIntervalMS = nVersionCheckIntervalMS;
+  }
+
+  /**
+   * Remove all cached lookups. Needs to be called only if the tables were
+   * modified without changing the version.
+   */
+  public void invalidateCache ()
+  {
+    synchronized (m_aCacheLock)
+    {
+      if (m_aByName != null)
+      {
+        m_aByName.clear ();
+        m_aNameByIDs.clear ();
+      }
+      m_nGeneration++;
+    }
+  }
+
+  /**
+   * @return The number of lookups that were answered from the cache.
+   */
+  @Nonnegative
+  public long getCacheHitCount ()
+  {
+    return m_aCacheHits.get ();
+  }
+
+  /**
+   * @return The number of lookups that required a database query.
+   */
+  @Nonnegative
+  public long getCacheMissCount ()
+  {
+    return m_aCacheMisses.get ();
+  }
+
+  private void _checkVersion (@Nonnull final LazyConnection aConnection) throws SQLException
+  {
+    final long nNow = System.currentTimeMillis ();
+    synchronized (m_aVersionLock)
+    {
+      if (m_sLastVersion != null && nNow - m_nLastVersionCheck < m_nVersionCheckIntervalMS)
+        return;
+      m_nLastVersionCheck = nNow;
+    }
+
+    String sVersion;
+    try (final Statement aStatement = aConnection.get ().createStatement ();
+         final ResultSet aRS = aStatement.executeQuery (SQL_GET_VERSION))
+    {
+      aRS.next ();
+      // Deleting changes the count, adding and modifying the maximum version
+      sVersion = aRS.getLong (1) + ":" + aRS.getLong (2);
+    }
+
+    synchronized (m_aVersionLock)
+    {
+      if (!sVersion.equals (m_sLastVersion))
+      {
+        if (m_sLastVersion != null && s_aLogger.isDebugEnabled ())
+          s_aLogger.debug ("Partnership version changed from " + m_sLastVersion + " to " + sVersion);
+        m_sLastVersion = sVersion;
+        invalidateCache ();
+      }
+    }
+  }
+
+  private void _forceVersionCheck ()
+  {
+    synchronized (m_aVersionLock)
+    {
+      m_nLastVersionCheck = 0;
+    }
+  }
+
+  @Nullable
+  private static Partnership _loadPartnership (@Nonnull final Connection aConnection,
+                                               @Nonnull final String sName) throws SQLException
+  {
+    try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_EXISTS))
+    {
+      aPS.setString (1, sName);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        if (!aRS.next ())
+          return null;
+      }
+    }
+
+    final Partnership ret = new Partnership (sName);
+    final Map <String, String> aSenderIDs = new HashMap <> ();
+    final Map <String, String> aReceiverIDs = new HashMap <> ();
+    try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_GET_IDS))
+    {
+      aPS.setString (1, sName);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        while (aRS.next ())
+          (DIRECTION_SENDER.equals (aRS.getString (1)) ? aSenderIDs : aReceiverIDs).put (aRS.getString (2),
+                                                                                        aRS.getString (3));
+      }
+    }
+    ret.addSenderIDs (aSenderIDs);
+    ret.addReceiverIDs (aReceiverIDs);
+
+    final Map <String, String> aAttrs = new HashMap <> ();
+    try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_GET_ATTRS))
+    {
+      aPS.setString (1, sName);
+      try (final ResultSet aRS = aPS.executeQuery ())
+      {
+        while (aRS.next ())
+          aAttrs.put (aRS.getString (1), aRS.getString (2));
+      }
+    }
+    ret.addAllAttributes (aAttrs);
+    return ret;
+  }
+
+  @Nullable
+  private Partnership _getPartnershipByName (@Nonnull final LazyConnection aConnection,
+                                             @Nonnull final String sName) throws SQLException
+  {
+    final long nGeneration;
+    synchronized (m_aCacheLock)
+    {
+      if (m_aByName != null && m_aByName.containsKey (sName))
+      {
+        m_aCacheHits.incrementAndGet ();
+        return m_aByName.get (sName);
+      }
+      nGeneration = m_nGeneration;
+    }
+
+    m_aCacheMisses.incrementAndGet ();
+    final Partnership ret = _loadPartnership (aConnection.get (), sName);
+    synchronized (m_aCacheLock)
+    {
+      if (m_aByName != null && nGeneration == m_nGeneration)
+        m_aByName.put (sName, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Get the ID to search the candidates by. The AS2 ID is preferred.
+   */
+  @Nullable
+  private static Map.Entry <String, String> _getSearchID (@Nonnull final IStringMap aIDs)
+  {
+    final String sAS2ID = aIDs.getAttributeAsString (CPartnershipIDs.PID_AS2);
+    if (sAS2ID != null)
+      return new AbstractMap.SimpleImmutableEntry <> (CPartnershipIDs.PID_AS2, sAS2ID);
+    for (final Map.Entry <String, String> aEntry : aIDs)
+      if (aEntry.getValue () != null)
+        return aEntry;
+    return null;
+  }
+
+  @Nonnull
+  private List <String> _findCandidateNames (@Nonnull final Connection aConnection,
+                                             @Nonnull final IStringMap aSenderIDs,
+                                             @Nonnull final IStringMap aReceiverIDs) throws SQLException
+  {
+    final List <String> ret = new ArrayList <> ();
+    final Map.Entry <String, String> aSenderID = _getSearchID (aSenderIDs);
+    final Map.Entry <String, String> aReceiverID = _getSearchID (aReceiverIDs);
+    if (aSenderID == null || aReceiverID == null)
+    {
+      // Only null values were searched - check all partnerships
+      try (final Statement aStatement = aConnection.createStatement ();
+           final ResultSet aRS = aStatement.executeQuery (SQL_GET_ALL_NAMES))
+      {
+        while (aRS.next ())
+          ret.add (aRS.getString (1));
+      }
+    }
+    else
+      try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_FIND_BY_IDS))
+      {
+        aPS.setString (1, aSenderID.getKey ());
+        aPS.setString (2, aSenderID.getValue ());
+        aPS.setString (3, aReceiverID.getKey ());
+        aPS.setString (4, aReceiverID.getValue ());
+        try (final ResultSet aRS = aPS.executeQuery ())
+        {
+          while (aRS.next ())
+            ret.add (aRS.getString (1));
+        }
+      }
+    return ret;
+  }
+
+  @Nullable
+  private Partnership _getPartnershipByIDs (@Nonnull final LazyConnection aConnection,
+                                            @Nonnull final Partnership aPartnership) throws SQLException
+  {
+    final IStringMap aSenderIDs = aPartnership.getAllSenderIDs ();
+    final IStringMap aReceiverIDs = aPartnership.getAllReceiverIDs ();
+    if (aSenderIDs.containsNoAttribute () || aReceiverIDs.containsNoAttribute ())
+      return null;
+
+    // Key independent of the order of the IDs
+    final String sKey = new TreeMap <> (aSenderIDs.getAllAttributes ()) +
+                        "|" +
+                        new TreeMap <> (aReceiverIDs.getAllAttributes ());
+    final long nGeneration;
+    synchronized (m_aCacheLock)
+    {
+      if (m_aNameByIDs != null && m_aNameByIDs.containsKey (sKey))
+      {
+        final String sName = m_aNameByIDs.get (sKey);
+        if (sName == null)
+        {
+          m_aCacheHits.incrementAndGet ();
+          return null;
+        }
+        if (m_aByName.containsKey (sName))
+        {
+          m_aCacheHits.incrementAndGet ();
+          return m_aByName.get (sName);
+        }
+      }
+      nGeneration = m_nGeneration;
+    }
+
+    m_aCacheMisses.incrementAndGet ();
+    Partnership ret = null;
+    for (final String sCandidateName : _findCandidateNames (aConnection.get (), aSenderIDs, aReceiverIDs))
+    {
+      final Partnership aCandidate = _getPartnershipByName (aConnection, sCandidateName);
+      if (aCandidate != null && aPartnership.matches (aCandidate))
+      {
+        // We take the first match
+        ret = aCandidate;
+        break;
+      }
+    }
+
+    synchronized (m_aCacheLock)
+    {
+      if (m_aNameByIDs != null && nGeneration == m_nGeneration)
+        m_aNameByIDs.put (sKey, ret == null ? null : ret.getName ());
+    }
+    return ret;
+  }
+
+  @Nonnull
+  public Partnership getPartnership (@Nonnull final Partnership aPartnership) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+
+    Partnership aRealPartnership = null;
+    try (final LazyConnection aConnection = new LazyConnection ())
+    {
+      _checkVersion (aConnection);
+      if (aPartnership.getName () != null)
+        aRealPartnership = _getPartnershipByName (aConnection, aPartnership.getName ());
+      if (aRealPartnership == null)
+      {
+        // Found no partnership by name
+        aRealPartnership = _getPartnershipByIDs (aConnection, aPartnership);
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+
+    if (aRealPartnership == null)
+      throw new PartnershipNotFoundException (aPartnership);
+    return aRealPartnership;
+  }
+
+  @Nullable
+  public Partnership getPartnershipByName (@Nullable final String sName)
+  {
+    if (sName == null)
+      return null;
+
+    try (final LazyConnection aConnection = new LazyConnection ())
+    {
+      _checkVersion (aConnection);
+      return _getPartnershipByName (aConnection, sName);
+    }
+    catch (final SQLException ex)
+    {
+      throw new IllegalStateException ("Failed to read partnership '" + sName + "'", ex);
+    }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllPartnershipNames ()
+  {
+    final Set <String> ret = new LinkedHashSet <> ();
+    try (final Connection aConnection = m_aDataSource.getConnection ();
+         final Statement aStatement = aConnection.createStatement ();
+         final ResultSet aRS = aStatement.executeQuery (SQL_GET_ALL_NAMES))
+    {
+      while (aRS.next ())
+        ret.add (aRS.getString (1));
+    }
+    catch (final SQLException ex)
+    {
+      throw new IllegalStateException ("Failed to read partnership names", ex);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <Partnership> getAllPartnerships ()
+  {
+    // Read all tables at once instead of 3 queries per partnership
+    final Map <String, Partnership> aMap = new LinkedHashMap <> ();
+    try (final Connection aConnection = m_aDataSource.getConnection ();
+         final Statement aStatement = aConnection.createStatement ())
+    {
+      try (final ResultSet aRS = aStatement.executeQuery (SQL_GET_ALL_NAMES))
+      {
+        while (aRS.next ())
+        {
+          final String sName = aRS.getString (1);
+          aMap.put (sName, new Partnership (sName));
+        }
+      }
+      try (final ResultSet aRS = aStatement.executeQuery (SQL_GET_ALL_IDS))
+      {
+        while (aRS.next ())
+        {
+          final Partnership aPartnership = aMap.get (aRS.getString (1));
+          if (aPartnership != null)
+            if (DIRECTION_SENDER.equals (aRS.getString (2)))
+              aPartnership.setSenderID (aRS.getString (3), aRS.getString (4));
+            else
+              aPartnership.setReceiverID (aRS.getString (3), aRS.getString (4));
+        }
+      }
+      try (final ResultSet aRS = aStatement.executeQuery (SQL_GET_ALL_ATTRS))
+      {
+        while (aRS.next ())
+        {
+          final Partnership aPartnership = aMap.get (aRS.getString (1));
+          if (aPartnership != null)
+            aPartnership.setAttribute (aRS.getString (2), aRS.getString (3));
+        }
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw new IllegalStateException ("Failed to read partnerships", ex);
+    }
+    return new ArrayList <> (aMap.values ());
+  }
+
+  private static void _insertIDs (@Nonnull final PreparedStatement aPS,
+                                  @Nonnull final String sName,
+                                  @Nonnull final String sDirection,
+                                  @Nonnull final IStringMap aIDs) throws SQLException
+  {
+    for (final Map.Entry <String, String> aEntry : aIDs)
+      if (aEntry.getValue () != null)
+      {
+        aPS.setString (1, sName);
+        aPS.setString (2, sDirection);
+        aPS.setString (3, aEntry.getKey ());
+        aPS.setString (4, aEntry.getValue ());
+        aPS.addBatch ();
+      }
+  }
+
+  @Nonnull
+  public EChange addPartnership (@Nonnull final Partnership aPartnership) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+    final String sName = aPartnership.getName ();
+
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      final boolean bOldAutoCommit = aConnection.getAutoCommit ();
+      aConnection.setAutoCommit (false);
+      try
+      {
+        if (_loadPartnership (aConnection, sName) != null)
+        {
+          aConnection.rollback ();
+          return EChange.UNCHANGED;
+        }
+
+        long nVersion;
+        try (final Statement aStatement = aConnection.createStatement ();
+             final ResultSet aRS = aStatement.executeQuery (SQL_GET_NEXT_VERSION))
+        {
+          aRS.next ();
+          nVersion = aRS.getLong (1);
+        }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_INSERT))
+        {
+          aPS.setString (1, sName);
+          aPS.setLong (2, nVersion);
+          aPS.executeUpdate ();
+        }
+        catch (final SQLException ex)
+        {
+          // Another connection may have added a partnership with the same name
+          // in the meantime
+          aConnection.rollback ();
+          if (_loadPartnership (aConnection, sName) != null)
+          {
+            aConnection.rollback ();
+            return EChange.UNCHANGED;
+          }
+          throw ex;
+        }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_INSERT_ID))
+        {
+          _insertIDs (aPS, sName, DIRECTION_SENDER, aPartnership.getAllSenderIDs ());
+          _insertIDs (aPS, sName, DIRECTION_RECEIVER, aPartnership.getAllReceiverIDs ());
+          aPS.executeBatch ();
+        }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_INSERT_ATTR))
+        {
+          for (final Map.Entry <String, String> aEntry : aPartnership.getAllAttributes ())
+          {
+            aPS.setString (1, sName);
+            aPS.setString (2, aEntry.getKey ());
+            aPS.setString (3, aEntry.getValue ());
+            aPS.addBatch ();
+          }
+          aPS.executeBatch ();
+        }
+        aConnection.commit ();
+      }
+      catch (final SQLException ex)
+      {
+        aConnection.rollback ();
+        throw ex;
+      }
+      finally
+      {
+        aConnection.setAutoCommit (bOldAutoCommit);
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      // Previous misses may now be hits
+      invalidateCache ();
+      _forceVersionCheck ();
+    }
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public EChange removePartnership (@Nonnull final Partnership aPartnership) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aPartnership, "Partnership");
+    final String sName = aPartnership.getName ();
+
+    int nDeleted;
+    try (final Connection aConnection = m_aDataSource.getConnection ())
+    {
+      final boolean bOldAutoCommit = aConnection.getAutoCommit ();
+      aConnection.setAutoCommit (false);
+      try
+      {
+        for (final String sSQL : new String [] { SQL_DELETE_IDS, SQL_DELETE_ATTRS })
+          try (final PreparedStatement aPS = aConnection.prepareStatement (sSQL))
+          {
+            aPS.setString (1, sName);
+            aPS.executeUpdate ();
+          }
+        try (final PreparedStatement aPS = aConnection.prepareStatement (SQL_DELETE))
+        {
+          aPS.setString (1, sName);
+          nDeleted = aPS.executeUpdate ();
+        }
+        aConnection.commit ();
+      }
+      catch (final SQLException ex)
+      {
+        aConnection.rollback ();
+        throw ex;
+      }
+      finally
+      {
+        aConnection.setAutoCommit (bOldAutoCommit);
+      }
+    }
+    catch (final SQLException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      invalidateCache ();
+      _forceVersionCheck ();
+    }
+    return EChange.valueOf (nDeleted > 0);
+  }
+
+  public void updatePartnership (@Nonnull final IMessage aMsg, final boolean bOverwrite) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aMsg, "Message");
+
+    // Fill in any available partnership information
+    final Partnership aPartnership = getPartnership (aMsg.getPartnership ());
+
+    if (s_aLogger.isDebugEnabled ())
+      s_aLogger.debug ("Updating partnership " + aPartnership);
+
+    // Update partnership data of message with the stored ones
+    aMsg.getPartnership ().copyFrom (aPartnership);
+
+    // Set attributes
+    if (bOverwrite)
+    {
+      final String sSubject = aPartnership.getSubject ();
+      if (sSubject != null)
+        aMsg.setSubject (new MessageParameters (aMsg).format (sSubject));
+    }
+  }
+
+  public void updatePartnership (@Nonnull final IMessageMDN aMdn, final boolean bOverwrite) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aMdn, "MessageMDN");
+
+    // Fill in any available partnership information
+    final Partnership aPartnership = getPartnership (aMdn.getPartnership ());
+    aMdn.getPartnership ().copyFrom (aPartnership);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("DataSource", m_aDataSource)
+                            .append ("VersionCheckIntervalMS", m_nVersionCheckIntervalMS)
+                            .toString ();
+  }
+}
@@ -0,0 +1,46 @@
+--
+-- Copyright (C) 2015-2016 Philip Helger (www.helger.com)
+-- philip[at]helger[dot]com
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--         http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- Schema for JDBCPartnershipFactory
+-- Every modification of a partnership must set its version to a value greater
+-- than all existing versions, so that cached lookups are invalidated.
+
+CREATE TABLE as2_partnership (
+  name VARCHAR(255) NOT NULL,
+  version BIGINT NOT NULL,
+  PRIMARY KEY (name)
+);
+
+-- The sender (direction 'S') and receiver (direction 'R') IDs
+CREATE TABLE as2_partnership_id (
+  partnership VARCHAR(255) NOT NULL,
+  direction CHAR(1) NOT NULL,
+  id_name VARCHAR(255) NOT NULL,
+  id_value VARCHAR(1024) NOT NULL,
+  PRIMARY KEY (partnership, direction, id_name),
+  FOREIGN KEY (partnership) REFERENCES as2_partnership (name) ON DELETE CASCADE
+);
+
+CREATE INDEX as2_partnership_id_value ON as2_partnership_id (direction, id_name, id_value);
+
+CREATE TABLE as2_partnership_attr (
+  partnership VARCHAR(255) NOT NULL,
+  attr_name VARCHAR(255) NOT NULL,
+  attr_value VARCHAR(4000),
+  PRIMARY KEY (partnership, attr_name),
+  FOREIGN KEY (partnership) REFERENCES as2_partnership (name) ON DELETE CASCADE
+);
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2015-2016 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.as2lib.partner.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.annotation.Nonnull;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipNotFoundException;
+import com.helger.commons.state.EChange;
+
+/**
+ * Test class for class {@link JDBCPartnershipFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class JDBCPartnershipFactoryTest
+{
+  private static int s_nDBIndex = 0;
+  private JdbcConnectionPool m_aPool;
+  private JDBCPartnershipFactory m_aPF;
+
+  @Nonnull
+  private static Partnership _create (final String sName)
+  {
+    final Partnership ret = new Partnership (sName);
+    ret.setSenderAS2ID (sName + "-sender");
+    ret.setSenderX509Alias (sName + "-sender-alias");
+    ret.setReceiverAS2ID (sName + "-receiver");
+    ret.setSubject ("Subject of " + sName);
+    return ret;
+  }
+
+  private void _execute (@Nonnull final String sSQL) throws SQLException
+  {
+    try (final Connection aConnection = m_aPool.getConnection ();
+         final Statement aStatement = aConnection.createStatement ())
+    {
+      aStatement.executeUpdate (sSQL);
+    }
+  }
+
+  @Before
+  public void setUp () throws OpenAS2Exception
+  {
+    m_aPool = JdbcConnectionPool.create ("jdbc:h2:mem:partnerships" +
+                                         (s_nDBIndex++) +
+                                         ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                                         "sa",
+                                         "");
+    m_aPF = new JDBCPartnershipFactory (m_aPool);
+    m_aPF.createTables ();
+  }
+
+  @After
+  public void tearDown () throws SQLException
+  {
+    _execute ("SHUTDOWN");
+    m_aPool.dispose ();
+  }
+
+  @Test
+  public void testAddAndGet () throws OpenAS2Exception
+  {
+    final Partnership aP1 = _create ("p1");
+    assertEquals (EChange.CHANGED, m_aPF.addPartnership (aP1));
+    assertEquals (EChange.UNCHANGED, m_aPF.addPartnership (aP1));
+    assertEquals (EChange.CHANGED, m_aPF.addPartnership (_create ("p2")));
+
+    final Partnership aRead = m_aPF.getPartnershipByName ("p1");
+    assertNotNull (aRead);
+    assertTrue (aRead.hasSameContent (aP1));
+    assertNull (m_aPF.getPartnershipByName ("p3"));
+
+    // Lookup by IDs
+    final Partnership aStub = new Partnership ("unknown");
+    aStub.setSenderAS2ID ("p2-sender");
+    aStub.setReceiverAS2ID ("p2-receiver");
+    assertEquals ("p2", m_aPF.getPartnership (aStub).getName ());
+
+    // Additional IDs must match as well
+    aStub.setSenderX509Alias ("other");
+    try
+    {
+      m_aPF.getPartnership (aStub);
+      fail ();
+    }
+    catch (final PartnershipNotFoundException ex)
+    {
+      // expected
+    }
+
+    assertEquals (2, m_aPF.getAllPartnershipNames ().size ());
+    assertEquals (2, m_aPF.getAllPartnerships ().size ());
+    assertTrue (m_aPF.getAllPartnerships ().get (0).hasSameContent (aP1));
+  }
+
+  @Test
+  public void testRemove () throws OpenAS2Exception
+  {
+    m_aPF.addPartnership (_create ("p1"));
+    assertNotNull (m_aPF.getPartnershipByName ("p1"));
+    assertEquals (EChange.CHANGED, m_aPF.removePartnership (_create ("p1")));
+    assertEquals (EChange.UNCHANGED, m_aPF.removePartnership (_create ("p1")));
+    assertNull (m_aPF.getPartnershipByName ("p1"));
+    assertEquals (0, m_aPF.getAllPartnerships ().size ());
+  }
+
+  @Test
+  public void testCache () throws OpenAS2Exception, SQLException
+  {
+    m_aPF.setVersionCheckIntervalMS (60 * 1000);
+    m_aPF.addPartnership (_create ("p1"));
+
+    final Partnership aStub = new Partnership ("unknown");
+    aStub.setSenderAS2ID ("p1-sender");
+    aStub.setReceiverAS2ID ("p1-receiver");
+    final Partnership aP1 = m_aPF.getPartnership (aStub);
+    final long nMisses = m_aPF.getCacheMissCount ();
+    assertSame (aP1, m_aPF.getPartnership (aStub));
+    assertSame (aP1, m_aPF.getPartnershipByName ("p1"));
+    assertEquals (nMisses, m_aPF.getCacheMissCount ());
+
+    // Misses are cached as well
+    assertNull (m_aPF.getPartnershipByName ("p2"));
+    _execute ("INSERT INTO as2_partnership (name, version) VALUES ('p2', 100)");
+    assertNull (m_aPF.getPartnershipByName ("p2"));
+
+    // Picked up on the next version check
+    m_aPF.setVersionCheckIntervalMS (0);
+    assertNotNull (m_aPF.getPartnershipByName ("p2"));
+
+    // A modification with a new version invalidates the cache
+    _execute ("UPDATE as2_partnership_attr SET attr_value='new subject' WHERE partnership='p1' AND attr_name='subject'");
+    _execute ("UPDATE as2_partnership SET version=101 WHERE name='p1'");
+    final Partnership aNewP1 = m_aPF.getPartnershipByName ("p1");
+    assertEquals ("new subject", aNewP1.getSubject ());
+
+    // Deleting is detected as well
+    _execute ("DELETE FROM as2_partnership WHERE name='p2'");
+    assertNull (m_aPF.getPartnershipByName ("p2"));
+  }
+
+  @Test
+  public void testCacheHitNeedsNoConnection () throws OpenAS2Exception, SQLException
+  {
+    m_aPF.setVersionCheckIntervalMS (60 * 1000);
+    m_aPF.addPartnership (_create ("p1"));
+
+    final Partnership aStub = new Partnership ("unknown");
+    aStub.setSenderAS2ID ("p1-sender");
+    aStub.setReceiverAS2ID ("p1-receiver");
+    final Partnership aP1 = m_aPF.getPartnership (aStub);
+    assertNull (m_aPF.getPartnershipByName ("p2"));
+
+    // Use the only connection of the pool
+    m_aPool.setMaxConnections (1);
+    m_aPool.setLoginTimeout (1);
+    try (final Connection aConnection = m_aPool.getConnection ())
+    {
+      assertSame (aP1, m_aPF.getPartnership (aStub));
+      assertSame (aP1, m_aPF.getPartnershipByName ("p1"));
+      assertNull (m_aPF.getPartnershipByName ("p2"));
+    }
+  }
+
+  @Test
+  public void testConcurrentAdd () throws Exception
+  {
+    // Add the same name in another transaction that is not yet committed
+    try (final Connection aConnection = m_aPool.getConnection ())
+    {
+      aConnection.setAutoCommit (false);
+      try (final Statement aStatement = aConnection.createStatement ())
+      {
+        aStatement.executeUpdate ("INSERT INTO as2_partnership (name, version) VALUES ('p1', 1)");
+      }
+
+      final Object [] aResult = new Object [1];
+      final Thread aThread = new Thread ( () -> {
+        try
+        {
+          aResult[0] = m_aPF.addPartnership (_create ("p1"));
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          aResult[0] = ex;
+        }
+      });
+      aThread.start ();
+      Thread.sleep (200);
+      aConnection.commit ();
+      aThread.join ();
+      assertEquals (EChange.UNCHANGED, aResult[0]);
+    }
+    assertNotNull (m_aPF.getPartnershipByName ("p1"));
+  }
+}
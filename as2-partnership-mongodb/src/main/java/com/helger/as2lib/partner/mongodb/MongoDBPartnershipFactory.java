@@ -22,8 +22,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 
 import com.helger.as2lib.AbstractDynamicComponent;
@@ -39,11 +42,22 @@ import com.helger.as2lib.util.IStringMap;
 import com.helger.commons.annotation.CodingStyleguideUnaware;
 import com.helger.commons.state.EChange;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.result.DeleteResult;
 
 /**
- * MongoDB based implementation of {@link IPartnershipFactory}
+ * MongoDB based implementation of {@link IPartnershipFactory}<br>
+ * Lookups by name and by sender/receiver IDs are cached in bounded LRU caches
+ * with a time to live (see {@link #setCache(int, long, TimeUnit)}). Misses are
+ * cached as well. The caches are invalidated by
+ * {@link #addPartnership(Partnership)} and
+ * {@link #removePartnership(Partnership)}; if the collection is modified
+ * elsewhere, {@link #invalidateCache()} must be called or the time to live
+ * must be short enough.
  *
  * @author jochenberger
  */
@@ -54,25 +68,88 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
   private static final String RECEIVER_IDS = "receiver-ids";
   private static final String SENDER_IDS = "sender-ids";
   private static final String ATTRIBUTES = "attributes";
+  // Only the fields needed to create a partnership
+  private static final Bson PROJECTION = Projections.fields (Projections.include (NAME_KEY,
+                                                                                 SENDER_IDS,
+                                                                                 RECEIVER_IDS,
+                                                                                 ATTRIBUTES),
+                                                             Projections.excludeId ());
+
+  /** The default maximum number of cached lookups per cache */
+  public static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+  /** The default time to live of cached lookups in seconds */
+  public static final long DEFAULT_CACHE_TTL_SECONDS = 60;
 
   private final MongoCollection <Document> partnerships;
   private final Logger logger;
+  private volatile PartnershipCache nameCache;
+  private volatile PartnershipCache idCache;
 
   public MongoDBPartnershipFactory (final MongoCollection <Document> partnerships, final Logger logger) {
     this.logger = logger;
     partnerships.createIndex (new Document (NAME_KEY, Integer.valueOf (1)), new IndexOptions ().unique (true));
+    // Used by the lookup by IDs in both directions
+    partnerships.createIndex (Indexes.ascending (SENDER_IDS + "." + CPartnershipIDs.PID_AS2,
+                                                 RECEIVER_IDS + "." + CPartnershipIDs.PID_AS2));
     this.partnerships = partnerships;
+    setCache (DEFAULT_CACHE_MAX_SIZE, DEFAULT_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Replace the lookup caches.
+   *
+   * @param maxSize
+   *        The maximum number of cached lookups per cache. Values &le; 0
+   *        disable caching.
+   * @param timeToLive
+   *        The time after which a cached lookup is repeated. Values &le; 0
+   *        disable caching.
+   * @param unit
+   *        The time unit of timeToLive. May not be <code>null</code>.
+   */
+  public final void setCache (final int maxSize, final long timeToLive, final TimeUnit unit) {
+    nameCache = new PartnershipCache (maxSize, timeToLive, unit);
+    idCache = new PartnershipCache (maxSize, timeToLive, unit);
+  }
+
+  /**
+   * Remove all cached lookups. Must be called if the underlying collection is
+   * modified without using this factory.
+   */
+  public void invalidateCache () {
+    nameCache.invalidate ();
+    idCache.invalidate ();
+  }
+
+  /**
+   * @return The number of lookups that were answered from the cache.
+   */
+  public long getCacheHitCount () {
+    return nameCache.getHitCount () + idCache.getHitCount ();
+  }
+
+  /**
+   * @return The number of lookups that required a database query.
+   */
+  public long getCacheMissCount () {
+    return nameCache.getMissCount () + idCache.getMissCount ();
   }
 
   @Override
   public EChange addPartnership (final Partnership aPartnership) throws OpenAS2Exception {
-    partnerships.insertOne (toDocument (aPartnership));
+    try {
+      partnerships.insertOne (toDocument (aPartnership));
+    } finally {
+      // Previous misses may now be hits
+      invalidateCache ();
+    }
     return EChange.CHANGED;
   }
 
   @Override
   public EChange removePartnership (final Partnership aPartnership) throws OpenAS2Exception {
     final DeleteResult result = partnerships.deleteOne (new Document (NAME_KEY, aPartnership.getName ()));
+    invalidateCache ();
     if (result.getDeletedCount () >= 1l) {
       return EChange.CHANGED;
     }
@@ -119,34 +196,65 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
   }
 
   private Partnership getPartnershipByID (final IStringMap allSenderIDs, final IStringMap allReceiverIDs) {
-    Document filter = new Document ();
-    for (final Entry <String, String> entry : allSenderIDs) {
-      filter.append (SENDER_IDS + "." + entry.getKey (), entry.getValue ());
+    // Key independent of the order of the IDs
+    final String key = new TreeMap <> (allSenderIDs.getAllAttributes ()) +
+                       "|" +
+                       new TreeMap <> (allReceiverIDs.getAllAttributes ());
+    return idCache.get (key, () -> queryPartnershipByID (allSenderIDs, allReceiverIDs));
+  }
+
+  private static Document toFilter (final String senderKey,
+                                     final IStringMap senderIDs,
+                                     final String receiverKey,
+                                     final IStringMap receiverIDs) {
+    final Document filter = new Document ();
+    for (final Entry <String, String> entry : senderIDs) {
+      filter.append (senderKey + "." + entry.getKey (), entry.getValue ());
     }
-    for (final Entry <String, String> entry : allReceiverIDs) {
-      filter.append (RECEIVER_IDS + "." + entry.getKey (), entry.getValue ());
+    for (final Entry <String, String> entry : receiverIDs) {
+      filter.append (receiverKey + "." + entry.getKey (), entry.getValue ());
     }
+    return filter;
+  }
 
-    Partnership result = partnerships.find (filter).map (MongoDBPartnershipFactory::toPartnership).first ();
-    if (result != null) {
-      return result;
+  private static boolean containsAll (final Object ids, final IStringMap expected) {
+    if (!(ids instanceof Document)) {
+      return expected.containsNoAttribute ();
+    }
+    final Document document = (Document) ids;
+    for (final Entry <String, String> entry : expected) {
+      final Object value = document.get (entry.getKey ());
+      if (value == null || !value.toString ().equals (entry.getValue ())) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    // try the other way around, maybe we're receiving a response
+  private Partnership queryPartnershipByID (final IStringMap allSenderIDs, final IStringMap allReceiverIDs) {
+    // One query for both directions - the inverse direction is used if we're
+    // receiving a response
     // TODO is this really a good idea?
-    filter = new Document ();
-    for (final Entry <String, String> entry : allSenderIDs) {
-      filter.append (RECEIVER_IDS + "." + entry.getKey (), entry.getValue ());
-    }
-    for (final Entry <String, String> entry : allReceiverIDs) {
-      filter.append (SENDER_IDS + "." + entry.getKey (), entry.getValue ());
+    final Bson filter = Filters.or (toFilter (SENDER_IDS, allSenderIDs, RECEIVER_IDS, allReceiverIDs),
+                                    toFilter (RECEIVER_IDS, allSenderIDs, SENDER_IDS, allReceiverIDs));
+    Document inverseDocument = null;
+    try (final MongoCursor <Document> cursor = partnerships.find (filter).projection (PROJECTION).iterator ()) {
+      while (cursor.hasNext ()) {
+        final Document document = cursor.next ();
+        if (containsAll (document.get (SENDER_IDS), allSenderIDs) &&
+            containsAll (document.get (RECEIVER_IDS), allReceiverIDs)) {
+          // The forward direction has precedence
+          return toPartnership (document);
+        }
+        if (inverseDocument == null) {
+          inverseDocument = document;
+        }
+      }
     }
 
-    final Partnership inverseResult = partnerships.find (filter)
-                                                  .map (MongoDBPartnershipFactory::toPartnership)
-                                                  .first ();
-    if (inverseResult != null) {
-      result = new Partnership (inverseResult.getName () + "-inverse");
+    if (inverseDocument != null) {
+      final Partnership inverseResult = toPartnership (inverseDocument);
+      final Partnership result = new Partnership (inverseResult.getName () + "-inverse");
       result.setReceiverX509Alias (inverseResult.getSenderX509Alias ());
       result.setReceiverAS2ID (inverseResult.getSenderAS2ID ());
       result.setSenderX509Alias (inverseResult.getReceiverX509Alias ());
@@ -155,12 +263,21 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
       return result;
     }
     return null;
-
   }
 
   @Override
   public Partnership getPartnershipByName (final String sName) {
-    return partnerships.find (new Document (NAME_KEY, sName)).map (MongoDBPartnershipFactory::toPartnership).first ();
+    if (sName == null) {
+      return queryPartnershipByName (sName);
+    }
+    return nameCache.get (sName, () -> queryPartnershipByName (sName));
+  }
+
+  private Partnership queryPartnershipByName (final String sName) {
+    return partnerships.find (new Document (NAME_KEY, sName))
+                       .projection (PROJECTION)
+                       .map (MongoDBPartnershipFactory::toPartnership)
+                       .first ();
   }
 
   @Override
@@ -170,7 +287,10 @@ public class MongoDBPartnershipFactory extends AbstractDynamicComponent implemen
 
   @Override
   public List <Partnership> getAllPartnerships () {
-    return partnerships.find ().map (MongoDBPartnershipFactory::toPartnership).into (new ArrayList <> ());
+    return partnerships.find ()
+                       .projection (PROJECTION)
+                       .map (MongoDBPartnershipFactory::toPartnership)
+                       .into (new ArrayList <> ());
   }
 
   private static Document toDocument (final IStringMap stringMap) {
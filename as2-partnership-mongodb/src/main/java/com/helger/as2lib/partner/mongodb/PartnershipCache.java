@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2015-2016 jochenberger & Philip Helger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.as2lib.partner.mongodb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.helger.as2lib.partner.Partnership;
+import com.helger.commons.annotation.CodingStyleguideUnaware;
+
+/**
+ * A bounded LRU cache with a time to live for partnership lookups. Misses are
+ * cached as well (as <code>null</code> values), so that unknown partners don't
+ * cause a database query per message.
+ *
+ * @author jochenberger
+ */
+@CodingStyleguideUnaware
+final class PartnershipCache {
+  private static final class CacheEntry {
+    private final Partnership partnership;
+    private final long expiresAt;
+
+    CacheEntry (final Partnership partnership, final long expiresAt) {
+      this.partnership = partnership;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final Map <String, CacheEntry> entries;
+  private final long timeToLiveNanos;
+  // Incremented on every invalidation, so that concurrent loads don't store
+  // outdated values
+  private long generation;
+  private final AtomicLong hits = new AtomicLong ();
+  private final AtomicLong misses = new AtomicLong ();
+
+  PartnershipCache (final int maxSize, final long timeToLive, final TimeUnit unit) {
+    this.entries = new LinkedHashMap <String, CacheEntry> (16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (final Map.Entry <String, CacheEntry> eldest) {
+        return size () > maxSize;
+      }
+    };
+    this.timeToLiveNanos = maxSize > 0 ? unit.toNanos (timeToLive) : 0;
+  }
+
+  /**
+   * Get the cached partnership for the passed key or load and cache it.
+   *
+   * @param key
+   *        The cache key. May not be <code>null</code>.
+   * @param loader
+   *        The loader to be invoked on a cache miss. May return
+   *        <code>null</code>.
+   * @return The partnership or <code>null</code> if the loader found none.
+   */
+  Partnership get (final String key, final Supplier <Partnership> loader) {
+    if (timeToLiveNanos <= 0) {
+      return loader.get ();
+    }
+
+    final long now = System.nanoTime ();
+    final long loadGeneration;
+    synchronized (entries) {
+      final CacheEntry entry = entries.get (key);
+      if (entry != null) {
+        if (entry.expiresAt - now > 0) {
+          hits.incrementAndGet ();
+          return entry.partnership;
+        }
+        entries.remove (key);
+      }
+      loadGeneration = generation;
+    }
+
+    // Load outside of the lock
+    misses.incrementAndGet ();
+    final Partnership partnership = loader.get ();
+    synchronized (entries) {
+      if (loadGeneration == generation) {
+        entries.put (key, new CacheEntry (partnership, now + timeToLiveNanos));
+      }
+    }
+    return partnership;
+  }
+
+  void invalidate () {
+    synchronized (entries) {
+      generation++;
+      entries.clear ();
+    }
+  }
+
+  int size () {
+    synchronized (entries) {
+      return entries.size ();
+    }
+  }
+
+  long getHitCount () {
+    return hits.get ();
+  }
+
+  long getMissCount () {
+    return misses.get ();
+  }
+}
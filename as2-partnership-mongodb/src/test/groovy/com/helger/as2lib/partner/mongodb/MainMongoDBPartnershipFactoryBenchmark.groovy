@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2015-2016 jochenberger & Philip Helger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.concurrent.TimeUnit
+
+import org.bson.Document
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import com.helger.as2lib.partner.Partnership
+import com.helger.as2lib.partner.mongodb.MongoDBPartnershipFactory
+import com.mongodb.MongoClient
+import com.mongodb.client.MongoCollection
+
+import de.flapdoodle.embed.mongo.MongodExecutable
+import de.flapdoodle.embed.mongo.MongodStarter
+import de.flapdoodle.embed.mongo.config.IMongodConfig
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder
+import de.flapdoodle.embed.mongo.config.Net
+import de.flapdoodle.embed.mongo.distribution.Version
+import de.flapdoodle.embed.process.runtime.Network
+
+/**
+ * Measures the lookup of partnerships by IDs (forward and inverse) with 10.000
+ * partnership documents on the embedded MongoDB, with and without the indexes
+ * created by {@link MongoDBPartnershipFactory}. Caching is disabled so that
+ * every lookup queries the database.
+ */
+class MainMongoDBPartnershipFactoryBenchmark {
+  static final Logger logger = LoggerFactory.getLogger(MainMongoDBPartnershipFactoryBenchmark)
+  static final int PARTNERSHIPS = 10000
+  static final int LOOKUPS = 2000
+
+  static Partnership query(String sender, String receiver){
+    new Partnership("unknown").with{
+      setSenderAS2ID(sender)
+      setReceiverAS2ID(receiver)
+      it
+    }
+  }
+
+  static long run(MongoDBPartnershipFactory factory, Random random){
+    final long start = System.nanoTime()
+    for (int i = 0; i < LOOKUPS; i++) {
+      final int n = random.nextInt(PARTNERSHIPS)
+      // Every second lookup in the inverse direction
+      if (i % 2 == 0) {
+        factory.getPartnership(query("sender" + n, "receiver" + n))
+      } else {
+        factory.getPartnership(query("receiver" + n, "sender" + n))
+      }
+    }
+    return System.nanoTime() - start
+  }
+
+  static void main(String[] args){
+    final int port = 12346
+    final IMongodConfig mongodConfig = new MongodConfigBuilder().version(Version.Main.PRODUCTION)
+                                                                 .net(new Net(port, Network.localhostIsIPv6()))
+                                                                 .build()
+    final MongodExecutable mongodExecutable = MongodStarter.getDefaultInstance().prepare(mongodConfig)
+    mongodExecutable.start()
+    final MongoClient mongo = new MongoClient("localhost", port)
+    try {
+      final MongoCollection<Document> collection = mongo.getDatabase("benchmark").getCollection("partnerships")
+      collection.drop()
+      final MongoDBPartnershipFactory factory = new MongoDBPartnershipFactory(collection, logger)
+      factory.setCache(0, 0, TimeUnit.SECONDS)
+      for (int i = 0; i < PARTNERSHIPS; i++) {
+        factory.addPartnership(new Partnership("partnership" + i).with{
+          setSenderAS2ID("sender" + i)
+          setReceiverAS2ID("receiver" + i)
+          setAttribute("subject", "Partnership " + i)
+          it
+        })
+      }
+
+      // Warm up
+      run(factory, new Random(1))
+      final long indexed = run(factory, new Random(2))
+      logger.info("With indexes: " + TimeUnit.NANOSECONDS.toMicros(indexed) / LOOKUPS + " us per lookup")
+
+      collection.dropIndexes()
+      run(factory, new Random(1))
+      final long unindexed = run(factory, new Random(2))
+      logger.info("Without indexes: " + TimeUnit.NANOSECONDS.toMicros(unindexed) / LOOKUPS + " us per lookup")
+    } finally {
+      mongo.close()
+      mongodExecutable.stop()
+    }
+  }
+}
@@ -22,6 +22,8 @@ import com.mongodb.MongoClient
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
+import java.util.concurrent.TimeUnit
+
 import de.flapdoodle.embed.mongo.MongodExecutable;
 import de.flapdoodle.embed.mongo.MongodStarter;
 import de.flapdoodle.embed.mongo.config.IMongodConfig;
@@ -67,6 +69,8 @@ class MongoDBPartnershipFactorySpec extends Specification {
   
   void setup(){
     database?.drop()
+    mongoDBPartnershipFactory.setCache(MongoDBPartnershipFactory.DEFAULT_CACHE_MAX_SIZE,
+      MongoDBPartnershipFactory.DEFAULT_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
   }
   
   def "add a Partnership"(){
@@ -83,4 +87,103 @@ class MongoDBPartnershipFactorySpec extends Specification {
     
   }
   
-}
\ No newline at end of file
+  def "lookups by name are cached"(){
+    given:
+    mongoDBPartnershipFactory.addPartnership(new Partnership("Cached partnership"))
+    when:
+    def first = mongoDBPartnershipFactory.getPartnershipByName("Cached partnership")
+    // Modify the collection behind the back of the factory
+    collection.deleteMany(new Document())
+    def second = mongoDBPartnershipFactory.getPartnershipByName("Cached partnership")
+    then:
+    first != null
+    second.is(first)
+    mongoDBPartnershipFactory.getCacheHitCount() == 1
+    when:
+    mongoDBPartnershipFactory.invalidateCache()
+    then:
+    mongoDBPartnershipFactory.getPartnershipByName("Cached partnership") == null
+  }
+
+  def "misses are cached until the partnership is added"(){
+    when:
+    def missing = mongoDBPartnershipFactory.getPartnershipByName("Late partnership")
+    collection.insertOne(new Document("name", "Late partnership").append("sender-ids", new Document())
+      .append("receiver-ids", new Document()))
+    then:
+    missing == null
+    mongoDBPartnershipFactory.getPartnershipByName("Late partnership") == null
+    when:
+    collection.deleteMany(new Document())
+    mongoDBPartnershipFactory.addPartnership(new Partnership("Late partnership"))
+    then:
+    mongoDBPartnershipFactory.getPartnershipByName("Late partnership") != null
+  }
+
+  def "lookups by IDs are cached"(){
+    given:
+    mongoDBPartnershipFactory.addPartnership(new Partnership("ID partnership").with{
+      setSenderAS2ID("sender")
+      setReceiverAS2ID("receiver")
+      it
+    })
+    Partnership query = new Partnership("unknown").with{
+      setSenderAS2ID("sender")
+      setReceiverAS2ID("receiver")
+      it
+    }
+    when:
+    def first = mongoDBPartnershipFactory.getPartnership(query)
+    collection.deleteMany(new Document())
+    def second = mongoDBPartnershipFactory.getPartnership(query)
+    then:
+    first.name == "ID partnership"
+    second.is(first)
+  }
+
+  def "cached lookups expire"(){
+    given:
+    mongoDBPartnershipFactory.setCache(10, 50, TimeUnit.MILLISECONDS)
+    mongoDBPartnershipFactory.addPartnership(new Partnership("Expiring partnership"))
+    when:
+    def first = mongoDBPartnershipFactory.getPartnershipByName("Expiring partnership")
+    collection.deleteMany(new Document())
+    Thread.sleep(100)
+    then:
+    first != null
+    mongoDBPartnershipFactory.getPartnershipByName("Expiring partnership") == null
+  }
+
+  def "lookup by IDs prefers the forward direction and falls back to the inverse one"(){
+    given:
+    mongoDBPartnershipFactory.setCache(0, 0, TimeUnit.SECONDS)
+    mongoDBPartnershipFactory.addPartnership(new Partnership("A to B").with{
+      setSenderAS2ID("A")
+      setReceiverAS2ID("B")
+      it
+    })
+    expect:
+    mongoDBPartnershipFactory.getPartnership(new Partnership("unknown").with{
+      setSenderAS2ID("A")
+      setReceiverAS2ID("B")
+      it
+    }).name == "A to B"
+    with(mongoDBPartnershipFactory.getPartnership(new Partnership("unknown").with{
+      setSenderAS2ID("B")
+      setReceiverAS2ID("A")
+      it
+    })){
+      name == "A to B-inverse"
+      senderAS2ID == "B"
+      receiverAS2ID == "A"
+    }
+  }
+
+  def "indexes are created"(){
+    when:
+    new MongoDBPartnershipFactory(collection, LoggerFactory.getLogger(MongoDBPartnershipFactory))
+    then:
+    collection.listIndexes().into([]).collect{ it.get("key").keySet() }
+      .contains(["sender-ids.as2_id", "receiver-ids.as2_id"] as Set)
+  }
+}
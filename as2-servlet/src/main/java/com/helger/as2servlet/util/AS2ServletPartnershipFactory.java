@@ -17,11 +17,14 @@
 package com.helger.as2servlet.util;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.partner.Partnership;
 import com.helger.as2lib.partner.xml.SelfFillingXMLPartnershipFactory;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.IStringMap;
 
 /**
  * A specialized {@link SelfFillingXMLPartnershipFactory} that automatically
@@ -31,6 +34,21 @@ import com.helger.as2lib.partner.xml.SelfFillingXMLPartnershipFactory;
  */
 public class AS2ServletPartnershipFactory extends SelfFillingXMLPartnershipFactory
 {
+  /** The number of backup files to keep, if not configured otherwise */
+  public static final int DEFAULT_MAX_BACKUPS = 10;
+
+  @Override
+  public void initDynamicComponent (@Nonnull final IAS2Session aSession,
+                                    @Nullable final IStringMap aParameters) throws OpenAS2Exception
+  {
+    super.initDynamicComponent (aSession, aParameters);
+
+    // Auto-added partnerships would otherwise create an unlimited number of
+    // backup files
+    if (!containsAttribute (ATTR_MAX_BACKUPS))
+      setAttribute (ATTR_MAX_BACKUPS, DEFAULT_MAX_BACKUPS);
+  }
+
   @Override
   protected void onBeforeAddPartnership (@Nonnull final Partnership aPartnership) throws OpenAS2Exception
   {
@@ -51,7 +69,8 @@ public class AS2ServletPartnershipFactory extends SelfFillingXMLPartnershipFacto
   @Override
   protected void markAsChanged () throws OpenAS2Exception
   {
-    // Store every time something changed
-    storePartnership ();
+    // Store every time something changed - delayed and coalesced in the
+    // background, so that no request waits for the file to be written
+    requestStorePartnership ();
   }
 }
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import com.helger.as2lib.cert.ICertificateFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.pendingmdn.IPendingMDNStore;
 import com.helger.as2lib.processor.IMessageProcessor;
 import com.helger.as2lib.processor.module.IProcessorModule;
 import com.helger.as2lib.session.AS2Session;
@@ -48,6 +49,7 @@ public final class AS2ServletSession extends AS2Session
   public static final String EL_CERTIFICATES = "certificates";
   public static final String EL_PROCESSOR = "processor";
   public static final String EL_PARTNERSHIPS = "partnerships";
+  public static final String EL_PENDING_MDN_STORE = "pendingmdnstore";
 
   private static final Logger s_aLogger = LoggerFactory.getLogger (AS2ServletSession.class);
 
@@ -100,6 +102,13 @@ public final class AS2ServletSession extends AS2Session
       _loadProcessorModule (aMsgProcessor, eModule);
   }
 
+  private void _loadPendingMDNStore (@Nonnull final IMicroElement eRootNode) throws OpenAS2Exception
+  {
+    s_aLogger.info ("Loading pending MDN store");
+    final IPendingMDNStore aStore = XMLHelper.createComponent (eRootNode, IPendingMDNStore.class, this, m_sBaseDirectory);
+    setPendingMDNStore (aStore);
+  }
+
   private void _load (@Nonnull @WillClose final InputStream aIS) throws OpenAS2Exception
   {
     final IMicroDocument aDoc = MicroReader.readMicroXML (aIS);
@@ -118,7 +127,10 @@ public final class AS2ServletSession extends AS2Session
           if (sNodeName.equals (EL_PARTNERSHIPS))
             _loadPartnershipFactory (eRootChild);
           else
-            throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
+            if (sNodeName.equals (EL_PENDING_MDN_STORE))
+              _loadPendingMDNStore (eRootChild);
+            else
+              throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
     }
   }
 }